@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Partial updates of stand alone account documents
+ * 
+ * @author randalkamradt
+ */
+public interface AccountBalances {
+
+    /**
+     *
+     * Set the balance of an account
+     * 
+     * @param accountId the account id
+     * @param ownerId the customer owning the account
+     * @param currAmount the new balance
+     * @return true if the account was found
+     */
+    Mono<Boolean> updateBalance(String accountId, String ownerId, BigDecimal currAmount);
+
+    /**
+     *
+     * Set the balance of an account, provided it hasn't changed since it 
+     * was read
+     * 
+     * @param accountId the account id
+     * @param ownerId the customer owning the account
+     * @param expected the balance the account must still have
+     * @param currAmount the new balance
+     * @return true if the account was found with the expected balance
+     */
+    Mono<Boolean> replaceBalance(String accountId, String ownerId, BigDecimal expected, BigDecimal currAmount);
+
+    /**
+     *
+     * Set the balances of several accounts in one bulk write, each provided
+     * it hasn't changed since it was read. Every balance set is marked with
+     * the write id, so the accounts left alone can be told apart
+     * 
+     * @param accounts the accounts, with their owner and new balance
+     * @param expected the balance each account must still have, by account id
+     * @param writeId an id unique to this write
+     * @return the ids of the accounts that were not updated
+     */
+    Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId);
+
+    /**
+     *
+     * Set the balances of several accounts in one bulk write, each provided
+     * it hasn't changed since it was read, and mark each with the 
+     * adjustment applied
+     * 
+     * @param accounts the accounts, with their owner, new balance and as
+     * their last adjustment the one applied
+     * @param expected the balance each account must still have, by account id
+     * @return the ids of the accounts that were not updated
+     */
+    Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected);
+
+    /**
+     *
+     * Set the balances of several accounts in one bulk write
+     * 
+     * @param accounts the accounts with their owner and new balance
+     * @return the number of accounts found
+     */
+    Mono<Integer> updateBalances(Collection<CustomerAccount> accounts);
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.WriteConcern;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AccountBalancesImpl implements AccountBalances {
+    private final ReactiveMongoTemplate template;
+    private final WriteConcern writeConcern;
+    
+    AccountBalancesImpl(final ReactiveMongoTemplate template,
+            final MongoRoutingProperties properties) {
+        this.template = template;
+        this.writeConcern = WriteConcern.valueOf(properties.getAccountWriteConcern());
+    }
+
+    @Override
+    public Mono<Boolean> updateBalance(String accountId, String ownerId, BigDecimal currAmount) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(accountId)
+                            .and("ownerId").is(ownerId)), 
+                        new Update().set("currAmount", currAmount), 
+                        CustomerAccount.class)
+                .map(r -> r.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Mono<Boolean> replaceBalance(String accountId, String ownerId, BigDecimal expected, BigDecimal currAmount) {
+        return new MongoBulkUpdates(template, CustomerAccount.class)
+                .updateOne(Query.query(Criteria.where("id").is(accountId)
+                            .and("ownerId").is(ownerId)), 
+                        storedBalance(expected),
+                        new Update().set("currAmount", currAmount))
+                .execute(writeConcern)
+                .map(n -> n > 0);
+    }
+
+    @Override
+    public Mono<Integer> updateBalances(Collection<CustomerAccount> accounts) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, CustomerAccount.class);
+        for(CustomerAccount account : accounts) {
+            updates.updateOne(Query.query(Criteria.where("id").is(account.getId())
+                            .and("ownerId").is(account.getOwnerId())), 
+                    new Update().set("currAmount", account.getCurrAmount()));
+        }
+        return updates.execute(writeConcern);
+    }
+    
+    @Override
+    public Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId) {
+        return replaceBalances(accounts, expected, "lastWrite", a -> writeId, CustomerAccount::getLastWrite);
+    }
+
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return replaceBalances(accounts, expected, "lastAdjustment", 
+                CustomerAccount::getLastAdjustment, CustomerAccount::getLastAdjustment);
+    }
+    
+    /*
+     * the bulk write only tells how many matched, so if not all did the 
+     * accounts are read back to find those carrying their mark, the rest 
+     * (changed or gone) were not updated
+     */
+    private Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected,
+            String mark, Function<CustomerAccount, String> value, Function<CustomerAccount, String> stored) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, CustomerAccount.class);
+        Map<String, String> marks = new HashMap<>();
+        for(CustomerAccount account : accounts) {
+            marks.put(account.getId(), value.apply(account));
+            updates.updateOne(Query.query(Criteria.where("id").is(account.getId())
+                            .and("ownerId").is(account.getOwnerId())), 
+                    storedBalance(expected.get(account.getId())),
+                    new Update().set("currAmount", account.getCurrAmount())
+                            .set(mark, value.apply(account)));
+        }
+        return updates.execute(writeConcern)
+                .flatMap(n -> {
+                    if(n == accounts.size()) {
+                        return Mono.just(Collections.<String>emptySet());
+                    }
+                    Query query = Query.query(Criteria.where("id").in(marks.keySet()));
+                    query.fields().include("id").include(mark);
+                    return template.find(query, CustomerAccount.class)
+                            .filter(a -> marks.get(a.getId()).equals(stored.apply(a)))
+                            .map(CustomerAccount::getId)
+                            .collect(Collectors.toSet())
+                            .map(written -> marks.keySet()
+                                    .stream()
+                                    .filter(id -> !written.contains(id))
+                                    .collect(Collectors.toSet()));
+                });
+    }
+    
+    /*
+     * balances are stored as decimals, but accounts whose balance hasn't been
+     * set since still hold it as a string, so either stored form of the 
+     * balance read matches. The mapper would turn the string into a decimal,
+     * which is why these criteria are not mapped
+     */
+    private static Document storedBalance(BigDecimal expected) {
+        return new Document("$or", List.of(new Document("currAmount", new Decimal128(expected)),
+                new Document("currAmount", expected.toString())));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Moves embedded accounts to the account collection while the application
+ * keeps serving, one batch of customers at a time. The id of the last 
+ * customer of each finished batch is saved, so a restarted migration 
+ * carries on where it left off. Once a pass finds nothing left to move the
+ * layout can be switched to separate
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "fintech.accounts.layout", havingValue = "migrating")
+public class AccountMigrationJob {
+    private static final String CHECKPOINT_COLLECTION = "migration";
+    private static final String CHECKPOINT_ID = "account-layout";
+    
+    private final UserReactiveRepository userRepository;
+    private final LayoutAccountStore accountStore;
+    private final ReactiveMongoTemplate template;
+    private final AccountLayoutProperties properties;
+    
+    AccountMigrationJob(final UserReactiveRepository userRepository,
+            final LayoutAccountStore accountStore,
+            final ReactiveMongoTemplate template,
+            final AccountLayoutProperties properties) {
+        this.userRepository = userRepository;
+        this.accountStore = accountStore;
+        this.template = template;
+        this.properties = properties;
+    }
+    
+    @Scheduled(fixedDelayString = "${fintech.accounts.migration-interval:PT1M}", initialDelayString = "${fintech.accounts.migration-interval:PT1M}")
+    public void migrate() {
+        Long moved = readCheckpoint()
+                .flatMap(this::migrateFrom)
+                .block();
+        log.info("moved {} accounts to the account collection", moved);
+    }
+    
+    /*
+     * batches until one comes back empty, then the checkpoint is cleared so
+     * the next pass picks up anything added behind it
+     */
+    private Mono<Long> migrateFrom(String afterId) {
+        return userRepository.findWithAccountsAfter(afterId.isEmpty() ? null : afterId, 
+                        properties.getMigrationBatchSize())
+                .collectList()
+                .flatMap(batch -> {
+                    if(batch.isEmpty()) {
+                        return writeCheckpoint("").thenReturn(0L);
+                    }
+                    String lastId = batch.get(batch.size() - 1).getId();
+                    return Flux.fromIterable(batch)
+                            .concatMap(c -> Flux.fromIterable(c.getAccounts())
+                                    .concatMap(a -> accountStore.moveAccount(c.getId(), a.getId())))
+                            .filter(b -> b)
+                            .count()
+                            .flatMap(n -> writeCheckpoint(lastId)
+                                    .then(migrateFrom(lastId))
+                                    .map(m -> n + m));
+                });
+    }
+    
+    private Mono<String> readCheckpoint() {
+        return template.findById(CHECKPOINT_ID, Document.class, CHECKPOINT_COLLECTION)
+                .map(d -> d.getString("lastId"))
+                .defaultIfEmpty("");
+    }
+    
+    private Mono<Void> writeCheckpoint(String lastId) {
+        return template.upsert(Query.query(Criteria.where("_id").is(CHECKPOINT_ID)), 
+                        new Update().set("lastId", lastId), 
+                        CHECKPOINT_COLLECTION)
+                .then();
+    }
+}
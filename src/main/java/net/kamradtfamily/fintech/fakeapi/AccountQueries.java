@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import reactor.core.publisher.Flux;
+
+/**
+ *
+ * Filtered, ordered pages of stand alone account documents
+ * 
+ * @author randalkamradt
+ */
+public interface AccountQueries {
+
+    /**
+     *
+     * A page of the accounts of a user, filtered, ordered and limited by 
+     * the database
+     * 
+     * @param ownerId the customer owning the accounts
+     * @param query the filters, order and start of the page
+     * @return the accounts of the page, in order
+     */
+    Flux<CustomerAccount> findPage(String ownerId, AccountQuery query);
+
+    /**
+     *
+     * The number and total balance of the accounts of a user per account 
+     * type, grouped by the database
+     * 
+     * @param ownerId the customer owning the accounts
+     * @return a total per type, empty if the user has no accounts
+     */
+    Flux<AccountTypeTotal> findTotalsByType(String ownerId);
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.bson.types.Decimal128;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+/**
+ *
+ * Pages are read from the (ownerId, _id), (ownerId, type, _id) and 
+ * (ownerId, currAmount, _id) indexes of CustomerAccount: by id with the 
+ * first, by id within a type with the second and by balance, filtered on
+ * a balance range, with the third. Other filters are applied to the 
+ * documents the index walk reaches, the walk stops when the page is full
+ * 
+ * @author randalkamradt
+ */
+public class AccountQueriesImpl implements AccountQueries {
+    private final ReactiveMongoTemplate template;
+    
+    AccountQueriesImpl(final ReactiveMongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Flux<CustomerAccount> findPage(String ownerId, AccountQuery query) {
+        return template.find(pageQuery(ownerId, query), CustomerAccount.class);
+    }
+
+    /*
+     * the balance bounds are passed as Decimal128: the mapper converts a
+     * single BigDecimal operand to the field's type, but not the operands
+     * of a range, which were then compared as strings
+     */
+    static Query pageQuery(String ownerId, AccountQuery query) {
+        Criteria criteria = Criteria.where("ownerId").is(ownerId);
+        if(query.getType() != null) {
+            criteria = criteria.and("type").is(query.getType());
+        }
+        if(query.getMinAmount() != null || query.getMaxAmount() != null) {
+            Criteria amount = criteria.and("currAmount");
+            if(query.getMinAmount() != null) {
+                amount = amount.gte(new Decimal128(query.getMinAmount()));
+            }
+            if(query.getMaxAmount() != null) {
+                amount = amount.lte(new Decimal128(query.getMaxAmount()));
+            }
+        }
+        Sort sort;
+        if(query.getOrder() == AccountQuery.Order.BALANCE) {
+            if(query.getAfterId() != null) {
+                Decimal128 afterAmount = new Decimal128(query.getAfterAmount());
+                criteria = criteria.orOperator(Criteria.where("currAmount").gt(afterAmount),
+                        Criteria.where("currAmount").is(afterAmount).and("id").gt(query.getAfterId()));
+            }
+            sort = Sort.by("currAmount", "id");
+        } else {
+            if(query.getAfterId() != null) {
+                criteria = criteria.and("id").gt(query.getAfterId());
+            }
+            sort = Sort.by("id");
+        }
+        return Query.query(criteria)
+                .with(sort)
+                .limit(query.getLimit());
+    }
+
+    /*
+     * the owner is found on the index and the balances, all decimals, are
+     * summed by the database
+     */
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String ownerId) {
+        return template.aggregate(Aggregation.newAggregation(
+                        Aggregation.match(Criteria.where("ownerId").is(ownerId)),
+                        Aggregation.group("type")
+                                .count().as("count")
+                                .sum("currAmount").as("total")),
+                template.getCollectionName(CustomerAccount.class), 
+                AccountTypeTotal.class);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import lombok.Builder;
+import lombok.Value;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+
+/**
+ *
+ * A page of the accounts of a user: the filters, the order and where the
+ * page starts. Pages are keyset paginated, a page starts after the last
+ * account of the page before it, so every page costs the same
+ * 
+ * @author randalkamradt
+ */
+@Value
+@Builder
+public class AccountQuery {
+    public enum Order {
+        /** by account id */
+        ID, 
+        /** by balance, then account id */
+        BALANCE
+    }
+    
+    /** only accounts of this type, any type if null */
+    String type;
+    /** the lowest balance, inclusive, none if null */
+    BigDecimal minAmount;
+    /** the highest balance, inclusive, none if null */
+    BigDecimal maxAmount;
+    @Builder.Default
+    Order order = Order.ID;
+    /** the last account of the page before, none for the first page */
+    String afterId;
+    /** the balance of the last account of the page before, by BALANCE only */
+    BigDecimal afterAmount;
+    /** the page size */
+    int limit;
+    
+    /**
+     *
+     * @return the order of the accounts in a page
+     */
+    public Comparator<CustomerAccount> comparator() {
+        Comparator<CustomerAccount> byId = Comparator.comparing(CustomerAccount::getId);
+        return order == Order.BALANCE 
+                ? Comparator.comparing(CustomerAccount::getCurrAmount).thenComparing(byId)
+                : byId;
+    }
+    
+    /**
+     *
+     * For stores that page in memory
+     * 
+     * @param account an account of the user
+     * @return true if the account passes the filters and comes after the
+     * last account of the page before
+     */
+    public boolean matches(CustomerAccount account) {
+        BigDecimal amount = account.getCurrAmount();
+        if((type != null && !type.equals(account.getType()))
+                || (minAmount != null && amount.compareTo(minAmount) < 0)
+                || (maxAmount != null && amount.compareTo(maxAmount) > 0)) {
+            return false;
+        }
+        if(afterId == null) {
+            return true;
+        }
+        if(order == Order.BALANCE) {
+            int compared = amount.compareTo(afterAmount);
+            return compared > 0 || (compared == 0 && account.getId().compareTo(afterId) > 0);
+        }
+        return account.getId().compareTo(afterId) > 0;
+    }
+}
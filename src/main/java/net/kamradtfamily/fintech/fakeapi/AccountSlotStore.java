@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Storage for the slots of sharded accounts. Every operation changes a
+ * single slot atomically
+ * 
+ * @author randalkamradt
+ */
+public interface AccountSlotStore {
+
+    /**
+     *
+     * Add an amount to a slot, creating the slot if needed
+     * 
+     * @param accountId the account
+     * @param slot the slot number
+     * @param amount the amount, not negative
+     * @return completes when added
+     */
+    Mono<Void> credit(String accountId, int slot, BigDecimal amount);
+
+    /**
+     *
+     * Take an amount from a slot if it holds enough
+     * 
+     * @param accountId the account
+     * @param slot the slot number
+     * @param amount the amount, not negative
+     * @return true if taken, false if the slot holds less (or doesn't exist)
+     */
+    Mono<Boolean> debit(String accountId, int slot, BigDecimal amount);
+
+    /**
+     *
+     * Empty a slot
+     * 
+     * @param accountId the account
+     * @param slot the slot number
+     * @return what the slot held, zero if it doesn't exist
+     */
+    Mono<BigDecimal> drain(String accountId, int slot);
+
+    /**
+     *
+     * All slots of an account
+     * 
+     * @param accountId the account
+     * @return the slots that exist, in no particular order
+     */
+    Flux<AccountSlot> findByAccount(String accountId);
+}
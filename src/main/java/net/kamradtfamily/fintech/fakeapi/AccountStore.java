@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ *
+ * Account storage, independent of whether accounts are embedded in
+ * their customer or stored on their own
+ * 
+ * @author randalkamradt
+ */
+public interface AccountStore {
+
+    /**
+     *
+     * Find an account owned by a user
+     * 
+     * @param userId the user
+     * @param accountId the account
+     * @return the account, or a UserNotFoundException or 
+     * AccountNotFoundException error
+     */
+    Mono<Account> findAccount(String userId, String accountId);
+
+    /**
+     *
+     * Add a new account to a user
+     * 
+     * @param userId the user
+     * @param account the account, with its id filled in
+     * @return the account, or a UserNotFoundException error
+     */
+    Mono<Account> addAccount(String userId, Account account);
+
+    /**
+     *
+     * Set the balance of an account
+     * 
+     * @param userId the user owning the account
+     * @param accountId the account
+     * @param currAmount the new balance
+     * @return completes when updated, or an AccountNotFoundException error
+     */
+    Mono<Void> updateBalance(String userId, String accountId, BigDecimal currAmount);
+
+    /**
+     *
+     * Set the balance of an account, provided it still has the balance it
+     * was read with
+     * 
+     * @param userId the user owning the account
+     * @param accountId the account
+     * @param expected the balance the account must still have
+     * @param currAmount the new balance
+     * @return true if updated, false if the balance has changed meanwhile,
+     * or an AccountNotFoundException error
+     */
+    Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount);
+
+    /**
+     *
+     * Add an amount, possibly negative, to the balance of an account. The
+     * default reads the account and replaces the balance read, reading
+     * again as long as another change got in between; stores that can 
+     * change it in one step should
+     * 
+     * @param userId the user owning the account
+     * @param accountId the account
+     * @param amount the amount to add
+     * @return the account after the change, or a 
+     * NegativeValueNotAllowedException error if the balance would go 
+     * negative
+     */
+    default Mono<Account> addToBalance(String userId, String accountId, BigDecimal amount) {
+        return Mono.defer(() -> findAccount(userId, accountId))
+                .flatMap(a -> {
+                    Account changed = credit(a, amount);
+                    if(changed.getCurrAmount().signum() < 0) {
+                        return Mono.error(NegativeValueNotAllowedException.TRANSFER_RESULT);
+                    }
+                    return replaceBalance(userId, accountId, a.getCurrAmount(), changed.getCurrAmount())
+                            .filter(b -> b)
+                            .thenReturn(changed);
+                })
+                .repeatWhenEmpty(repeats -> repeats);
+    }
+
+    /**
+     *
+     * Move an amount from one account to another. The default checks both
+     * accounts exist, then debits one and credits the other with 
+     * addToBalance, giving the debit back if the credit fails. Stores that
+     * can do it atomically should, a transfer to the same account changes
+     * nothing
+     * 
+     * @param fromUserId the user owning the from account
+     * @param fromAccountId the account to debit
+     * @param toUserId the user owning the to account
+     * @param toAccountId the account to credit
+     * @param amount the amount, not negative
+     * @return the from and to accounts after the transfer, or a 
+     * NegativeValueNotAllowedException error if the from account would go
+     * negative
+     */
+    default Mono<Tuple2<Account, Account>> transfer(String fromUserId, String fromAccountId,
+            String toUserId, String toAccountId, BigDecimal amount) {
+        return Mono.zip(findAccount(fromUserId, fromAccountId), 
+                        findAccount(toUserId, toAccountId))
+                .flatMap(t -> {
+                    Account from = debit(t.getT1(), amount);
+                    if(from.getCurrAmount().signum() < 0) {
+                        return Mono.error(NegativeValueNotAllowedException.TRANSFER_RESULT);
+                    }
+                    if(fromAccountId.equals(toAccountId)) {
+                        return Mono.just(Tuples.of(t.getT1(), t.getT2()));
+                    }
+                    return addToBalance(fromUserId, fromAccountId, amount.negate())
+                            .flatMap(debited -> addToBalance(toUserId, toAccountId, amount)
+                                    .onErrorResume(e -> addToBalance(fromUserId, fromAccountId, amount)
+                                            .then(Mono.error(e)))
+                                    .map(credited -> Tuples.of(debited, credited)));
+                });
+    }
+    
+    /**
+     *
+     * Find several accounts at once. The default looks them up one by one,
+     * stores that can read them in one go should
+     * 
+     * @param keys the accounts and the users expected to own them
+     * @return the accounts that exist and are owned by the expected user,
+     * in no particular order
+     */
+    default Flux<CustomerAccount> findAccounts(Collection<AccountKey> keys) {
+        return Flux.fromIterable(keys)
+                .concatMap(k -> findAccount(k.getOwnerId(), k.getAccountId())
+                        .map(a -> CustomerAccount.builder()
+                                .id(a.getId())
+                                .ownerId(k.getOwnerId())
+                                .currAmount(a.getCurrAmount())
+                                .type(a.getType())
+                                .build())
+                        .onErrorResume(AccountNotFoundException.class, e -> Mono.empty())
+                        .onErrorResume(UserNotFoundException.class, e -> Mono.empty()));
+    }
+
+    /**
+     *
+     * Set several balances at once. The default updates them one by one,
+     * stores that can write them in one go should
+     * 
+     * @param accounts the accounts, with their owner and new balance
+     * @return completes when updated, or an AccountNotFoundException error
+     */
+    default Mono<Void> updateBalances(Collection<CustomerAccount> accounts) {
+        return Flux.fromIterable(accounts)
+                .concatMap(a -> updateBalance(a.getOwnerId(), a.getId(), a.getCurrAmount()))
+                .then();
+    }
+    
+    /**
+     *
+     * Set several balances at once, each provided it still has the balance
+     * it was read with. The default replaces them one by one, stores that
+     * can write them in one go should
+     * 
+     * @param accounts the accounts, with their owner and new balance
+     * @param expected the balance each account was read with, by account id
+     * @return the ids of the accounts that had changed meanwhile and were 
+     * left as they are, or an AccountNotFoundException error
+     */
+    default Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return Flux.fromIterable(accounts)
+                .concatMap(a -> replaceBalance(a.getOwnerId(), a.getId(), expected.get(a.getId()), a.getCurrAmount())
+                        .filter(replaced -> !replaced)
+                        .map(stale -> a.getId()))
+                .collect(Collectors.toSet());
+    }
+    
+    /**
+     *
+     * Stream every account, as a cursor so that only what has been asked
+     * for is held in memory
+     * 
+     * @return all accounts with their owner, in no particular order
+     */
+    Flux<CustomerAccount> findAllAccounts();
+    
+    /**
+     *
+     * Find all accounts of several users
+     * 
+     * @param userIds the users
+     * @return their accounts with their owner, in no particular order
+     */
+    Flux<CustomerAccount> findAccountsOf(Collection<String> userIds);
+    
+    /**
+     *
+     * Find a page of the accounts of a user, filtered and ordered by the
+     * store
+     * 
+     * @param userId the user
+     * @param query the filters, order and start of the page
+     * @return the accounts of the page with their owner, in order, empty 
+     * if there is no such user
+     */
+    Flux<CustomerAccount> findPage(String userId, AccountQuery query);
+    
+    /**
+     *
+     * Find the number and total balance of the accounts of a user per
+     * account type, summed by the store
+     * 
+     * @param userId the user
+     * @return a total per type, in no particular order, empty if there is
+     * no such user or it has no accounts
+     */
+    Flux<AccountTypeTotal> findTotalsByType(String userId);
+    
+    /**
+     *
+     * @param account an account
+     * @param amount an amount
+     * @return a copy of the account with the amount subtracted
+     */
+    static Account debit(Account account, BigDecimal amount) {
+        return Account.builder()
+                .id(account.getId())
+                .currAmount(account.getCurrAmount().subtract(amount))
+                .type(account.getType())
+                .build();
+    }
+    
+    /**
+     *
+     * @param account an account
+     * @param amount an amount
+     * @return a copy of the account with the amount added
+     */
+    static Account credit(Account account, BigDecimal amount) {
+        return Account.builder()
+                .id(account.getId())
+                .currAmount(account.getCurrAmount().add(amount))
+                .type(account.getType())
+                .build();
+    }
+}
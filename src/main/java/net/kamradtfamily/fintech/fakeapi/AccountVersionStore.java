@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Storage for account versions
+ * 
+ * @author randalkamradt
+ */
+public interface AccountVersionStore {
+
+    /**
+     *
+     * Bump the version of an account, creating it if needed
+     * 
+     * @param accountId the account
+     * @param ownerId the user owning the account
+     * @return completes when bumped
+     */
+    Mono<Void> bump(String accountId, String ownerId);
+
+    /**
+     *
+     * Bump the versions of several accounts at once
+     * 
+     * @param accounts the accounts and their owners
+     * @return completes when bumped
+     */
+    Mono<Void> bumpAll(Collection<AccountKey> accounts);
+
+    /**
+     *
+     * @param accountId an account
+     * @return its version, empty if it has none yet
+     */
+    Mono<AccountVersion> find(String accountId);
+}
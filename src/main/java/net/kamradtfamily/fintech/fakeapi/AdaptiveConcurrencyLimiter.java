@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Gradient style concurrency limiter. The limit follows the ratio between
+ * the long term baseline latency and the latest observed latency, so it
+ * grows while latency stays flat and backs off as soon as requests start
+ * to queue. Traffic is split into lanes, read traffic may only use part
+ * of the limit so writes are still admitted when reads are being shed.
+ * 
+ * @author randalkamradt
+ */
+public class AdaptiveConcurrencyLimiter {
+    
+    public enum Lane {
+        WRITE,
+        READ
+    }
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger readInFlight = new AtomicInteger();
+    private final int minLimit;
+    private final int maxLimit;
+    private final double readShare;
+    private final double smoothing;
+    private final double tolerance;
+    private volatile double limit;
+    private double baselineRtt;
+    
+    public AdaptiveConcurrencyLimiter(final ConcurrencyLimitProperties properties) {
+        this.minLimit = properties.getMinLimit();
+        this.maxLimit = properties.getMaxLimit();
+        this.readShare = properties.getReadShare();
+        this.smoothing = properties.getSmoothing();
+        this.tolerance = properties.getTolerance();
+        this.limit = properties.getInitialLimit();
+    }
+
+    /**
+     *
+     * Try to admit a request into a lane. Never blocks, a request that
+     * is not admitted should be rejected immediately
+     * 
+     * @param lane the lane of the request
+     * @return true if the request was admitted and must later be released
+     */
+    public boolean tryAcquire(Lane lane) {
+        int current = (int)limit;
+        if(lane == Lane.READ) {
+            int readLimit = Math.max(1, (int)(current * readShare));
+            if(readInFlight.incrementAndGet() > readLimit) {
+                readInFlight.decrementAndGet();
+                return false;
+            }
+        }
+        if(inFlight.incrementAndGet() > current) {
+            inFlight.decrementAndGet();
+            if(lane == Lane.READ) {
+                readInFlight.decrementAndGet();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Release a previously admitted request
+     * 
+     * @param lane the lane the request was admitted to
+     * @param rttNanos the time the request took, or a negative value if the
+     * request did not complete normally and should not be sampled
+     */
+    public void release(Lane lane, long rttNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        if(lane == Lane.READ) {
+            readInFlight.decrementAndGet();
+        }
+        if(rttNanos > 0) {
+            update(rttNanos, wasInFlight);
+        }
+    }
+    
+    private synchronized void update(long rttNanos, int wasInFlight) {
+        if(baselineRtt == 0) {
+            baselineRtt = rttNanos;
+            return;
+        }
+        // the baseline moves slowly so a sustained change in latency is
+        // eventually accepted as the new normal
+        baselineRtt = baselineRtt * 0.99 + rttNanos * 0.01;
+        double current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineRtt / rttNanos));
+        double newLimit = current * gradient;
+        if(gradient == 1.0 && wasInFlight * 2 >= current) {
+            // only probe upwards when the current limit is actually in use
+            newLimit += Math.sqrt(current);
+        }
+        newLimit = current * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int)limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
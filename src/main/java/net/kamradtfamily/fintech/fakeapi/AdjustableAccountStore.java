@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * An account store that can mark each balance with the adjustment applied
+ * to it, as the balance adjustments need to resume a run that stopped
+ * 
+ * @author randalkamradt
+ */
+public interface AdjustableAccountStore extends AccountStore {
+
+    /**
+     *
+     * Set several balances at once, each provided it still has the balance
+     * it was read with, and mark each with the adjustment applied to it in
+     * the same write so a run that stopped can tell what it has applied
+     * 
+     * @param accounts the accounts, with their owner, new balance and as
+     * their last adjustment the one applied
+     * @param expected the balance each account was read with, by account id
+     * @return the ids of the accounts that had changed meanwhile and were 
+     * left as they are
+     */
+    Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected);
+}
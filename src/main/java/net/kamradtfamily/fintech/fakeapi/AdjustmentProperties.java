@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ *
+ * Settings for bulk balance adjustments like month end interest and fees
+ * 
+ * @author randalkamradt
+ */
+@Data
+@ConfigurationProperties(prefix = "fintech.adjustment")
+public class AdjustmentProperties {
+    /** when the adjustment job runs, for the month before, '-' for never */
+    private String cron = "-";
+    /** customers whose accounts are adjusted and checkpointed together */
+    private int batchSize = 500;
+    /** batches being written at once */
+    private int parallelism = 4;
+    /** the interest rate and fee per account type */
+    private Map<String, Rule> rules = new HashMap<>();
+    
+    @Data
+    public static class Rule {
+        /** interest credited per run, as a fraction of the balance */
+        private BigDecimal rate = BigDecimal.ZERO;
+        /** fee debited per run */
+        private BigDecimal fee = BigDecimal.ZERO;
+    }
+}
@@ -25,12 +25,16 @@ package net.kamradtfamily.fintech.fakeapi;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  *
  * @author randalkamradt
  */
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@EnableScheduling
 public class Application {
     public static void main(String [] args) {
         SpringApplication.run(Application.class, args);
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ *
+ * Settings for moving old transfer audits out of the hot collection
+ * 
+ * @author randalkamradt
+ */
+@Data
+@ConfigurationProperties(prefix = "fintech.archive")
+public class ArchiveProperties {
+    private boolean enabled = true;
+    /** audits older than this are archived */
+    private Duration horizon = Duration.ofDays(90);
+    private int batchSize = 1000;
+    /** where archived audits go, 'collection' for a mongo collection or 'segments' for segment files */
+    private String store = "collection";
+    /** directory for segment files when store is 'segments' */
+    private Path segmentDirectory = Paths.get("archive");
+    /** how many segments stay mapped when store is 'segments', the least recently read go first */
+    private int segmentCacheSize = 256;
+}
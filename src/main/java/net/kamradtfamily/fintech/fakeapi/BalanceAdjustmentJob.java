@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.service.BalanceAdjuster;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Adjusts all balances for the month before on the configured schedule.
+ * A run for a month that was interrupted resumes where it stopped, a run
+ * for a month that is done does nothing. Scheduling it with an account 
+ * store that can't mark adjusted balances (one that isn't an 
+ * AdjustableAccountStore, or the mongo store while migrating its layout)
+ * fails at startup
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class BalanceAdjustmentJob {
+    private final BalanceAdjuster adjuster;
+    
+    BalanceAdjustmentJob(final BalanceAdjuster adjuster,
+            final AccountStore accountStore,
+            final AccountLayoutProperties layoutProperties,
+            final AdjustmentProperties properties) {
+        boolean adjustable = accountStore instanceof AdjustableAccountStore
+                && !(accountStore instanceof LayoutAccountStore 
+                        && layoutProperties.getLayout() == AccountLayout.MIGRATING);
+        if(!"-".equals(properties.getCron()) && !adjustable) {
+            throw new IllegalStateException("fintech.adjustment.cron is set but the account store cannot mark adjusted balances");
+        }
+        this.adjuster = adjuster;
+    }
+    
+    @Scheduled(cron = "${fintech.adjustment.cron:-}")
+    public void adjust() {
+        String month = YearMonth.now(ZoneOffset.UTC).minusMonths(1).toString();
+        Long adjusted = adjuster.run(month)
+                .block();
+        log.info("adjusted {} account balances for {}", adjusted, month);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.service.BalanceReconciler;
+import net.kamradtfamily.fintech.fakeapi.service.ReconciliationReport;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Reconciles all account balances with their transfer audits on the 
+ * configured schedule, typically in a maintenance window
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class BalanceReconcileJob {
+    private final BalanceReconciler reconciler;
+    
+    BalanceReconcileJob(final BalanceReconciler reconciler) {
+        this.reconciler = reconciler;
+    }
+    
+    @Scheduled(cron = "${fintech.reconcile.cron:-}")
+    public void reconcile() {
+        ReconciliationReport report = reconciler.reconcile()
+                .block();
+        log.info("reconciled {} accounts in {}, {} mismatched, {} without an opening balance",
+                report.getChecked(), report.getElapsed(), report.getMismatched(), report.getUnverified());
+    }
+}
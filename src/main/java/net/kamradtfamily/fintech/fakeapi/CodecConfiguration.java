@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ *
+ * Registers the custom codecs ahead of the default ones, and sets up the
+ * binary Smile format for machine clients. Smile is selected with 
+ * 'application/x-jackson-smile' (or 'application/stream+x-jackson-smile' 
+ * for streamed transfer history) in the Content-Type and Accept headers
+ * 
+ * @author randalkamradt
+ */
+@Configuration
+public class CodecConfiguration implements WebFluxConfigurer {
+    // the codecs fall back to the json types when built with a mapper but
+    // no types
+    private static final MimeType[] SMILE_TYPES = {
+        new MimeType("application", "x-jackson-smile"),
+        new MimeType("application", "*+x-jackson-smile")
+    };
+    
+    private final ObjectMapper smileMapper;
+    
+    CodecConfiguration(final Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        SmileFactory smileFactory = new SmileFactory();
+        // account ids repeat throughout a transfer history, back references
+        // let them be written once per response
+        smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+        this.smileMapper = objectMapperBuilder.factory(smileFactory).build();
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().register(new PayloadJsonEncoder());
+        configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper, SMILE_TYPES));
+        configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, SMILE_TYPES));
+    }
+    
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.AdaptiveConcurrencyLimiter.Lane;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ *
+ * Admits requests to the fintech endpoints through the adaptive concurrency
+ * limiter. Writes (POST) go in the write lane, everything else in the read 
+ * lane. Requests over the limit are rejected with 503 before any work is
+ * done on them.
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class ConcurrencyLimitWebFilter implements WebFilter {
+    private final static String PATH_PREFIX = "/v1/fintech";
+    
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final boolean enabled;
+    
+    ConcurrencyLimitWebFilter(final ConcurrencyLimitProperties properties) {
+        this.limiter = new AdaptiveConcurrencyLimiter(properties);
+        this.enabled = properties.isEnabled();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if(!enabled || !exchange.getRequest().getPath().value().startsWith(PATH_PREFIX)) {
+            return chain.filter(exchange);
+        }
+        Lane lane = HttpMethod.POST.equals(exchange.getRequest().getMethod()) 
+                ? Lane.WRITE
+                : Lane.READ;
+        if(!limiter.tryAcquire(lane)) {
+            log.debug("rejecting {} request, limit {}", lane, limiter.getLimit());
+            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            return exchange.getResponse().setComplete();
+        }
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doFinally(s -> limiter.release(lane, 
+                        s == SignalType.ON_COMPLETE ? System.nanoTime() - start : -1));
+    }
+    
+    AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
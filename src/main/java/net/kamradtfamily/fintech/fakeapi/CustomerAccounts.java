@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Single account reads and writes on a customer, touching only the one 
+ * embedded account instead of the whole customer document
+ * 
+ * @author randalkamradt
+ */
+public interface CustomerAccounts {
+
+    /**
+     *
+     * A customer holding only the requested account
+     * 
+     * @param userId the customer id
+     * @param accountId the account id
+     * @return the customer, whose accounts are empty if it doesn't own the
+     * account, or empty if there is no such customer
+     */
+    Mono<Customer> findWithAccount(String userId, String accountId);
+
+    /**
+     *
+     * Set the balance of one account of a customer
+     * 
+     * @param userId the customer id
+     * @param accountId the account id
+     * @param currAmount the new balance
+     * @return true if the account was found
+     */
+    Mono<Boolean> updateBalance(String userId, String accountId, BigDecimal currAmount);
+
+    /**
+     *
+     * Set the balance of one account of a customer, provided it hasn't 
+     * changed since it was read
+     * 
+     * @param userId the customer id
+     * @param accountId the account id
+     * @param expected the balance the account must still have
+     * @param currAmount the new balance
+     * @return true if the account was found with the expected balance
+     */
+    Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount);
+
+    /**
+     *
+     * Set the balances of several accounts in one bulk write, each provided
+     * it hasn't changed since it was read. Every balance set is marked with
+     * the write id, so the accounts left alone can be told apart
+     * 
+     * @param accounts the accounts, with their owner and new balance
+     * @param expected the balance each account must still have, by account id
+     * @param writeId an id unique to this write
+     * @return the ids of the accounts that were not updated
+     */
+    Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId);
+
+    /**
+     *
+     * Set the balances of several accounts in one bulk write, each provided
+     * it hasn't changed since it was read, and mark each with the 
+     * adjustment applied
+     * 
+     * @param accounts the accounts, with their owner, new balance and as
+     * their last adjustment the one applied
+     * @param expected the balance each account must still have, by account id
+     * @return the ids of the accounts that were not updated
+     */
+    Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected);
+
+    /**
+     *
+     * Append an account to the embedded accounts of a customer
+     * 
+     * @param userId the customer id
+     * @param account the account
+     * @return true if the customer was found
+     */
+    Mono<Boolean> addAccount(String userId, Customer.Account account);
+
+    /**
+     *
+     * Remove one embedded account from a customer, provided its balance
+     * hasn't changed since it was read
+     * 
+     * @param userId the customer id
+     * @param accountId the account id
+     * @param currAmount the balance the account must still have
+     * @return true if the account was removed
+     */
+    Mono<Boolean> removeAccount(String userId, String accountId, BigDecimal currAmount);
+
+    /**
+     *
+     * Customers that still hold embedded accounts, in id order
+     * 
+     * @param afterId only customers with a greater id, or null to start at 
+     * the beginning
+     * @param limit the most customers to return
+     * @return the customers
+     */
+    Flux<Customer> findWithAccountsAfter(String afterId, int limit);
+    /**
+     *
+     * The ids of all customers, in id order, read from the id index alone
+     * 
+     * @param afterId only customers with a greater id, or null to start at 
+     * the beginning
+     * @param limit the most ids to return
+     * @return the customer ids
+     */
+    Flux<String> findIdsAfter(String afterId, int limit);
+
+    /**
+     *
+     * A page of the embedded accounts of a customer, filtered, ordered and
+     * limited by the database
+     * 
+     * @param userId the customer id
+     * @param query the filters, order and start of the page
+     * @return the accounts of the page, in order, with their owner
+     */
+    Flux<CustomerAccount> findPage(String userId, AccountQuery query);
+
+    /**
+     *
+     * The number and total balance of the embedded accounts of a customer
+     * per account type, grouped by the database
+     * 
+     * @param userId the customer id
+     * @return a total per type, empty if there is no such customer or it 
+     * has no accounts
+     */
+    Flux<AccountTypeTotal> findTotalsByType(String userId);
+
+    /**
+     *
+     * Set the balances of several embedded accounts in one bulk write
+     * 
+     * @param accounts the accounts with their owner and new balance
+     * @return the number of accounts found
+     */
+    Mono<Integer> updateBalances(Collection<CustomerAccount> accounts);
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.WriteConcern;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Uses an $elemMatch projection to read, and a positional update to write,
+ * a single embedded account, so the cost doesn't grow with the number of
+ * accounts a customer has. Pages of accounts by id are cut from the 
+ * customer by an aggregation, so only the page leaves the database, pages
+ * by balance are cut from the accounts of the customer here
+ * 
+ * @author randalkamradt
+ */
+public class CustomerAccountsImpl implements CustomerAccounts {
+    private final ReactiveMongoTemplate template;
+    private final WriteConcern writeConcern;
+    
+    CustomerAccountsImpl(final ReactiveMongoTemplate template,
+            final MongoRoutingProperties properties) {
+        this.template = template;
+        this.writeConcern = WriteConcern.valueOf(properties.getAccountWriteConcern());
+    }
+
+    @Override
+    public Mono<Customer> findWithAccount(String userId, String accountId) {
+        Query query = Query.query(Criteria.where("id").is(userId));
+        query.fields()
+                .include("id")
+                .elemMatch("accounts", Criteria.where("id").is(accountId));
+        return template.findOne(query, Customer.class);
+    }
+
+    @Override
+    public Mono<Boolean> updateBalance(String userId, String accountId, BigDecimal currAmount) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(userId)
+                            .and("accounts.id").is(accountId)), 
+                        new Update().set("accounts.$.currAmount", currAmount), 
+                        Customer.class)
+                .map(r -> r.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(userId)
+                            .and("accounts").elemMatch(Criteria.where("id").is(accountId)
+                                    .and("currAmount").is(expected))), 
+                        new Update().set("accounts.$.currAmount", currAmount), 
+                        Customer.class)
+                .map(r -> r.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Mono<Boolean> addAccount(String userId, Customer.Account account) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(userId)), 
+                        new Update().push("accounts", account), 
+                        Customer.class)
+                .map(r -> r.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Mono<Boolean> removeAccount(String userId, String accountId, BigDecimal currAmount) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(userId)
+                            .and("accounts").elemMatch(Criteria.where("id").is(accountId)
+                                    .and("currAmount").is(currAmount))), 
+                        new Update().pull("accounts", Query.query(Criteria.where("id").is(accountId))), 
+                        Customer.class)
+                .map(r -> r.getMatchedCount() > 0);
+    }
+
+    @Override
+    public Flux<Customer> findWithAccountsAfter(String afterId, int limit) {
+        Criteria criteria = Criteria.where("accounts.0").exists(true);
+        if(afterId != null) {
+            criteria = criteria.and("id").gt(afterId);
+        }
+        return template.find(Query.query(criteria)
+                        .with(Sort.by("id"))
+                        .limit(limit), 
+                Customer.class);
+    }
+
+    @Override
+    public Flux<String> findIdsAfter(String afterId, int limit) {
+        Query query = afterId == null 
+                ? new Query() 
+                : Query.query(Criteria.where("id").gt(afterId));
+        query.fields().include("id");
+        return template.find(query.with(Sort.by("id")).limit(limit), Customer.class)
+                .map(Customer::getId);
+    }
+
+    @Override
+    public Mono<Integer> updateBalances(Collection<CustomerAccount> accounts) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, Customer.class);
+        for(CustomerAccount account : accounts) {
+            updates.updateOne(Query.query(Criteria.where("id").is(account.getOwnerId())
+                            .and("accounts.id").is(account.getId())), 
+                    new Update().set("accounts.$.currAmount", account.getCurrAmount()));
+        }
+        return updates.execute(writeConcern);
+    }
+
+    @Override
+    public Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId) {
+        return replaceBalances(accounts, expected, "lastWrite", a -> writeId, Customer.Account::getLastWrite);
+    }
+
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return replaceBalances(accounts, expected, "lastAdjustment", 
+                CustomerAccount::getLastAdjustment, Customer.Account::getLastAdjustment);
+    }
+
+    /*
+     * the bulk write only tells how many matched, so if not all did the 
+     * accounts are read back to find those carrying their mark, the rest 
+     * (changed or gone) were not updated
+     */
+    private Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected,
+            String mark, Function<CustomerAccount, String> value, Function<Customer.Account, String> stored) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, Customer.class);
+        Map<String, String> marks = new HashMap<>();
+        for(CustomerAccount account : accounts) {
+            marks.put(account.getId(), value.apply(account));
+            updates.updateOne(Query.query(Criteria.where("id").is(account.getOwnerId())
+                            .and("accounts").elemMatch(Criteria.where("id").is(account.getId())
+                                    .and("currAmount").is(expected.get(account.getId())))), 
+                    new Update().set("accounts.$.currAmount", account.getCurrAmount())
+                            .set("accounts.$." + mark, value.apply(account)));
+        }
+        return updates.execute(writeConcern)
+                .flatMap(n -> n == accounts.size()
+                        ? Mono.just(Collections.<String>emptySet())
+                        : template.find(Query.query(Criteria.where("id").in(accounts.stream()
+                                        .map(CustomerAccount::getOwnerId)
+                                        .collect(Collectors.toSet()))), 
+                                    Customer.class)
+                            .flatMapIterable(Customer::getAccounts)
+                            .filter(a -> marks.containsKey(a.getId()) && marks.get(a.getId()).equals(stored.apply(a)))
+                            .map(Customer.Account::getId)
+                            .collect(Collectors.toSet())
+                            .map(written -> marks.keySet()
+                                    .stream()
+                                    .filter(id -> !written.contains(id))
+                                    .collect(Collectors.toSet())));
+    }
+
+    /*
+     * embedded balances are stored as strings, which the database can't
+     * compare or sort as numbers, so the balance filters and the order by 
+     * balance are applied here to the accounts of the type: every one of 
+     * them is read for each such page, not only the page. The accounts 
+     * all come from the one customer document, so they are bounded by it
+     */
+    @Override
+    public Flux<CustomerAccount> findPage(String userId, AccountQuery query) {
+        return page(template.aggregate(pageAggregation(userId, query), 
+                        template.getCollectionName(Customer.class), 
+                        Customer.Account.class)
+                .map(a -> CustomerAccount.builder()
+                        .id(a.getId())
+                        .ownerId(userId)
+                        .currAmount(a.getCurrAmount())
+                        .type(a.getType())
+                        .openingAmount(a.getOpeningAmount())
+                        .build()), 
+                query);
+    }
+    
+    /*
+     * the accounts of the type, after the cursor and in id order when the 
+     * page is by id
+     */
+    static Aggregation pageAggregation(String userId, AccountQuery query) {
+        Criteria criteria = new Criteria();
+        if(query.getType() != null) {
+            criteria = criteria.and("type").is(query.getType());
+        }
+        List<AggregationOperation> pipeline = new ArrayList<>();
+        pipeline.add(Aggregation.match(Criteria.where("_id").is(userId)));
+        pipeline.add(Aggregation.unwind("accounts"));
+        pipeline.add(Aggregation.replaceRoot("accounts"));
+        if(query.getOrder() == AccountQuery.Order.ID) {
+            if(query.getAfterId() != null) {
+                criteria = criteria.and("id").gt(query.getAfterId());
+            }
+            pipeline.add(Aggregation.match(criteria));
+            pipeline.add(Aggregation.sort(Sort.by("id")));
+        } else {
+            pipeline.add(Aggregation.match(criteria));
+        }
+        return Aggregation.newAggregation(pipeline);
+    }
+    
+    /*
+     * the balance filters, the order by balance and the page size
+     */
+    static Flux<CustomerAccount> page(Flux<CustomerAccount> accounts, AccountQuery query) {
+        if(query.getOrder() == AccountQuery.Order.BALANCE) {
+            accounts = accounts.sort(query.comparator());
+        }
+        return accounts.filter(query::matches)
+                .take(query.getLimit());
+    }
+
+    /*
+     * embedded balances are stored as strings, which the database can't 
+     * sum, so only the types and balances of the customer's accounts are
+     * read and added up here
+     */
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String userId) {
+        Query query = Query.query(Criteria.where("id").is(userId));
+        query.fields()
+                .include("accounts.type")
+                .include("accounts.currAmount");
+        return template.findOne(query, Customer.class)
+                .flatMapIterable(c -> c.getAccounts() == null ? List.<Customer.Account>of() : c.getAccounts())
+                .map(a -> AccountTypeTotal.of(a.getType(), a.getCurrAmount()))
+                .collect(Collectors.toMap(AccountTypeTotal::getType, t -> t, AccountTypeTotal::plus))
+                .flatMapIterable(Map::values);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Storage for daily account rollups
+ * 
+ * @author randalkamradt
+ */
+public interface DailyRollupStore {
+
+    /**
+     *
+     * Add one transfer to an account's rollup for a day, creating the
+     * rollup if needed
+     * 
+     * @param accountId the account
+     * @param day the day of the transfer
+     * @param debit the amount taken from the account, zero if none
+     * @param credit the amount added to the account, zero if none
+     * @return completes when recorded
+     */
+    Mono<Void> record(String accountId, LocalDate day, BigDecimal debit, BigDecimal credit);
+
+    /**
+     *
+     * Add several transfers at once. Each rollup holds what to add to an
+     * account's day: its count, debits and credits
+     * 
+     * @param increments at most one per account and day
+     * @return completes when recorded
+     */
+    Mono<Void> recordAll(Collection<DailyRollup> increments);
+
+    /**
+     *
+     * An account's rollups from a day on, oldest first. Read from the 
+     * primary, so they are never behind the account's balance
+     * 
+     * @param accountId the account
+     * @param from the first day, inclusive
+     * @return the rollups for days with transfers
+     */
+    Flux<DailyRollup> findFrom(String accountId, LocalDate from);
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+/**
+ *
+ * ETags made from account versions, shared by the annotated and the 
+ * functional endpoints
+ * 
+ * @author randalkamradt
+ */
+final class ETags {
+    private ETags() {
+    }
+    
+    /**
+     *
+     * @param version an account version
+     * @return the (strong) ETag for it
+     */
+    static String of(long version) {
+        return "\"" + version + "\"";
+    }
+    
+    /**
+     *
+     * @param ifNoneMatch the If-None-Match header, may be null
+     * @param eTag the current ETag
+     * @return true if the client already has the current version
+     */
+    static boolean matches(String ifNoneMatch, String eTag) {
+        if(ifNoneMatch == null) {
+            return false;
+        }
+        for(String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if(candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if(candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
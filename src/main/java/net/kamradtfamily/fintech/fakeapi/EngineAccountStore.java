@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerAccount;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerEngine;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerTransfer;
+import net.kamradtfamily.fintech.fakeapi.ledger.TransferResult;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.InvalidValueException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ *
+ * Account store on the in memory ledger engine. Balances are held in 
+ * cents, amounts with fractions of a cent are rejected as invalid. Users
+ * stay in mongo and are only consulted to tell a missing user from a 
+ * missing account. The engine keeps no adjustment marks, so it can't be
+ * used with the balance adjustment job.
+ * 
+ * Transfers are journaled by the engine with their audit fields and 
+ * answered once the journal is forced; their audits, daily rollups and
+ * account versions are written to mongo afterwards by the transfer 
+ * writer, so history, statements and ETags can trail an answered 
+ * transfer by that write
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnProperty(name = "fintech.accounts.store", havingValue = "engine")
+public class EngineAccountStore implements JournalingAccountStore {
+    private static final int SCALE = 2;
+    
+    private final LedgerEngine engine;
+    private final UserReactiveRepository userRepository;
+    
+    /**
+     *
+     * Create a new EngineAccountStore
+     * 
+     * @param engine the ledger engine
+     * @param userRepository the users owning the accounts
+     */
+    public EngineAccountStore(final LedgerEngine engine, 
+            final UserReactiveRepository userRepository) {
+        this.engine = engine;
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public Mono<Account> findAccount(String userId, String accountId) {
+        return engine.find(accountId)
+                .filter(a -> a.getOwnerId().equals(userId))
+                .map(EngineAccountStore::toAccount)
+                .switchIfEmpty(notFound(userId, accountId));
+    }
+
+    @Override
+    public Mono<Account> addAccount(String userId, Account account) {
+        return userRepository.existsById(userId)
+                .filter(b -> b)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                .then(Mono.defer(() -> engine.create(account.getId(), userId, account.getType(), 
+                        toCents("currAmount", account.getCurrAmount()))))
+                .map(EngineAccountStore::toAccount);
+    }
+
+    @Override
+    public Mono<Void> updateBalance(String userId, String accountId, BigDecimal currAmount) {
+        return Mono.defer(() -> engine.setBalance(accountId, userId, toCents("currAmount", currAmount)))
+                .filter(b -> b)
+                .switchIfEmpty(Mono.error(() -> new AccountNotFoundException(accountId, userId)))
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount) {
+        return Mono.defer(() -> engine.replaceBalance(accountId, userId, toCents("currAmount", expected), 
+                        toCents("currAmount", currAmount)))
+                .switchIfEmpty(notFound(userId, accountId));
+    }
+
+    @Override
+    public Mono<Tuple2<Account, Account>> transfer(String fromUserId, String fromAccountId, 
+            String toUserId, String toAccountId, BigDecimal amount) {
+        return Mono.defer(() -> engine.transfer(fromAccountId, fromUserId, toAccountId, toUserId, toCents("amount", amount)))
+                .flatMap(r -> outcome(r, fromUserId, fromAccountId, toUserId, toAccountId))
+                .map(r -> Tuples.of(toAccount(r.getFrom()), toAccount(r.getTo())));
+    }
+
+    @Override
+    public Mono<TransferAudit> journaledTransfer(String fromUserId, TransferAudit audit) {
+        return Mono.defer(() -> engine.transfer(new LedgerTransfer(audit.getId(), 
+                                audit.getFromAccount(), fromUserId, 
+                                audit.getToAccount(), audit.getToUserId(), 
+                                toCents("amount", audit.getAmount()), 
+                                audit.getCreatedAt().toEpochMilli())))
+                .flatMap(r -> outcome(r, fromUserId, audit.getFromAccount(), audit.getToUserId(), audit.getToAccount()))
+                .thenReturn(audit);
+    }
+    
+    /**
+     *
+     * @param transfer a transfer journaled by the engine
+     * @return its audit
+     */
+    public static TransferAudit toAudit(LedgerTransfer transfer) {
+        return TransferAudit.builder()
+                .id(transfer.getId())
+                .amount(BigDecimal.valueOf(transfer.getAmount(), SCALE))
+                .fromAccount(transfer.getFromId())
+                .toAccount(transfer.getToId())
+                .toUserId(transfer.getToOwnerId())
+                .createdAt(Instant.ofEpochMilli(transfer.getCreatedAt()))
+                .build();
+    }
+    
+    private Mono<TransferResult> outcome(TransferResult result, String fromUserId, String fromAccountId, 
+            String toUserId, String toAccountId) {
+        switch(result.getStatus()) {
+            case OK:
+                return Mono.just(result);
+            case FROM_NOT_FOUND:
+                return notFound(fromUserId, fromAccountId);
+            case TO_NOT_FOUND:
+                return notFound(toUserId, toAccountId);
+            default:
+                return Mono.error(NegativeValueNotAllowedException.TRANSFER_RESULT);
+        }
+    }
+    
+    /*
+     * the engine keeps no opening balances, so the reconciler counts its
+     * accounts as unverified
+     */
+    @Override
+    public Flux<CustomerAccount> findAllAccounts() {
+        return engine.findAll()
+                .map(EngineAccountStore::toDocument);
+    }
+    
+    @Override
+    public Flux<CustomerAccount> findAccountsOf(Collection<String> userIds) {
+        return engine.findByOwners(userIds)
+                .map(EngineAccountStore::toDocument);
+    }
+    
+    /*
+     * the accounts of the user are found on the engine's index by owner
+     * and paged in memory
+     */
+    @Override
+    public Flux<CustomerAccount> findPage(String userId, AccountQuery query) {
+        return engine.findByOwners(List.of(userId))
+                .map(EngineAccountStore::toDocument)
+                .filter(query::matches)
+                .sort(query.comparator())
+                .take(query.getLimit());
+    }
+    
+    /*
+     * added up in memory from the accounts found on the index by owner, as
+     * for findPage
+     */
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String userId) {
+        return engine.findByOwners(List.of(userId))
+                .map(a -> AccountTypeTotal.of(a.getType(), BigDecimal.valueOf(a.getBalance(), SCALE)))
+                .collect(Collectors.toMap(AccountTypeTotal::getType, t -> t, AccountTypeTotal::plus))
+                .flatMapIterable(Map::values);
+    }
+    
+    /*
+     * only called once the account wasn't found, to tell a missing user from
+     * a missing account
+     */
+    private <T> Mono<T> notFound(String userId, String accountId) {
+        return userRepository.existsById(userId)
+                .flatMap(exists -> Mono.error(exists 
+                        ? new AccountNotFoundException(accountId, userId)
+                        : new UserNotFoundException(userId)));
+    }
+    
+    /*
+     * amounts with fractions of a cent, or too large for a long of cents,
+     * are rejected as invalid rather than rounded
+     */
+    private static long toCents(String name, BigDecimal amount) {
+        if(amount.stripTrailingZeros().scale() > SCALE) {
+            throw new InvalidValueException(name, amount.toPlainString());
+        }
+        try {
+            return amount.setScale(SCALE, RoundingMode.UNNECESSARY)
+                    .unscaledValue()
+                    .longValueExact();
+        } catch(ArithmeticException e) {
+            throw new InvalidValueException(name, amount.toPlainString());
+        }
+    }
+
+    private static CustomerAccount toDocument(LedgerAccount account) {
+        return CustomerAccount.builder()
+                .id(account.getId())
+                .ownerId(account.getOwnerId())
+                .currAmount(BigDecimal.valueOf(account.getBalance(), SCALE))
+                .type(account.getType())
+                .build();
+    }
+
+    private static Account toAccount(LedgerAccount account) {
+        return Account.builder()
+                .id(account.getId())
+                .currAmount(BigDecimal.valueOf(account.getBalance(), SCALE))
+                .type(account.getType())
+                .build();
+    }
+}
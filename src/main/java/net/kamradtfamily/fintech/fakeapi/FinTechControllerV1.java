@@ -30,17 +30,29 @@ import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
-import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPagePayload;
 import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.PortfolioPayload;
+import net.kamradtfamily.fintech.fakeapi.service.StatementPayload;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -48,26 +60,30 @@ import reactor.core.publisher.Mono;
 
 /**
  *
+ * The annotated http endpoints, the default. FinTechRoutes serves the 
+ * same endpoints with functional routing
+ * 
  * @author randalkamradt
  */
 @Slf4j
 @RestController
+@ConditionalOnProperty(name = "fintech.web.routing", havingValue = "annotated", matchIfMissing = true)
 @RequestMapping("/v1/fintech")
 public class FinTechControllerV1 {
     private final static String USER_HEADER = "X-user-id";
     
     private final FinTechService service;
     
-    FinTechControllerV1(final FinTechService service,
-            final UserReactiveRepository newsReactiveRepository) throws IOException {
+    FinTechControllerV1(final FinTechService service) {
         this.service = service;
-        this.service.initializeUsers();
     }
     
     @Operation(summary = "Create an account by user with initial amount")
     @ApiResponses(value = { 
       @ApiResponse(responseCode = "201", description = "Found the account", 
         content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = AccountPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
           schema = @Schema(implementation = AccountPayload.class)) }),
       @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
         content = @Content), 
@@ -84,6 +100,8 @@ public class FinTechControllerV1 {
     @ApiResponses(value = { 
       @ApiResponse(responseCode = "201", description = "Transfer Complete", 
         content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = TransferPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
           schema = @Schema(implementation = TransferPayload.class)) }),
       @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
         content = @Content), 
@@ -100,31 +118,124 @@ public class FinTechControllerV1 {
     @ApiResponses(value = { 
       @ApiResponse(responseCode = "200", description = "Found the account", 
         content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = AccountPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
           schema = @Schema(implementation = AccountPayload.class)) }),
+      @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match", 
+        content = @Content), 
       @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
         content = @Content), 
       @ApiResponse(responseCode = "404", description = "Account not found", 
         content = @Content) })
     @GetMapping("/account/{accountId}")
+    Mono<ResponseEntity<AccountPayload>> getAccount(@PathVariable("accountId") final String id, @RequestHeader(value=USER_HEADER) String userId,
+            @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch) {
+        return conditional(id, userId, ifNoneMatch, 
+                eTag -> service.getAccount(id, userId)
+                        .map(a -> ResponseEntity.ok().eTag(eTag).body(a)),
+                () -> service.getAccount(id, userId)
+                        .map(a -> ResponseEntity.ok().body(a)));
+    }
+    
+    @Operation(summary = "List the accounts of a user a page at a time, optionally of a type and with a balance from minAmount to maxAmount (inclusive), sorted by id or balance. Pass the next cursor of a page as after to get the page following it")
+    @ApiResponses(value = { 
+      @ApiResponse(responseCode = "200", description = "A page of accounts", 
+        content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = AccountPagePayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
+          schema = @Schema(implementation = AccountPagePayload.class)) }),
+      @ApiResponse(responseCode = "400", description = "Invalid sort, cursor or limit", 
+        content = @Content), 
+      @ApiResponse(responseCode = "403", description = "User not found", 
+        content = @Content) })
+    @GetMapping("/accounts")
     @ResponseStatus(HttpStatus.OK)
-    Mono<AccountPayload> getAccount(@PathVariable("accountId") final String id, @RequestHeader(value=USER_HEADER) String userId) {
-        return service.getAccount(id, userId);
+    Mono<AccountPagePayload> listAccounts(@RequestHeader(value=USER_HEADER) String userId,
+            @RequestParam(value="type", required=false) String type,
+            @RequestParam(value="minAmount", required=false) BigDecimal minAmount, 
+            @RequestParam(value="maxAmount", required=false) BigDecimal maxAmount,
+            @RequestParam(value="sort", required=false) String sort,
+            @RequestParam(value="after", required=false) String after,
+            @RequestParam(value="limit", required=false) Integer limit) {
+        return service.listAccounts(userId, type, minAmount, maxAmount, sort, after, limit);
     }
     
-    @Operation(summary = "Get an account transfer information by user")
+    @Operation(summary = "Get the number of accounts of a user and their total balance, overall and per account type")
+    @ApiResponses(value = { 
+      @ApiResponse(responseCode = "200", description = "The totals", 
+        content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = PortfolioPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
+          schema = @Schema(implementation = PortfolioPayload.class)) }),
+      @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
+        content = @Content), 
+      @ApiResponse(responseCode = "403", description = "User not found", 
+        content = @Content) })
+    @GetMapping("/portfolio")
+    @ResponseStatus(HttpStatus.OK)
+    Mono<PortfolioPayload> getPortfolio(@RequestHeader(value=USER_HEADER) String userId) {
+        return service.getPortfolio(userId);
+    }
+    
+    @Operation(summary = "Get an account transfer information by user, optionally limited to transfers created from (inclusive) to (exclusive) ISO-8601 instants")
     @ApiResponses(value = { 
       @ApiResponse(responseCode = "200", description = "Found the account", 
         content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = AccountPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
           schema = @Schema(implementation = AccountPayload.class)) }),
+      @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match", 
+        content = @Content), 
       @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
         content = @Content), 
       @ApiResponse(responseCode = "404", description = "Account not found", 
         content = @Content) })
     @GetMapping("/transfers/{accountId}")
+    Mono<ResponseEntity<Flux<TransferPayload>>> getTransfers(@PathVariable("accountId") final String accountId, @RequestHeader(value=USER_HEADER) String userId,
+            @RequestParam(value="from", required=false) Instant from, @RequestParam(value="to", required=false) Instant to,
+            @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch) {
+        return conditional(accountId, userId, ifNoneMatch, 
+                eTag -> Mono.just(ResponseEntity.ok().eTag(eTag).body(service.getCurrentTransfers(accountId, userId, from, to))),
+                () -> Mono.just(ResponseEntity.ok().body(service.getTransfers(accountId, userId, from, to))));
+    }
+    
+    @Operation(summary = "Get an account statement by user for a range of (UTC) days, from and to are inclusive ISO-8601 dates")
+    @ApiResponses(value = { 
+      @ApiResponse(responseCode = "200", description = "Found the account", 
+        content = { @Content(mediaType = "application/json", 
+          schema = @Schema(implementation = StatementPayload.class)),
+          @Content(mediaType = "application/x-jackson-smile", 
+          schema = @Schema(implementation = StatementPayload.class)) }),
+      @ApiResponse(responseCode = "400", description = "Invalid user supplied", 
+        content = @Content), 
+      @ApiResponse(responseCode = "404", description = "Account not found", 
+        content = @Content) })
+    @GetMapping("/statement/{accountId}")
     @ResponseStatus(HttpStatus.OK)
-    Flux<TransferPayload> getTransfers(@PathVariable("accountId") final String accountId, @RequestHeader(value=USER_HEADER) String userId) {
-        return service.getTransfers(accountId, userId);
+    Mono<StatementPayload> getStatement(@PathVariable("accountId") final String accountId, @RequestHeader(value=USER_HEADER) String userId,
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from, 
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return service.getStatement(accountId, userId, from, to);
     }
 
-
+    /*
+     * answers 304 when the client already has the current version of the
+     * account, found with a lookup of the version alone. Otherwise the 
+     * response is built with the version as its ETag, or without one if
+     * the account has no version (yet). The version is read before the 
+     * response so at worst a response carries an older ETag than its 
+     * content, which only costs the client another download. That holds 
+     * only when the content is read from the primary like the version,
+     * content read from a secondary could be older than its ETag
+     */
+    private <T> Mono<ResponseEntity<T>> conditional(String accountId, String userId, String ifNoneMatch,
+            Function<String, Mono<ResponseEntity<T>>> withETag,
+            Supplier<Mono<ResponseEntity<T>>> withoutETag) {
+        return service.getAccountVersion(accountId, userId)
+                .map(ETags::of)
+                .flatMap(eTag -> ETags.matches(ifNoneMatch, eTag)
+                        ? Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).<T>build())
+                        : withETag.apply(eTag))
+                .switchIfEmpty(Mono.defer(withoutETag));
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechException;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import net.kamradtfamily.fintech.fakeapi.service.StatementPayload;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Handler functions for the functional http endpoints, the same endpoints
+ * as FinTechControllerV1 without annotation based handler and argument 
+ * resolution. The controller advice does not apply to functional 
+ * endpoints so rejects are mapped here, to the same statuses
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnProperty(name = "fintech.web.routing", havingValue = "functional")
+public class FinTechHandler {
+    final static String USER_HEADER = "X-user-id";
+    
+    private final FinTechService service;
+    private final RejectCounters rejectCounters;
+    
+    FinTechHandler(final FinTechService service,
+            final RejectCounters rejectCounters) {
+        this.service = service;
+        this.rejectCounters = rejectCounters;
+    }
+    
+    Mono<ServerResponse> createAccount(ServerRequest request) {
+        return withUser(request, userId -> request.bodyToMono(AccountPayload.class)
+                .flatMap(account -> service.createAccount(account, userId))
+                .flatMap(account -> ServerResponse.status(HttpStatus.CREATED).bodyValue(account)));
+    }
+    
+    Mono<ServerResponse> transfer(ServerRequest request) {
+        return withUser(request, userId -> request.bodyToMono(TransferPayload.class)
+                .flatMap(transfer -> service.transfer(transfer, userId))
+                .flatMap(transfer -> ServerResponse.status(HttpStatus.CREATED).bodyValue(transfer)));
+    }
+    
+    Mono<ServerResponse> getAccount(ServerRequest request) {
+        String accountId = request.pathVariable("accountId");
+        return withUser(request, userId -> conditional(request, accountId, userId,
+                eTag -> service.getAccount(accountId, userId)
+                        .flatMap(a -> ServerResponse.ok().eTag(eTag).bodyValue(a)),
+                () -> service.getAccount(accountId, userId)
+                        .flatMap(a -> ServerResponse.ok().bodyValue(a))));
+    }
+    
+    Mono<ServerResponse> listAccounts(ServerRequest request) {
+        return withUser(request, userId -> service.listAccounts(userId, 
+                        request.queryParam("type").orElse(null),
+                        request.queryParam("minAmount").map(BigDecimal::new).orElse(null),
+                        request.queryParam("maxAmount").map(BigDecimal::new).orElse(null),
+                        request.queryParam("sort").orElse(null),
+                        request.queryParam("after").orElse(null),
+                        request.queryParam("limit").map(Integer::valueOf).orElse(null))
+                .flatMap(page -> ServerResponse.ok().bodyValue(page)));
+    }
+    
+    Mono<ServerResponse> getPortfolio(ServerRequest request) {
+        return withUser(request, userId -> service.getPortfolio(userId)
+                .flatMap(portfolio -> ServerResponse.ok().bodyValue(portfolio)));
+    }
+    
+    Mono<ServerResponse> getTransfers(ServerRequest request) {
+        String accountId = request.pathVariable("accountId");
+        return withUser(request, userId -> {
+            Instant from = request.queryParam("from").map(Instant::parse).orElse(null);
+            Instant to = request.queryParam("to").map(Instant::parse).orElse(null);
+            return conditional(request, accountId, userId,
+                    eTag -> ServerResponse.ok().eTag(eTag)
+                            .body(service.getCurrentTransfers(accountId, userId, from, to), TransferPayload.class),
+                    // without a version the account may not exist or not be the user's,
+                    // which has to be known before the response is committed
+                    () -> service.getAccount(accountId, userId)
+                            .then(ServerResponse.ok()
+                                .body(service.getTransfers(accountId, userId, from, to), TransferPayload.class)));
+        });
+    }
+    
+    Mono<ServerResponse> getStatement(ServerRequest request) {
+        String accountId = request.pathVariable("accountId");
+        return withUser(request, userId -> {
+            Optional<String> from = request.queryParam("from");
+            Optional<String> to = request.queryParam("to");
+            if(from.isEmpty() || to.isEmpty()) {
+                return ServerResponse.badRequest().bodyValue("Required query parameters 'from' and 'to' are missing");
+            }
+            return service.getStatement(accountId, userId, LocalDate.parse(from.get()), LocalDate.parse(to.get()))
+                    .flatMap(s -> ServerResponse.ok().bodyValue(s));
+        });
+    }
+    
+    /*
+     * runs the handler with the user from the header, rejecting requests
+     * without one or failing with a reject of the service
+     */
+    private Mono<ServerResponse> withUser(ServerRequest request, Function<String, Mono<ServerResponse>> handler) {
+        String userId = request.headers().firstHeader(USER_HEADER);
+        if(userId == null) {
+            return ServerResponse.badRequest().bodyValue("Required header '" + USER_HEADER + "' is missing");
+        }
+        return Mono.defer(() -> handler.apply(userId))
+                .onErrorResume(FinTechException.class, this::reject)
+                .onErrorResume(DateTimeParseException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(NumberFormatException.class, e -> ServerResponse.badRequest().bodyValue("Invalid number: " + e.getMessage()));
+    }
+    
+    private Mono<ServerResponse> reject(FinTechException reject) {
+        rejectCounters.count(reject);
+        HttpStatus status = reject instanceof UserNotFoundException ? HttpStatus.FORBIDDEN
+                : reject instanceof AccountNotFoundException ? HttpStatus.NOT_FOUND
+                : HttpStatus.BAD_REQUEST;
+        return ServerResponse.status(status).bodyValue(reject.getMessage());
+    }
+    
+    /*
+     * the same as FinTechControllerV1.conditional: 304 from the version 
+     * alone when the client is up to date
+     */
+    private Mono<ServerResponse> conditional(ServerRequest request, String accountId, String userId,
+            Function<String, Mono<ServerResponse>> withETag,
+            Supplier<Mono<ServerResponse>> withoutETag) {
+        String ifNoneMatch = request.headers().firstHeader(HttpHeaders.IF_NONE_MATCH);
+        return service.getAccountVersion(accountId, userId)
+                .map(ETags::of)
+                .flatMap(eTag -> ETags.matches(ifNoneMatch, eTag)
+                        ? ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build()
+                        : withETag.apply(eTag))
+                .switchIfEmpty(Mono.defer(withoutETag));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAck;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * RSocket routes over the same service as the http controller. The user
+ * id that the http endpoints take from the 'X-user-id' header is part of
+ * the route here
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Controller
+public class FinTechRSocketController {
+    
+    private final FinTechService service;
+    private final RejectCounters rejectCounters;
+    
+    FinTechRSocketController(final FinTechService service,
+            final RejectCounters rejectCounters) {
+        this.service = service;
+        this.rejectCounters = rejectCounters;
+    }
+    
+    /**
+     *
+     * request-response: account information for a user
+     */
+    @MessageMapping("account.{userId}.{accountId}")
+    Mono<AccountPayload> getAccount(@DestinationVariable("userId") String userId, 
+            @DestinationVariable("accountId") String accountId) {
+        return service.getAccount(accountId, userId);
+    }
+    
+    /**
+     *
+     * request-stream: the transfer history of an account, demand from the
+     * requester is passed through to the database cursor
+     */
+    @MessageMapping("transfers.{userId}.{accountId}")
+    Flux<TransferPayload> getTransfers(@DestinationVariable("userId") String userId, 
+            @DestinationVariable("accountId") String accountId) {
+        return service.getTransfers(accountId, userId);
+    }
+    
+    /**
+     *
+     * request-channel: a continuous stream of transfers from one user. Each
+     * transfer is acknowledged in order with its result or the reason it
+     * failed, a failed transfer does not end the channel. Transfers are 
+     * applied one at a time so transfers on the same account within a 
+     * channel can't race each other
+     */
+    @MessageMapping("transfer.{userId}")
+    Flux<TransferAck> transfer(@DestinationVariable("userId") String userId, 
+            Flux<TransferPayload> transfers) {
+        return transfers
+                .concatMap(t -> Mono.defer(() -> service.transfer(t, userId))
+                        .map(r -> TransferAck.builder()
+                                .transfer(r)
+                                .build())
+                        .onErrorResume(e -> {
+                            log.debug("transfer rejected", e);
+                            rejectCounters.count(e);
+                            return Mono.just(TransferAck.builder()
+                                    .transfer(t)
+                                    .error(e.getMessage())
+                                    .build());
+                        }));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.parameters.RequestBody;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPagePayload;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.PortfolioPayload;
+import net.kamradtfamily.fintech.fakeapi.service.StatementPayload;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import org.springdoc.core.annotations.RouterOperation;
+import org.springdoc.core.annotations.RouterOperations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+ *
+ * Functional routing of the http endpoints, used instead of 
+ * FinTechControllerV1 when fintech.web.routing is 'functional'. The routes
+ * are matched without the reflection of annotated handler methods, the 
+ * router operations give springdoc the same documentation the controller
+ * annotations give it
+ * 
+ * @author randalkamradt
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "fintech.web.routing", havingValue = "functional")
+public class FinTechRoutes {
+    
+    @Bean
+    @RouterOperations({
+        @RouterOperation(path = "/v1/fintech/account", method = RequestMethod.POST,
+                beanClass = FinTechHandler.class, beanMethod = "createAccount",
+                operation = @Operation(operationId = "createAccount", 
+                        summary = "Create an account by user with initial amount",
+                        parameters = @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                        requestBody = @RequestBody(content = @Content(schema = @Schema(implementation = AccountPayload.class))),
+                        responses = {
+                            @ApiResponse(responseCode = "201", description = "Found the account",
+                                    content = @Content(schema = @Schema(implementation = AccountPayload.class))),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "404", description = "Account not found") })),
+        @RouterOperation(path = "/v1/fintech/transfer", method = RequestMethod.POST,
+                beanClass = FinTechHandler.class, beanMethod = "transfer",
+                operation = @Operation(operationId = "transfer", 
+                        summary = "Transfer between accounts",
+                        parameters = @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                        requestBody = @RequestBody(content = @Content(schema = @Schema(implementation = TransferPayload.class))),
+                        responses = {
+                            @ApiResponse(responseCode = "201", description = "Transfer Complete",
+                                    content = @Content(schema = @Schema(implementation = TransferPayload.class))),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "404", description = "Account not found") })),
+        @RouterOperation(path = "/v1/fintech/account/{accountId}", method = RequestMethod.GET,
+                beanClass = FinTechHandler.class, beanMethod = "getAccount",
+                operation = @Operation(operationId = "getAccount", 
+                        summary = "Get an account information by user",
+                        parameters = {
+                            @Parameter(in = ParameterIn.PATH, name = "accountId", required = true),
+                            @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                            @Parameter(in = ParameterIn.HEADER, name = "If-None-Match") },
+                        responses = {
+                            @ApiResponse(responseCode = "200", description = "Found the account",
+                                    content = @Content(schema = @Schema(implementation = AccountPayload.class))),
+                            @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match"),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "404", description = "Account not found") })),
+        @RouterOperation(path = "/v1/fintech/accounts", method = RequestMethod.GET,
+                beanClass = FinTechHandler.class, beanMethod = "listAccounts",
+                operation = @Operation(operationId = "listAccounts", 
+                        summary = "List the accounts of a user a page at a time, optionally of a type and with a balance from minAmount to maxAmount (inclusive), sorted by id or balance. Pass the next cursor of a page as after to get the page following it",
+                        parameters = {
+                            @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                            @Parameter(in = ParameterIn.QUERY, name = "type"),
+                            @Parameter(in = ParameterIn.QUERY, name = "minAmount"),
+                            @Parameter(in = ParameterIn.QUERY, name = "maxAmount"),
+                            @Parameter(in = ParameterIn.QUERY, name = "sort"),
+                            @Parameter(in = ParameterIn.QUERY, name = "after"),
+                            @Parameter(in = ParameterIn.QUERY, name = "limit") },
+                        responses = {
+                            @ApiResponse(responseCode = "200", description = "A page of accounts",
+                                    content = @Content(schema = @Schema(implementation = AccountPagePayload.class))),
+                            @ApiResponse(responseCode = "400", description = "Invalid sort, cursor or limit"),
+                            @ApiResponse(responseCode = "403", description = "User not found") })),
+        @RouterOperation(path = "/v1/fintech/portfolio", method = RequestMethod.GET,
+                beanClass = FinTechHandler.class, beanMethod = "getPortfolio",
+                operation = @Operation(operationId = "getPortfolio", 
+                        summary = "Get the number of accounts of a user and their total balance, overall and per account type",
+                        parameters = {
+                            @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true) },
+                        responses = {
+                            @ApiResponse(responseCode = "200", description = "The totals",
+                                    content = @Content(schema = @Schema(implementation = PortfolioPayload.class))),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "403", description = "User not found") })),
+        @RouterOperation(path = "/v1/fintech/transfers/{accountId}", method = RequestMethod.GET,
+                beanClass = FinTechHandler.class, beanMethod = "getTransfers",
+                operation = @Operation(operationId = "getTransfers", 
+                        summary = "Get an account transfer information by user, optionally limited to transfers created from (inclusive) to (exclusive) ISO-8601 instants",
+                        parameters = {
+                            @Parameter(in = ParameterIn.PATH, name = "accountId", required = true),
+                            @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                            @Parameter(in = ParameterIn.QUERY, name = "from"),
+                            @Parameter(in = ParameterIn.QUERY, name = "to"),
+                            @Parameter(in = ParameterIn.HEADER, name = "If-None-Match") },
+                        responses = {
+                            @ApiResponse(responseCode = "200", description = "Found the account",
+                                    content = @Content(schema = @Schema(implementation = TransferPayload.class))),
+                            @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match"),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "404", description = "Account not found") })),
+        @RouterOperation(path = "/v1/fintech/statement/{accountId}", method = RequestMethod.GET,
+                beanClass = FinTechHandler.class, beanMethod = "getStatement",
+                operation = @Operation(operationId = "getStatement", 
+                        summary = "Get an account statement by user for a range of (UTC) days, from and to are inclusive ISO-8601 dates",
+                        parameters = {
+                            @Parameter(in = ParameterIn.PATH, name = "accountId", required = true),
+                            @Parameter(in = ParameterIn.HEADER, name = FinTechHandler.USER_HEADER, required = true),
+                            @Parameter(in = ParameterIn.QUERY, name = "from", required = true),
+                            @Parameter(in = ParameterIn.QUERY, name = "to", required = true) },
+                        responses = {
+                            @ApiResponse(responseCode = "200", description = "Found the account",
+                                    content = @Content(schema = @Schema(implementation = StatementPayload.class))),
+                            @ApiResponse(responseCode = "400", description = "Invalid user supplied"),
+                            @ApiResponse(responseCode = "404", description = "Account not found") }))
+    })
+    RouterFunction<ServerResponse> finTechRouterFunction(FinTechHandler handler) {
+        return route()
+                .path("/v1/fintech", builder -> builder
+                        .POST("/account", handler::createAccount)
+                        .POST("/transfer", handler::transfer)
+                        .GET("/account/{accountId}", handler::getAccount)
+                        .GET("/accounts", handler::listAccounts)
+                        .GET("/portfolio", handler::getPortfolio)
+                        .GET("/transfers/{accountId}", handler::getTransfers)
+                        .GET("/statement/{accountId}", handler::getStatement))
+                .build();
+    }
+}
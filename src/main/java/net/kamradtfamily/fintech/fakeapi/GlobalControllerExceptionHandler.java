@@ -24,6 +24,9 @@
 package net.kamradtfamily.fintech.fakeapi;
 
 import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.InvalidValueException;
+import net.kamradtfamily.fintech.fakeapi.service.MissingValueException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
 import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -37,16 +40,30 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
  */
 @RestControllerAdvice
 public class GlobalControllerExceptionHandler {
+    private final RejectCounters rejectCounters;
+
+    GlobalControllerExceptionHandler(final RejectCounters rejectCounters) {
+        this.rejectCounters = rejectCounters;
+    }
 
     @ExceptionHandler(UserNotFoundException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleConnversion(RuntimeException ex) {
+        rejectCounters.count(ex);
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.FORBIDDEN);
     }
     
     @ExceptionHandler(AccountNotFoundException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<String> handleBookNotFound(RuntimeException ex) {
+        rejectCounters.count(ex);
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
+    
+    @ExceptionHandler({NegativeValueNotAllowedException.class, MissingValueException.class, InvalidValueException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidValue(RuntimeException ex) {
+        rejectCounters.count(ex);
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+    }
 }
\ No newline at end of file
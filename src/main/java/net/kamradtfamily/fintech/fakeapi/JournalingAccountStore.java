@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * An account store that keeps its own journal, so transfers are recorded
+ * by the store rather than by the service: the audit, daily rollups and
+ * account versions of a transfer are written once it is durable there
+ * 
+ * @author randalkamradt
+ */
+public interface JournalingAccountStore extends AccountStore {
+
+    /**
+     *
+     * Move an amount from one account to another and journal the transfer
+     * with it
+     * 
+     * @param fromUserId the user owning the from account
+     * @param audit the transfer, with its id and time
+     * @return the audit once the transfer is durable, or a 
+     * NegativeValueNotAllowedException error if the from account would go
+     * negative
+     */
+    Mono<TransferAudit> journaledTransfer(String fromUserId, TransferAudit audit);
+}
@@ -0,0 +1,438 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Account store for either layout. While migrating, accounts are looked
+ * for in the account collection first and then embedded in their customer,
+ * new accounts go to the account collection, and balance updates go to
+ * wherever the account currently is. An account is moved by copying it to
+ * the account collection and then removing it from its customer only if
+ * its balance hasn't changed in between, so a move interrupted at any
+ * point can simply be run again
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "fintech.accounts.store", havingValue = "mongo", matchIfMissing = true)
+public class LayoutAccountStore implements AdjustableAccountStore {
+    /*
+     * a balance update that read the embedded account just before it moved
+     * can miss it in both places, it is retried briefly
+     */
+    private static final int MOVE_RETRIES = 3;
+    private static final Duration MOVE_RETRY_DELAY = Duration.ofMillis(5);
+    
+    private final UserReactiveRepository userRepository;
+    private final AccountReactiveRepository accountRepository;
+    private final AccountLayout layout;
+    
+    /**
+     *
+     * Create a new LayoutAccountStore
+     * 
+     * @param userRepository customers, with their embedded accounts
+     * @param accountRepository stand alone accounts
+     * @param properties the layout in use
+     */
+    public LayoutAccountStore(final UserReactiveRepository userRepository,
+            final AccountReactiveRepository accountRepository,
+            final AccountLayoutProperties properties) {
+        this.userRepository = userRepository;
+        this.accountRepository = accountRepository;
+        this.layout = properties.getLayout();
+    }
+
+    @Override
+    public Mono<Account> findAccount(String userId, String accountId) {
+        Mono<Account> found;
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.findWithAccount(userId, accountId)
+                        .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                        .map(c -> c.getAccounts()
+                                .stream()
+                                .findAny()
+                                .orElseThrow(() -> new AccountNotFoundException(accountId, userId)));
+            case SEPARATE:
+                found = findSeparate(userId, accountId);
+                break;
+            default:
+                found = whileMoving(findSeparate(userId, accountId)
+                        .switchIfEmpty(findEmbedded(userId, accountId)));
+        }
+        return found.switchIfEmpty(notFound(userId, accountId));
+    }
+
+    @Override
+    public Mono<Account> addAccount(String userId, Account account) {
+        if(layout == AccountLayout.EMBEDDED) {
+            return userRepository.addAccount(userId, account)
+                    .filter(b -> b)
+                    .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                    .thenReturn(account);
+        }
+        return userRepository.existsById(userId)
+                .filter(b -> b)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                .then(accountRepository.insert(toDocument(userId, account)))
+                .map(LayoutAccountStore::toAccount);
+    }
+
+    @Override
+    public Mono<Void> updateBalance(String userId, String accountId, BigDecimal currAmount) {
+        Mono<Boolean> updated;
+        switch(layout) {
+            case EMBEDDED:
+                updated = userRepository.updateBalance(userId, accountId, currAmount);
+                break;
+            case SEPARATE:
+                updated = accountRepository.updateBalance(accountId, userId, currAmount);
+                break;
+            default:
+                updated = whileMoving(accountRepository.updateBalance(accountId, userId, currAmount)
+                        .filter(b -> b)
+                        .switchIfEmpty(Mono.defer(() -> userRepository.updateBalance(userId, accountId, currAmount)))
+                        .filter(b -> b));
+        }
+        return updated
+                .filter(b -> b)
+                .switchIfEmpty(Mono.error(() -> new AccountNotFoundException(accountId, userId)))
+                .then();
+    }
+
+    /*
+     * a balance that doesn't match is told apart from a missing account by
+     * looking the account up. While migrating the embedded account is only
+     * tried if there is no moved copy, a copy that changed must not be 
+     * bypassed by writing the stale embedded account
+     */
+    @Override
+    public Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount) {
+        Mono<Boolean> replaced;
+        switch(layout) {
+            case EMBEDDED:
+                replaced = userRepository.replaceBalance(userId, accountId, expected, currAmount);
+                break;
+            case SEPARATE:
+                replaced = accountRepository.replaceBalance(accountId, userId, expected, currAmount);
+                break;
+            default:
+                replaced = accountRepository.replaceBalance(accountId, userId, expected, currAmount)
+                        .filter(b -> b)
+                        .switchIfEmpty(Mono.defer(() -> accountRepository.findByIdAndOwnerId(accountId, userId)
+                                .map(copy -> false)
+                                .switchIfEmpty(Mono.defer(() -> userRepository.replaceBalance(userId, accountId, expected, currAmount)))));
+        }
+        return replaced
+                .flatMap(b -> b 
+                        ? Mono.just(true) 
+                        : findAccount(userId, accountId).thenReturn(false));
+    }
+
+    @Override
+    public Flux<CustomerAccount> findAccounts(Collection<AccountKey> keys) {
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.findAllById(keys.stream()
+                                .map(AccountKey::getOwnerId)
+                                .collect(Collectors.toSet()))
+                        .flatMapIterable(c -> c.getAccounts()
+                                .stream()
+                                .filter(a -> keys.contains(new AccountKey(c.getId(), a.getId())))
+                                .map(a -> toDocument(c.getId(), a))
+                                .collect(Collectors.toList()));
+            case SEPARATE:
+                return accountRepository.findAllById(keys.stream()
+                                .map(AccountKey::getAccountId)
+                                .collect(Collectors.toSet()))
+                        .filter(a -> keys.contains(new AccountKey(a.getOwnerId(), a.getId())));
+            default:
+                return AdjustableAccountStore.super.findAccounts(keys);
+        }
+    }
+
+    @Override
+    public Mono<Void> updateBalances(Collection<CustomerAccount> accounts) {
+        Mono<Integer> updated;
+        switch(layout) {
+            case EMBEDDED:
+                updated = userRepository.updateBalances(accounts);
+                break;
+            case SEPARATE:
+                updated = accountRepository.updateBalances(accounts);
+                break;
+            default:
+                return AdjustableAccountStore.super.updateBalances(accounts);
+        }
+        return updated
+                .filter(n -> n == accounts.size())
+                .switchIfEmpty(Mono.error(() -> new AccountNotFoundException(
+                        accounts.iterator().next().getId(), accounts.iterator().next().getOwnerId())))
+                .then();
+    }
+
+    @Override
+    public Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.replaceBalances(accounts, expected, UUID.randomUUID().toString());
+            case SEPARATE:
+                return accountRepository.replaceBalances(accounts, expected, UUID.randomUUID().toString());
+            default:
+                return AdjustableAccountStore.super.replaceBalances(accounts, expected);
+        }
+    }
+
+    /*
+     * the marks are kept by the documents, so not while migrating
+     */
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.adjustBalances(accounts, expected);
+            case SEPARATE:
+                return accountRepository.adjustBalances(accounts, expected);
+            default:
+                return Mono.error(new UnsupportedOperationException("adjusted balances cannot be marked while migrating"));
+        }
+    }
+
+    /*
+     * while migrating an account moved during the scan can be missed or
+     * found twice
+     */
+    @Override
+    public Flux<CustomerAccount> findAllAccounts() {
+        Flux<CustomerAccount> embedded = userRepository.findAll()
+                .flatMapIterable(LayoutAccountStore::embeddedAccounts);
+        switch(layout) {
+            case EMBEDDED:
+                return embedded;
+            case SEPARATE:
+                return accountRepository.findAll();
+            default:
+                return Flux.concat(embedded, accountRepository.findAll());
+        }
+    }
+
+    /*
+     * while migrating an account moving meanwhile can be found in both 
+     * places, only the moved copy is kept
+     */
+    @Override
+    public Flux<CustomerAccount> findAccountsOf(Collection<String> userIds) {
+        Flux<CustomerAccount> embedded = userRepository.findAllById(userIds)
+                .flatMapIterable(LayoutAccountStore::embeddedAccounts);
+        switch(layout) {
+            case EMBEDDED:
+                return embedded;
+            case SEPARATE:
+                return accountRepository.findByOwnerIdIn(userIds);
+            default:
+                return Flux.concat(accountRepository.findByOwnerIdIn(userIds), embedded)
+                        .distinct(CustomerAccount::getId);
+        }
+    }
+    
+    /*
+     * while migrating both places are read a page at a time, in the same 
+     * order, and merged; an account moving meanwhile is only kept once
+     */
+    @Override
+    public Flux<CustomerAccount> findPage(String userId, AccountQuery query) {
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.findPage(userId, query);
+            case SEPARATE:
+                return accountRepository.findPage(userId, query);
+            default:
+                return Flux.mergeOrdered(query.comparator(), 
+                                accountRepository.findPage(userId, query), 
+                                userRepository.findPage(userId, query))
+                        .distinct(CustomerAccount::getId)
+                        .take(query.getLimit());
+        }
+    }
+    
+    /*
+     * while migrating the totals of both places are added, an account 
+     * moving meanwhile can be counted twice or not at all
+     */
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String userId) {
+        switch(layout) {
+            case EMBEDDED:
+                return userRepository.findTotalsByType(userId);
+            case SEPARATE:
+                return accountRepository.findTotalsByType(userId);
+            default:
+                return Flux.concat(accountRepository.findTotalsByType(userId), 
+                                userRepository.findTotalsByType(userId))
+                        .collect(Collectors.toMap(AccountTypeTotal::getType, t -> t, AccountTypeTotal::plus))
+                        .flatMapIterable(Map::values);
+        }
+    }
+    
+    private static List<CustomerAccount> embeddedAccounts(Customer customer) {
+        return customer.getAccounts() == null
+                ? List.of()
+                : customer.getAccounts()
+                        .stream()
+                        .map(a -> toDocument(customer.getId(), a))
+                        .collect(Collectors.toList());
+    }
+
+    /**
+     *
+     * Move one account from its customer to the account collection, does
+     * nothing if it has already moved
+     * 
+     * @param userId the customer holding the account
+     * @param accountId the account
+     * @return true if the account was moved by this call
+     */
+    public Mono<Boolean> moveAccount(String userId, String accountId) {
+        return moveAccount(userId, accountId, 0, null);
+    }
+    
+    /*
+     * the first copy never overwrites, an existing copy means a previous
+     * move was interrupted after copying and updates have been going to the 
+     * copy since. A removal only fails when the embedded balance was 
+     * updated by a caller that missed the copy; the copy may have been 
+     * updated too, so the embedded change (from the balance last copied) is
+     * added to the copy, conditional on the copy's balance, rather than the
+     * copy overwritten
+     */
+    private Mono<Boolean> moveAccount(String userId, String accountId, int attempt, BigDecimal copied) {
+        return findEmbedded(userId, accountId)
+                .flatMap(a -> {
+                    Mono<?> copy = copied == null
+                            ? accountRepository.insert(toDocument(userId, a))
+                                    .onErrorResume(DuplicateKeyException.class, e -> Mono.empty())
+                            : addToCopy(userId, accountId, a.getCurrAmount().subtract(copied));
+                    return copy.then(userRepository.removeAccount(userId, accountId, a.getCurrAmount()))
+                            .flatMap(removed -> {
+                                if(removed) {
+                                    return Mono.just(true);
+                                }
+                                if(attempt >= MOVE_RETRIES) {
+                                    return Mono.error(() -> new IllegalStateException("account " + accountId + " kept changing while being moved"));
+                                }
+                                log.debug("account {} changed while being moved, retrying", accountId);
+                                return moveAccount(userId, accountId, attempt + 1, a.getCurrAmount());
+                            });
+                })
+                .defaultIfEmpty(false);
+    }
+    
+    private Mono<Void> addToCopy(String userId, String accountId, BigDecimal amount) {
+        if(amount.signum() == 0) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> accountRepository.findByIdAndOwnerId(accountId, userId))
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("copy of account " + accountId + " disappeared while being moved")))
+                .flatMap(copy -> accountRepository.replaceBalance(accountId, userId, 
+                                copy.getCurrAmount(), copy.getCurrAmount().add(amount))
+                        .filter(b -> b))
+                .repeatWhenEmpty(repeats -> repeats)
+                .then();
+    }
+
+    /*
+     * repeats a lookup that came back empty a few times, in case it ran
+     * while the account was between copy and removal
+     */
+    private static <T> Mono<T> whileMoving(Mono<T> lookup) {
+        return Flux.range(0, MOVE_RETRIES + 1)
+                .concatMap(i -> i == 0 ? lookup : lookup.delaySubscription(MOVE_RETRY_DELAY), 1)
+                .next();
+    }
+
+    private Mono<Account> findSeparate(String userId, String accountId) {
+        return accountRepository.findByIdAndOwnerId(accountId, userId)
+                .map(LayoutAccountStore::toAccount);
+    }
+
+    private Mono<Account> findEmbedded(String userId, String accountId) {
+        return userRepository.findWithAccount(userId, accountId)
+                .flatMap(c -> Mono.justOrEmpty(c.getAccounts().stream().findAny()));
+    }
+    
+    /*
+     * only called once the account wasn't found, to tell a missing user from
+     * a missing account
+     */
+    private Mono<Account> notFound(String userId, String accountId) {
+        return userRepository.existsById(userId)
+                .flatMap(exists -> Mono.error(exists 
+                        ? new AccountNotFoundException(accountId, userId)
+                        : new UserNotFoundException(userId)));
+    }
+
+    private static CustomerAccount toDocument(String userId, Account account) {
+        return CustomerAccount.builder()
+                .id(account.getId())
+                .ownerId(userId)
+                .currAmount(account.getCurrAmount())
+                .type(account.getType())
+                .openingAmount(account.getOpeningAmount())
+                .lastAdjustment(account.getLastAdjustment())
+                .build();
+    }
+
+    private static Account toAccount(CustomerAccount account) {
+        return Account.builder()
+                .id(account.getId())
+                .currAmount(account.getCurrAmount())
+                .type(account.getType())
+                .openingAmount(account.getOpeningAmount())
+                .build();
+    }
+}
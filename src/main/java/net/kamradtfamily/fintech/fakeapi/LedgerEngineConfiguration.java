@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.io.IOException;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerEngine;
+import net.kamradtfamily.fintech.fakeapi.ledger.TransferWriter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ *
+ * Starts the in memory ledger engine when accounts are kept in it, with
+ * its transfers written to mongo
+ * 
+ * @author randalkamradt
+ */
+@Configuration
+@ConditionalOnProperty(name = "fintech.accounts.store", havingValue = "engine")
+public class LedgerEngineConfiguration {
+    
+    @Bean(destroyMethod = "close")
+    LedgerEngine ledgerEngine(LedgerProperties properties, TransferWriter transferWriter) throws IOException {
+        return new LedgerEngine(properties.getDirectory(), 
+                properties.getPartitions(), 
+                properties.getRingSize(), 
+                (int)properties.getJournalChunkSize().toBytes(),
+                transferWriter);
+    }
+}
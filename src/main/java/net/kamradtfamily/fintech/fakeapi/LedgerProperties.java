@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ *
+ * Settings for the in memory ledger engine, used when the account store
+ * is 'engine'
+ * 
+ * @author randalkamradt
+ */
+@Data
+@ConfigurationProperties(prefix = "fintech.ledger")
+public class LedgerProperties {
+    /** where snapshots and journals are kept */
+    private Path directory = Paths.get("ledger");
+    /** partitions, each with its own thread and journal */
+    private int partitions = Runtime.getRuntime().availableProcessors();
+    /** commands each partition can queue, a power of two */
+    private int ringSize = 4096;
+    /** journal space mapped at a time */
+    private DataSize journalChunkSize = DataSize.ofMegabytes(64);
+}
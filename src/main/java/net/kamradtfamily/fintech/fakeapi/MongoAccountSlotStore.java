@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Account slots in mongo, changed in place with $inc and conditional 
+ * updates so concurrent changes to a slot never lose an update
+ * 
+ * @author randalkamradt
+ */
+@Repository
+public class MongoAccountSlotStore implements AccountSlotStore {
+    private final ReactiveMongoTemplate template;
+    
+    MongoAccountSlotStore(final ReactiveMongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Mono<Void> credit(String accountId, int slot, BigDecimal amount) {
+        return template.upsert(byId(accountId, slot), 
+                        new Update()
+                            .setOnInsert("accountId", accountId)
+                            .setOnInsert("slot", slot)
+                            .inc("currAmount", new Decimal128(amount)), 
+                        AccountSlot.class)
+                .then();
+    }
+
+    @Override
+    public Mono<Boolean> debit(String accountId, int slot, BigDecimal amount) {
+        return template.updateFirst(Query.query(Criteria.where("id").is(id(accountId, slot))
+                            .and("currAmount").gte(new Decimal128(amount))), 
+                        new Update().inc("currAmount", new Decimal128(amount.negate())), 
+                        AccountSlot.class)
+                .map(r -> r.getModifiedCount() > 0);
+    }
+
+    @Override
+    public Mono<BigDecimal> drain(String accountId, int slot) {
+        return template.findAndModify(byId(accountId, slot), 
+                        new Update().set("currAmount", new Decimal128(BigDecimal.ZERO)),
+                        FindAndModifyOptions.options().returnNew(false),
+                        AccountSlot.class)
+                .map(AccountSlot::getCurrAmount)
+                .defaultIfEmpty(BigDecimal.ZERO);
+    }
+
+    @Override
+    public Flux<AccountSlot> findByAccount(String accountId) {
+        return template.find(Query.query(Criteria.where("accountId").is(accountId)), AccountSlot.class);
+    }
+    
+    private static Query byId(String accountId, int slot) {
+        return Query.query(Criteria.where("id").is(id(accountId, slot)));
+    }
+    
+    private static String id(String accountId, int slot) {
+        return accountId + ":" + slot;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.WriteConcern;
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Account versions in mongo, bumped in place with $inc
+ * 
+ * @author randalkamradt
+ */
+@Repository
+public class MongoAccountVersionStore implements AccountVersionStore {
+    private final ReactiveMongoTemplate template;
+    private final WriteConcern writeConcern;
+    
+    MongoAccountVersionStore(final ReactiveMongoTemplate template,
+            final MongoRoutingProperties properties) {
+        this.template = template;
+        this.writeConcern = WriteConcern.valueOf(properties.getAccountWriteConcern());
+    }
+
+    @Override
+    public Mono<Void> bump(String accountId, String ownerId) {
+        return template.upsert(byId(accountId), bumpOf(ownerId), AccountVersion.class)
+                .then();
+    }
+
+    @Override
+    public Mono<Void> bumpAll(Collection<AccountKey> accounts) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, AccountVersion.class);
+        for(AccountKey account : accounts) {
+            updates.upsert(byId(account.getAccountId()), bumpOf(account.getOwnerId()));
+        }
+        return updates.execute(writeConcern).then();
+    }
+
+    @Override
+    public Mono<AccountVersion> find(String accountId) {
+        return template.findById(accountId, AccountVersion.class);
+    }
+    
+    private static Query byId(String accountId) {
+        return Query.query(Criteria.where("id").is(accountId));
+    }
+    
+    private static Update bumpOf(String ownerId) {
+        return new Update()
+                .setOnInsert("ownerId", ownerId)
+                .inc("version", 1L);
+    }
+}
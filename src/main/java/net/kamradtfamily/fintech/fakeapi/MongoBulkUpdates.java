@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Collects single document updates of one entity type and sends them as
+ * one unordered bulk write. The reactive template has no bulk operations,
+ * so queries and updates are mapped here the way the template maps them
+ * (field names, ids, value conversions) and handed to the driver
+ * 
+ * @author randalkamradt
+ */
+final class MongoBulkUpdates {
+    private final ReactiveMongoTemplate template;
+    private final Class<?> entityClass;
+    private final MongoPersistentEntity<?> entity;
+    private final QueryMapper queryMapper;
+    private final UpdateMapper updateMapper;
+    private final List<WriteModel<Document>> updates = new ArrayList<>();
+    
+    MongoBulkUpdates(ReactiveMongoTemplate template, Class<?> entityClass) {
+        MongoConverter converter = template.getConverter();
+        this.template = template;
+        this.entityClass = entityClass;
+        this.entity = converter.getMappingContext().getRequiredPersistentEntity(entityClass);
+        this.queryMapper = new QueryMapper(converter);
+        this.updateMapper = new UpdateMapper(converter);
+    }
+    
+    MongoBulkUpdates updateOne(Query query, Update update) {
+        return add(query, update, false);
+    }
+    
+    /**
+     *
+     * Update one document matching the query and the stored criteria. The
+     * stored criteria are added to the mapped query as they are, for values
+     * that must be matched in the form they are stored in rather than the
+     * one the mapper would convert them to
+     */
+    MongoBulkUpdates updateOne(Query query, Document stored, Update update) {
+        Document mapped = queryMapper.getMappedObject(query.getQueryObject(), entity);
+        mapped.putAll(stored);
+        return add(mapped, update, false);
+    }
+    
+    MongoBulkUpdates upsert(Query query, Update update) {
+        return add(query, update, true);
+    }
+    
+    /**
+     *
+     * @return the number of matched documents
+     */
+    Mono<Integer> execute(WriteConcern writeConcern) {
+        if(updates.isEmpty()) {
+            return Mono.just(0);
+        }
+        return template.getCollection(template.getCollectionName(entityClass))
+                .flatMap(c -> Mono.from(c.withWriteConcern(writeConcern)
+                        .bulkWrite(updates, new BulkWriteOptions().ordered(false))))
+                .map(r -> r.getMatchedCount() + r.getUpserts().size());
+    }
+    
+    private MongoBulkUpdates add(Query query, Update update, boolean upsert) {
+        return add(queryMapper.getMappedObject(query.getQueryObject(), entity), update, upsert);
+    }
+    
+    private MongoBulkUpdates add(Document filter, Update update, boolean upsert) {
+        updates.add(new UpdateOneModel<>(filter,
+                updateMapper.getMappedObject(update.getUpdateObject(), entity),
+                new UpdateOptions().upsert(upsert)));
+        return this;
+    }
+}
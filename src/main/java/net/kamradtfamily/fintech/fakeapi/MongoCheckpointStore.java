@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Checkpoints in mongo, written with the account write concern so a 
+ * checkpoint never survives the balances it stands for
+ * 
+ * @author randalkamradt
+ */
+@Repository
+public class MongoCheckpointStore implements CheckpointStore {
+    private final ReactiveMongoTemplate template;
+    
+    MongoCheckpointStore(final ReactiveMongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Mono<Checkpoint> find(String id) {
+        return template.findById(id, Checkpoint.class);
+    }
+
+    @Override
+    public Mono<Void> save(Checkpoint checkpoint) {
+        return template.save(checkpoint)
+                .then();
+    }
+}
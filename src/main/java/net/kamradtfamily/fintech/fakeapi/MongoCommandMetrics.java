@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+/**
+ *
+ * Records the latency of every mongo command as a histogram per command
+ * name and outcome (mongo.command), and logs commands slower than a
+ * threshold with the shape of their filter: field names and operators are
+ * kept, values are replaced with '?', so the log shows which index a query
+ * needed without leaking account data
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+public class MongoCommandMetrics implements CommandListener {
+    private final static BsonString PLACEHOLDER = new BsonString("?");
+    
+    private final MeterRegistry meterRegistry;
+    private final long slowThresholdNanos;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    // filters of in flight commands, only kept until the command finishes
+    private final Map<Integer, Started> inFlight = new ConcurrentHashMap<>();
+    
+    private static class Started {
+        final String database;
+        final String collection;
+        final BsonValue filter;
+
+        Started(String database, String collection, BsonValue filter) {
+            this.database = database;
+            this.collection = collection;
+            this.filter = filter;
+        }
+    }
+    
+    public MongoCommandMetrics(final MeterRegistry meterRegistry, final MongoMetricsProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.slowThresholdNanos = properties.getSlowOperationThreshold().toNanos();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        BsonDocument command = event.getCommand();
+        BsonValue collection = command.get(event.getCommandName());
+        inFlight.put(event.getRequestId(), new Started(event.getDatabaseName(),
+                collection != null && collection.isString() ? collection.asString().getValue() : null,
+                filterOf(command)));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        finished(event.getRequestId(), event.getCommandName(), "success", event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        finished(event.getRequestId(), event.getCommandName(), "failed", event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+    
+    private void finished(int requestId, String commandName, String status, long elapsedNanos) {
+        Started started = inFlight.remove(requestId);
+        timers.computeIfAbsent(commandName + ":" + status, k -> Timer.builder("mongo.command")
+                    .description("mongo command latency")
+                    .tag("command", commandName)
+                    .tag("status", status)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        if(elapsedNanos >= slowThresholdNanos && started != null) {
+            log.warn("slow mongo {} on {}.{} took {}ms ({}) filter {}", commandName, 
+                    started.database, started.collection, 
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), status,
+                    started.filter == null ? "none" : shape(started.filter).toString());
+        }
+    }
+    
+    /*
+     * the part of a command that decides which documents it touches
+     */
+    static BsonValue filterOf(BsonDocument command) {
+        for(String key : new String[] {"filter", "query", "pipeline"}) {
+            if(command.containsKey(key)) {
+                return command.get(key);
+            }
+        }
+        for(String key : new String[] {"updates", "deletes"}) {
+            BsonValue statements = command.get(key);
+            if(statements != null && statements.isArray() && !statements.asArray().isEmpty()
+                    && statements.asArray().get(0).isDocument()) {
+                return statements.asArray().get(0).asDocument().get("q");
+            }
+        }
+        return null;
+    }
+    
+    /**
+     *
+     * A copy of a filter with every value replaced by '?'
+     * 
+     * @param value the filter
+     * @return the shape of the filter
+     */
+    static BsonValue shape(BsonValue value) {
+        if(value.isDocument()) {
+            BsonDocument shape = new BsonDocument();
+            value.asDocument().forEach((k, v) -> shape.append(k, shape(v)));
+            return shape;
+        }
+        if(value.isArray() && value.asArray().stream().anyMatch(BsonValue::isDocument)) {
+            // $or/$and clauses and pipelines keep their structure
+            BsonArray shape = new BsonArray();
+            value.asArray().forEach(v -> shape.add(shape(v)));
+            return shape;
+        }
+        return PLACEHOLDER;
+    }
+}
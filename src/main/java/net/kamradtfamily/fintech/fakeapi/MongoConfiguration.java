@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.WriteConcernResolver;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+/**
+ *
+ * Mongo templates for each kind of operation. The primary template (also 
+ * used by the repositories) reads from the primary and picks the write 
+ * concern by entity, the history template reads from secondaries so history
+ * and statement reads don't compete with transfers
+ * 
+ * @author randalkamradt
+ */
+@Configuration
+public class MongoConfiguration {
+    public final static String HISTORY_TEMPLATE = "historyMongoTemplate";
+    
+    @Bean
+    @Primary
+    ReactiveMongoTemplate reactiveMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory,
+            MongoConverter converter, MongoRoutingProperties properties) {
+        ReactiveMongoTemplate template = new ReactiveMongoTemplate(databaseFactory, converter);
+        template.setWriteConcernResolver(writeConcernResolver(properties));
+        return template;
+    }
+    
+    static WriteConcernResolver writeConcernResolver(MongoRoutingProperties properties) {
+        WriteConcern accountWriteConcern = WriteConcern.valueOf(properties.getAccountWriteConcern());
+        WriteConcern auditWriteConcern = WriteConcern.valueOf(properties.getAuditWriteConcern());
+        return action -> {
+            if(action.getEntityType() == Customer.class || action.getEntityType() == CustomerAccount.class
+                    || action.getEntityType() == AccountSlot.class || action.getEntityType() == AccountVersion.class
+                    || action.getEntityType() == Checkpoint.class) {
+                return accountWriteConcern;
+            }
+            if(action.getEntityType() == TransferAudit.class || action.getEntityType() == DailyRollup.class) {
+                return auditWriteConcern;
+            }
+            return action.getDefaultWriteConcern();
+        };
+    }
+    
+    @Bean(HISTORY_TEMPLATE)
+    ReactiveMongoTemplate historyMongoTemplate(ReactiveMongoDatabaseFactory databaseFactory,
+            MongoConverter converter, MongoRoutingProperties properties) {
+        ReactiveMongoTemplate template = new ReactiveMongoTemplate(databaseFactory, converter);
+        template.setReadPreference(readPreference(properties));
+        return template;
+    }
+    
+    static ReadPreference readPreference(MongoRoutingProperties properties) {
+        String mode = properties.getHistoryReadPreference();
+        if(ReadPreference.primary().getName().equalsIgnoreCase(mode)) {
+            return ReadPreference.primary(); // staleness does not apply to the primary
+        }
+        return ReadPreference.valueOf(mode, Collections.emptyList(),
+                properties.getHistoryMaxStaleness().getSeconds(), TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.WriteConcern;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import org.bson.types.Decimal128;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Daily rollups in mongo, updated in place with $inc so concurrent 
+ * transfers on an account never lose an update. Rollups hold only totals,
+ * a balance $set by concurrent writers would be whichever landed last.
+ * Reads go through the primary template, as statements take them back 
+ * from the account's current balance, which is read from the primary: 
+ * rollups read from a secondary could be behind it
+ * 
+ * @author randalkamradt
+ */
+@Repository
+public class MongoDailyRollupStore implements DailyRollupStore {
+    private final ReactiveMongoTemplate template;
+    private final WriteConcern writeConcern;
+    
+    MongoDailyRollupStore(final ReactiveMongoTemplate template,
+            final MongoRoutingProperties properties) {
+        this.template = template;
+        this.writeConcern = WriteConcern.valueOf(properties.getAuditWriteConcern());
+    }
+
+    @Override
+    public Mono<Void> record(String accountId, LocalDate day, BigDecimal debit, BigDecimal credit) {
+        String isoDay = day.toString();
+        Update update = new Update()
+                .setOnInsert("accountId", accountId)
+                .setOnInsert("day", isoDay)
+                .inc("count", 1L)
+                .inc("debits", new Decimal128(debit))
+                .inc("credits", new Decimal128(credit));
+        return template.upsert(Query.query(Criteria.where("id").is(accountId + ":" + isoDay)), 
+                        update, DailyRollup.class)
+                .then();
+    }
+
+    @Override
+    public Mono<Void> recordAll(Collection<DailyRollup> increments) {
+        MongoBulkUpdates updates = new MongoBulkUpdates(template, DailyRollup.class);
+        for(DailyRollup increment : increments) {
+            updates.upsert(Query.query(Criteria.where("id").is(increment.getAccountId() + ":" + increment.getDay())), 
+                    new Update()
+                        .setOnInsert("accountId", increment.getAccountId())
+                        .setOnInsert("day", increment.getDay())
+                        .inc("count", increment.getCount())
+                        .inc("debits", new Decimal128(increment.getDebits()))
+                        .inc("credits", new Decimal128(increment.getCredits())));
+        }
+        return updates.execute(writeConcern).then();
+    }
+
+    @Override
+    public Flux<DailyRollup> findFrom(String accountId, LocalDate from) {
+        return template.find(Query.query(Criteria.where("accountId").is(accountId)
+                        .and("day").gte(from.toString()))
+                    .with(Sort.by("day")), 
+                DailyRollup.class);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ *
+ * Attaches the command and connection pool listeners to the mongo client
+ * 
+ * @author randalkamradt
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "fintech.mongo.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MongoMetricsConfiguration {
+    
+    @Bean
+    MongoClientSettingsBuilderCustomizer mongoMetricsCustomizer(MeterRegistry meterRegistry,
+            MongoMetricsProperties properties) {
+        MongoCommandMetrics commandMetrics = new MongoCommandMetrics(meterRegistry, properties);
+        MongoPoolMetrics poolMetrics = new MongoPoolMetrics(meterRegistry);
+        return builder -> builder
+                .addCommandListener(commandMetrics)
+                .applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(poolMetrics));
+    }
+}
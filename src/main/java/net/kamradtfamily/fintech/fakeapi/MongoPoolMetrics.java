@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Connection pool metrics: how many operations are waiting for a 
+ * connection (mongo.pool.waiting), how many connections are checked out
+ * (mongo.pool.checkedout), how long operations wait for a connection
+ * (mongo.pool.checkout.wait), how long connections are held 
+ * (mongo.pool.hold) and how often a checkout fails (mongo.pool.checkout.failed).
+ * A waiting count that stays above zero, or waits that grow, mean the 
+ * pool is too small for the load
+ * 
+ * Checkout events carry no operation id to pair a start with its end, 
+ * but each server has its own pool, which hands connections to its 
+ * waiters in order, so a checkout that ends is taken to be the oldest one
+ * started on the same server
+ * 
+ * @author randalkamradt
+ */
+public class MongoPoolMetrics implements ConnectionPoolListener {
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    private final Map<ConnectionId, Long> checkedOutAt = new ConcurrentHashMap<>();
+    private final Map<ServerId, Queue<Long>> checkOutStartedAt = new ConcurrentHashMap<>();
+    private final Timer waitTimer;
+    private final Timer holdTimer;
+    private final Counter checkoutFailed;
+    
+    public MongoPoolMetrics(final MeterRegistry meterRegistry) {
+        Gauge.builder("mongo.pool.waiting", waiting, AtomicInteger::get)
+                .description("operations waiting for a connection")
+                .register(meterRegistry);
+        Gauge.builder("mongo.pool.checkedout", checkedOut, AtomicInteger::get)
+                .description("connections in use")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("mongo.pool.checkout.wait")
+                .description("time waiting for a connection, failed checkouts included")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        holdTimer = Timer.builder("mongo.pool.hold")
+                .description("time a connection is checked out")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        checkoutFailed = Counter.builder("mongo.pool.checkout.failed")
+                .description("checkouts that timed out or hit a closed pool")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        waiting.incrementAndGet();
+        checkOutStartedAt.computeIfAbsent(event.getServerId(), id -> new ConcurrentLinkedQueue<>())
+                .add(System.nanoTime());
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        long now = System.nanoTime();
+        waiting.decrementAndGet();
+        recordWait(event.getConnectionId().getServerId(), now);
+        checkedOut.incrementAndGet();
+        checkedOutAt.put(event.getConnectionId(), now);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        waiting.decrementAndGet();
+        recordWait(event.getServerId(), System.nanoTime());
+        checkoutFailed.increment();
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        checkedOut.decrementAndGet();
+        Long start = checkedOutAt.remove(event.getConnectionId());
+        if(start != null) {
+            holdTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private void recordWait(ServerId server, long now) {
+        Queue<Long> started = checkOutStartedAt.get(server);
+        Long start = started == null ? null : started.poll();
+        if(start != null) {
+            waitTimer.record(now - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
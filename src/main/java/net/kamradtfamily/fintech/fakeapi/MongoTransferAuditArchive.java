@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Transfer audit archive kept in its own mongo collection, with the same
+ * (account, createdAt) indexes as the hot collection
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(prefix = "fintech.archive", name = "store", havingValue = "collection", matchIfMissing = true)
+public class MongoTransferAuditArchive implements TransferAuditArchive {
+    final static String ARCHIVE_COLLECTION = "transferAuditArchive";
+    
+    private final ReactiveMongoTemplate template;
+    private final ReactiveMongoTemplate historyTemplate;
+    private final ArchiveProperties properties;
+    
+    MongoTransferAuditArchive(final ReactiveMongoTemplate template,
+            @Qualifier(MongoConfiguration.HISTORY_TEMPLATE) final ReactiveMongoTemplate historyTemplate,
+            final ArchiveProperties properties) {
+        this.template = template;
+        this.historyTemplate = historyTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to) {
+        return find(historyTemplate, accountId, from, to);
+    }
+
+    @Override
+    public Flux<TransferAudit> findCurrentByAccount(String accountId, Instant from, Instant to) {
+        return find(template, accountId, from, to);
+    }
+    
+    private Flux<TransferAudit> find(ReactiveMongoTemplate from, String accountId, Instant start, Instant end) {
+        if(start != null && start.isAfter(Instant.now().minus(properties.getHorizon()))) {
+            return Flux.empty(); // nothing in range can have been archived yet
+        }
+        return from.find(TransferAuditHistoryImpl.accountQuery(accountId, start, end), 
+                TransferAudit.class, ARCHIVE_COLLECTION);
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccounts(Collection<String> accountIds) {
+        return historyTemplate.find(TransferAuditHistoryImpl.accountsQuery(accountIds), 
+                TransferAudit.class, ARCHIVE_COLLECTION);
+    }
+
+    @Override
+    public Mono<Long> archiveBefore(Instant cutoff, int batchSize) {
+        return ensureIndexes()
+                .then(moveBatch(cutoff, batchSize))
+                .expand(moved -> moved < batchSize 
+                        ? Mono.empty() 
+                        : moveBatch(cutoff, batchSize))
+                .reduce(0L, Long::sum);
+    }
+    
+    private Mono<Long> moveBatch(Instant cutoff, int batchSize) {
+        Query query = Query.query(Criteria.where("createdAt").lt(cutoff))
+                .with(Sort.by("createdAt"))
+                .limit(batchSize);
+        // save rather than insert so a batch copied by a run that died 
+        // before removing it from the hot collection can be copied again
+        return template.find(query, TransferAudit.class)
+                .flatMap(a -> template.save(a, ARCHIVE_COLLECTION))
+                .map(TransferAudit::getId)
+                .collectList()
+                .flatMap(this::removeMoved);
+    }
+    
+    private Mono<Long> removeMoved(List<String> ids) {
+        if(ids.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return template.remove(Query.query(Criteria.where("id").in(ids)), TransferAudit.class)
+                .doOnNext(r -> log.debug("archived {} transfer audits", r.getDeletedCount()))
+                .thenReturn((long)ids.size());
+    }
+    
+    private Mono<Void> ensureIndexes() {
+        return template.indexOps(ARCHIVE_COLLECTION)
+                .ensureIndex(new Index().on("fromAccount", Sort.Direction.ASC).on("createdAt", Sort.Direction.ASC))
+                .then(template.indexOps(ARCHIVE_COLLECTION)
+                        .ensureIndex(new Index().on("toAccount", Sort.Direction.ASC).on("createdAt", Sort.Direction.ASC)))
+                .then();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.AbstractEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * JSON encoder for the account and transfer payloads that writes straight
+ * into the response buffers, without going through Jackson's reflection
+ * based serializers. Produces the same JSON as the default Jackson encoder.
+ * Any other type is left to the default codecs.
+ * 
+ * @author randalkamradt
+ */
+public class PayloadJsonEncoder extends AbstractEncoder<Object> {
+    private final static int INITIAL_BUFFER_SIZE = 256;
+    private final static long[] POWERS_OF_TEN = new long[19];
+    private final static byte[] HEX = "0123456789abcdef".getBytes();
+    private final static byte[] NULL = "null".getBytes();
+    
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+    
+    public PayloadJsonEncoder() {
+        super(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON);
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        Class<?> clazz = elementType.toClass();
+        return (clazz == AccountPayload.class || clazz == TransferPayload.class)
+                && super.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends Object> inputStream, 
+            DataBufferFactory bufferFactory, 
+            ResolvableType elementType, 
+            MimeType mimeType, 
+            Map<String, Object> hints) {
+        if(inputStream instanceof Mono) {
+            return Mono.from(inputStream)
+                    .map(v -> encodeValue(v, bufferFactory, elementType, mimeType, hints))
+                    .flux();
+        }
+        if(isStreaming(mimeType)) {
+            return Flux.from(inputStream)
+                    .map(v -> {
+                        DataBuffer buffer = bufferFactory.allocateBuffer(INITIAL_BUFFER_SIZE);
+                        writeValue(buffer, v);
+                        return buffer.write((byte)'\n');
+                    });
+        }
+        // a json array written one element at a time, so long histories
+        // are never held in memory
+        return Flux.defer(() -> {
+            boolean[] first = { true };
+            return Flux.from(inputStream)
+                    .map(v -> {
+                        DataBuffer buffer = bufferFactory.allocateBuffer(INITIAL_BUFFER_SIZE);
+                        buffer.write(first[0] ? (byte)'[' : (byte)',');
+                        first[0] = false;
+                        writeValue(buffer, v);
+                        return buffer;
+                    })
+                    .concatWith(Mono.fromSupplier(() -> {
+                        DataBuffer buffer = bufferFactory.allocateBuffer(2);
+                        if(first[0]) {
+                            buffer.write((byte)'[');
+                        }
+                        return buffer.write((byte)']');
+                    }));
+        });
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, 
+            DataBufferFactory bufferFactory, 
+            ResolvableType valueType, 
+            MimeType mimeType, 
+            Map<String, Object> hints) {
+        DataBuffer buffer = bufferFactory.allocateBuffer(INITIAL_BUFFER_SIZE);
+        writeValue(buffer, value);
+        return buffer;
+    }
+    
+    private static boolean isStreaming(MimeType mimeType) {
+        return mimeType != null && MediaType.APPLICATION_NDJSON.isCompatibleWith(mimeType);
+    }
+    
+    private static void writeValue(DataBuffer buffer, Object value) {
+        if(value instanceof TransferPayload) {
+            TransferPayload t = (TransferPayload)value;
+            writeAscii(buffer, "{\"transferId\":");
+            writeString(buffer, t.getTransferId());
+            writeAscii(buffer, ",\"userId\":");
+            writeString(buffer, t.getUserId());
+            writeAscii(buffer, ",\"fromAccount\":");
+            writeString(buffer, t.getFromAccount());
+            writeAscii(buffer, ",\"toAccount\":");
+            writeString(buffer, t.getToAccount());
+            writeAscii(buffer, ",\"amount\":");
+            writeDecimal(buffer, t.getAmount());
+            writeAscii(buffer, ",\"createdAt\":");
+            if(t.getCreatedAt() == null) {
+                buffer.write(NULL);
+            } else {
+                buffer.write((byte)'"');
+                writeAscii(buffer, t.getCreatedAt().toString());
+                buffer.write((byte)'"');
+            }
+            buffer.write((byte)'}');
+        } else if(value instanceof AccountPayload) {
+            AccountPayload a = (AccountPayload)value;
+            writeAscii(buffer, "{\"id\":");
+            writeString(buffer, a.getId());
+            writeAscii(buffer, ",\"currAmount\":");
+            writeDecimal(buffer, a.getCurrAmount());
+            writeAscii(buffer, ",\"type\":");
+            writeString(buffer, a.getType());
+            buffer.write((byte)'}');
+        } else {
+            throw new IllegalArgumentException("Unsupported payload " + value.getClass());
+        }
+    }
+    
+    /*
+     * field names and fallback numbers are plain ascii
+     */
+    private static void writeAscii(DataBuffer buffer, String name) {
+        for(int i = 0; i < name.length(); i++) {
+            buffer.write((byte)name.charAt(i));
+        }
+    }
+    
+    private static void writeString(DataBuffer buffer, String value) {
+        if(value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        buffer.write((byte)'"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                buffer.write((byte)'\\');
+                buffer.write((byte)c);
+            } else if(c < 0x20) {
+                writeControl(buffer, c);
+            } else if(c < 0x80) {
+                buffer.write((byte)c);
+            } else if(c < 0x800) {
+                buffer.write((byte)(0xc0 | (c >> 6)));
+                buffer.write((byte)(0x80 | (c & 0x3f)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < value.length() 
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write((byte)(0xf0 | (cp >> 18)));
+                buffer.write((byte)(0x80 | ((cp >> 12) & 0x3f)));
+                buffer.write((byte)(0x80 | ((cp >> 6) & 0x3f)));
+                buffer.write((byte)(0x80 | (cp & 0x3f)));
+            } else {
+                buffer.write((byte)(0xe0 | (c >> 12)));
+                buffer.write((byte)(0x80 | ((c >> 6) & 0x3f)));
+                buffer.write((byte)(0x80 | (c & 0x3f)));
+            }
+        }
+        buffer.write((byte)'"');
+    }
+    
+    private static void writeControl(DataBuffer buffer, char c) {
+        buffer.write((byte)'\\');
+        switch(c) {
+            case '\n': buffer.write((byte)'n'); break;
+            case '\r': buffer.write((byte)'r'); break;
+            case '\t': buffer.write((byte)'t'); break;
+            case '\b': buffer.write((byte)'b'); break;
+            case '\f': buffer.write((byte)'f'); break;
+            default:
+                buffer.write((byte)'u');
+                buffer.write((byte)'0');
+                buffer.write((byte)'0');
+                buffer.write(HEX[c >> 4]);
+                buffer.write(HEX[c & 0xf]);
+        }
+    }
+    
+    /*
+     * writes the same text as BigDecimal.toString (which is what Jackson 
+     * uses) but without building a string for the common case of an amount
+     * with a small unscaled value and a non negative scale
+     */
+    private static void writeDecimal(DataBuffer buffer, BigDecimal value) {
+        if(value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        int scale = value.scale();
+        int precision = value.precision();
+        if(scale < 0 || precision > 18 || precision - scale - 1 < -6) {
+            writeAscii(buffer, value.toString());
+            return;
+        }
+        long unscaled = value.unscaledValue().longValue();
+        if(unscaled < 0) {
+            buffer.write((byte)'-');
+            unscaled = -unscaled;
+        }
+        int intDigits = precision - scale;
+        if(intDigits <= 0) {
+            buffer.write((byte)'0');
+            buffer.write((byte)'.');
+            for(int i = intDigits; i < 0; i++) {
+                buffer.write((byte)'0');
+            }
+        }
+        for(int i = precision - 1; i >= 0; i--) {
+            if(i == scale - 1 && intDigits > 0) {
+                buffer.write((byte)'.');
+            }
+            long power = POWERS_OF_TEN[i];
+            buffer.write((byte)('0' + unscaled / power));
+            unscaled %= power;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Row;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.InvalidValueException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ *
+ * Account store on a relational database. A transfer is one transaction
+ * that locks both account rows with SELECT ... FOR UPDATE, always the 
+ * lower id first so two transfers between the same accounts in opposite
+ * directions can't deadlock. Users stay in mongo. Adjusted balances are
+ * marked in the last_adjustment column
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnProperty(name = "fintech.accounts.store", havingValue = "r2dbc")
+public class R2dbcAccountStore implements AdjustableAccountStore {
+    private static final int SCALE = 2; // of curr_amount
+    
+    private final DatabaseClient client;
+    private final TransactionalOperator transactional;
+    private final UserReactiveRepository userRepository;
+    
+    /**
+     *
+     * Create a new R2dbcAccountStore
+     * 
+     * @param connectionFactory the database holding the ledger_account table
+     * @param userRepository the users owning the accounts
+     */
+    public R2dbcAccountStore(final ConnectionFactory connectionFactory,
+            final UserReactiveRepository userRepository) {
+        this.client = DatabaseClient.create(connectionFactory);
+        this.transactional = TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public Mono<Account> findAccount(String userId, String accountId) {
+        return client.sql("SELECT id, owner_id, curr_amount, type FROM ledger_account WHERE id = :id")
+                .bind("id", accountId)
+                .map((row, meta) -> toDocument(row))
+                .one()
+                .filter(a -> a.getOwnerId().equals(userId))
+                .map(R2dbcAccountStore::toAccount)
+                .switchIfEmpty(notFound(userId, accountId));
+    }
+
+    @Override
+    public Mono<Account> addAccount(String userId, Account account) {
+        return checkScale("currAmount", account.getCurrAmount())
+                .then(userRepository.existsById(userId))
+                .filter(b -> b)
+                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                .then(Mono.defer(() -> {
+                    GenericExecuteSpec insert = client.sql("INSERT INTO ledger_account (id, owner_id, curr_amount, opening_amount, type) VALUES (:id, :owner, :amount, :opening, :type)")
+                            .bind("id", account.getId())
+                            .bind("owner", userId)
+                            .bind("amount", account.getCurrAmount())
+                            .bind("opening", account.getCurrAmount());
+                    return (account.getType() == null
+                            ? insert.bindNull("type", String.class)
+                            : insert.bind("type", account.getType()))
+                        .then();
+                }))
+                .thenReturn(account);
+    }
+
+    @Override
+    public Mono<Void> updateBalance(String userId, String accountId, BigDecimal currAmount) {
+        return checkScale("currAmount", currAmount)
+                .then(client.sql("UPDATE ledger_account SET curr_amount = :amount WHERE id = :id AND owner_id = :owner")
+                        .bind("amount", currAmount)
+                        .bind("id", accountId)
+                        .bind("owner", userId)
+                        .fetch()
+                        .rowsUpdated()
+                        .filter(n -> n > 0)
+                        .switchIfEmpty(Mono.error(() -> new AccountNotFoundException(accountId, userId)))
+                        .then());
+    }
+
+    @Override
+    public Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount) {
+        return checkScale("currAmount", currAmount)
+                .then(client.sql("UPDATE ledger_account SET curr_amount = :amount WHERE id = :id AND owner_id = :owner AND curr_amount = :expected")
+                        .bind("amount", currAmount)
+                        .bind("id", accountId)
+                        .bind("owner", userId)
+                        .bind("expected", expected)
+                        .fetch()
+                        .rowsUpdated()
+                        .flatMap(n -> n > 0
+                                ? Mono.just(true)
+                                : findAccount(userId, accountId).thenReturn(false)));
+    }
+
+    @Override
+    public Mono<Account> addToBalance(String userId, String accountId, BigDecimal amount) {
+        return checkScale("amount", amount)
+                .then(client.sql("UPDATE ledger_account SET curr_amount = curr_amount + :amount WHERE id = :id AND owner_id = :owner AND curr_amount + :amount >= 0")
+                        .bind("amount", amount)
+                        .bind("id", accountId)
+                        .bind("owner", userId)
+                        .fetch()
+                        .rowsUpdated()
+                        .flatMap(n -> n > 0
+                                ? findAccount(userId, accountId)
+                                : findAccount(userId, accountId)
+                                    .then(Mono.error(NegativeValueNotAllowedException.TRANSFER_RESULT)))
+                        .as(transactional::transactional));
+    }
+
+    @Override
+    public Mono<Tuple2<Account, Account>> transfer(String fromUserId, String fromAccountId, 
+            String toUserId, String toAccountId, BigDecimal amount) {
+        return checkScale("amount", amount)
+                .then(Mono.defer(() -> lockedTransfer(fromUserId, fromAccountId, toUserId, toAccountId, amount)));
+    }
+    
+    private Mono<Tuple2<Account, Account>> lockedTransfer(String fromUserId, String fromAccountId, 
+            String toUserId, String toAccountId, BigDecimal amount) {
+        if(fromAccountId.equals(toAccountId)) {
+            return Mono.zip(findAccount(fromUserId, fromAccountId), 
+                    findAccount(toUserId, toAccountId));
+        }
+        boolean fromFirst = fromAccountId.compareTo(toAccountId) < 0;
+        String firstId = fromFirst ? fromAccountId : toAccountId;
+        String secondId = fromFirst ? toAccountId : fromAccountId;
+        return lock(firstId)
+                .flatMap(first -> lock(secondId)
+                        .map(second -> fromFirst ? Tuples.of(first, second) : Tuples.of(second, first)))
+                .flatMap(t -> {
+                    if(!t.getT1().getOwnerId().equals(fromUserId)) {
+                        return notFound(fromUserId, fromAccountId);
+                    }
+                    if(!t.getT2().getOwnerId().equals(toUserId)) {
+                        return notFound(toUserId, toAccountId);
+                    }
+                    Account from = AccountStore.debit(toAccount(t.getT1()), amount);
+                    if(from.getCurrAmount().signum() < 0) {
+                        return Mono.error(NegativeValueNotAllowedException.TRANSFER_RESULT);
+                    }
+                    Account to = AccountStore.credit(toAccount(t.getT2()), amount);
+                    return setBalance(firstId, fromFirst ? from : to)
+                            .then(setBalance(secondId, fromFirst ? to : from))
+                            .thenReturn(Tuples.of(from, to));
+                })
+                .switchIfEmpty(Mono.defer(() -> Mono.zip(findAccount(fromUserId, fromAccountId), 
+                        findAccount(toUserId, toAccountId))
+                        .then(Mono.empty())))
+                .as(transactional::transactional);
+    }
+    
+    @Override
+    public Flux<CustomerAccount> findAccounts(Collection<AccountKey> keys) {
+        if(keys.isEmpty()) {
+            return Flux.empty();
+        }
+        Map<String, String> owners = keys.stream()
+                .collect(Collectors.toMap(AccountKey::getAccountId, AccountKey::getOwnerId, (a, b) -> a));
+        return client.sql("SELECT id, owner_id, curr_amount, type, last_adjustment FROM ledger_account WHERE id IN (:ids)")
+                .bind("ids", owners.keySet())
+                .map((row, meta) -> adjusted(row))
+                .all()
+                .filter(a -> a.getOwnerId().equals(owners.get(a.getId())));
+    }
+    
+    @Override
+    public Flux<CustomerAccount> findAccountsOf(Collection<String> userIds) {
+        if(userIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return client.sql("SELECT id, owner_id, curr_amount, type, last_adjustment FROM ledger_account WHERE owner_id IN (:owners)")
+                .bind("owners", userIds)
+                .map((row, meta) -> adjusted(row))
+                .all();
+    }
+
+    /*
+     * one conditional update per account, an account whose balance has 
+     * changed since it was read updates no row
+     */
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return Flux.fromIterable(accounts)
+                .concatMap(a -> client.sql("UPDATE ledger_account SET curr_amount = :amount, last_adjustment = :mark WHERE id = :id AND owner_id = :owner AND curr_amount = :expected")
+                        .bind("amount", a.getCurrAmount())
+                        .bind("mark", a.getLastAdjustment())
+                        .bind("id", a.getId())
+                        .bind("owner", a.getOwnerId())
+                        .bind("expected", expected.get(a.getId()))
+                        .fetch()
+                        .rowsUpdated()
+                        .filter(n -> n == 0)
+                        .map(stale -> a.getId()))
+                .collect(Collectors.toSet());
+    }
+    
+    /*
+     * served by the (owner_id, id), (owner_id, type, id) and 
+     * (owner_id, curr_amount, id) indexes
+     */
+    @Override
+    public Flux<CustomerAccount> findPage(String userId, AccountQuery query) {
+        StringBuilder sql = new StringBuilder("SELECT id, owner_id, curr_amount, type FROM ledger_account WHERE owner_id = :owner");
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("owner", userId);
+        if(query.getType() != null) {
+            sql.append(" AND type = :type");
+            parameters.put("type", query.getType());
+        }
+        if(query.getMinAmount() != null) {
+            sql.append(" AND curr_amount >= :min");
+            parameters.put("min", query.getMinAmount());
+        }
+        if(query.getMaxAmount() != null) {
+            sql.append(" AND curr_amount <= :max");
+            parameters.put("max", query.getMaxAmount());
+        }
+        if(query.getOrder() == AccountQuery.Order.BALANCE) {
+            if(query.getAfterId() != null) {
+                sql.append(" AND (curr_amount > :afterAmount OR (curr_amount = :sameAmount AND id > :afterId))");
+                parameters.put("afterAmount", query.getAfterAmount());
+                parameters.put("sameAmount", query.getAfterAmount());
+                parameters.put("afterId", query.getAfterId());
+            }
+            sql.append(" ORDER BY curr_amount, id");
+        } else {
+            if(query.getAfterId() != null) {
+                sql.append(" AND id > :afterId");
+                parameters.put("afterId", query.getAfterId());
+            }
+            sql.append(" ORDER BY id");
+        }
+        sql.append(" LIMIT ").append(query.getLimit());
+        GenericExecuteSpec select = client.sql(sql.toString());
+        for(Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            select = select.bind(parameter.getKey(), parameter.getValue());
+        }
+        return select.map((row, meta) -> toDocument(row))
+                .all();
+    }
+    
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String userId) {
+        return client.sql("SELECT type, COUNT(*) AS count, SUM(curr_amount) AS total FROM ledger_account WHERE owner_id = :owner GROUP BY type")
+                .bind("owner", userId)
+                .map((row, meta) -> AccountTypeTotal.builder()
+                        .type(row.get("type", String.class))
+                        .count(row.get("count", Long.class))
+                        .total(row.get("total", BigDecimal.class))
+                        .build())
+                .all();
+    }
+    
+    /*
+     * accounts created before opening_amount was added have none and 
+     * can't be reconciled
+     */
+    @Override
+    public Flux<CustomerAccount> findAllAccounts() {
+        return client.sql("SELECT id, owner_id, curr_amount, opening_amount, type FROM ledger_account")
+                .map((row, meta) -> {
+                    CustomerAccount account = toDocument(row);
+                    account.setOpeningAmount(row.get("opening_amount", BigDecimal.class));
+                    return account;
+                })
+                .all();
+    }
+    
+    private Mono<CustomerAccount> lock(String accountId) {
+        return client.sql("SELECT id, owner_id, curr_amount, type FROM ledger_account WHERE id = :id FOR UPDATE")
+                .bind("id", accountId)
+                .map((row, meta) -> toDocument(row))
+                .one();
+    }
+    
+    /*
+     * curr_amount is DECIMAL(19, 2), which rounds finer amounts without an
+     * error: amounts with fractions of a cent are rejected as invalid 
+     * before any sql runs, as in the engine store
+     */
+    private static Mono<Void> checkScale(String name, BigDecimal amount) {
+        return amount != null && amount.stripTrailingZeros().scale() > SCALE
+                ? Mono.error(new InvalidValueException(name, amount.toPlainString()))
+                : Mono.empty();
+    }
+    
+    private Mono<Void> setBalance(String accountId, Account account) {
+        return client.sql("UPDATE ledger_account SET curr_amount = :amount WHERE id = :id")
+                .bind("amount", account.getCurrAmount())
+                .bind("id", accountId)
+                .then();
+    }
+    
+    /*
+     * only called once the account wasn't found, to tell a missing user from
+     * a missing account
+     */
+    private <T> Mono<T> notFound(String userId, String accountId) {
+        return userRepository.existsById(userId)
+                .flatMap(exists -> Mono.error(exists 
+                        ? new AccountNotFoundException(accountId, userId)
+                        : new UserNotFoundException(userId)));
+    }
+    
+    private static CustomerAccount toDocument(Row row) {
+        return CustomerAccount.builder()
+                .id(row.get("id", String.class))
+                .ownerId(row.get("owner_id", String.class))
+                .currAmount(row.get("curr_amount", BigDecimal.class))
+                .type(row.get("type", String.class))
+                .build();
+    }
+
+    private static CustomerAccount adjusted(Row row) {
+        CustomerAccount account = toDocument(row);
+        account.setLastAdjustment(row.get("last_adjustment", String.class));
+        return account;
+    }
+
+    private static Account toAccount(CustomerAccount account) {
+        return Account.builder()
+                .id(account.getId())
+                .currAmount(account.getCurrAmount())
+                .type(account.getType())
+                .build();
+    }
+}
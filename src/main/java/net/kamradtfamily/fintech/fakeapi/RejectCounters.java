@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechException;
+import net.kamradtfamily.fintech.fakeapi.service.InvalidValueException;
+import net.kamradtfamily.fintech.fakeapi.service.MissingValueException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
+import net.kamradtfamily.fintech.fakeapi.service.UserNotFoundException;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Counts rejected requests by reason as fintech.rejects. The counters are
+ * registered up front so counting a reject is a map lookup and an 
+ * increment
+ * 
+ * @author randalkamradt
+ */
+@Component
+public class RejectCounters {
+    private final Map<Class<?>, Counter> counters = new HashMap<>();
+    
+    /**
+     *
+     * Create a new RejectCounters
+     * 
+     * @param meterRegistry where the counters are published
+     */
+    public RejectCounters(final MeterRegistry meterRegistry) {
+        for(Class<? extends FinTechException> reason : List.of(UserNotFoundException.class, 
+                AccountNotFoundException.class, 
+                NegativeValueNotAllowedException.class, 
+                MissingValueException.class, 
+                InvalidValueException.class)) {
+            counters.put(reason, Counter.builder("fintech.rejects")
+                    .description("requests rejected by the service")
+                    .tag("reason", reason.getSimpleName())
+                    .register(meterRegistry));
+        }
+    }
+    
+    /**
+     *
+     * Count a reject
+     * 
+     * @param reject the reason the request was rejected, anything other than
+     * a rejection by the service is ignored
+     */
+    public void count(Throwable reject) {
+        Counter counter = counters.get(reject.getClass());
+        if(counter != null) {
+            counter.increment();
+        }
+    }
+}
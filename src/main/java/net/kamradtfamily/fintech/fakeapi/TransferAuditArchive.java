@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.time.Instant;
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Cold storage for transfer audits that have aged out of the hot
+ * transfer audit collection
+ * 
+ * @author randalkamradt
+ */
+public interface TransferAuditArchive {
+
+    /**
+     *
+     * Archived transfers to or from an account, oldest first
+     * 
+     * @param accountId the account id
+     * @param from start of the range, inclusive, or null for no lower bound
+     * @param to end of the range, exclusive, or null for no upper bound
+     * @return the archived transfers
+     */
+    Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to);
+
+    /**
+     *
+     * The same as findByAccount but, for archives read from replicas, read
+     * from the primary
+     * 
+     * @param accountId the account id
+     * @param from start of the range, inclusive, or null for no lower bound
+     * @param to end of the range, exclusive, or null for no upper bound
+     * @return the archived transfers
+     */
+    default Flux<TransferAudit> findCurrentByAccount(String accountId, Instant from, Instant to) {
+        return findByAccount(accountId, from, to);
+    }
+
+    /**
+     *
+     * Archived transfers to or from any of several accounts, in no 
+     * particular order. A transfer between two of the accounts is found once
+     * 
+     * @param accountIds the account ids
+     * @return the archived transfers
+     */
+    Flux<TransferAudit> findByAccounts(Collection<String> accountIds);
+
+    /**
+     *
+     * Move transfer audits created before the cutoff out of the hot
+     * collection, in batches
+     * 
+     * @param cutoff audits created before this are moved
+     * @param batchSize the number of audits moved per batch
+     * @return the number of audits moved
+     */
+    Mono<Long> archiveBefore(Instant cutoff, int batchSize);
+}
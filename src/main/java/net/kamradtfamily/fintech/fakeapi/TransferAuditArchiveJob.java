@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Periodically moves transfer audits older than the configured horizon
+ * into the archive, so the hot collection and its indexes stay small
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class TransferAuditArchiveJob {
+    private final TransferAuditArchive archive;
+    private final ArchiveProperties properties;
+    
+    TransferAuditArchiveJob(final TransferAuditArchive archive,
+            final ArchiveProperties properties) {
+        this.archive = archive;
+        this.properties = properties;
+    }
+    
+    @Scheduled(fixedDelayString = "${fintech.archive.interval:PT1H}", initialDelayString = "${fintech.archive.interval:PT1H}")
+    public void archive() {
+        if(!properties.isEnabled()) {
+            return;
+        }
+        Instant cutoff = Instant.now().minus(properties.getHorizon());
+        Long moved = archive.archiveBefore(cutoff, properties.getBatchSize())
+                .block();
+        log.info("archived {} transfer audits created before {}", moved, cutoff);
+    }
+}
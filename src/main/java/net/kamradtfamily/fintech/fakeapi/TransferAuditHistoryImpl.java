@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.time.Instant;
+import java.util.Collection;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+/**
+ *
+ * Transfer history queries run with the history read preference
+ * 
+ * @author randalkamradt
+ */
+public class TransferAuditHistoryImpl implements TransferAuditHistory {
+    private final ReactiveMongoTemplate template;
+    private final ReactiveMongoTemplate historyTemplate;
+    
+    TransferAuditHistoryImpl(final ReactiveMongoTemplate template,
+            @Qualifier(MongoConfiguration.HISTORY_TEMPLATE) final ReactiveMongoTemplate historyTemplate) {
+        this.template = template;
+        this.historyTemplate = historyTemplate;
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to) {
+        return historyTemplate.find(accountQuery(accountId, from, to), TransferAudit.class);
+    }
+
+    @Override
+    public Flux<TransferAudit> findCurrentByAccount(String accountId, Instant from, Instant to) {
+        return template.find(accountQuery(accountId, from, to), TransferAudit.class);
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccounts(Collection<String> accountIds) {
+        return historyTemplate.find(accountsQuery(accountIds), TransferAudit.class);
+    }
+    
+    static Query accountsQuery(Collection<String> accountIds) {
+        return Query.query(new Criteria().orOperator(
+                    Criteria.where("fromAccount").in(accountIds),
+                    Criteria.where("toAccount").in(accountIds)));
+    }
+    
+    /*
+     * audits written before createdAt was added have none, they only match
+     * when there are no bounds
+     */
+    static Query accountQuery(String accountId, Instant from, Instant to) {
+        Query query = Query.query(new Criteria().orOperator(
+                    Criteria.where("fromAccount").is(accountId),
+                    Criteria.where("toAccount").is(accountId)))
+                .with(Sort.by("createdAt"));
+        if(from != null || to != null) {
+            Criteria range = Criteria.where("createdAt");
+            if(from != null) {
+                range = range.gte(from);
+            }
+            if(to != null) {
+                range = range.lt(to);
+            }
+            query.addCriteria(range);
+        }
+        return query;
+    }
+}
@@ -32,5 +32,6 @@ import org.springframework.stereotype.Repository;
  * @author randalkamradt
  */
 @Repository
-public interface TransferAuditReactiveRepository extends ReactiveMongoRepository<TransferAudit, String> {
+public interface TransferAuditReactiveRepository extends ReactiveMongoRepository<TransferAudit, String>,
+        TransferAuditHistory {
  }
@@ -32,5 +32,6 @@ import org.springframework.stereotype.Repository;
  * @author randalkamradt
  */
 @Repository
-public interface UserReactiveRepository extends ReactiveMongoRepository<Customer, String> {
+public interface UserReactiveRepository extends ReactiveMongoRepository<Customer, String>,
+        CustomerAccounts {
  }
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.io.IOException;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Loads the bootstrapped users once the application context is started, 
+ * rather than while the web endpoints are being created. By default the 
+ * start waits for them and fails if they cannot be saved, deferred they 
+ * are saved in the background while the first requests are served
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class UserSeeder {
+    private final FinTechService service;
+    private final SeedProperties properties;
+    
+    UserSeeder(final FinTechService service,
+            final SeedProperties properties) {
+        this.service = service;
+        this.properties = properties;
+    }
+    
+    @EventListener(ApplicationStartedEvent.class)
+    public void seed() throws IOException {
+        if(!properties.isDeferred()) {
+            service.initializeUsers();
+            return;
+        }
+        service.loadUsers()
+                .subscribe(count -> log.info("loaded {} bootstrapped users", count),
+                        e -> log.error("unable to load the bootstrapped users", e));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * Bloom filter over the account ids in a segment, lets a reader skip a 
+ * segment that has no transfers for an account without scanning it.
+ * Reads the bits straight from the (mapped) segment buffer
+ * 
+ * @author randalkamradt
+ */
+class AccountBloomFilter {
+    private final static int BITS_PER_ENTRY = 10;
+    final static int HASHES = 7;
+    
+    private final long[] bits;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int numBits;
+    
+    private AccountBloomFilter(long[] bits, ByteBuffer buffer, int offset, int numBits) {
+        this.bits = bits;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.numBits = numBits;
+    }
+    
+    /**
+     *
+     * A new, empty filter sized for the number of entries
+     */
+    static AccountBloomFilter create(int entries) {
+        int words = Math.max(1, (entries * BITS_PER_ENTRY + 63) / 64);
+        return new AccountBloomFilter(new long[words], null, 0, words * 64);
+    }
+    
+    /**
+     *
+     * A filter backed by a segment buffer
+     * 
+     * @param buffer the segment
+     * @param offset position of the first word of the filter
+     * @param words the number of 64 bit words in the filter
+     */
+    static AccountBloomFilter wrap(ByteBuffer buffer, int offset, int words) {
+        return new AccountBloomFilter(null, buffer, offset, words * 64);
+    }
+    
+    void add(String accountId) {
+        long hash = hash(accountId);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for(int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+    
+    boolean mightContain(String accountId) {
+        long hash = hash(accountId);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for(int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if((word(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    int words() {
+        return numBits / 64;
+    }
+    
+    void writeTo(ByteBuffer out) {
+        for(long word : bits) {
+            out.putLong(word);
+        }
+    }
+    
+    private long word(int index) {
+        return bits != null ? bits[index] : buffer.getLong(offset + index * 8);
+    }
+    
+    /*
+     * 64 bit FNV-1a over the chars followed by a murmur finalizer, String's 
+     * own hash code is too weak to derive several bit positions from
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
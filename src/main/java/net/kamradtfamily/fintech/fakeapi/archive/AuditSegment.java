@@ -0,0 +1,455 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+
+/**
+ *
+ * An immutable, column oriented file of archived transfer audits. 
+ * 
+ * Layout: a fixed header (magic, version, row count, min/max createdAt),
+ * a bloom filter over the account ids, the dictionary size, the start 
+ * offset of each column, the offset of each dictionary entry, the 
+ * dictionary of every account and user id in the segment, sorted by 
+ * their UTF-8 bytes, then the columns themselves. Account and user ids 
+ * are stored as varint indexes into the dictionary, createdAt as varint deltas from the previous row
+ * (rows are sorted by createdAt) and amounts as a varint scale plus a 
+ * zig-zag varint unscaled value.
+ * 
+ * A reader maps the file and decodes rows straight from the mapping, only
+ * the matching rows end up on the heap: an account is looked up with a
+ * binary search of the dictionary in the mapping, and only the ids of the
+ * matching rows are decoded. Segments
+ * outside a time range or whose bloom filter excludes the account are
+ * skipped without reading any column.
+ * 
+ * @author randalkamradt
+ */
+public class AuditSegment {
+    private final static int MAGIC = 0x46544153; // FTAS
+    private final static int VERSION = 2;
+    private final static int COLUMNS = 6;
+    private final static int ID = 0;
+    private final static int CREATED_AT = 1;
+    private final static int FROM_ACCOUNT = 2;
+    private final static int TO_ACCOUNT = 3;
+    private final static int TO_USER = 4;
+    private final static int AMOUNT = 5;
+    
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final long minCreatedAt;
+    private final long maxCreatedAt;
+    private final AccountBloomFilter bloomFilter;
+    private final int dictionarySize;
+    private final int dictionaryOffsets;
+    private final int[] columnOffsets = new int[COLUMNS];
+    
+    private AuditSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an audit segment " + path);
+        }
+        rowCount = buffer.getInt(8);
+        minCreatedAt = buffer.getLong(12);
+        maxCreatedAt = buffer.getLong(20);
+        int words = buffer.getInt(28);
+        bloomFilter = AccountBloomFilter.wrap(buffer, 32, words);
+        int position = 32 + words * 8;
+        dictionarySize = buffer.getInt(position);
+        position += 4;
+        for(int i = 0; i < COLUMNS; i++) {
+            columnOffsets[i] = buffer.getInt(position);
+            position += 4;
+        }
+        dictionaryOffsets = position;
+    }
+    
+    /**
+     *
+     * Map an existing segment file
+     * 
+     * @param path the segment file
+     * @return the segment
+     * @throws IOException if the file can't be read or isn't a segment
+     */
+    public static AuditSegment open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AuditSegment(path, buffer);
+        }
+    }
+    
+    /**
+     *
+     * Write audits to a new segment file. The file is written next to its
+     * final name and moved into place once it is complete, so readers never
+     * see a partial segment
+     * 
+     * @param path the segment file
+     * @param audits the audits, all of them must have a createdAt
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path path, List<TransferAudit> audits) throws IOException {
+        List<TransferAudit> rows = new ArrayList<>(audits);
+        rows.sort(Comparator.comparing(TransferAudit::getCreatedAt));
+        Set<String> accounts = new HashSet<>();
+        Set<String> entries = new HashSet<>();
+        for(TransferAudit row : rows) {
+            addToDictionary(entries, accounts, row.getFromAccount(), true);
+            addToDictionary(entries, accounts, row.getToAccount(), true);
+            addToDictionary(entries, accounts, row.getToUserId(), false);
+        }
+        List<byte[]> sorted = entries.stream()
+                .map(e -> e.getBytes(StandardCharsets.UTF_8))
+                .sorted(Arrays::compareUnsigned)
+                .collect(Collectors.toList());
+        Map<String, Integer> dictionary = new HashMap<>(sorted.size() * 2);
+        for(byte[] entry : sorted) {
+            dictionary.put(new String(entry, StandardCharsets.UTF_8), dictionary.size());
+        }
+        AccountBloomFilter bloomFilter = AccountBloomFilter.create(accounts.size());
+        accounts.forEach(bloomFilter::add);
+        ByteArrayOutputStream[] columns = new ByteArrayOutputStream[COLUMNS];
+        for(int i = 0; i < COLUMNS; i++) {
+            columns[i] = new ByteArrayOutputStream();
+        }
+        long minCreatedAt = rows.isEmpty() ? 0 : rows.get(0).getCreatedAt().toEpochMilli();
+        long maxCreatedAt = rows.isEmpty() ? 0 : rows.get(rows.size() - 1).getCreatedAt().toEpochMilli();
+        long previous = minCreatedAt;
+        for(TransferAudit row : rows) {
+            writeString(columns[ID], row.getId());
+            long createdAt = row.getCreatedAt().toEpochMilli();
+            Varint.write(columns[CREATED_AT], createdAt - previous);
+            previous = createdAt;
+            writeReference(columns[FROM_ACCOUNT], dictionary, row.getFromAccount());
+            writeReference(columns[TO_ACCOUNT], dictionary, row.getToAccount());
+            writeReference(columns[TO_USER], dictionary, row.getToUserId());
+            writeAmount(columns[AMOUNT], row.getAmount());
+        }
+        int dictionaryStart = 32 + bloomFilter.words() * 8 + 4 + COLUMNS * 4 + sorted.size() * 4;
+        int[] entryOffsets = new int[sorted.size()];
+        ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        for(int i = 0; i < sorted.size(); i++) {
+            entryOffsets[i] = dictionaryStart + dictionaryBytes.size();
+            byte[] entry = sorted.get(i);
+            Varint.write(dictionaryBytes, entry.length);
+            dictionaryBytes.write(entry, 0, entry.length);
+        }
+        int headerSize = dictionaryStart + dictionaryBytes.size();
+        int size = headerSize;
+        for(ByteArrayOutputStream column : columns) {
+            size += column.size();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(rows.size())
+                .putLong(minCreatedAt)
+                .putLong(maxCreatedAt)
+                .putInt(bloomFilter.words());
+        bloomFilter.writeTo(out);
+        out.putInt(sorted.size());
+        int offset = headerSize;
+        for(ByteArrayOutputStream column : columns) {
+            out.putInt(offset);
+            offset += column.size();
+        }
+        for(int entryOffset : entryOffsets) {
+            out.putInt(entryOffset);
+        }
+        out.put(dictionaryBytes.toByteArray());
+        for(ByteArrayOutputStream column : columns) {
+            out.put(column.toByteArray());
+        }
+        out.flip();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while(out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     *
+     * Transfers to or from an account in a time range, oldest first
+     * 
+     * @param accountId the account id
+     * @param from start of the range, inclusive, or null for no lower bound
+     * @param to end of the range, exclusive, or null for no upper bound
+     * @return the matching transfers
+     */
+    public List<TransferAudit> find(String accountId, Instant from, Instant to) {
+        if(!overlaps(from, to)) {
+            return new ArrayList<>();
+        }
+        return scan(references(List.of(accountId)), 
+                from == null ? Long.MIN_VALUE : from.toEpochMilli(), 
+                to == null ? Long.MAX_VALUE : to.toEpochMilli());
+    }
+    
+    /**
+     *
+     * Transfers to or from any of several accounts, oldest first, each 
+     * found once however many of the accounts it touches
+     * 
+     * @param accountIds the account ids
+     * @return the matching transfers
+     */
+    public List<TransferAudit> find(Collection<String> accountIds) {
+        return scan(references(accountIds), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    /*
+     * the dictionary references of the accounts in this segment, accounts
+     * excluded by the bloom filter are not looked up
+     */
+    private Set<Long> references(Collection<String> accountIds) {
+        Set<Long> references = new HashSet<>();
+        for(String accountId : accountIds) {
+            if(bloomFilter.mightContain(accountId)) {
+                int index = indexOf(accountId.getBytes(StandardCharsets.UTF_8));
+                if(index >= 0) { // else a bloom filter false positive
+                    references.add(index + 1L);
+                }
+            }
+        }
+        return references;
+    }
+    
+    /*
+     * binary search of the sorted dictionary, comparing the entries where
+     * they are mapped
+     */
+    private int indexOf(byte[] key) {
+        int low = 0;
+        int high = dictionarySize - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compareEntry(middle, key);
+            if(order < 0) {
+                low = middle + 1;
+            } else if(order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+    
+    private int compareEntry(int index, byte[] key) {
+        ByteBuffer in = entry(index);
+        int length = (int)Varint.read(in);
+        int position = in.position();
+        int common = Math.min(length, key.length);
+        for(int i = 0; i < common; i++) {
+            int order = Byte.toUnsignedInt(buffer.get(position + i)) - Byte.toUnsignedInt(key[i]);
+            if(order != 0) {
+                return order;
+            }
+        }
+        return length - key.length;
+    }
+    
+    private ByteBuffer entry(int index) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(buffer.getInt(dictionaryOffsets + index * 4));
+        return in;
+    }
+    
+    private List<TransferAudit> scan(Set<Long> references, long fromMillis, long toMillis) {
+        List<TransferAudit> result = new ArrayList<>();
+        if(rowCount == 0 || references.isEmpty()) {
+            return result;
+        }
+        ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+        for(int i = 0; i < COLUMNS; i++) {
+            columns[i] = buffer.duplicate();
+            columns[i].position(columnOffsets[i]);
+        }
+        long createdAt = minCreatedAt;
+        for(int row = 0; row < rowCount; row++) {
+            createdAt += Varint.read(columns[CREATED_AT]);
+            long fromAccount = Varint.read(columns[FROM_ACCOUNT]);
+            long toAccount = Varint.read(columns[TO_ACCOUNT]);
+            if(createdAt >= toMillis) {
+                break; // rows are in createdAt order
+            }
+            boolean matches = createdAt >= fromMillis 
+                    && (references.contains(fromAccount) || references.contains(toAccount));
+            if(matches) {
+                result.add(TransferAudit.builder()
+                        .id(readString(columns[ID]))
+                        .createdAt(Instant.ofEpochMilli(createdAt))
+                        .fromAccount(lookup(fromAccount))
+                        .toAccount(lookup(toAccount))
+                        .toUserId(lookup(Varint.read(columns[TO_USER])))
+                        .amount(readAmount(columns[AMOUNT]))
+                        .build());
+            } else {
+                skipString(columns[ID]);
+                Varint.read(columns[TO_USER]);
+                skipAmount(columns[AMOUNT]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     *
+     * true if some of the segment could be inside the time range
+     */
+    public boolean overlaps(Instant from, Instant to) {
+        return rowCount > 0
+                && (from == null || maxCreatedAt >= from.toEpochMilli())
+                && (to == null || minCreatedAt < to.toEpochMilli());
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    private String lookup(long reference) {
+        return reference == 0 ? null : readString(entry((int)reference - 1));
+    }
+    
+    private static void addToDictionary(Set<String> entries, Set<String> accounts, 
+            String value, boolean account) {
+        if(value != null) {
+            entries.add(value);
+        }
+        if(account && value != null) {
+            accounts.add(value);
+        }
+    }
+    
+    private static void writeReference(ByteArrayOutputStream out, Map<String, Integer> dictionary, String value) {
+        Varint.write(out, value == null ? 0 : dictionary.get(value) + 1);
+    }
+    
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Varint.write(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = (int)Varint.read(in);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void skipString(ByteBuffer in) {
+        int length = (int)Varint.read(in);
+        in.position(in.position() + length);
+    }
+    
+    /*
+     * 0 for null, otherwise (zig-zag scale << 1 | big) + 1 followed by the
+     * unscaled value as a zig-zag varint, or as length prefixed bytes when
+     * it doesn't fit in a long
+     */
+    private static void writeAmount(ByteArrayOutputStream out, BigDecimal amount) {
+        if(amount == null) {
+            Varint.write(out, 0);
+            return;
+        }
+        long scale = ((long)amount.scale() << 1) ^ ((long)amount.scale() >> 63);
+        BigInteger unscaled = amount.unscaledValue();
+        boolean big = unscaled.bitLength() > 63;
+        Varint.write(out, ((scale << 1) | (big ? 1 : 0)) + 1);
+        if(big) {
+            byte[] bytes = unscaled.toByteArray();
+            Varint.write(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else {
+            Varint.writeSigned(out, unscaled.longValue());
+        }
+    }
+    
+    private static BigDecimal readAmount(ByteBuffer in) {
+        long header = Varint.read(in);
+        if(header == 0) {
+            return null;
+        }
+        header--;
+        long zigzag = header >>> 1;
+        int scale = (int)((zigzag >>> 1) ^ -(zigzag & 1));
+        if((header & 1) == 1) {
+            byte[] bytes = new byte[(int)Varint.read(in)];
+            in.get(bytes);
+            return new BigDecimal(new BigInteger(bytes), scale);
+        }
+        return BigDecimal.valueOf(Varint.readSigned(in), scale);
+    }
+    
+    private static void skipAmount(ByteBuffer in) {
+        long header = Varint.read(in);
+        if(header == 0) {
+            return;
+        }
+        if(((header - 1) & 1) == 1) {
+            int length = (int)Varint.read(in);
+            in.position(in.position() + length);
+        } else {
+            Varint.read(in);
+        }
+    }
+}
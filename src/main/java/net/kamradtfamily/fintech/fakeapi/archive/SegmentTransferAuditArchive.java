@@ -0,0 +1,197 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.ArchiveProperties;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditArchive;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ *
+ * Transfer audit archive kept as segment files in a directory, one segment
+ * per archived batch. Selected with fintech.archive.store=segments
+ * 
+ * The segment names are kept in memory, the directory is only listed 
+ * again once its modification time has changed (segments archived by 
+ * another instance), and the most recently used segments stay mapped, up
+ * to fintech.archive.segment-cache-size
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(prefix = "fintech.archive", name = "store", havingValue = "segments")
+public class SegmentTransferAuditArchive implements TransferAuditArchive {
+    private final static String SUFFIX = ".fta";
+    
+    private final ReactiveMongoTemplate template;
+    private final ArchiveProperties properties;
+    private final Path directory;
+    private final Map<Path, AuditSegment> segments;
+    private volatile NavigableSet<Path> paths = new TreeSet<>();
+    private FileTime listedAt;
+    
+    SegmentTransferAuditArchive(final ReactiveMongoTemplate template,
+            final ArchiveProperties properties) throws IOException {
+        this.template = template;
+        this.properties = properties;
+        this.directory = properties.getSegmentDirectory();
+        this.segments = Collections.synchronizedMap(new LinkedHashMap<Path, AuditSegment>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, AuditSegment> eldest) {
+                return size() > properties.getSegmentCacheSize();
+            }
+        });
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to) {
+        if(from != null && from.isAfter(Instant.now().minus(properties.getHorizon()))) {
+            return Flux.empty(); // nothing in range can have been archived yet
+        }
+        return Flux.defer(() -> Flux.fromIterable(listSegments()))
+                .filter(s -> s.overlaps(from, to))
+                .concatMapIterable(s -> s.find(accountId, from, to))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccounts(Collection<String> accountIds) {
+        return Flux.defer(() -> Flux.fromIterable(listSegments()))
+                .concatMapIterable(s -> s.find(accountIds))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Long> archiveBefore(Instant cutoff, int batchSize) {
+        return moveBatch(cutoff, batchSize)
+                .expand(moved -> moved < batchSize 
+                        ? Mono.empty() 
+                        : moveBatch(cutoff, batchSize))
+                .reduce(0L, Long::sum);
+    }
+    
+    private Mono<Long> moveBatch(Instant cutoff, int batchSize) {
+        Query query = Query.query(Criteria.where("createdAt").lt(cutoff))
+                .with(Sort.by("createdAt"))
+                .limit(batchSize);
+        return template.find(query, TransferAudit.class)
+                .collectList()
+                .flatMap(batch -> batch.isEmpty() 
+                        ? Mono.just(0L)
+                        : Mono.fromCallable(() -> writeSegment(batch))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .flatMap(ids -> template.remove(Query.query(Criteria.where("id").in(ids)), TransferAudit.class))
+                            .thenReturn((long)batch.size()));
+    }
+    
+    /*
+     * the name comes from the batch itself, so a batch that is archived
+     * again after a run died before removing it from the hot collection
+     * replaces its earlier segment instead of duplicating it
+     */
+    private List<String> writeSegment(List<TransferAudit> batch) throws IOException {
+        TransferAudit first = batch.get(0);
+        Path path = directory.resolve(String.format("%016x-%s%s", 
+                first.getCreatedAt().toEpochMilli(), first.getId(), SUFFIX));
+        AuditSegment.write(path, batch);
+        segments.remove(path);
+        added(path);
+        log.debug("archived {} transfer audits to {}", batch.size(), path);
+        return batch.stream()
+                .map(TransferAudit::getId)
+                .collect(Collectors.toList());
+    }
+    
+    /*
+     * segment names start with the hex time of their first row so name
+     * order is time order
+     */
+    private List<AuditSegment> listSegments() {
+        return refresh().stream()
+                .map(p -> segments.computeIfAbsent(p, SegmentTransferAuditArchive::open))
+                .collect(Collectors.toList());
+    }
+    
+    /*
+     * the time is taken before listing, so a segment added during the 
+     * listing leads to another one next time
+     */
+    private synchronized NavigableSet<Path> refresh() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(directory);
+            if(!modified.equals(listedAt)) {
+                try(Stream<Path> files = Files.list(directory)) {
+                    paths = files
+                            .filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                            .collect(Collectors.toCollection(TreeSet::new));
+                }
+                listedAt = modified;
+            }
+            return paths;
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    private synchronized void added(Path path) {
+        NavigableSet<Path> added = new TreeSet<>(paths);
+        added.add(path);
+        paths = added;
+    }
+    
+    private static AuditSegment open(Path path) {
+        try {
+            return AuditSegment.open(path);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * LEB128 style variable length integers, with zig-zag encoding for values
+ * that may be negative
+ * 
+ * @author randalkamradt
+ */
+final class Varint {
+    
+    private Varint() {
+    }
+    
+    static void write(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7fL) != 0) {
+            out.write((int)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+    
+    static void writeSigned(ByteArrayOutputStream out, long value) {
+        write(out, (value << 1) ^ (value >> 63));
+    }
+    
+    /**
+     *
+     * read a value at the buffer's current position, advancing it
+     */
+    static long read(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+    
+    static long readSigned(ByteBuffer in) {
+        long value = read(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.data;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ *
+ * The number and total balance of the accounts of one type, as grouped
+ * by the database or added up one account at a time where it can't be
+ * 
+ * @author randalkamradt
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class AccountTypeTotal {
+    /** the account type, the group key, null for accounts without one */
+    private @Id String type;
+    private long count;
+    private BigDecimal total;
+    
+    /**
+     *
+     * @param type the account type
+     * @param balance the balance of one account
+     * @return the total of that account alone
+     */
+    public static AccountTypeTotal of(String type, BigDecimal balance) {
+        return new AccountTypeTotal(type, 1, balance);
+    }
+    
+    /**
+     *
+     * @param other the total of the same type from elsewhere
+     * @return the sum of both
+     */
+    public AccountTypeTotal plus(AccountTypeTotal other) {
+        return new AccountTypeTotal(type, count + other.count, total.add(other.total));
+    }
+}
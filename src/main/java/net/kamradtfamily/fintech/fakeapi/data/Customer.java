@@ -52,5 +52,11 @@ public class Customer {
         private String id;
         private BigDecimal currAmount;
         private String type;
+        /** the balance it was created with, none for accounts created before it was kept */
+        private BigDecimal openingAmount;
+        /** the group commit that last set the balance, to tell which of its conditional writes landed */
+        private String lastWrite;
+        /** the balance adjustment last applied to the balance, set in the same write */
+        private String lastAdjustment;
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.data;
+
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+/**
+ *
+ * An account stored as its own document rather than embedded in its
+ * customer. The balance is stored as a decimal so it can be filtered and
+ * sorted on, documents written before keep a string balance until their
+ * next balance update
+ * 
+ * @author randalkamradt
+ */
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Document("account")
+@CompoundIndexes({
+    @CompoundIndex(name = "owner_id", def = "{'ownerId': 1, '_id': 1}"),
+    @CompoundIndex(name = "owner_type_id", def = "{'ownerId': 1, 'type': 1, '_id': 1}"),
+    @CompoundIndex(name = "owner_balance_id", def = "{'ownerId': 1, 'currAmount': 1, '_id': 1}")
+})
+public class CustomerAccount {
+    private @Id String id;
+    private String ownerId;
+    private @Field(targetType = FieldType.DECIMAL128) BigDecimal currAmount;
+    private String type;
+    /** the balance it was created with, none for accounts created before it was kept */
+    private BigDecimal openingAmount;
+    /** the group commit that last set the balance, to tell which of its conditional writes landed */
+    private String lastWrite;
+    /** the balance adjustment last applied to the balance, set in the same write */
+    private String lastAdjustment;
+}
@@ -24,11 +24,16 @@
 package net.kamradtfamily.fintech.fakeapi.data;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
  *
@@ -38,10 +43,16 @@ import org.springframework.data.annotation.Id;
 @NoArgsConstructor
 @AllArgsConstructor
 @Data
+@Document
+@CompoundIndexes({
+    @CompoundIndex(name = "from_created", def = "{'fromAccount': 1, 'createdAt': 1}"),
+    @CompoundIndex(name = "to_created", def = "{'toAccount': 1, 'createdAt': 1}")
+})
 public class TransferAudit {
     private @Id String id;
     private String fromAccount;
     private String toAccount;
     private String toUserId;
     private BigDecimal amount;
+    private @Indexed Instant createdAt;
 }
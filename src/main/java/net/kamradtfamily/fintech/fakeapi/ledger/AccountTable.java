@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * Open addressing table of accounts keyed by account id, with the
+ * balances (in minor units) and owners held in parallel arrays. Slots move
+ * when the table grows so they are only good until the next add, the 
+ * index by owner holds account ids for that reason. Not thread safe, each
+ * table belongs to one partition thread
+ * 
+ * @author randalkamradt
+ */
+final class AccountTable {
+    private String [] ids;
+    private String [] owners;
+    private String [] types;
+    private long [] balances;
+    private final Map<String, List<String>> byOwner = new HashMap<>();
+    private int mask;
+    private int size;
+    
+    interface Visitor {
+        void visit(String id, String owner, String type, long balance);
+    }
+    
+    AccountTable(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+        ids = new String[tableSize];
+        owners = new String[tableSize];
+        types = new String[tableSize];
+        balances = new long[tableSize];
+        mask = tableSize - 1;
+    }
+    
+    /**
+     *
+     * @return the slot of the account or -1
+     */
+    int find(String id) {
+        int i = spread(id.hashCode()) & mask;
+        while(ids[i] != null) {
+            if(ids[i].equals(id)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     *
+     * @return the slot of the new account, or -1 if it already exists
+     */
+    int add(String id, String owner, String type, long balance) {
+        if(find(id) >= 0) {
+            return -1;
+        }
+        if((size + 1) * 2 > ids.length) {
+            grow();
+        }
+        size++;
+        byOwner.computeIfAbsent(owner, o -> new ArrayList<>(1)).add(id);
+        return insert(id, owner, type, balance);
+    }
+    
+    long balance(int slot) {
+        return balances[slot];
+    }
+    
+    void balance(int slot, long balance) {
+        balances[slot] = balance;
+    }
+    
+    String owner(int slot) {
+        return owners[slot];
+    }
+    
+    String type(int slot) {
+        return types[slot];
+    }
+    
+    String id(int slot) {
+        return ids[slot];
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    void forEach(Visitor visitor) {
+        for(int i = 0; i < ids.length; i++) {
+            if(ids[i] != null) {
+                visitor.visit(ids[i], owners[i], types[i], balances[i]);
+            }
+        }
+    }
+    
+    /**
+     *
+     * visit only the accounts of an owner, found on the index by owner
+     */
+    void forEachOf(String owner, Visitor visitor) {
+        for(String id : byOwner.getOrDefault(owner, List.of())) {
+            int i = find(id);
+            visitor.visit(ids[i], owners[i], types[i], balances[i]);
+        }
+    }
+    
+    private int insert(String id, String owner, String type, long balance) {
+        int i = spread(id.hashCode()) & mask;
+        while(ids[i] != null) {
+            i = (i + 1) & mask;
+        }
+        ids[i] = id;
+        owners[i] = owner;
+        types[i] = type;
+        balances[i] = balance;
+        return i;
+    }
+    
+    private void grow() {
+        String [] oldIds = ids;
+        String [] oldOwners = owners;
+        String [] oldTypes = types;
+        long [] oldBalances = balances;
+        ids = new String[oldIds.length * 2];
+        owners = new String[ids.length];
+        types = new String[ids.length];
+        balances = new long[ids.length];
+        mask = ids.length - 1;
+        for(int i = 0; i < oldIds.length; i++) {
+            if(oldIds[i] != null) {
+                insert(oldIds[i], oldOwners[i], oldTypes[i], oldBalances[i]);
+            }
+        }
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
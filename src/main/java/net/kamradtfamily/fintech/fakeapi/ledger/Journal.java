@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Append only journal in a memory mapped file. The file starts with a
+ * header and is then mapped one chunk at a time; a record is 
+ * 
+ * type(1) length(4) payload(length) crc32(4)
+ * 
+ * and never spans chunks, the rest of a chunk that can't hold the next
+ * record is skipped with a pad byte. Zeroes (unwritten space) end the
+ * journal, as does a record whose crc doesn't match, which is where a 
+ * crash tore the last group of writes. Appends only reach the disk on 
+ * force, callers group records and force once per group
+ * 
+ * @author randalkamradt
+ */
+final class Journal implements Closeable {
+    static final byte END = 0;
+    static final byte PAD = 1;
+    static final byte CREATE = 2;
+    static final byte TRANSFER = 3;
+    static final byte SET = 4;
+    static final byte OUT = 5;
+    static final byte IN = 6;
+    static final byte WRITTEN = 7;
+    static final byte AUDIT = 8;
+    
+    private static final int MAGIC = 0x4c4a524e; // LJRN
+    private static final int HEADER_SIZE = 8;
+    private static final int OVERHEAD = 1 + 4 + 4;
+    
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final ByteBuffer payload = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private boolean dirty;
+    
+    interface Handler {
+        void record(byte type, ByteBuffer payload);
+    }
+    
+    /**
+     *
+     * create a new, empty journal
+     */
+    Journal(Path file, int chunkSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.chunkSize = chunkSize;
+        this.chunkStart = 0;
+        this.chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+        chunk.putInt(MAGIC);
+        chunk.putInt(chunkSize);
+        dirty = true;
+    }
+    
+    /**
+     *
+     * start a record, the payload is written with the put methods and the
+     * record with append
+     */
+    Journal begin() {
+        payload.clear();
+        return this;
+    }
+    
+    Journal putLong(long value) {
+        payload.putLong(value);
+        return this;
+    }
+    
+    Journal putString(String value) {
+        if(value == null) {
+            payload.putShort((short)-1);
+        } else {
+            byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+            payload.putShort((short)bytes.length);
+            payload.put(bytes);
+        }
+        return this;
+    }
+    
+    void append(byte type) {
+        payload.flip();
+        int length = payload.remaining();
+        if(chunk.remaining() < length + OVERHEAD + 1) {
+            nextChunk();
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        chunk.put(type);
+        chunk.putInt(length);
+        chunk.put(payload);
+        chunk.putInt((int)crc.getValue());
+        dirty = true;
+    }
+    
+    /**
+     *
+     * make everything appended so far durable
+     */
+    void force() {
+        if(dirty) {
+            chunk.force();
+            dirty = false;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+    
+    private void nextChunk() {
+        chunk.put(PAD);
+        force();
+        chunkStart += chunkSize;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, chunkSize);
+        } catch (IOException ex) {
+            throw new JournalException("unable to extend journal", ex);
+        }
+    }
+    
+    /**
+     *
+     * hand every intact record of a journal file to the handler, in order
+     * 
+     * @return the number of records
+     */
+    static long replay(Path file, Handler handler) throws IOException {
+        long count = 0;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE) {
+                return 0;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if(header.getInt() != MAGIC) {
+                throw new IOException("not a journal " + file);
+            }
+            int chunkSize = header.getInt();
+            CRC32 crc = new CRC32();
+            for(long start = 0; start < size; start += chunkSize) {
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, 
+                        Math.min(chunkSize, size - start));
+                if(start == 0) {
+                    chunk.position(HEADER_SIZE);
+                }
+                while(true) {
+                    byte type = chunk.remaining() > 0 ? chunk.get() : END;
+                    if(type == END) {
+                        return count;
+                    }
+                    if(type == PAD) {
+                        break;
+                    }
+                    if(chunk.remaining() < 4) {
+                        return count;
+                    }
+                    int length = chunk.getInt();
+                    if(length < 0 || chunk.remaining() < length + 4) {
+                        return count;
+                    }
+                    ByteBuffer record = chunk.slice();
+                    record.limit(length);
+                    chunk.position(chunk.position() + length);
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(record.duplicate());
+                    if(chunk.getInt() != (int)crc.getValue()) {
+                        return count;
+                    }
+                    handler.record(type, record);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if(length < 0) {
+            return null;
+        }
+        byte [] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
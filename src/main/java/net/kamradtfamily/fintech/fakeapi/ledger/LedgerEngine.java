@@ -0,0 +1,699 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ *
+ * In memory ledger. Accounts are spread over partitions by id, each owned
+ * by a single thread fed through a ring buffer, so balances are changed
+ * without locks. Every change is journaled and the journal forced once per
+ * group of commands before any of them is answered.
+ * 
+ * A transfer within a partition is one journal record. A transfer between
+ * partitions checks the to account, then debits the from account with an
+ * OUT record and credits the to account with an IN record carrying the 
+ * same transfer id. 
+ * 
+ * Transfers are journaled with their id, owners and time, so a transfer is
+ * answered once its journal record is durable and only then handed to the
+ * transfer writer, to be audited outside the engine. Once written, its id
+ * is journaled in a WRITTEN record.
+ * 
+ * On startup the last snapshot is loaded and the journals written since
+ * are replayed; an OUT without its IN (a crash between the two) is credited
+ * then. Transfers without a WRITTEN record are journaled again, as AUDIT
+ * records, in the journals of the new run and handed to the writer once 
+ * more. The result is written as the next snapshot and the old journals 
+ * removed, so the journals only ever cover one run
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+public class LedgerEngine implements Closeable {
+    private static final Pattern SNAPSHOT = Pattern.compile("ledger-(\\d+)\\.snapshot");
+    private static final Pattern JOURNAL = Pattern.compile("journal-(\\d+)-(\\d+)\\.journal");
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    
+    private final Partition [] partitions;
+    
+    /**
+     *
+     * Recover the ledger kept in a directory, creating it if needed, and
+     * start the partition threads. Transfers are not recorded anywhere else
+     * 
+     * @param directory where snapshots and journals are kept
+     * @param partitionCount the number of partitions (and threads)
+     * @param ringSize commands each partition can queue, a power of two
+     * @param journalChunkSize bytes mapped at a time for journals
+     * @throws IOException if the ledger can't be read or written
+     */
+    public LedgerEngine(Path directory, int partitionCount, int ringSize, int journalChunkSize) throws IOException {
+        this(directory, partitionCount, ringSize, journalChunkSize, (transfers, replayed) -> Mono.empty());
+    }
+    
+    /**
+     *
+     * Recover the ledger kept in a directory, creating it if needed, start
+     * the partition threads and hand the writer the transfers recovered
+     * unwritten, then every transfer once it is durable
+     * 
+     * @param directory where snapshots and journals are kept
+     * @param partitionCount the number of partitions (and threads)
+     * @param ringSize commands each partition can queue, a power of two
+     * @param journalChunkSize bytes mapped at a time for journals
+     * @param writer where transfers are recorded outside the engine
+     * @throws IOException if the ledger can't be read or written
+     */
+    public LedgerEngine(Path directory, int partitionCount, int ringSize, int journalChunkSize,
+            TransferWriter writer) throws IOException {
+        if(journalChunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("journal chunk size must be at least " + MIN_CHUNK_SIZE);
+        }
+        Files.createDirectories(directory);
+        AccountTable [] tables = new AccountTable[partitionCount];
+        for(int i = 0; i < partitionCount; i++) {
+            tables[i] = new AccountTable(1024);
+        }
+        List<LedgerTransfer> unwritten = new ArrayList<>();
+        long generation = recover(directory, tables, unwritten) + 1;
+        // left by a start that stopped before its snapshot was written
+        removeJournals(directory, generation);
+        Journal [] journals = new Journal[partitionCount];
+        List<List<LedgerTransfer>> carried = new ArrayList<>(partitionCount);
+        for(int i = 0; i < partitionCount; i++) {
+            journals[i] = new Journal(directory.resolve("journal-" + generation + "-" + i + ".journal"), journalChunkSize);
+            carried.add(new ArrayList<>());
+        }
+        for(LedgerTransfer transfer : unwritten) {
+            int i = partitionOf(transfer.getFromId(), partitionCount);
+            transfer.put(journals[i].begin()).append(Journal.AUDIT);
+            carried.get(i).add(transfer);
+        }
+        for(Journal journal : journals) {
+            journal.force();
+        }
+        Snapshot.write(directory.resolve("ledger-" + generation + ".snapshot"), generation, tables);
+        removeBefore(directory, generation);
+        partitions = new Partition[partitionCount];
+        for(int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, tables[i], journals[i], ringSize, writer);
+        }
+        for(int i = 0; i < partitionCount; i++) {
+            partitions[i].start();
+            if(!carried.get(i).isEmpty()) {
+                partitions[i].publish(carried.get(i), true);
+            }
+        }
+    }
+    
+    /**
+     *
+     * @param accountId the account
+     * @return the account, or empty if there is no such account
+     */
+    public Mono<LedgerAccount> find(String accountId) {
+        return submit(partitionOf(accountId), sink -> new Find(sink, accountId));
+    }
+    
+    /**
+     *
+     * Every account, one partition after the other. Each partition is 
+     * scanned whole by its own thread, holding up its other commands 
+     * meanwhile, so this is for jobs rather than requests
+     * 
+     * @return the accounts, in no particular order
+     */
+    public Flux<LedgerAccount> findAll() {
+        return scan(null);
+    }
+    
+    /**
+     *
+     * The accounts of some users. Accounts are partitioned by id, so every
+     * partition is asked, but each only visits the accounts of the users
+     * found on its index by owner, so this is cheap enough for requests
+     * 
+     * @param ownerIds the users
+     * @return their accounts, in no particular order
+     */
+    public Flux<LedgerAccount> findByOwners(Collection<String> ownerIds) {
+        return scan(new HashSet<>(ownerIds));
+    }
+    
+    /**
+     *
+     * @param accountId the new account's id
+     * @param ownerId the user owning it
+     * @param type the account type
+     * @param balance the opening balance in minor units
+     * @return the account, or an IllegalStateException error if the id is
+     * already used
+     */
+    public Mono<LedgerAccount> create(String accountId, String ownerId, String type, long balance) {
+        return submit(partitionOf(accountId), sink -> new Create(sink, accountId, ownerId, type, balance));
+    }
+    
+    /**
+     *
+     * @param accountId the account
+     * @param ownerId the user owning it
+     * @param balance the new balance in minor units
+     * @return true if the account was found
+     */
+    public Mono<Boolean> setBalance(String accountId, String ownerId, long balance) {
+        return submit(partitionOf(accountId), sink -> new SetBalance(sink, accountId, ownerId, balance));
+    }
+    
+    /**
+     *
+     * @param accountId the account
+     * @param ownerId the user owning it
+     * @param expected the balance in minor units the account must still have
+     * @param balance the new balance in minor units
+     * @return true if the balance was replaced, false if it wasn't the 
+     * expected one, empty if the account was not found
+     */
+    public Mono<Boolean> replaceBalance(String accountId, String ownerId, long expected, long balance) {
+        return submit(partitionOf(accountId), sink -> new ReplaceBalance(sink, accountId, ownerId, expected, balance));
+    }
+    
+    /**
+     *
+     * Move an amount between accounts, as a transfer with a random id made
+     * now
+     * 
+     * @param fromId the account to debit
+     * @param fromOwnerId the user that must own it
+     * @param toId the account to credit
+     * @param toOwnerId the user that must own it
+     * @param amount the amount in minor units
+     * @return the outcome with both accounts as they are after the transfer
+     */
+    public Mono<TransferResult> transfer(String fromId, String fromOwnerId, String toId, String toOwnerId, long amount) {
+        return transfer(new LedgerTransfer(UUID.randomUUID().toString(), fromId, fromOwnerId, 
+                toId, toOwnerId, amount, System.currentTimeMillis()));
+    }
+    
+    /**
+     *
+     * Move an amount between accounts. The transfer is journaled with the
+     * balances and handed to the transfer writer once durable. Once the 
+     * from account has been debited the credit happens even if the caller
+     * goes away
+     * 
+     * @param transfer the accounts, the users that must own them, the 
+     * amount in minor units and the id and time to journal
+     * @return the outcome with both accounts as they are after the transfer
+     */
+    public Mono<TransferResult> transfer(LedgerTransfer transfer) {
+        int from = partitionOf(transfer.getFromId());
+        int to = partitionOf(transfer.getToId());
+        if(from == to) {
+            return submit(from, sink -> new Transfer(sink, transfer));
+        }
+        return this.<Boolean>submit(to, sink -> new Check(sink, transfer.getToId(), transfer.getToOwnerId()))
+                .flatMap(found -> found
+                        ? submit(from, sink -> new Debit(sink, ThreadLocalRandom.current().nextLong(), 
+                                ThreadLocalRandom.current().nextLong(), transfer, partitions[to]))
+                        : Mono.just(TransferResult.failed(TransferResult.Status.TO_NOT_FOUND)));
+    }
+    
+    /**
+     *
+     * stop the partitions after they have run the commands already queued
+     * and close the journals. The next start replays them
+     */
+    @Override
+    public void close() throws IOException {
+        for(Partition partition : partitions) {
+            partition.close();
+        }
+    }
+    
+    /*
+     * answered on a parallel scheduler so callers never run on, and hold up,
+     * a partition thread
+     */
+    private <T> Mono<T> submit(int partition, Function<MonoSink<T>, Partition.Command<T>> command) {
+        return Mono.<T>create(sink -> partitions[partition].submit(command.apply(sink)))
+                .publishOn(Schedulers.parallel());
+    }
+    
+    private Flux<LedgerAccount> scan(Set<String> ownerIds) {
+        return Flux.range(0, partitions.length)
+                .concatMap(i -> this.<List<LedgerAccount>>submit(i, sink -> new Scan(sink, ownerIds)))
+                .concatMapIterable(accounts -> accounts);
+    }
+    
+    private int partitionOf(String accountId) {
+        return partitionOf(accountId, partitions.length);
+    }
+    
+    private static int partitionOf(String accountId, int count) {
+        return Math.floorMod(accountId.hashCode() * 0x9e3779b9, count);
+    }
+    
+    /*
+     * the generation recovered, the transfers without a WRITTEN record are
+     * added to unwritten
+     */
+    private static long recover(Path directory, AccountTable [] tables, List<LedgerTransfer> unwritten) throws IOException {
+        long generation = 0;
+        Path snapshot = null;
+        for(Path file : list(directory)) {
+            Matcher matcher = SNAPSHOT.matcher(file.getFileName().toString());
+            if(matcher.matches() && Long.parseLong(matcher.group(1)) >= generation) {
+                generation = Long.parseLong(matcher.group(1));
+                snapshot = file;
+            }
+        }
+        if(snapshot != null) {
+            Snapshot.read(snapshot, (id, owner, type, balance) -> 
+                    tables[partitionOf(id, tables.length)].add(id, owner, type, balance));
+        }
+        Recovery recovery = new Recovery();
+        long records = 0;
+        for(Path file : list(directory)) {
+            Matcher matcher = JOURNAL.matcher(file.getFileName().toString());
+            if(matcher.matches() && Long.parseLong(matcher.group(1)) == generation) {
+                records += Journal.replay(file, (type, payload) -> apply(tables, type, payload, recovery));
+            }
+        }
+        int settled = 0;
+        for(Map.Entry<UUID, LedgerTransfer> out : recovery.outs.entrySet()) {
+            if(!recovery.ins.contains(out.getKey())) {
+                credit(tables, out.getValue().getToId(), out.getValue().getAmount());
+                settled++;
+            }
+        }
+        for(LedgerTransfer transfer : recovery.journaled.values()) {
+            if(!recovery.written.contains(transfer.getId())) {
+                unwritten.add(transfer);
+            }
+        }
+        log.info("ledger recovered from generation {}, replayed {} journal records, settled {} interrupted transfers, "
+                + "{} transfers left to write", generation, records, settled, unwritten.size());
+        return generation;
+    }
+    
+    private static void apply(AccountTable [] tables, byte type, ByteBuffer payload, Recovery recovery) {
+        switch(type) {
+            case Journal.CREATE: {
+                String id = Journal.getString(payload);
+                String owner = Journal.getString(payload);
+                String accountType = Journal.getString(payload);
+                tables[partitionOf(id, tables.length)].add(id, owner, accountType, payload.getLong());
+                break;
+            }
+            case Journal.TRANSFER: {
+                LedgerTransfer transfer = LedgerTransfer.get(payload);
+                credit(tables, transfer.getFromId(), -transfer.getAmount());
+                credit(tables, transfer.getToId(), transfer.getAmount());
+                recovery.journaled.put(transfer.getId(), transfer);
+                break;
+            }
+            case Journal.SET: {
+                String id = Journal.getString(payload);
+                AccountTable table = tables[partitionOf(id, tables.length)];
+                table.balance(table.find(id), payload.getLong());
+                break;
+            }
+            case Journal.OUT: {
+                UUID transferId = new UUID(payload.getLong(), payload.getLong());
+                LedgerTransfer transfer = LedgerTransfer.get(payload);
+                credit(tables, transfer.getFromId(), -transfer.getAmount());
+                recovery.outs.put(transferId, transfer);
+                recovery.journaled.put(transfer.getId(), transfer);
+                break;
+            }
+            case Journal.IN: {
+                UUID transferId = new UUID(payload.getLong(), payload.getLong());
+                String to = Journal.getString(payload);
+                credit(tables, to, payload.getLong());
+                recovery.ins.add(transferId);
+                break;
+            }
+            case Journal.AUDIT: {
+                LedgerTransfer transfer = LedgerTransfer.get(payload);
+                recovery.journaled.put(transfer.getId(), transfer);
+                break;
+            }
+            case Journal.WRITTEN: {
+                long count = payload.getLong();
+                for(long i = 0; i < count; i++) {
+                    recovery.written.add(Journal.getString(payload));
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown journal record " + type);
+        }
+    }
+    
+    private static void credit(AccountTable [] tables, String id, long amount) {
+        AccountTable table = tables[partitionOf(id, tables.length)];
+        int slot = table.find(id);
+        table.balance(slot, table.balance(slot) + amount);
+    }
+    
+    private static void removeJournals(Path directory, long generation) throws IOException {
+        for(Path file : list(directory)) {
+            Matcher journal = JOURNAL.matcher(file.getFileName().toString());
+            if(journal.matches() && Long.parseLong(journal.group(1)) == generation) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    private static void removeBefore(Path directory, long generation) throws IOException {
+        for(Path file : list(directory)) {
+            String name = file.getFileName().toString();
+            Matcher snapshot = SNAPSHOT.matcher(name);
+            Matcher journal = JOURNAL.matcher(name);
+            if((snapshot.matches() && Long.parseLong(snapshot.group(1)) < generation)
+                    || (journal.matches() && Long.parseLong(journal.group(1)) < generation)) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    private static List<Path> list(Path directory) throws IOException {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+    
+    /*
+     * what replaying the journals of a run has found besides balances
+     */
+    private static final class Recovery {
+        final Map<UUID, LedgerTransfer> outs = new HashMap<>();
+        final Set<UUID> ins = new HashSet<>();
+        final Map<String, LedgerTransfer> journaled = new LinkedHashMap<>();
+        final Set<String> written = new HashSet<>();
+    }
+    
+    private static final class Find extends Partition.Command<LedgerAccount> {
+        private final String accountId;
+        
+        Find(MonoSink<LedgerAccount> sink, String accountId) {
+            super(sink);
+            this.accountId = accountId;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int slot = table.find(accountId);
+            result = slot < 0 ? null : Partition.account(table, slot);
+        }
+    }
+    
+    private static final class Scan extends Partition.Command<List<LedgerAccount>> {
+        private final Set<String> ownerIds;
+        
+        Scan(MonoSink<List<LedgerAccount>> sink, Set<String> ownerIds) {
+            super(sink);
+            this.ownerIds = ownerIds;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            List<LedgerAccount> accounts = new ArrayList<>();
+            AccountTable.Visitor add = (id, owner, type, balance) -> 
+                    accounts.add(new LedgerAccount(id, owner, type, balance));
+            if(ownerIds == null) {
+                table.forEach(add);
+            } else {
+                for(String ownerId : ownerIds) {
+                    table.forEachOf(ownerId, add);
+                }
+            }
+            result = accounts;
+        }
+    }
+    
+    private static final class Create extends Partition.Command<LedgerAccount> {
+        private final String accountId;
+        private final String ownerId;
+        private final String type;
+        private final long balance;
+        
+        Create(MonoSink<LedgerAccount> sink, String accountId, String ownerId, String type, long balance) {
+            super(sink);
+            this.accountId = accountId;
+            this.ownerId = ownerId;
+            this.type = type;
+            this.balance = balance;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int slot = table.add(accountId, ownerId, type, balance);
+            if(slot < 0) {
+                throw new IllegalStateException("account " + accountId + " already exists");
+            }
+            journal.begin()
+                    .putString(accountId)
+                    .putString(ownerId)
+                    .putString(type)
+                    .putLong(balance)
+                    .append(Journal.CREATE);
+            result = Partition.account(table, slot);
+        }
+    }
+    
+    private static final class SetBalance extends Partition.Command<Boolean> {
+        private final String accountId;
+        private final String ownerId;
+        private final long balance;
+        
+        SetBalance(MonoSink<Boolean> sink, String accountId, String ownerId, long balance) {
+            super(sink);
+            this.accountId = accountId;
+            this.ownerId = ownerId;
+            this.balance = balance;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int slot = Partition.owned(table, accountId, ownerId);
+            if(slot >= 0) {
+                table.balance(slot, balance);
+                journal.begin()
+                        .putString(accountId)
+                        .putLong(balance)
+                        .append(Journal.SET);
+            }
+            result = slot >= 0;
+        }
+    }
+    
+    private static final class ReplaceBalance extends Partition.Command<Boolean> {
+        private final String accountId;
+        private final String ownerId;
+        private final long expected;
+        private final long balance;
+        
+        ReplaceBalance(MonoSink<Boolean> sink, String accountId, String ownerId, long expected, long balance) {
+            super(sink);
+            this.accountId = accountId;
+            this.ownerId = ownerId;
+            this.expected = expected;
+            this.balance = balance;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int slot = Partition.owned(table, accountId, ownerId);
+            if(slot < 0) {
+                result = null;
+            } else if(table.balance(slot) != expected) {
+                result = false;
+            } else {
+                table.balance(slot, balance);
+                journal.begin()
+                        .putString(accountId)
+                        .putLong(balance)
+                        .append(Journal.SET);
+                result = true;
+            }
+        }
+    }
+    
+    private static final class Transfer extends Partition.Command<TransferResult> {
+        private final LedgerTransfer transfer;
+        
+        Transfer(MonoSink<TransferResult> sink, LedgerTransfer transfer) {
+            super(sink);
+            this.transfer = transfer;
+        }
+        
+        /*
+         * a transfer to the same account changes no balance but is still
+         * journaled, to be written
+         */
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int from = Partition.owned(table, transfer.getFromId(), transfer.getFromOwnerId());
+            int to = Partition.owned(table, transfer.getToId(), transfer.getToOwnerId());
+            if(from < 0) {
+                result = TransferResult.failed(TransferResult.Status.FROM_NOT_FOUND);
+            } else if(to < 0) {
+                result = TransferResult.failed(TransferResult.Status.TO_NOT_FOUND);
+            } else if(table.balance(from) < transfer.getAmount()) {
+                result = TransferResult.failed(TransferResult.Status.INSUFFICIENT_FUNDS);
+            } else {
+                if(from != to) {
+                    table.balance(from, table.balance(from) - transfer.getAmount());
+                    table.balance(to, table.balance(to) + transfer.getAmount());
+                }
+                transfer.put(journal.begin()).append(Journal.TRANSFER);
+                completed = transfer;
+                result = new TransferResult(TransferResult.Status.OK, 
+                        Partition.account(table, from), Partition.account(table, to));
+            }
+        }
+    }
+    
+    private static final class Check extends Partition.Command<Boolean> {
+        private final String accountId;
+        private final String ownerId;
+        
+        Check(MonoSink<Boolean> sink, String accountId, String ownerId) {
+            super(sink);
+            this.accountId = accountId;
+            this.ownerId = ownerId;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            result = Partition.owned(table, accountId, ownerId) >= 0;
+        }
+    }
+    
+    /*
+     * the first half of a transfer between partitions, once the debit is 
+     * durable the credit is forwarded to the to partition, which answers
+     * the caller. The OUT record carries the whole transfer, so recovery
+     * can settle and write it without its IN
+     */
+    private static final class Debit extends Partition.Command<TransferResult> {
+        private final long idHigh;
+        private final long idLow;
+        private final LedgerTransfer transfer;
+        private final Partition target;
+        
+        Debit(MonoSink<TransferResult> sink, long idHigh, long idLow, LedgerTransfer transfer, Partition target) {
+            super(sink);
+            this.idHigh = idHigh;
+            this.idLow = idLow;
+            this.transfer = transfer;
+            this.target = target;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int from = Partition.owned(table, transfer.getFromId(), transfer.getFromOwnerId());
+            if(from < 0) {
+                result = TransferResult.failed(TransferResult.Status.FROM_NOT_FOUND);
+            } else if(table.balance(from) < transfer.getAmount()) {
+                result = TransferResult.failed(TransferResult.Status.INSUFFICIENT_FUNDS);
+            } else {
+                table.balance(from, table.balance(from) - transfer.getAmount());
+                transfer.put(journal.begin()
+                                .putLong(idHigh)
+                                .putLong(idLow))
+                        .append(Journal.OUT);
+                result = new TransferResult(TransferResult.Status.OK, Partition.account(table, from), null);
+            }
+        }
+        
+        @Override
+        void complete(RuntimeException forceFailure) {
+            if(failure != null || forceFailure != null || result.getStatus() != TransferResult.Status.OK) {
+                super.complete(forceFailure);
+            } else {
+                target.forward(new Credit(sink(), idHigh, idLow, transfer, result.getFrom()));
+            }
+        }
+    }
+    
+    /*
+     * the second half, the transfer is written once the credit is durable
+     */
+    private static final class Credit extends Partition.Command<TransferResult> {
+        private final long idHigh;
+        private final long idLow;
+        private final LedgerTransfer transfer;
+        private final LedgerAccount from;
+        
+        Credit(MonoSink<TransferResult> sink, long idHigh, long idLow, LedgerTransfer transfer, LedgerAccount from) {
+            super(sink);
+            this.idHigh = idHigh;
+            this.idLow = idLow;
+            this.transfer = transfer;
+            this.from = from;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            int to = table.find(transfer.getToId());
+            table.balance(to, table.balance(to) + transfer.getAmount());
+            journal.begin()
+                    .putLong(idHigh)
+                    .putLong(idLow)
+                    .putString(transfer.getToId())
+                    .putLong(transfer.getAmount())
+                    .append(Journal.IN);
+            completed = transfer;
+            result = new TransferResult(TransferResult.Status.OK, from, Partition.account(table, to));
+        }
+    }
+}
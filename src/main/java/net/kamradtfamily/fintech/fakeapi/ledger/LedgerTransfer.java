@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.nio.ByteBuffer;
+import lombok.Value;
+
+/**
+ *
+ * A transfer as journaled by the ledger engine, with everything needed to
+ * record it elsewhere. The amount is in minor units (cents), the time in 
+ * epoch milliseconds
+ * 
+ * @author randalkamradt
+ */
+@Value
+public class LedgerTransfer {
+    String id;
+    String fromId;
+    String fromOwnerId;
+    String toId;
+    String toOwnerId;
+    long amount;
+    long createdAt;
+    
+    Journal put(Journal journal) {
+        return journal.putString(id)
+                .putString(fromId)
+                .putString(fromOwnerId)
+                .putString(toId)
+                .putString(toOwnerId)
+                .putLong(amount)
+                .putLong(createdAt);
+    }
+    
+    static LedgerTransfer get(ByteBuffer payload) {
+        return new LedgerTransfer(Journal.getString(payload), 
+                Journal.getString(payload), 
+                Journal.getString(payload), 
+                Journal.getString(payload), 
+                Journal.getString(payload), 
+                payload.getLong(), 
+                payload.getLong());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ *
+ * One partition of the ledger: its accounts, its journal and the single
+ * thread that owns them. Commands are taken off the ring buffer in groups,
+ * each is applied to the table and journaled, then the group is forced to
+ * disk once and only then are the callers answered. The transfers the 
+ * group completed are handed to the transfer feed just before
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+final class Partition implements Runnable {
+    private static final int MAX_GROUP = 256;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final long FULL_PARK_NANOS = 10_000L;
+    
+    private final RingBuffer<Command<?>> ring;
+    private final AccountTable table;
+    private final Journal journal;
+    private final TransferFeed feed;
+    private final Thread thread;
+    private final List<Command<?>> group = new ArrayList<>(MAX_GROUP);
+    private volatile boolean running = true;
+    private volatile boolean sleeping;
+    
+    Partition(int index, AccountTable table, Journal journal, int ringSize, TransferWriter writer) {
+        this.ring = new RingBuffer<>(ringSize);
+        this.table = table;
+        this.journal = journal;
+        this.feed = new TransferFeed(this, writer);
+        this.thread = new Thread(this, "ledger-" + index);
+        this.thread.setDaemon(true);
+    }
+    
+    void start() {
+        thread.start();
+    }
+    
+    /**
+     *
+     * hand transfers that are already durable to the transfer writer
+     */
+    void publish(List<LedgerTransfer> transfers, boolean replayed) {
+        feed.publish(transfers, replayed);
+    }
+    
+    /**
+     *
+     * queue a command, waiting for room if the ring is full
+     */
+    void submit(Command<?> command) {
+        while(!ring.offer(command)) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        wake();
+    }
+    
+    /**
+     *
+     * queue a command from another partition's thread, which must never 
+     * wait on this partition
+     */
+    void forward(Command<?> command) {
+        if(ring.offer(command)) {
+            wake();
+        } else {
+            Schedulers.boundedElastic().schedule(() -> submit(command));
+        }
+    }
+    
+    @Override
+    public void run() {
+        while(true) {
+            int count = ring.drain(this::execute, MAX_GROUP);
+            if(count == 0) {
+                if(!running) {
+                    break;
+                }
+                sleeping = true;
+                if(ring.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+                continue;
+            }
+            RuntimeException failure = null;
+            try {
+                journal.force();
+            } catch (RuntimeException ex) {
+                log.error("unable to force ledger journal", ex);
+                failure = ex;
+            }
+            if(failure == null) {
+                publishTransfers();
+            }
+            for(Command<?> command : group) {
+                command.complete(failure);
+            }
+            group.clear();
+        }
+    }
+    
+    void close() throws IOException {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+    
+    private void publishTransfers() {
+        List<LedgerTransfer> transfers = null;
+        for(Command<?> command : group) {
+            if(command.failure == null && command.completed != null) {
+                if(transfers == null) {
+                    transfers = new ArrayList<>();
+                }
+                transfers.add(command.completed);
+            }
+        }
+        if(transfers != null) {
+            feed.publish(transfers, false);
+        }
+    }
+    
+    private void wake() {
+        if(sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+    
+    private void execute(Command<?> command) {
+        try {
+            command.execute(table, journal);
+        } catch (RuntimeException ex) {
+            command.failure = ex;
+        }
+        group.add(command);
+    }
+    
+    /**
+     *
+     * a request to a partition, executed on its thread and answered once
+     * its journal records are durable
+     */
+    abstract static class Command<T> {
+        private final MonoSink<T> sink;
+        T result;
+        RuntimeException failure;
+        /** the transfer the command completed and journaled, if any */
+        LedgerTransfer completed;
+        
+        Command(MonoSink<T> sink) {
+            this.sink = sink;
+        }
+        
+        abstract void execute(AccountTable table, Journal journal);
+        
+        void complete(RuntimeException forceFailure) {
+            if(failure != null || forceFailure != null) {
+                sink.error(failure != null ? failure : forceFailure);
+            } else if(result == null) {
+                sink.success();
+            } else {
+                sink.success(result);
+            }
+        }
+        
+        MonoSink<T> sink() {
+            return sink;
+        }
+    }
+    
+    static LedgerAccount account(AccountTable table, int slot) {
+        return new LedgerAccount(table.id(slot), table.owner(slot), table.type(slot), table.balance(slot));
+    }
+    
+    /*
+     * the slot of an account owned by the owner, or -1
+     */
+    static int owned(AccountTable table, String accountId, String ownerId) {
+        int slot = table.find(accountId);
+        return slot >= 0 && table.owner(slot).equals(ownerId) ? slot : -1;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ *
+ * Bounded multi producer, single consumer ring buffer. Producers claim a
+ * sequence with a CAS and publish into its slot, the consumer takes slots
+ * in sequence order and frees them for the next lap
+ * 
+ * @author randalkamradt
+ */
+final class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private long next; // only touched by the consumer
+    
+    RingBuffer(int capacity) {
+        if(Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, got " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+    
+    /**
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(T item) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if(sequence - consumed.get() > mask) {
+                return false;
+            }
+        } while(!claimed.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int)sequence & mask, item);
+        return true;
+    }
+    
+    /**
+     *
+     * hand up to max published items to the handler, stops early at a slot
+     * that is claimed but not yet published
+     * 
+     * @return the number of items handled
+     */
+    int drain(Consumer<T> handler, int max) {
+        int count = 0;
+        while(count < max) {
+            int index = (int)next & mask;
+            T item = slots.get(index);
+            if(item == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            consumed.lazySet(++next);
+            handler.accept(item);
+            count++;
+        }
+        return count;
+    }
+    
+    boolean isEmpty() {
+        return slots.get((int)next & mask) == null;
+    }
+}
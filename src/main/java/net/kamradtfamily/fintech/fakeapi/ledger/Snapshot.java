@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ *
+ * Every account of every partition, written to a temporary file and 
+ * renamed into place so a snapshot is either complete or absent
+ * 
+ * magic(4) generation(8) count(4) (id owner type balance)* crc32(4)
+ * 
+ * @author randalkamradt
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x4c534e50; // LSNP
+    
+    private Snapshot() {
+    }
+    
+    static void write(Path file, long generation, AccountTable [] tables) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        for(AccountTable table : tables) {
+            count += table.size();
+        }
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(count);
+            for(AccountTable table : tables) {
+                table.forEach((id, owner, type, balance) -> {
+                    try {
+                        out.writeUTF(id);
+                        out.writeUTF(owner);
+                        out.writeBoolean(type != null);
+                        if(type != null) {
+                            out.writeUTF(type);
+                        }
+                        out.writeLong(balance);
+                    } catch (IOException ex) {
+                        throw new JournalException("unable to write snapshot", ex);
+                    }
+                });
+            }
+            out.writeInt((int)checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     *
+     * @return the generation of the snapshot
+     */
+    static long read(Path file, AccountTable.Visitor visitor) throws IOException {
+        try(InputStream in = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+            if(data.readInt() != MAGIC) {
+                throw new IOException("not a snapshot " + file);
+            }
+            long generation = data.readLong();
+            int count = data.readInt();
+            for(int i = 0; i < count; i++) {
+                String id = data.readUTF();
+                String owner = data.readUTF();
+                String type = data.readBoolean() ? data.readUTF() : null;
+                visitor.visit(id, owner, type, data.readLong());
+            }
+            int expected = (int)checked.getChecksum().getValue();
+            if(data.readInt() != expected) {
+                throw new IOException("corrupt snapshot " + file);
+            }
+            return generation;
+        }
+    }
+}
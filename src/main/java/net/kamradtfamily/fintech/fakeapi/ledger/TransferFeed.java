@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.retry.Retry;
+
+/**
+ *
+ * Hands the transfers of one partition to the transfer writer, one batch
+ * at a time and in journal order, retrying a batch until it is written. 
+ * The ids of a written batch are then journaled in a WRITTEN record, so
+ * recovery only hands on the transfers written after the last of them
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+final class TransferFeed {
+    private static final int MAX_IDS_PER_RECORD = 512;
+    private static final Duration FIRST_RETRY = Duration.ofMillis(100);
+    private static final Duration MAX_RETRY = Duration.ofSeconds(10);
+    
+    private FluxSink<Batch> batches;
+    
+    TransferFeed(Partition partition, TransferWriter writer) {
+        Flux.<Batch>create(sink -> batches = sink)
+                .concatMap(b -> Mono.defer(() -> writer.write(b.transfers, b.replayed))
+                        .doOnError(e -> log.error("unable to write {} journaled transfers, retrying", 
+                                b.transfers.size(), e))
+                        .retryWhen(Retry.backoff(Long.MAX_VALUE, FIRST_RETRY).maxBackoff(MAX_RETRY))
+                        .then(Mono.fromRunnable(() -> journalWritten(partition, b.transfers))))
+                .subscribe();
+    }
+    
+    /**
+     *
+     * queue transfers to be written, they must already be durable
+     */
+    void publish(List<LedgerTransfer> transfers, boolean replayed) {
+        batches.next(new Batch(transfers, replayed));
+    }
+    
+    /*
+     * forwarded, the writer may answer on the partition's own thread
+     */
+    private static void journalWritten(Partition partition, List<LedgerTransfer> transfers) {
+        for(int i = 0; i < transfers.size(); i += MAX_IDS_PER_RECORD) {
+            List<String> ids = transfers.subList(i, Math.min(transfers.size(), i + MAX_IDS_PER_RECORD))
+                    .stream()
+                    .map(LedgerTransfer::getId)
+                    .collect(Collectors.toList());
+            Mono.<Void>create(sink -> partition.forward(new Written(sink, ids)))
+                    .subscribe(null, e -> log.error("unable to journal written transfers", e));
+        }
+    }
+    
+    private static final class Batch {
+        final List<LedgerTransfer> transfers;
+        final boolean replayed;
+        
+        Batch(List<LedgerTransfer> transfers, boolean replayed) {
+            this.transfers = transfers;
+            this.replayed = replayed;
+        }
+    }
+    
+    private static final class Written extends Partition.Command<Void> {
+        private final List<String> ids;
+        
+        Written(MonoSink<Void> sink, List<String> ids) {
+            super(sink);
+            this.ids = ids;
+        }
+        
+        @Override
+        void execute(AccountTable table, Journal journal) {
+            journal.begin().putLong(ids.size());
+            for(String id : ids) {
+                journal.putString(id);
+            }
+            journal.append(Journal.WRITTEN);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.util.List;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Where the ledger engine sends its transfers once they are durable in its
+ * journal, to be recorded outside of it (audits, history). The engine has
+ * already answered them by then
+ * 
+ * @author randalkamradt
+ */
+public interface TransferWriter {
+
+    /**
+     *
+     * Record transfers. Called from a partition thread, so it must not 
+     * block; a partition hands one batch at a time
+     * 
+     * @param transfers transfers durable in the journal, in journal order
+     * @param replayed true for transfers found unwritten on recovery, some
+     * of which may have been partly written before the restart
+     * @return completes when written, on error the batch is handed again
+     * after a pause
+     */
+    Mono<Void> write(List<LedgerTransfer> transfers, boolean replayed);
+}
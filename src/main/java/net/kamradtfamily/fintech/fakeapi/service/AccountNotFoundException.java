@@ -27,7 +27,7 @@ package net.kamradtfamily.fintech.fakeapi.service;
  *
  * @author randalkamradt
  */
-public class AccountNotFoundException extends RuntimeException {
+public class AccountNotFoundException extends FinTechException {
     public AccountNotFoundException(String accountId, String userId) {
         super("Account " + accountId + " not found for user " + userId);
     }
@@ -24,15 +24,19 @@
 package net.kamradtfamily.fintech.fakeapi.service;
 
 import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  *
  * @author randalkamradt
  */
-@Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
 public class AccountPayload {
    String id;
    BigDecimal currAmount;
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+
+/**
+ *
+ * Computes the periodic adjustment (interest, fees) of the accounts of one
+ * type. Rules declared as beans take the place of the rate and fee 
+ * configured for their type
+ * 
+ * @author randalkamradt
+ */
+public interface AdjustmentRule {
+    /**
+     *
+     * @return the account type this rule applies to
+     */
+    String getType();
+    
+    /**
+     *
+     * @param account an account of the type, with its current balance
+     * @return the amount to add to the balance, negative to take off, zero
+     * for none
+     */
+    BigDecimal adjustment(CustomerAccount account);
+}
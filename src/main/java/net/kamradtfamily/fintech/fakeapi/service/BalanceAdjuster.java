@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.AdjustableAccountStore;
+import net.kamradtfamily.fintech.fakeapi.AccountVersionStore;
+import net.kamradtfamily.fintech.fakeapi.AdjustmentProperties;
+import net.kamradtfamily.fintech.fakeapi.CheckpointStore;
+import net.kamradtfamily.fintech.fakeapi.DailyRollupStore;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.UserReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+
+/**
+ *
+ * Applies periodic adjustments (interest, fees) to every account with a 
+ * rule for its type. Customers are read in id order, a batch of them at a
+ * time, and several batches are adjusted at once: the accounts of a batch
+ * are read together, adjusted by their rule and written back with one 
+ * bulk write each for audits, balances, daily rollups and versions. Each
+ * adjustment is audited as a transfer from or to the adjustments account,
+ * so statements and reconciliation see it.
+ * <p>
+ * After each batch (in customer order) the run is checkpointed, a run 
+ * that stopped resumes after the last checkpointed customer. Audit ids are
+ * made from the run and the account, so an account is never audited 
+ * twice. Audits are written before balances, and each balance is written
+ * together with the id of the adjustment applied to it: a resumed run 
+ * applies the audited adjustments whose id the account doesn't carry, and
+ * skips the ones it does. Balances are only written if unchanged since 
+ * they were read; an account changed meanwhile (by a transfer) is read 
+ * again and its audited adjustment applied to the new balance. Rollups are
+ * recorded after balances, a stop between the two leaves the rollups of 
+ * that batch short
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class BalanceAdjuster {
+    /** the other side of adjustment audits */
+    public static final String ADJUSTMENTS = "adjustments";
+    
+    private final UserReactiveRepository userRepository;
+    private final AccountStore accountStore;
+    private final TransferAuditReactiveRepository transferAuditRepository;
+    private final DailyRollupStore dailyRollupStore;
+    private final AccountVersionStore accountVersionStore;
+    private final CheckpointStore checkpointStore;
+    private final AdjustmentProperties properties;
+    private final Map<String, AdjustmentRule> rules = new HashMap<>();
+    
+    /**
+     *
+     * Create a new BalanceAdjuster
+     * 
+     * @param userRepository the customers, read in id order
+     * @param accountStore account storage, must be able to list the 
+     * accounts of users and, as an AdjustableAccountStore, mark adjusted
+     * balances
+     * @param transferAuditRepository where the adjustments are audited
+     * @param dailyRollupStore daily per account totals
+     * @param accountVersionStore account versions, bumped once per batch
+     * @param checkpointStore where runs are checkpointed
+     * @param rules rules for account types, replacing the configured ones
+     * @param properties batch size, parallelism and configured rules
+     */
+    public BalanceAdjuster(final UserReactiveRepository userRepository,
+            final AccountStore accountStore,
+            final TransferAuditReactiveRepository transferAuditRepository,
+            final DailyRollupStore dailyRollupStore,
+            final AccountVersionStore accountVersionStore,
+            final CheckpointStore checkpointStore,
+            final List<AdjustmentRule> rules,
+            final AdjustmentProperties properties) {
+        this.userRepository = userRepository;
+        this.accountStore = accountStore;
+        this.transferAuditRepository = transferAuditRepository;
+        this.dailyRollupStore = dailyRollupStore;
+        this.accountVersionStore = accountVersionStore;
+        this.checkpointStore = checkpointStore;
+        this.properties = properties;
+        properties.getRules().forEach((type, rule) -> 
+                this.rules.put(type, new RateAndFeeRule(type, rule.getRate(), rule.getFee())));
+        rules.forEach(rule -> this.rules.put(rule.getType(), rule));
+    }
+    
+    /**
+     *
+     * Run, or resume, an adjustment. A finished run does nothing
+     * 
+     * @param runId identifies the run, for example the month adjusted
+     * @return the number of accounts the run adjusted
+     */
+    public Mono<Long> run(String runId) {
+        if(!(accountStore instanceof AdjustableAccountStore)) {
+            return Mono.error(new UnsupportedOperationException("this account store cannot mark adjusted balances"));
+        }
+        String checkpointId = "adjustment-" + runId;
+        return checkpointStore.find(checkpointId)
+                .defaultIfEmpty(Checkpoint.builder().id(checkpointId).build())
+                .flatMap(checkpoint -> checkpoint.isFinished()
+                        ? Mono.just(checkpoint.getCount())
+                        : resume(runId, checkpoint));
+    }
+    
+    private Mono<Long> resume(String runId, Checkpoint checkpoint) {
+        if(checkpoint.getLastId() != null) {
+            log.info("resuming adjustment {} after customer {}", runId, checkpoint.getLastId());
+        }
+        return batches(checkpoint.getLastId())
+                .flatMapSequential(userIds -> adjust(runId, userIds)
+                        .map(n -> Tuples.of(userIds.get(userIds.size() - 1), n)), 
+                    properties.getParallelism(), 1)
+                .concatMap(done -> {
+                    checkpoint.setLastId(done.getT1());
+                    checkpoint.setCount(checkpoint.getCount() + done.getT2());
+                    return checkpointStore.save(checkpoint);
+                })
+                .then(Mono.defer(() -> {
+                    checkpoint.setFinished(true);
+                    return checkpointStore.save(checkpoint);
+                }))
+                .then(Mono.fromSupplier(checkpoint::getCount));
+    }
+    
+    private Flux<List<String>> batches(String afterId) {
+        return batch(afterId)
+                .expand(ids -> ids.size() < properties.getBatchSize() 
+                        ? Mono.empty() 
+                        : batch(ids.get(ids.size() - 1)));
+    }
+    
+    private Mono<List<String>> batch(String afterId) {
+        return userRepository.findIdsAfter(afterId, properties.getBatchSize())
+                .collectList()
+                .filter(ids -> !ids.isEmpty());
+    }
+    
+    /*
+     * adjusts the accounts of a batch of customers, skipping the ones 
+     * already adjusted by this run; returns the number adjusted
+     */
+    private Mono<Integer> adjust(String runId, List<String> userIds) {
+        return accountStore.findAccountsOf(userIds)
+                .filter(a -> rules.containsKey(a.getType()))
+                .collectList()
+                .flatMap(accounts -> adjustAccounts(runId, accounts));
+    }
+    
+    private Mono<Integer> adjustAccounts(String runId, List<CustomerAccount> accounts) {
+        return transferAuditRepository.findAllById(accounts.stream()
+                        .map(a -> auditId(runId, a.getId()))
+                        .collect(Collectors.toList()))
+                .collectMap(TransferAudit::getId)
+                .flatMap(audited -> write(runId, accounts, audited));
+    }
+    
+    /*
+     * audits the adjustments not audited yet, then applies to the balances
+     * every audited adjustment not applied yet; accounts changed meanwhile
+     * are read and adjusted again
+     */
+    private Mono<Integer> write(String runId, List<CustomerAccount> accounts, Map<String, TransferAudit> audited) {
+        Instant now = Instant.now();
+        List<TransferAudit> audits = new ArrayList<>();
+        List<TransferAudit> corrected = new ArrayList<>();
+        Map<String, TransferAudit> applied = new HashMap<>();
+        List<CustomerAccount> changed = new ArrayList<>();
+        Map<String, BigDecimal> expected = new HashMap<>();
+        for(CustomerAccount account : accounts) {
+            String auditId = auditId(runId, account.getId());
+            if(auditId.equals(account.getLastAdjustment())) {
+                continue;
+            }
+            TransferAudit audit = audited.get(auditId);
+            // a fee never takes a balance below zero
+            BigDecimal amount = (audit == null 
+                        ? rules.get(account.getType()).adjustment(account)
+                        : signed(audit, account.getId()))
+                    .max(account.getCurrAmount().negate());
+            if(audit == null && amount.signum() == 0) {
+                continue;
+            }
+            boolean debit = amount.signum() < 0;
+            TransferAudit adjustment = TransferAudit.builder()
+                    .id(auditId)
+                    .amount(amount.abs())
+                    .fromAccount(debit ? account.getId() : ADJUSTMENTS)
+                    .toAccount(debit ? ADJUSTMENTS : account.getId())
+                    .toUserId(debit ? null : account.getOwnerId())
+                    .createdAt(audit == null ? now : audit.getCreatedAt())
+                    .build();
+            if(audit == null) {
+                audits.add(adjustment);
+            } else if(audit.getAmount().compareTo(amount.abs()) != 0) {
+                // the balance dropped below the audited fee meanwhile
+                corrected.add(adjustment);
+            }
+            applied.put(account.getId(), adjustment);
+            expected.put(account.getId(), account.getCurrAmount());
+            changed.add(CustomerAccount.builder()
+                    .id(account.getId())
+                    .ownerId(account.getOwnerId())
+                    .currAmount(account.getCurrAmount().add(amount))
+                    .type(account.getType())
+                    .openingAmount(account.getOpeningAmount())
+                    .lastAdjustment(auditId)
+                    .build());
+        }
+        if(changed.isEmpty()) {
+            return Mono.just(0);
+        }
+        return transferAuditRepository.insert(audits)
+                .thenMany(transferAuditRepository.saveAll(corrected))
+                .then(((AdjustableAccountStore)accountStore).adjustBalances(changed, expected))
+                .flatMap(stale -> {
+                    List<CustomerAccount> written = changed.stream()
+                            .filter(a -> !stale.contains(a.getId()))
+                            .collect(Collectors.toList());
+                    Map<String, DailyRollup> rollups = new HashMap<>();
+                    for(CustomerAccount account : written) {
+                        TransferAudit adjustment = applied.get(account.getId());
+                        boolean debit = adjustment.getFromAccount().equals(account.getId());
+                        TransferPipeline.rollup(rollups, account.getId(), 
+                                LocalDate.ofInstant(adjustment.getCreatedAt(), ZoneOffset.UTC), 
+                                debit ? adjustment.getAmount() : BigDecimal.ZERO, 
+                                debit ? BigDecimal.ZERO : adjustment.getAmount());
+                    }
+                    Mono<Integer> retried = stale.isEmpty()
+                            ? Mono.just(0)
+                            : accountStore.findAccounts(changed.stream()
+                                            .filter(a -> stale.contains(a.getId()))
+                                            .map(a -> new AccountKey(a.getOwnerId(), a.getId()))
+                                            .collect(Collectors.toList()))
+                                    .collectList()
+                                    .flatMap(again -> adjustAccounts(runId, again));
+                    return dailyRollupStore.recordAll(rollups.values())
+                            .then(accountVersionStore.bumpAll(written.stream()
+                                    .map(a -> new AccountKey(a.getOwnerId(), a.getId()))
+                                    .collect(Collectors.toList())))
+                            .then(retried)
+                            .map(n -> n + written.size());
+                });
+    }
+    
+    /*
+     * the adjustment an audit made to an account, negative for a fee
+     */
+    private static BigDecimal signed(TransferAudit audit, String accountId) {
+        return audit.getFromAccount().equals(accountId) 
+                ? audit.getAmount().negate() 
+                : audit.getAmount();
+    }
+    
+    private static String auditId(String runId, String accountId) {
+        return runId + "-" + accountId;
+    }
+}
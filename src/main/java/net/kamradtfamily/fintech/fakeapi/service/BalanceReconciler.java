@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.ReconcileProperties;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditArchive;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+
+/**
+ *
+ * Checks every account balance against the balance its audits add up to:
+ * the opening balance plus the credits minus the debits of its transfers,
+ * hot and archived. Balances and audits are written separately, so a 
+ * failure between the writes leaves them apart. The accounts are streamed
+ * from a cursor in batches, the audits of a batch are read with one query
+ * of the hot audits and one of the archive and summed as they stream by.
+ * The batches are spread over parallel rails, each checking a bounded 
+ * number of batches at a time, so memory stays bounded however many 
+ * accounts and audits there are. A transfer in flight makes an account 
+ * look off for a moment, so a mismatched account is checked again after
+ * a delay and only reported if it is still off
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+public class BalanceReconciler {
+    private final AccountStore accountStore;
+    private final TransferAuditReactiveRepository transferAuditRepository;
+    private final TransferAuditArchive transferAuditArchive;
+    private final Optional<SubLedger> subLedger;
+    private final ReconcileProperties properties;
+    private final Counter checkedCounter;
+    private final Counter mismatchedCounter;
+    private final Counter unverifiedCounter;
+    
+    /**
+     *
+     * Create a new BalanceReconciler
+     * 
+     * @param accountStore account storage, must be able to list all accounts
+     * @param transferAuditRepository the hot transfer audits
+     * @param transferAuditArchive the archived transfer audits
+     * @param subLedger the slots of sharded accounts, if any
+     * @param properties parallelism and recheck delay
+     * @param meterRegistry where the reconciled account counts are published
+     */
+    public BalanceReconciler(final AccountStore accountStore,
+            final TransferAuditReactiveRepository transferAuditRepository,
+            final TransferAuditArchive transferAuditArchive,
+            final Optional<SubLedger> subLedger,
+            final ReconcileProperties properties,
+            final MeterRegistry meterRegistry) {
+        this.accountStore = accountStore;
+        this.transferAuditRepository = transferAuditRepository;
+        this.transferAuditArchive = transferAuditArchive;
+        this.subLedger = subLedger;
+        this.properties = properties;
+        this.checkedCounter = counter(meterRegistry, "checked");
+        this.mismatchedCounter = counter(meterRegistry, "mismatched");
+        this.unverifiedCounter = counter(meterRegistry, "unverified");
+    }
+    
+    /**
+     *
+     * Reconcile all accounts. Mismatches are logged as they are found
+     * 
+     * @return the counts of checked, mismatched and unverifiable accounts
+     */
+    public Mono<ReconciliationReport> reconcile() {
+        long start = System.nanoTime();
+        AtomicLong checked = new AtomicLong();
+        AtomicLong mismatched = new AtomicLong();
+        AtomicLong unverified = new AtomicLong();
+        return accountStore.findAllAccounts()
+                .filter(account -> {
+                    if(account.getOpeningAmount() == null) {
+                        unverified.incrementAndGet();
+                        unverifiedCounter.increment();
+                        return false;
+                    }
+                    checked.incrementAndGet();
+                    checkedCounter.increment();
+                    return true;
+                })
+                .buffer(properties.getBatchSize())
+                .parallel(properties.getParallelism())
+                .runOn(Schedulers.parallel())
+                .flatMap(batch -> expected(batch)
+                        .flatMapMany(expected -> Flux.fromIterable(batch)
+                                .flatMap(account -> balance(account)
+                                        .filter(balance -> balance.compareTo(expected.get(account.getId())) != 0)
+                                        .flatMap(first -> recheck(account))
+                                        .filter(BalanceReconciler::mismatch)
+                                        .doOnNext(t -> {
+                                            mismatched.incrementAndGet();
+                                            mismatchedCounter.increment();
+                                            log.warn("account {} of user {} has a balance of {}, its audits add up to {}",
+                                                    account.getId(), account.getOwnerId(), 
+                                                    t.getT1().toPlainString(), t.getT2().toPlainString());
+                                        }))), 
+                        false, properties.getConcurrency())
+                .sequential()
+                .then(Mono.fromSupplier(() -> new ReconciliationReport(checked.get(), mismatched.get(), 
+                        unverified.get(), Duration.ofNanos(System.nanoTime() - start))));
+    }
+    
+    /*
+     * reads the account again after the delay, an account that has gone
+     * meanwhile is not reported
+     */
+    private Mono<Tuple2<BigDecimal, BigDecimal>> recheck(CustomerAccount account) {
+        return Mono.delay(properties.getRecheckDelay())
+                .then(accountStore.findAccount(account.getOwnerId(), account.getId()))
+                .map(a -> CustomerAccount.builder()
+                        .id(a.getId())
+                        .ownerId(account.getOwnerId())
+                        .currAmount(a.getCurrAmount())
+                        .type(a.getType())
+                        .openingAmount(account.getOpeningAmount())
+                        .build())
+                .flatMap(this::amounts)
+                .onErrorResume(AccountNotFoundException.class, e -> Mono.empty())
+                .onErrorResume(UserNotFoundException.class, e -> Mono.empty());
+    }
+    
+    /*
+     * the balance (with the slots of a sharded account) and what the 
+     * audits add up to
+     */
+    private Mono<Tuple2<BigDecimal, BigDecimal>> amounts(CustomerAccount account) {
+        return Mono.zip(balance(account), expected(List.of(account))
+                .map(expected -> expected.get(account.getId())));
+    }
+    
+    private Mono<BigDecimal> balance(CustomerAccount account) {
+        if(subLedger.isEmpty() || !subLedger.get().isSharded(account.getId())) {
+            return Mono.just(account.getCurrAmount());
+        }
+        return subLedger.get().withSlots(Account.builder()
+                    .id(account.getId())
+                    .currAmount(account.getCurrAmount())
+                    .type(account.getType())
+                    .build())
+                .map(Account::getCurrAmount);
+    }
+    
+    /*
+     * what the audits of each account add up to. The hot audits are read 
+     * before the archive, so an audit archived in between is found in both
+     * and counted once. Only the ids of the hot audits are kept, and those
+     * are the few not archived yet
+     */
+    private Mono<Map<String, BigDecimal>> expected(List<CustomerAccount> accounts) {
+        List<String> accountIds = accounts.stream()
+                .map(CustomerAccount::getId)
+                .collect(Collectors.toList());
+        return Mono.defer(() -> {
+            Set<String> hot = new HashSet<>();
+            return transferAuditRepository.findByAccounts(accountIds)
+                    .doOnNext(audit -> hot.add(audit.getId()))
+                    .concatWith(Flux.defer(() -> transferAuditArchive.findByAccounts(accountIds)
+                            .filter(audit -> !hot.contains(audit.getId()))))
+                    .reduceWith(() -> accounts.stream()
+                                .collect(Collectors.toMap(CustomerAccount::getId, CustomerAccount::getOpeningAmount)), 
+                            BalanceReconciler::apply);
+        });
+    }
+    
+    private static Map<String, BigDecimal> apply(Map<String, BigDecimal> expected, TransferAudit audit) {
+        expected.computeIfPresent(audit.getFromAccount(), (id, balance) -> balance.subtract(audit.getAmount()));
+        expected.computeIfPresent(audit.getToAccount(), (id, balance) -> balance.add(audit.getAmount()));
+        return expected;
+    }
+    
+    private static boolean mismatch(Tuple2<BigDecimal, BigDecimal> amounts) {
+        return amounts.getT1().compareTo(amounts.getT2()) != 0;
+    }
+    
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("fintech.reconcile.accounts")
+                .description("accounts reconciled with their transfer audits")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -27,17 +27,34 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Duration;
-import java.util.UUID;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.kamradtfamily.fintech.fakeapi.AccountQuery;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.AccountVersionStore;
+import net.kamradtfamily.fintech.fakeapi.DailyRollupStore;
+import net.kamradtfamily.fintech.fakeapi.JournalingAccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditArchive;
 import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
 import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import net.kamradtfamily.fintech.fakeapi.UserReactiveRepository;
 import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
 import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
-import reactor.util.function.Tuple2;
-import reactor.util.function.Tuples;
 
 /**
  *
@@ -48,23 +65,60 @@ import reactor.util.function.Tuples;
  */
 @Component
 public class FinTechService {
+    /** the accounts in a page when no limit is asked for */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    /** the most accounts in a page */
+    public static final int MAX_PAGE_SIZE = 500;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final UserReactiveRepository userRepository;
+    private final AccountStore accountStore;
     private final TransferAuditReactiveRepository transferAuditRepository;
+    private final TransferAuditArchive transferAuditArchive;
+    private final DailyRollupStore dailyRollupStore;
+    private final AccountVersionStore accountVersionStore;
+    private final IdGenerator idGenerator;
+    private final Optional<TransferPipeline> transferPipeline;
+    private final Optional<TransferCoalescer> transferCoalescer;
+    private final Optional<SubLedger> subLedger;
     
     /**
      *
      * Create a new FinTechService with auto wired objects
      * 
      * @param userRepository database interface for the user repository
+     * @param accountStore account storage, embedded in users or separate
      * @param transferAuditRepository database interface for transfer audit repository
+     * @param transferAuditArchive cold storage for old transfer audits
+     * @param dailyRollupStore daily per account transfer totals
+     * @param accountVersionStore account versions, bumped by every change
+     * @param idGenerator source of account and transfer ids
+     * @param transferPipeline group commit for transfers, if enabled
+     * @param transferCoalescer coalescing of balance changes, if enabled
+     * @param subLedger slots of sharded accounts, if any are sharded
      */
     public FinTechService(
             final UserReactiveRepository userRepository,
-            final TransferAuditReactiveRepository transferAuditRepository
+            final AccountStore accountStore,
+            final TransferAuditReactiveRepository transferAuditRepository,
+            final TransferAuditArchive transferAuditArchive,
+            final DailyRollupStore dailyRollupStore,
+            final AccountVersionStore accountVersionStore,
+            final IdGenerator idGenerator,
+            final Optional<TransferPipeline> transferPipeline,
+            final Optional<TransferCoalescer> transferCoalescer,
+            final Optional<SubLedger> subLedger
     ) {
         this.userRepository = userRepository;
+        this.accountStore = accountStore;
         this.transferAuditRepository = transferAuditRepository;
+        this.transferAuditArchive = transferAuditArchive;
+        this.dailyRollupStore = dailyRollupStore;
+        this.accountVersionStore = accountVersionStore;
+        this.idGenerator = idGenerator;
+        this.transferPipeline = transferPipeline;
+        this.transferCoalescer = transferCoalescer;
+        this.subLedger = subLedger;
     }
 
     /**
@@ -77,27 +131,19 @@ public class FinTechService {
      * @return the account payload with the new account id filled in
      */
     public Mono<AccountPayload> createAccount(AccountPayload account, String userId) {
-        if(account.getCurrAmount().compareTo(BigDecimal.ZERO) < 0) {
-            throw new NegativeValueNotAllowedException(account.getCurrAmount().toPlainString());
-        }
-        String accountId = UUID.randomUUID().toString();
-        return userRepository.saveAll(userRepository.findById(userId)
-                    .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
-                    .map(c -> {
-                        c.getAccounts().add(Customer.Account.builder()
-                            .currAmount(account.getCurrAmount())
-                            .id(accountId)
-                            .type(account.getType())
-                            .build());
-                        return c;
-                    }))
-                .singleOrEmpty()
-                .switchIfEmpty(Mono.error(() -> new RuntimeException("empty return from save")))
-                .map(c -> c.getAccounts()
-                        .stream()
-                        .filter(a -> a.getId().equals(accountId))
-                        .findAny()
-                        .orElseThrow(() -> new RuntimeException("account not added")))
+        if(account.getCurrAmount() == null) {
+            return Mono.error(MissingValueException.CURR_AMOUNT);
+        }
+        if(account.getCurrAmount().signum() < 0) {
+            return Mono.error(new NegativeValueNotAllowedException(account.getCurrAmount().toPlainString()));
+        }
+        return accountStore.addAccount(userId, Customer.Account.builder()
+                    .currAmount(account.getCurrAmount())
+                    .id(idGenerator.nextId())
+                    .type(account.getType())
+                    .openingAmount(account.getCurrAmount())
+                    .build())
+                .flatMap(a -> accountVersionStore.bump(a.getId(), userId).thenReturn(a))
                 .map(a -> AccountPayload.builder()
                         .currAmount(a.getCurrAmount())
                         .id(a.getId())
@@ -116,13 +162,7 @@ public class FinTechService {
      * @return the account details including the current balance
      */
     public Mono<AccountPayload> getAccount(String accountId, String userId) {
-        return userRepository.findById(userId)
-                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
-                .map(c -> c.getAccounts()
-                        .stream()
-                        .filter(a -> a.getId().equals(accountId))
-                        .findAny()
-                        .orElseThrow(() -> new AccountNotFoundException(accountId, userId)))
+        return findAccount(accountId, userId)
                 .map(a -> AccountPayload.builder()
                         .currAmount(a.getCurrAmount())
                         .id(a.getId())
@@ -130,6 +170,182 @@ public class FinTechService {
                         .build());
     }
 
+    /**
+     *
+     * List the accounts of a user a page at a time, optionally only those
+     * of a type and within a range of balances. Filtering, ordering and 
+     * paging are done by the account store. The store only sees the 
+     * balance of a sharded account's document, not its slots, so for pages
+     * filtered or sorted by balance the user's sharded accounts are read 
+     * with their slots and merged into the store's page. The balance 
+     * returned always includes the slots
+     * 
+     * @param userId the user the accounts belong to
+     * @param type only accounts of this type, if not null
+     * @param minAmount the lowest balance, inclusive, if not null
+     * @param maxAmount the highest balance, inclusive, if not null
+     * @param sort 'id' (the default) or 'balance'
+     * @param after the next cursor of the page before, null for the first
+     * page
+     * @param limit the page size, DEFAULT_PAGE_SIZE if null, at most 
+     * MAX_PAGE_SIZE
+     * @return the page
+     */
+    public Mono<AccountPagePayload> listAccounts(String userId, String type, 
+            BigDecimal minAmount, BigDecimal maxAmount, String sort, String after, Integer limit) {
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if(size < 1 || size > MAX_PAGE_SIZE) {
+            return Mono.error(new InvalidValueException("limit", String.valueOf(limit)));
+        }
+        AccountQuery.Order order;
+        if(sort == null || sort.equalsIgnoreCase("id")) {
+            order = AccountQuery.Order.ID;
+        } else if(sort.equalsIgnoreCase("balance")) {
+            order = AccountQuery.Order.BALANCE;
+        } else {
+            return Mono.error(new InvalidValueException("sort", sort));
+        }
+        String afterId = after;
+        BigDecimal afterAmount = null;
+        if(after != null && order == AccountQuery.Order.BALANCE) {
+            int separator = after.indexOf(':');
+            try {
+                afterAmount = new BigDecimal(after.substring(0, Math.max(separator, 0)));
+            } catch(NumberFormatException e) {
+                return Mono.error(new InvalidValueException("after", after));
+            }
+            afterId = after.substring(separator + 1);
+        }
+        AccountQuery query = AccountQuery.builder()
+                .type(type)
+                .minAmount(minAmount)
+                .maxAmount(maxAmount)
+                .order(order)
+                .afterId(afterId)
+                .afterAmount(afterAmount)
+                .limit(size)
+                .build();
+        boolean byBalance = minAmount != null || maxAmount != null || order == AccountQuery.Order.BALANCE;
+        Mono<List<CustomerAccount>> sharded = byBalance && subLedger.isPresent()
+                ? subLedger.get().shardedOf(userId)
+                        .map(a -> CustomerAccount.builder()
+                                .id(a.getId())
+                                .ownerId(userId)
+                                .currAmount(a.getCurrAmount())
+                                .type(a.getType())
+                                .build())
+                        .filter(query::matches)
+                        .collectList()
+                : Mono.just(List.of());
+        return accountStore.findPage(userId, query)
+                .collectList()
+                .flatMap(page -> page.isEmpty()
+                        ? userRepository.existsById(userId)
+                                .filter(b -> b)
+                                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                                .thenReturn(page)
+                        : Mono.just(page))
+                .zipWith(sharded)
+                .flatMap(t -> byBalance && subLedger.isPresent()
+                        ? Mono.just(merge(query, t.getT1(), t.getT2()))
+                        : Flux.fromIterable(t.getT1())
+                                .map(a -> Account.builder()
+                                        .id(a.getId())
+                                        .currAmount(a.getCurrAmount())
+                                        .type(a.getType())
+                                        .build())
+                                .concatMap(a -> subLedger.isPresent() ? subLedger.get().withSlots(a) : Mono.just(a))
+                                .map(a -> AccountPayload.builder()
+                                        .currAmount(a.getCurrAmount())
+                                        .id(a.getId())
+                                        .type(a.getType())
+                                        .build())
+                                .collectList()
+                                .map(accounts -> AccountPagePayload.builder()
+                                        .accounts(accounts)
+                                        .next(t.getT1().size() < size 
+                                                ? null 
+                                                : cursor(order, t.getT1().get(t.getT1().size() - 1)))
+                                        .build()));
+    }
+    
+    /*
+     * the sharded accounts, with their slots, that pass the filters are 
+     * merged into the store's page without theirs. A full store page ends 
+     * where the store stopped, so only the sharded accounts up to its last
+     * one fit in, and the page leads on from there if it isn't full
+     */
+    private AccountPagePayload merge(AccountQuery query, List<CustomerAccount> stored, 
+            List<CustomerAccount> sharded) {
+        CustomerAccount bound = stored.size() < query.getLimit() ? null : stored.get(stored.size() - 1);
+        Comparator<CustomerAccount> comparator = query.comparator();
+        List<CustomerAccount> accounts = Stream.concat(stored.stream()
+                            .filter(a -> !subLedger.get().isSharded(a.getId())), 
+                        sharded.stream())
+                .filter(a -> bound == null || comparator.compare(a, bound) <= 0)
+                .sorted(comparator)
+                .limit(query.getLimit())
+                .collect(Collectors.toList());
+        String next = accounts.size() == query.getLimit()
+                ? cursor(query.getOrder(), accounts.get(accounts.size() - 1))
+                : bound == null ? null : cursor(query.getOrder(), bound);
+        return AccountPagePayload.builder()
+                .accounts(accounts.stream()
+                        .map(a -> AccountPayload.builder()
+                                .currAmount(a.getCurrAmount())
+                                .id(a.getId())
+                                .type(a.getType())
+                                .build())
+                        .collect(Collectors.toList()))
+                .next(next)
+                .build();
+    }
+
+    /**
+     *
+     * Summarize the accounts of a user: how many there are and their total
+     * balance, overall and per account type. The totals are summed by the
+     * account store, the slots of sharded accounts are added to them
+     * 
+     * @param userId the user
+     * @return the summary, with the types in order and accounts without a
+     * type last
+     */
+    public Mono<PortfolioPayload> getPortfolio(String userId) {
+        return accountStore.findTotalsByType(userId)
+                .concatWith(subLedger.isPresent()
+                        ? subLedger.get().slotsOf(userId)
+                                .map(a -> AccountTypeTotal.builder()
+                                        .type(a.getType())
+                                        .total(a.getCurrAmount())
+                                        .build())
+                        : Flux.empty())
+                .collect(Collectors.toMap(t -> Optional.ofNullable(t.getType()), t -> t, AccountTypeTotal::plus))
+                .flatMap(totals -> totals.isEmpty()
+                        ? userRepository.existsById(userId)
+                                .filter(b -> b)
+                                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
+                                .thenReturn(totals)
+                        : Mono.just(totals))
+                .map(totals -> {
+                    List<TypeTotalPayload> types = totals.values()
+                            .stream()
+                            .sorted(Comparator.comparing(AccountTypeTotal::getType, 
+                                    Comparator.nullsLast(Comparator.naturalOrder())))
+                            .map(t -> TypeTotalPayload.builder()
+                                    .type(t.getType())
+                                    .accounts(t.getCount())
+                                    .total(t.getTotal())
+                                    .build())
+                            .collect(Collectors.toList());
+                    return PortfolioPayload.builder()
+                            .accounts(types.stream().mapToLong(TypeTotalPayload::getAccounts).sum())
+                            .total(types.stream().map(TypeTotalPayload::getTotal).reduce(BigDecimal.ZERO, BigDecimal::add))
+                            .types(types)
+                            .build();
+                });
+    }
+
     /**
      * 
      * read in a list of bootstrapped users
@@ -137,13 +353,24 @@ public class FinTechService {
      * @throws IOException
      */
     public void initializeUsers() throws IOException {
-        userRepository.saveAll(Flux.fromArray(
-            objectMapper.readValue(FinTechService.class.getResourceAsStream("/initcust.json"), Customer[].class)))
-                .collectList()
+        loadUsers()
                 .blockOptional(Duration.ofSeconds(1))
                 .orElseThrow(() -> new RuntimeException("Unable to read initcust.json"));
     }
 
+    /**
+     * 
+     * read in a list of bootstrapped users without blocking
+     * 
+     * @return the number of users saved
+     */
+    public Mono<Long> loadUsers() {
+        return Mono.fromCallable(() -> objectMapper.readValue(
+                    FinTechService.class.getResourceAsStream("/initcust.json"), Customer[].class))
+                .flatMapMany(customers -> userRepository.saveAll(Flux.fromArray(customers)))
+                .count();
+    }
+
     /**
      *
      * Transfer money from one account to another. The amount to transfer cannot
@@ -155,64 +382,196 @@ public class FinTechService {
      * @return the original transfer payload
      */
     public Mono<TransferPayload> transfer(TransferPayload transferPayload, String userId) {
-        if(transferPayload.getAmount().compareTo(BigDecimal.ZERO) < 0) {
-            throw new NegativeValueNotAllowedException(transferPayload.getAmount().toPlainString());
-        }
-        return Flux.combineLatest(findAccount(transferPayload.getFromAccount(),userId),
-                 findAccount(transferPayload.getToAccount(), transferPayload.getUserId()),
-                (accountFrom, accountTo) -> 
-                        updateAccounts(accountFrom, 
-                                accountTo, transferPayload))
-                .flatMap(a -> a)
-                .singleOrEmpty()
+        FinTechException invalid = validate(transferPayload);
+        if(invalid != null) {
+            return Mono.error(invalid);
+        }
+        if(subLedger.isPresent() && (subLedger.get().isSharded(transferPayload.getFromAccount())
+                || subLedger.get().isSharded(transferPayload.getToAccount()))) {
+            return subLedger.get().transfer(userId, transferPayload.getFromAccount(), 
+                            transferPayload.getUserId(), transferPayload.getToAccount(),
+                            transferPayload.getAmount())
+                    .flatMap(t -> audit(t.getT1(), t.getT2(), transferPayload, userId));
+        }
+        if(transferPipeline.isPresent()) {
+            return transferPipeline.get().submit(transferPayload, userId);
+        }
+        if(transferCoalescer.isPresent()) {
+            return coalescedTransfer(transferCoalescer.get(), transferPayload, userId);
+        }
+        if(accountStore instanceof JournalingAccountStore) {
+            return ((JournalingAccountStore)accountStore).journaledTransfer(userId, newAudit(transferPayload))
+                    .map(FinTechService::toTransferPayload);
+        }
+        return accountStore.transfer(userId, transferPayload.getFromAccount(), 
+                        transferPayload.getUserId(), transferPayload.getToAccount(),
+                        transferPayload.getAmount())
+                .flatMap(t -> audit(t.getT1(), t.getT2(), transferPayload, userId))
                 .switchIfEmpty(Mono.error(() -> new RuntimeException("unable to complete transfer")));
     }
     
-    private Mono<Tuple2<Customer, Account>> findAccount(String accountId, String userId) {
-        return userRepository.findById(userId)
-                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
-                .map(c -> Tuples.of(c, c.getAccounts()
-                        .stream()
-                        .filter(a -> a.getId().equals(accountId))
-                        .findAny()
-                        .orElseThrow(() -> new AccountNotFoundException(accountId, userId))));       
+    /*
+     * where the next page starts: the last account id, after its balance 
+     * when ordered by balance
+     */
+    private static String cursor(AccountQuery.Order order, CustomerAccount last) {
+        return order == AccountQuery.Order.BALANCE
+                ? last.getCurrAmount().toPlainString() + ":" + last.getId()
+                : last.getId();
+    }
+    
+    /*
+     * checks a transfer before anything is read, returns the reason to 
+     * reject it or null if it is valid
+     */
+    private static FinTechException validate(TransferPayload transferPayload) {
+        if(transferPayload.getAmount() == null) {
+            return MissingValueException.AMOUNT;
+        }
+        if(transferPayload.getFromAccount() == null) {
+            return MissingValueException.FROM_ACCOUNT;
+        }
+        if(transferPayload.getToAccount() == null) {
+            return MissingValueException.TO_ACCOUNT;
+        }
+        if(transferPayload.getUserId() == null) {
+            return MissingValueException.USER_ID;
+        }
+        if(transferPayload.getAmount().signum() < 0) {
+            return new NegativeValueNotAllowedException(transferPayload.getAmount().toPlainString());
+        }
+        return null;
+    }
+    
+    /*
+     * the debit and the credit each go out with the other changes to their
+     * account, if the credit fails the debit is given back
+     */
+    private Mono<TransferPayload> coalescedTransfer(TransferCoalescer coalescer,
+            TransferPayload transferPayload, String userId) {
+        return coalescer.change(userId, transferPayload.getFromAccount(), transferPayload.getAmount().negate())
+                .flatMap(from -> coalescer.change(transferPayload.getUserId(), transferPayload.getToAccount(), 
+                                transferPayload.getAmount())
+                        .onErrorResume(e -> coalescer.change(userId, transferPayload.getFromAccount(), 
+                                        transferPayload.getAmount())
+                                .then(Mono.error(e)))
+                        .flatMap(to -> audit(from, to, transferPayload, userId)));
+    }
+    
+    /**
+     *
+     * Get the version of an account, which changes with every change to its
+     * balance or transfer history. Only reads the version, not the account
+     * 
+     * @param accountId the account
+     * @param userId the user the account belongs to
+     * @return the version, empty if the account has no version yet or does
+     * not belong to the user
+     */
+    public Mono<Long> getAccountVersion(String accountId, String userId) {
+        return accountVersionStore.find(accountId)
+                .filter(v -> v.getOwnerId().equals(userId))
+                .map(AccountVersion::getVersion);
     }
     
-    private Mono<TransferPayload> updateAccounts(Tuple2<Customer, Account> accountFrom, 
-            Tuple2<Customer, Account> accountTo,
-            TransferPayload transferPayload) {
-        Account newAccountFrom = Account.builder()
-                .currAmount(accountFrom.getT2().getCurrAmount().subtract(transferPayload.getAmount()))
-                .id(accountFrom.getT2().getId())
-                .type(accountFrom.getT2().getType())
+    private Mono<Account> findAccount(String accountId, String userId) {
+        if(subLedger.isPresent()) {
+            return accountStore.findAccount(userId, accountId)
+                    .flatMap(subLedger.get()::withSlots);
+        }
+        return accountStore.findAccount(userId, accountId);
+    }
+    
+    /*
+     * the balances are already updated, records the transfer and the daily
+     * totals of both accounts and bumps their versions. The transfer is only
+     * answered once all of them are written, so no answered transfer is 
+     * missing from the history, statements or ETags. The rollups and the 
+     * versions don't depend on each other and are written at the same time,
+     * two round trips after the audit rather than four; each pair stays in
+     * order as both can be the same account
+     */
+    private Mono<TransferPayload> audit(Account newAccountFrom, 
+            Account newAccountTo,
+            TransferPayload transferPayload,
+            String userId) {
+        return transferAuditRepository.insert(newAudit(transferPayload))
+                .flatMap(s -> {
+                    LocalDate day = LocalDate.ofInstant(s.getCreatedAt(), ZoneOffset.UTC);
+                    return Mono.when(dailyRollupStore.record(newAccountFrom.getId(), day, 
+                                        s.getAmount(), BigDecimal.ZERO)
+                                    .then(dailyRollupStore.record(newAccountTo.getId(), day, 
+                                        BigDecimal.ZERO, s.getAmount())),
+                                accountVersionStore.bump(newAccountFrom.getId(), userId)
+                                    .then(accountVersionStore.bump(newAccountTo.getId(), transferPayload.getUserId())))
+                            .thenReturn(s);
+                })
+                .map(FinTechService::toTransferPayload);
+    }
+
+    private TransferAudit newAudit(TransferPayload transferPayload) {
+        return TransferAudit.builder()
+                .id(idGenerator.nextId())
+                .amount(transferPayload.getAmount())
+                .fromAccount(transferPayload.getFromAccount())
+                .toAccount(transferPayload.getToAccount())
+                .toUserId(transferPayload.getUserId())
+                .createdAt(Instant.now())
                 .build();
-        if(newAccountFrom.getCurrAmount().compareTo(BigDecimal.ZERO) < 0) {
-            throw new NegativeValueNotAllowedException("transfer result");
+    }
+
+    /**
+     *
+     * Get the statement of an account over a range of (UTC) days. The totals
+     * come from the daily rollups, so the cost depends on the number of days
+     * with transfers from the start of the range to today, not only those in
+     * the range, rather than the number of transfers. The account must 
+     * belong to the user
+     * 
+     * @param accountId the account
+     * @param userId the user the account belongs to
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive, not before from
+     * @return the statement
+     */
+    public Mono<StatementPayload> getStatement(String accountId, String userId, LocalDate from, LocalDate to) {
+        if(from.isAfter(to)) {
+            return Mono.error(new InvalidValueException("to", to.toString()));
+        }
+        return findAccount(accountId, userId)
+                .flatMap(a -> dailyRollupStore.findFrom(accountId, from)
+                        .collectList()
+                        .map(rollups -> statement(a, from, to, rollups)));
+    }
+    
+    /*
+     * the balances come from the current balance with every day since the
+     * start of the range taken back, rather than from a balance stored with
+     * the rollups, which concurrent writers could leave out of order
+     */
+    private static StatementPayload statement(Account account, LocalDate from, LocalDate to, List<DailyRollup> rollups) {
+        long count = 0;
+        BigDecimal debits = BigDecimal.ZERO;
+        BigDecimal credits = BigDecimal.ZERO;
+        BigDecimal opening = account.getCurrAmount();
+        for(DailyRollup r : rollups) {
+            opening = opening.subtract(r.getCredits()).add(r.getDebits());
+            if(r.getDay().compareTo(to.toString()) <= 0) {
+                count += r.getCount();
+                debits = debits.add(r.getDebits());
+                credits = credits.add(r.getCredits());
+            }
         }
-        Account newAccountTo = Account.builder()
-                .currAmount(accountTo.getT2().getCurrAmount().add(transferPayload.getAmount()))
-                .id(accountTo.getT2().getId())
-                .type(accountTo.getT2().getType())
+        return StatementPayload.builder()
+                .accountId(account.getId())
+                .from(from)
+                .to(to)
+                .transferCount(count)
+                .openingBalance(opening)
+                .debits(debits)
+                .credits(credits)
+                .closingBalance(opening.add(credits).subtract(debits))
                 .build();
-        accountFrom.getT1().getAccounts().removeIf(a -> a.getId().equals(newAccountFrom.getId()));
-        accountFrom.getT1().getAccounts().add(newAccountFrom);
-        accountTo.getT1().getAccounts().removeIf(a -> a.getId().equals(newAccountTo.getId()));
-        accountTo.getT1().getAccounts().add(newAccountTo);
-        return userRepository.saveAll(Flux.just(accountTo.getT1(), accountFrom.getT1()))
-                .all(c -> !c.getId().isEmpty())
-                .flatMap(c -> transferAuditRepository.save(TransferAudit.builder()
-                        .amount(transferPayload.getAmount())
-                        .fromAccount(transferPayload.getFromAccount())
-                        .toAccount(transferPayload.getToAccount())
-                        .toUserId(transferPayload.getUserId())
-                        .build()))
-                .map(s -> TransferPayload.builder()
-                        .amount(s.getAmount())
-                        .fromAccount(s.getFromAccount())
-                        .toAccount(s.getToAccount())
-                        .userId(s.getToUserId())
-                        .transferId(s.getId())
-                        .build());
     }
 
     /**
@@ -225,23 +584,101 @@ public class FinTechService {
      * @return a list of transfer payloads
      */
     public Flux<TransferPayload> getTransfers(String accountId, String userId) {
-        return userRepository.findById(userId)
-                .switchIfEmpty(Mono.error(() -> new UserNotFoundException(userId)))
-                .map(c -> c.getAccounts()
-                        .stream()
-                        .filter(a -> a.getId().equals(accountId))
-                        .findAny()
-                        .orElseThrow(() -> new AccountNotFoundException(accountId, userId)))
-                .thenMany(transferAuditRepository.findAll())
-                .filter(s -> s.getFromAccount().equals(accountId) || s.getToAccount().equals(accountId))
-                .map(s -> TransferPayload.builder()
-                        .amount(s.getAmount())
-                        .fromAccount(s.getFromAccount())
-                        .toAccount(s.getToAccount())
-                        .userId(s.getToUserId())
-                        .transferId(s.getId())
-                        .build());
+        return getTransfers(accountId, userId, null, null);
+    }
 
+    /**
+     *
+     * Get a list of transfer to/from the account created in a time range,
+     * including transfers that have been archived. the account must belong
+     * to the user
+     * 
+     * @param accountId the account to list
+     * @param userId the user the account belongs to
+     * @param from start of the range, inclusive, or null for no lower bound
+     * @param to end of the range, exclusive, or null for no upper bound
+     * @return a list of transfer payloads, oldest first
+     */
+    public Flux<TransferPayload> getTransfers(String accountId, String userId, Instant from, Instant to) {
+        return transfers(accountId, userId, 
+                transferAuditArchive.findByAccount(accountId, from, to),
+                transferAuditRepository.findByAccount(accountId, from, to));
+    }
+
+    /**
+     *
+     * The same as getTransfers but read from the primary, for responses 
+     * tagged with an account version that was read from the primary. 
+     * History read from a secondary can lag the version by up to the 
+     * history max staleness
+     * 
+     * @param accountId the account to list
+     * @param userId the user the account belongs to
+     * @param from start of the range, inclusive, or null for no lower bound
+     * @param to end of the range, exclusive, or null for no upper bound
+     * @return a list of transfer payloads, oldest first
+     */
+    public Flux<TransferPayload> getCurrentTransfers(String accountId, String userId, Instant from, Instant to) {
+        return transfers(accountId, userId, 
+                transferAuditArchive.findCurrentByAccount(accountId, from, to),
+                transferAuditRepository.findCurrentByAccount(accountId, from, to));
+    }
+    
+    /*
+     * archiving copies oldest first before it removes, so an audit can be
+     * in both but only if it is no newer than the newest archived one. Hot
+     * audits older than that are skipped, and those as old only if their id
+     * was archived, so only the ids at that one time are kept rather than
+     * every id of the history. Audits written before createdAt was added
+     * have none and are never archived, they are passed through
+     */
+    private Flux<TransferPayload> transfers(String accountId, String userId, 
+            Flux<TransferAudit> archived, Flux<TransferAudit> hot) {
+        return findAccount(accountId, userId)
+                .thenMany(Flux.defer(() -> {
+                    ArchivedUpTo upTo = new ArchivedUpTo();
+                    return archived.doOnNext(upTo::add)
+                            .concatWith(hot.filter(upTo::isNewer));
+                }))
+                .map(FinTechService::toTransferPayload);
+    }
+    
+    private static final class ArchivedUpTo {
+        private Instant newest;
+        private final Set<String> newestIds = new HashSet<>();
+        
+        void add(TransferAudit audit) {
+            if(audit.getCreatedAt() == null) {
+                return;
+            }
+            int order = newest == null ? 1 : audit.getCreatedAt().compareTo(newest);
+            if(order > 0) {
+                newest = audit.getCreatedAt();
+                newestIds.clear();
+            }
+            if(order >= 0) {
+                newestIds.add(audit.getId());
+            }
+        }
+        
+        boolean isNewer(TransferAudit audit) {
+            if(newest == null || audit.getCreatedAt() == null) {
+                return true;
+            }
+            int order = audit.getCreatedAt().compareTo(newest);
+            return order > 0 || (order == 0 && !newestIds.contains(audit.getId()));
+        }
+    }
+    
+    static TransferPayload toTransferPayload(TransferAudit s) {
+        return TransferPayload.builder()
+                .amount(s.getAmount())
+                .fromAccount(s.getFromAccount())
+                .toAccount(s.getToAccount())
+                .userId(s.getToUserId())
+                .transferId(s.getId())
+                .createdAt(s.getCreatedAt())
+                .build();
     }
     
 }
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountVersionStore;
+import net.kamradtfamily.fintech.fakeapi.DailyRollupStore;
+import net.kamradtfamily.fintech.fakeapi.EngineAccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerTransfer;
+import net.kamradtfamily.fintech.fakeapi.ledger.TransferWriter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * Writes the transfers journaled by the ledger engine to mongo: their 
+ * audits first, then the daily rollups and versions of their accounts, 
+ * as the transfers of the other stores are written. 
+ * 
+ * A batch replayed on recovery skips the transfers whose audit is already
+ * written, so none is audited or rolled up twice; a transfer stopped 
+ * between its audit and its rollups keeps its audit but misses its 
+ * rollups, as a transfer of the other stores stopped there does
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnProperty(name = "fintech.accounts.store", havingValue = "engine")
+public class LedgerTransferWriter implements TransferWriter {
+    private final TransferAuditReactiveRepository transferAuditRepository;
+    private final DailyRollupStore dailyRollupStore;
+    private final AccountVersionStore accountVersionStore;
+
+    public LedgerTransferWriter(TransferAuditReactiveRepository transferAuditRepository,
+            DailyRollupStore dailyRollupStore,
+            AccountVersionStore accountVersionStore) {
+        this.transferAuditRepository = transferAuditRepository;
+        this.dailyRollupStore = dailyRollupStore;
+        this.accountVersionStore = accountVersionStore;
+    }
+
+    @Override
+    public Mono<Void> write(List<LedgerTransfer> transfers, boolean replayed) {
+        Map<String, LedgerTransfer> byId = transfers.stream()
+                .collect(Collectors.toMap(LedgerTransfer::getId, t -> t, (a, b) -> a, HashMap::new));
+        Mono<Map<String, LedgerTransfer>> unwritten = replayed
+                ? transferAuditRepository.findAllById(byId.keySet())
+                        .doOnNext(a -> byId.remove(a.getId()))
+                        .then(Mono.fromSupplier(() -> byId))
+                : Mono.just(byId);
+        return unwritten
+                .map(m -> transfers.stream()
+                        .filter(t -> m.containsKey(t.getId()))
+                        .collect(Collectors.toList()))
+                .filter(l -> !l.isEmpty())
+                .flatMap(this::record);
+    }
+    
+    private Mono<Void> record(List<LedgerTransfer> transfers) {
+        List<TransferAudit> audits = new ArrayList<>();
+        Map<String, DailyRollup> rollups = new HashMap<>();
+        Set<AccountKey> changed = new LinkedHashSet<>();
+        for(LedgerTransfer transfer : transfers) {
+            TransferAudit audit = EngineAccountStore.toAudit(transfer);
+            audits.add(audit);
+            LocalDate day = LocalDate.ofInstant(audit.getCreatedAt(), ZoneOffset.UTC);
+            TransferPipeline.rollup(rollups, audit.getFromAccount(), day, audit.getAmount(), BigDecimal.ZERO);
+            TransferPipeline.rollup(rollups, audit.getToAccount(), day, BigDecimal.ZERO, audit.getAmount());
+            changed.add(new AccountKey(transfer.getFromOwnerId(), transfer.getFromId()));
+            changed.add(new AccountKey(transfer.getToOwnerId(), transfer.getToId()));
+        }
+        return transferAuditRepository.insert(audits).then()
+                .then(Mono.when(dailyRollupStore.recordAll(rollups.values()), 
+                        accountVersionStore.bumpAll(changed)));
+    }
+}
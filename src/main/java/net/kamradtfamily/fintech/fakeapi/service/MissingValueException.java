@@ -0,0 +1,46 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class MissingValueException extends FinTechException {
+    /** a new account without its balance */
+    public static final MissingValueException CURR_AMOUNT = new MissingValueException("currAmount");
+    /** a transfer without its amount */
+    public static final MissingValueException AMOUNT = new MissingValueException("amount");
+    /** a transfer without the account to take it from */
+    public static final MissingValueException FROM_ACCOUNT = new MissingValueException("fromAccount");
+    /** a transfer without the account to put it in */
+    public static final MissingValueException TO_ACCOUNT = new MissingValueException("toAccount");
+    /** a transfer without the owner of the account to put it in */
+    public static final MissingValueException USER_ID = new MissingValueException("userId");
+    
+    public MissingValueException(String name) {
+        super("Value " + name + " is required");
+    }
+    
+}
@@ -27,7 +27,11 @@ package net.kamradtfamily.fintech.fakeapi.service;
  *
  * @author randalkamradt
  */
-public class NegativeValueNotAllowedException extends RuntimeException {
+public class NegativeValueNotAllowedException extends FinTechException {
+    /** the balance left by a transfer would be negative */
+    public static final NegativeValueNotAllowedException TRANSFER_RESULT = 
+            new NegativeValueNotAllowedException("transfer result");
+    
     public NegativeValueNotAllowedException(String value) {
         super("Negative value " + value + " not allowed here");
     }
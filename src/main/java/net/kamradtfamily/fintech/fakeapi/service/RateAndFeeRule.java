@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+
+/**
+ *
+ * The configured adjustment: interest at a rate of the balance, rounded 
+ * to cents, less a flat fee
+ * 
+ * @author randalkamradt
+ */
+public class RateAndFeeRule implements AdjustmentRule {
+    private final String type;
+    private final BigDecimal rate;
+    private final BigDecimal fee;
+    
+    /**
+     *
+     * @param type the account type
+     * @param rate the interest rate, a fraction of the balance
+     * @param fee the fee
+     */
+    public RateAndFeeRule(String type, BigDecimal rate, BigDecimal fee) {
+        this.type = type;
+        this.rate = rate;
+        this.fee = fee;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public BigDecimal adjustment(CustomerAccount account) {
+        return account.getCurrAmount()
+                .multiply(rate)
+                .setScale(2, RoundingMode.HALF_EVEN)
+                .subtract(fee);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import net.kamradtfamily.fintech.fakeapi.AccountSlotStore;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.SubLedgerProperties;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+/**
+ *
+ * Sub-ledgers for busy accounts. The balance of a sharded account is 
+ * split over its own balance and a number of slots, each its own 
+ * document, so concurrent transfers spread over independent writes. 
+ * Credits land on a random slot, debits are taken from the first slot 
+ * (starting at a random one) holding enough, and if none does all slots
+ * are drained into the account's own balance and the debit taken from 
+ * there. Not available with the engine store, which keeps no slots
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnExpression("'${fintech.sub-ledger.accounts:}' != '' and '${fintech.accounts.store:mongo}' != 'engine'")
+public class SubLedger {
+    private final AccountStore accountStore;
+    private final AccountSlotStore accountSlotStore;
+    private final SubLedgerProperties properties;
+    
+    /**
+     *
+     * Create a new SubLedger
+     * 
+     * @param accountStore account storage, holding each account's own balance
+     * @param accountSlotStore slot storage
+     * @param properties which accounts to shard and in how many slots
+     */
+    public SubLedger(final AccountStore accountStore,
+            final AccountSlotStore accountSlotStore,
+            final SubLedgerProperties properties) {
+        this.accountStore = accountStore;
+        this.accountSlotStore = accountSlotStore;
+        this.properties = properties;
+    }
+    
+    /**
+     *
+     * @param accountId an account
+     * @return true if the account's balance is split into slots
+     */
+    public boolean isSharded(String accountId) {
+        return properties.getAccounts().contains(accountId);
+    }
+    
+    /**
+     *
+     * Add the slots of a sharded account to its balance
+     * 
+     * @param account an account as stored, with only its own balance
+     * @return the account with its whole balance
+     */
+    public Mono<Account> withSlots(Account account) {
+        if(!isSharded(account.getId())) {
+            return Mono.just(account);
+        }
+        return accountSlotStore.findByAccount(account.getId())
+                .map(AccountSlot::getCurrAmount)
+                .reduce(account.getCurrAmount(), BigDecimal::add)
+                .map(total -> Account.builder()
+                        .id(account.getId())
+                        .currAmount(total)
+                        .type(account.getType())
+                        .build());
+    }
+    
+    /**
+     *
+     * The slots of the sharded accounts of a user, which are not included
+     * in the balances the account store has for them
+     * 
+     * @param userId the user
+     * @return for each sharded account of the user, the account with the 
+     * total of its slots as its balance
+     */
+    public Flux<Account> slotsOf(String userId) {
+        return accountsOf(userId)
+                .concatMap(account -> accountSlotStore.findByAccount(account.getId())
+                        .map(AccountSlot::getCurrAmount)
+                        .reduce(BigDecimal.ZERO, BigDecimal::add)
+                        .map(total -> Account.builder()
+                                .id(account.getId())
+                                .currAmount(total)
+                                .type(account.getType())
+                                .build()));
+    }
+    
+    /**
+     *
+     * The sharded accounts of a user with their whole balance, for pages
+     * by balance
+     * 
+     * @param userId the user
+     * @return the sharded accounts of the user, their slots included in 
+     * their balance
+     */
+    public Flux<Account> shardedOf(String userId) {
+        return accountsOf(userId)
+                .concatMap(this::withSlots);
+    }
+    
+    private Flux<Account> accountsOf(String userId) {
+        return Flux.fromIterable(properties.getAccounts())
+                .concatMap(accountId -> accountStore.findAccount(userId, accountId)
+                        .onErrorResume(AccountNotFoundException.class, e -> Mono.empty())
+                        .onErrorResume(UserNotFoundException.class, e -> Mono.empty()));
+    }
+    
+    /**
+     *
+     * Move an amount from one account to another, either or both sharded.
+     * Not atomic: the debit is taken before the credit is made, and given
+     * back if the credit fails
+     * 
+     * @param fromUserId the user owning the from account
+     * @param fromAccountId the account to debit
+     * @param toUserId the user owning the to account
+     * @param toAccountId the account to credit
+     * @param amount the amount, not negative
+     * @return the from and to accounts, with their whole balances, after 
+     * the transfer, or a NegativeValueNotAllowedException error if the from
+     * account would go negative
+     */
+    public Mono<Tuple2<Account, Account>> transfer(String fromUserId, String fromAccountId,
+            String toUserId, String toAccountId, BigDecimal amount) {
+        return Mono.zip(accountStore.findAccount(fromUserId, fromAccountId), 
+                        accountStore.findAccount(toUserId, toAccountId))
+                .flatMap(t -> debit(fromUserId, fromAccountId, amount))
+                .then(Mono.defer(() -> credit(toUserId, toAccountId, amount)
+                        .onErrorResume(e -> credit(fromUserId, fromAccountId, amount)
+                                .then(Mono.error(e)))))
+                .then(Mono.defer(() -> Mono.zip(
+                        accountStore.findAccount(fromUserId, fromAccountId).flatMap(this::withSlots),
+                        accountStore.findAccount(toUserId, toAccountId).flatMap(this::withSlots))));
+    }
+    
+    private Mono<Void> debit(String userId, String accountId, BigDecimal amount) {
+        if(!isSharded(accountId)) {
+            return accountStore.addToBalance(userId, accountId, amount.negate()).then();
+        }
+        int slots = properties.getSlots();
+        int start = ThreadLocalRandom.current().nextInt(slots);
+        return Flux.range(0, slots)
+                .concatMap(i -> accountSlotStore.debit(accountId, (start + i) % slots, amount))
+                .filter(taken -> taken)
+                .next()
+                .switchIfEmpty(Mono.defer(() -> rebalance(userId, accountId, amount)))
+                .then();
+    }
+    
+    /*
+     * drains every slot into the account's own balance, taking the debit 
+     * in the same write; if even that is not enough the drained amount 
+     * stays in the account's own balance
+     */
+    private Mono<Boolean> rebalance(String userId, String accountId, BigDecimal amount) {
+        return Flux.range(0, properties.getSlots())
+                .concatMap(slot -> accountSlotStore.drain(accountId, slot))
+                .reduce(BigDecimal.ZERO, BigDecimal::add)
+                .flatMap(drained -> accountStore.addToBalance(userId, accountId, drained.subtract(amount))
+                        .onErrorResume(NegativeValueNotAllowedException.class, e -> 
+                                accountStore.addToBalance(userId, accountId, drained)
+                                        .then(Mono.error(e))))
+                .thenReturn(true);
+    }
+    
+    private Mono<Void> credit(String userId, String accountId, BigDecimal amount) {
+        if(!isSharded(accountId)) {
+            return accountStore.addToBalance(userId, accountId, amount).then();
+        }
+        return accountSlotStore.credit(accountId, 
+                ThreadLocalRandom.current().nextInt(properties.getSlots()), amount);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ * Version 7 UUIDs: 48 bits of unix milliseconds, then a 12 bit counter, 
+ * then 62 random bits. New ids sort after older ones, so inserts land at 
+ * the right edge of the id index instead of all over it.
+ * 
+ * The millisecond and counter are advanced together with a compare and set,
+ * which keeps ids from one generator strictly increasing even within a
+ * millisecond without taking a lock. When more than 4096 ids are needed in
+ * one millisecond the counter carries into the millisecond, running slightly
+ * ahead of the clock until it catches up. The random bits come from a
+ * thread local generator rather than the shared SecureRandom behind
+ * UUID.randomUUID.
+ * 
+ * @author randalkamradt
+ */
+@Component
+@ConditionalOnProperty(prefix = "fintech.ids", name = "generator", havingValue = "time-ordered", matchIfMissing = true)
+public class TimeOrderedIdGenerator implements IdGenerator {
+    private final AtomicLong lastTick = new AtomicLong();
+
+    @Override
+    public String nextId() {
+        return nextUuid().toString();
+    }
+    
+    UUID nextUuid() {
+        long now = System.currentTimeMillis() << 12;
+        long tick = lastTick.accumulateAndGet(now, (last, n) -> Math.max(last + 1, n));
+        long millis = tick >>> 12;
+        long counter = tick & 0xfff;
+        long mostSigBits = (millis << 16) | 0x7000L | counter;
+        long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferCoalesceProperties;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ *
+ * Coalesces balance changes to the same account. Changes arriving within
+ * a window are grouped by account, each account is read once, its changes
+ * applied in arrival order (every debit checked against the balance left 
+ * by the changes before it, credits always succeed) and the net result 
+ * written once. A hot account receiving thousands of credits a second then
+ * costs one read and one write per window instead of one per transfer.
+ * The write is conditional on the balance read, and if the account has
+ * changed meanwhile (another instance, or a rebalance) the group is read 
+ * and applied again, so changes made elsewhere are never overwritten. Not 
+ * available with the engine store, which already applies every transfer 
+ * on the account's partition thread
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("${fintech.transfer.coalesce.enabled:false} and '${fintech.accounts.store:mongo}' != 'engine'")
+public class TransferCoalescer {
+    private final AccountStore accountStore;
+    private final DistributionSummary merged;
+    private FluxSink<Change> changes;
+    
+    /**
+     *
+     * Create and start a new TransferCoalescer
+     * 
+     * @param accountStore account storage
+     * @param properties window and maximum number of waiting changes
+     * @param meterRegistry where the number of changes merged per write is published
+     */
+    public TransferCoalescer(final AccountStore accountStore,
+            final TransferCoalesceProperties properties,
+            final MeterRegistry meterRegistry) {
+        this.accountStore = accountStore;
+        this.merged = DistributionSummary.builder("fintech.transfer.coalesce.size")
+                .description("balance changes merged into one write")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Flux.<Change>create(sink -> changes = sink)
+                .bufferTimeout(properties.getMaxSize(), properties.getWindow())
+                .onBackpressureBuffer()
+                .concatMap(this::apply)
+                .subscribe();
+    }
+    
+    /**
+     *
+     * Queue a change to the balance of an account
+     * 
+     * @param userId the user owning the account
+     * @param accountId the account
+     * @param amount the amount to add, negative for a debit
+     * @return the account with the balance right after this change once 
+     * it is written, or a NegativeValueNotAllowedException error if it 
+     * would make the balance negative
+     */
+    public Mono<Account> change(String userId, String accountId, BigDecimal amount) {
+        return Mono.create(sink -> changes.next(new Change(new AccountKey(userId, accountId), amount, sink)));
+    }
+    
+    private Mono<Void> apply(List<Change> batch) {
+        Map<AccountKey, List<Change>> byAccount = new LinkedHashMap<>();
+        for(Change change : batch) {
+            byAccount.computeIfAbsent(change.key, k -> new ArrayList<>()).add(change);
+        }
+        return Flux.fromIterable(byAccount.entrySet())
+                .flatMap(e -> apply(e.getKey(), e.getValue()))
+                .then();
+    }
+    
+    private Mono<Void> apply(AccountKey key, List<Change> changes) {
+        merged.record(changes.size());
+        return write(key, changes);
+    }
+    
+    private Mono<Void> write(AccountKey key, List<Change> changes) {
+        return accountStore.findAccount(key.getOwnerId(), key.getAccountId())
+                .onErrorResume(e -> {
+                    changes.forEach(c -> c.sink.error(e));
+                    return Mono.empty();
+                })
+                .flatMap(account -> {
+                    BigDecimal balance = account.getCurrAmount();
+                    List<Change> accepted = new ArrayList<>(changes.size());
+                    List<Change> rejected = new ArrayList<>();
+                    List<Account> results = new ArrayList<>(changes.size());
+                    for(Change change : changes) {
+                        BigDecimal next = balance.add(change.amount);
+                        if(next.signum() < 0) {
+                            rejected.add(change);
+                            continue;
+                        }
+                        balance = next;
+                        accepted.add(change);
+                        results.add(Account.builder()
+                                .id(account.getId())
+                                .currAmount(balance)
+                                .type(account.getType())
+                                .build());
+                    }
+                    if(accepted.isEmpty()) {
+                        rejected.forEach(c -> c.sink.error(NegativeValueNotAllowedException.TRANSFER_RESULT));
+                        return Mono.empty();
+                    }
+                    return accountStore.replaceBalance(key.getOwnerId(), key.getAccountId(), 
+                                    account.getCurrAmount(), balance)
+                            .flatMap(replaced -> {
+                                if(!replaced) {
+                                    // changed since it was read, start over
+                                    return write(key, changes);
+                                }
+                                rejected.forEach(c -> c.sink.error(NegativeValueNotAllowedException.TRANSFER_RESULT));
+                                for(int i = 0; i < accepted.size(); i++) {
+                                    accepted.get(i).sink.success(results.get(i));
+                                }
+                                return Mono.<Void>empty();
+                            })
+                            .onErrorResume(e -> {
+                                log.error("unable to write {} changes to account {}", accepted.size(), key.getAccountId(), e);
+                                changes.forEach(c -> c.sink.error(e));
+                                return Mono.empty();
+                            });
+                });
+    }
+    
+    private static final class Change {
+        final AccountKey key;
+        final BigDecimal amount;
+        final MonoSink<Account> sink;
+        
+        Change(AccountKey key, BigDecimal amount, MonoSink<Account> sink) {
+            this.key = key;
+            this.amount = amount;
+            this.sink = sink;
+        }
+    }
+}
@@ -24,19 +24,25 @@
 package net.kamradtfamily.fintech.fakeapi.service;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  *
  * @author randalkamradt
  */
-@Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
 public class TransferPayload {
     String transferId;
     String userId;
     String fromAccount;
     String toAccount;
     BigDecimal amount;  
+    Instant createdAt;
 }
@@ -0,0 +1,333 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.AccountVersionStore;
+import net.kamradtfamily.fintech.fakeapi.DailyRollupStore;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.TransferBatchProperties;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ *
+ * Group commit for transfers. Transfers arriving within a window (or until
+ * a batch is full) are applied together: every account involved is read
+ * in one query, the transfers are applied in arrival order in memory, each
+ * checked against the balance left by the ones before it, and then the 
+ * new balances go out as one bulk write, the audits as one bulk insert 
+ * and the daily rollups and account versions as bulk upserts. Each caller
+ * gets its own result or error. One batch is written at a time, the next
+ * one fills up meanwhile. Each balance is only written if the account
+ * still has the balance read; if any account changed meanwhile the 
+ * balances the batch did write are set back and its transfers go into 
+ * a later batch
+ * 
+ * @author randalkamradt
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "fintech.transfer.batch.enabled", havingValue = "true")
+public class TransferPipeline {
+    private final AccountStore accountStore;
+    private final TransferAuditReactiveRepository transferAuditRepository;
+    private final DailyRollupStore dailyRollupStore;
+    private final AccountVersionStore accountVersionStore;
+    private final IdGenerator idGenerator;
+    private final DistributionSummary batchSize;
+    private FluxSink<Request> requests;
+    
+    /**
+     *
+     * Create and start a new TransferPipeline
+     * 
+     * @param accountStore account storage
+     * @param transferAuditRepository where audits are inserted
+     * @param dailyRollupStore daily per account transfer totals
+     * @param accountVersionStore account versions, bumped once per batch
+     * @param idGenerator source of transfer ids
+     * @param properties window and batch size
+     * @param meterRegistry where the batch size distribution is published
+     */
+    public TransferPipeline(final AccountStore accountStore,
+            final TransferAuditReactiveRepository transferAuditRepository,
+            final DailyRollupStore dailyRollupStore,
+            final AccountVersionStore accountVersionStore,
+            final IdGenerator idGenerator,
+            final TransferBatchProperties properties,
+            final MeterRegistry meterRegistry) {
+        this.accountStore = accountStore;
+        this.transferAuditRepository = transferAuditRepository;
+        this.dailyRollupStore = dailyRollupStore;
+        this.accountVersionStore = accountVersionStore;
+        this.idGenerator = idGenerator;
+        this.batchSize = DistributionSummary.builder("fintech.transfer.batch.size")
+                .description("transfers written per group commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Flux.<Request>create(sink -> requests = sink)
+                .bufferTimeout(properties.getMaxSize(), properties.getWindow())
+                .onBackpressureBuffer()
+                .concatMap(this::commit)
+                .subscribe();
+    }
+    
+    /**
+     *
+     * Queue a transfer for the next batch. The amount must already have 
+     * been checked
+     * 
+     * @param transferPayload the transfer
+     * @param userId the user initiating it, who must own the from account
+     * @return the audited transfer once its batch is written
+     */
+    public Mono<TransferPayload> submit(TransferPayload transferPayload, String userId) {
+        return Mono.create(sink -> requests.next(new Request(transferPayload, userId, sink)));
+    }
+    
+    private Mono<Void> commit(List<Request> batch) {
+        batchSize.record(batch.size());
+        Set<AccountKey> keys = new LinkedHashSet<>();
+        for(Request request : batch) {
+            keys.add(new AccountKey(request.userId, request.payload.getFromAccount()));
+            keys.add(new AccountKey(request.payload.getUserId(), request.payload.getToAccount()));
+        }
+        return accountStore.findAccounts(keys)
+                .collectMap(CustomerAccount::getId)
+                .flatMap(accounts -> {
+                    Map<String, BigDecimal> read = new HashMap<>();
+                    accounts.forEach((id, a) -> read.put(id, a.getCurrAmount()));
+                    return write(apply(batch, accounts), accounts, read);
+                })
+                .onErrorResume(e -> {
+                    log.error("unable to read accounts for a batch of transfers", e);
+                    batch.forEach(r -> r.sink.error(e));
+                    return Mono.empty();
+                });
+    }
+    
+    /*
+     * applies the batch to the accounts in memory, answering the transfers
+     * that fail; returns the audits of the ones that succeed, rejected 
+     * transfers leave the balances untouched
+     */
+    private List<Applied> apply(List<Request> batch, Map<String, CustomerAccount> accounts) {
+        List<Applied> applied = new ArrayList<>(batch.size());
+        for(Request request : batch) {
+            TransferPayload payload = request.payload;
+            CustomerAccount from = owned(accounts, payload.getFromAccount(), request.userId);
+            CustomerAccount to = owned(accounts, payload.getToAccount(), payload.getUserId());
+            if(from == null || to == null) {
+                notFound(request);
+                continue;
+            }
+            BigDecimal fromBalance = from.getCurrAmount().subtract(payload.getAmount());
+            if(fromBalance.signum() < 0) {
+                request.sink.error(NegativeValueNotAllowedException.TRANSFER_RESULT);
+                continue;
+            }
+            if(from != to) {
+                from.setCurrAmount(fromBalance);
+                to.setCurrAmount(to.getCurrAmount().add(payload.getAmount()));
+            }
+            applied.add(new Applied(request, TransferAudit.builder()
+                        .id(idGenerator.nextId())
+                        .amount(payload.getAmount())
+                        .fromAccount(payload.getFromAccount())
+                        .toAccount(payload.getToAccount())
+                        .toUserId(payload.getUserId())
+                        .createdAt(Instant.now())
+                        .build()));
+        }
+        return applied;
+    }
+    
+    private Mono<Void> write(List<Applied> applied, Map<String, CustomerAccount> accounts, 
+            Map<String, BigDecimal> read) {
+        if(applied.isEmpty()) {
+            return Mono.empty();
+        }
+        Map<String, CustomerAccount> changed = new LinkedHashMap<>();
+        for(Applied a : applied) {
+            changed.put(a.audit.getFromAccount(), accounts.get(a.audit.getFromAccount()));
+            changed.put(a.audit.getToAccount(), accounts.get(a.audit.getToAccount()));
+        }
+        return accountStore.replaceBalances(changed.values(), read)
+                .flatMap(stale -> stale.isEmpty()
+                        ? Mono.just(applied)
+                        : resubmit(applied, changed, stale, read))
+                .onErrorResume(e -> {
+                    log.error("unable to write the balances of a batch of {} transfers", applied.size(), e);
+                    applied.forEach(a -> a.request.sink.error(e));
+                    return Mono.empty();
+                })
+                .flatMap(written -> record(written, changed.values()));
+    }
+    
+    /*
+     * the balances are written, now the audits, rollups and versions of 
+     * the transfers that made it
+     */
+    private Mono<Void> record(List<Applied> written, Collection<CustomerAccount> changed) {
+        if(written.isEmpty()) {
+            return Mono.empty();
+        }
+        List<TransferAudit> audits = new ArrayList<>(written.size());
+        Map<String, DailyRollup> rollups = new HashMap<>();
+        for(Applied a : written) {
+            audits.add(a.audit);
+            LocalDate day = LocalDate.ofInstant(a.audit.getCreatedAt(), ZoneOffset.UTC);
+            rollup(rollups, a.audit.getFromAccount(), day, a.audit.getAmount(), BigDecimal.ZERO);
+            rollup(rollups, a.audit.getToAccount(), day, BigDecimal.ZERO, a.audit.getAmount());
+        }
+        return transferAuditRepository.insert(audits).then()
+                .then(dailyRollupStore.recordAll(rollups.values()))
+                .then(accountVersionStore.bumpAll(changed
+                        .stream()
+                        .map(a -> new AccountKey(a.getOwnerId(), a.getId()))
+                        .collect(Collectors.toList())))
+                .doOnSuccess(v -> written.forEach(a -> 
+                        a.request.sink.success(FinTechService.toTransferPayload(a.audit))))
+                .onErrorResume(e -> {
+                    log.error("unable to write a batch of {} transfers", written.size(), e);
+                    written.forEach(a -> a.request.sink.error(e));
+                    return Mono.empty();
+                });
+    }
+    
+    /*
+     * the stale accounts kept the balance someone else wrote, and the 
+     * transfers of a batch can build on each other (a credit spent by a 
+     * later transfer), so none of them is applied again on its own: the 
+     * balances written are set back to the ones read, each provided it 
+     * still has the balance written (or by the amount written when it has
+     * changed since), and the whole batch goes into a later one, which 
+     * reads the balances afresh. Nothing else of the batch is written yet
+     */
+    private Mono<List<Applied>> resubmit(List<Applied> applied, Map<String, CustomerAccount> changed,
+            Set<String> stale, Map<String, BigDecimal> read) {
+        List<CustomerAccount> reverted = new ArrayList<>();
+        Map<String, BigDecimal> written = new HashMap<>();
+        Map<String, String> owners = new HashMap<>();
+        for(CustomerAccount account : changed.values()) {
+            if(!stale.contains(account.getId())) {
+                written.put(account.getId(), account.getCurrAmount());
+                owners.put(account.getId(), account.getOwnerId());
+                reverted.add(CustomerAccount.builder()
+                        .id(account.getId())
+                        .ownerId(account.getOwnerId())
+                        .type(account.getType())
+                        .currAmount(read.get(account.getId()))
+                        .build());
+            }
+        }
+        return accountStore.replaceBalances(reverted, written)
+                .flatMapMany(Flux::fromIterable)
+                .concatMap(id -> accountStore.addToBalance(owners.get(id), id, 
+                        read.get(id).subtract(written.get(id))))
+                .then(Mono.fromRunnable(() -> applied.forEach(a -> requests.next(a.request))))
+                .thenReturn(List.of());
+    }
+    
+    /*
+     * adds a change to the rollup of its account and day, also used by the
+     * balance adjustments
+     */
+    static void rollup(Map<String, DailyRollup> rollups, String accountId, LocalDate day,
+            BigDecimal debit, BigDecimal credit) {
+        DailyRollup rollup = rollups.computeIfAbsent(accountId + ":" + day, id -> DailyRollup.builder()
+                .id(id)
+                .accountId(accountId)
+                .day(day.toString())
+                .debits(BigDecimal.ZERO)
+                .credits(BigDecimal.ZERO)
+                .build());
+        rollup.setCount(rollup.getCount() + 1);
+        rollup.setDebits(rollup.getDebits().add(debit));
+        rollup.setCredits(rollup.getCredits().add(credit));
+    }
+    
+    private static CustomerAccount owned(Map<String, CustomerAccount> accounts, String accountId, String userId) {
+        CustomerAccount account = accounts.get(accountId);
+        return account != null && account.getOwnerId().equals(userId) ? account : null;
+    }
+    
+    /*
+     * looks the accounts up again to report the same error as a single
+     * transfer would, off the batch. If both turn out to exist (created 
+     * meanwhile) the transfer goes into a later batch
+     */
+    private void notFound(Request request) {
+        Mono.zip(accountStore.findAccount(request.userId, request.payload.getFromAccount()),
+                    accountStore.findAccount(request.payload.getUserId(), request.payload.getToAccount()))
+                .subscribe(t -> requests.next(request), request.sink::error);
+    }
+    
+    private static final class Request {
+        final TransferPayload payload;
+        final String userId;
+        final MonoSink<TransferPayload> sink;
+        
+        Request(TransferPayload payload, String userId, MonoSink<TransferPayload> sink) {
+            this.payload = payload;
+            this.userId = userId;
+            this.sink = sink;
+        }
+    }
+    
+    private static final class Applied {
+        final Request request;
+        final TransferAudit audit;
+        
+        Applied(Request request, TransferAudit audit) {
+            this.request = request;
+            this.audit = audit;
+        }
+    }
+}
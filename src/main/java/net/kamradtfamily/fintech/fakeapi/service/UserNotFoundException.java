@@ -27,7 +27,7 @@ package net.kamradtfamily.fintech.fakeapi.service;
  *
  * @author randalkamradt
  */
-public class UserNotFoundException extends RuntimeException {
+public class UserNotFoundException extends FinTechException {
     public UserNotFoundException(String userId) {
         super("User " + userId + " not found");
     }
@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS ledger_account (
+    id VARCHAR(36) PRIMARY KEY,
+    owner_id VARCHAR(64) NOT NULL,
+    curr_amount DECIMAL(19, 2) NOT NULL,
+    type VARCHAR(32)
+);
+ALTER TABLE ledger_account ADD COLUMN IF NOT EXISTS opening_amount DECIMAL(19, 2);
+ALTER TABLE ledger_account ADD COLUMN IF NOT EXISTS last_adjustment VARCHAR(64);
+CREATE INDEX IF NOT EXISTS ledger_account_owner ON ledger_account (owner_id, id);
+CREATE INDEX IF NOT EXISTS ledger_account_owner_type ON ledger_account (owner_id, type, id);
+CREATE INDEX IF NOT EXISTS ledger_account_owner_balance ON ledger_account (owner_id, curr_amount, id);
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.util.List;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The repository doubles filter on BigDecimal, these check the query as 
+ * the template sends it to the database
+ * 
+ * @author randalkamradt
+ */
+public class AccountQueriesImplTest {
+    private final MongoMappingContext context = new MongoMappingContext();
+    private final QueryMapper mapper;
+
+    public AccountQueriesImplTest() {
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        mapper = new QueryMapper(converter);
+    }
+
+    @Test
+    public void testBalanceRange() {
+        System.out.println("balanceRange");
+        Document mapped = mapped(AccountQuery.builder()
+                .minAmount(new BigDecimal("1"))
+                .maxAmount(new BigDecimal("40"))
+                .limit(10)
+                .build());
+        assertEquals(new Document("$gte", new Decimal128(new BigDecimal("1")))
+                        .append("$lte", new Decimal128(new BigDecimal("40"))), 
+                mapped.get("currAmount"));
+        mapped = mapped(AccountQuery.builder()
+                .minAmount(new BigDecimal("1"))
+                .limit(10)
+                .build());
+        assertEquals(new Document("$gte", new Decimal128(new BigDecimal("1"))), 
+                mapped.get("currAmount"));
+        mapped = mapped(AccountQuery.builder()
+                .maxAmount(new BigDecimal("40"))
+                .limit(10)
+                .build());
+        assertEquals(new Document("$lte", new Decimal128(new BigDecimal("40"))), 
+                mapped.get("currAmount"));
+    }
+
+    @Test
+    public void testBalanceKeyset() {
+        System.out.println("balanceKeyset");
+        Document mapped = mapped(AccountQuery.builder()
+                .order(AccountQuery.Order.BALANCE)
+                .afterId("account2")
+                .afterAmount(new BigDecimal("12.50"))
+                .limit(10)
+                .build());
+        Decimal128 after = new Decimal128(new BigDecimal("12.50"));
+        assertEquals(List.of(new Document("currAmount", new Document("$gt", after)),
+                        new Document("currAmount", after).append("_id", new Document("$gt", "account2"))), 
+                mapped.get("$or"));
+    }
+
+    private Document mapped(AccountQuery query) {
+        Query page = AccountQueriesImpl.pageQuery("user", query);
+        return mapper.getMappedObject(page.getQueryObject(), context.getPersistentEntity(CustomerAccount.class));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import net.kamradtfamily.fintech.fakeapi.AdaptiveConcurrencyLimiter.Lane;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AdaptiveConcurrencyLimiterTest {
+    ConcurrencyLimitProperties properties;
+    AdaptiveConcurrencyLimiter sut;
+    
+    @BeforeEach
+    public void setUp() {
+        properties = new ConcurrencyLimitProperties();
+        properties.setInitialLimit(10);
+        properties.setMinLimit(2);
+        properties.setMaxLimit(100);
+        properties.setReadShare(0.5);
+        sut = new AdaptiveConcurrencyLimiter(properties);
+    }
+
+    @Test
+    public void testWritesAdmittedWhenReadsShed() {
+        System.out.println("writesAdmittedWhenReadsShed");
+        for(int i = 0; i < 5; i++) {
+            assertTrue(sut.tryAcquire(Lane.READ));
+        }
+        assertFalse(sut.tryAcquire(Lane.READ));
+        for(int i = 0; i < 5; i++) {
+            assertTrue(sut.tryAcquire(Lane.WRITE));
+        }
+        assertFalse(sut.tryAcquire(Lane.WRITE));
+        sut.release(Lane.READ, -1);
+        assertTrue(sut.tryAcquire(Lane.WRITE));
+        assertEquals(10, sut.getInFlight());
+    }
+
+    @Test
+    public void testLimitFollowsLatency() {
+        System.out.println("limitFollowsLatency");
+        for(int i = 0; i < 50; i++) { // steady latency with the limit in use grows the limit
+            for(int j = 0; j < sut.getLimit(); j++) {
+                sut.tryAcquire(Lane.WRITE);
+            }
+            while(sut.getInFlight() > 0) {
+                sut.release(Lane.WRITE, 1_000_000);
+            }
+        }
+        int grown = sut.getLimit();
+        assertTrue(grown > 10);
+        for(int i = 0; i < 50; i++) { // latency spike backs the limit off
+            sut.tryAcquire(Lane.WRITE);
+            sut.release(Lane.WRITE, 10_000_000);
+        }
+        assertTrue(sut.getLimit() < grown);
+        for(int i = 0; i < 200; i++) {
+            sut.tryAcquire(Lane.WRITE);
+            sut.release(Lane.WRITE, 100_000_000);
+        }
+        assertTrue(sut.getLimit() >= properties.getMinLimit());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import reactor.core.publisher.Flux;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * Pages of embedded accounts are filtered and ordered by balance in 
+ * memory, after every account of the type has been read
+ * 
+ * @author randalkamradt
+ */
+public class CustomerAccountsImplTest {
+
+    @Test
+    public void testBalanceNotInAggregation() {
+        System.out.println("balanceNotInAggregation");
+        AccountQuery query = AccountQuery.builder()
+                .type("checking")
+                .minAmount(BigDecimal.ONE)
+                .maxAmount(BigDecimal.valueOf(40))
+                .order(AccountQuery.Order.BALANCE)
+                .afterId("account1")
+                .afterAmount(BigDecimal.ONE)
+                .limit(10)
+                .build();
+        List<Document> pipeline = CustomerAccountsImpl.pageAggregation("user", query)
+                .toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(4, pipeline.size());
+        assertEquals(new Document("$match", new Document("type", "checking")), pipeline.get(3));
+        pipeline.forEach(stage -> assertFalse(stage.toJson().contains("currAmount"), stage.toJson()));
+    }
+
+    @Test
+    public void testBalancePageInMemory() {
+        System.out.println("balancePageInMemory");
+        Flux<CustomerAccount> accounts = Flux.just(account("a", "9"), account("b", "10"), 
+                account("c", "100"), account("d", "0.5"), account("e", "10"));
+        AccountQuery query = AccountQuery.builder()
+                .minAmount(BigDecimal.ONE)
+                .maxAmount(BigDecimal.valueOf(40))
+                .order(AccountQuery.Order.BALANCE)
+                .limit(2)
+                .build();
+        assertEquals(List.of("a", "b"), ids(CustomerAccountsImpl.page(accounts, query)));
+        query = AccountQuery.builder()
+                .minAmount(BigDecimal.ONE)
+                .maxAmount(BigDecimal.valueOf(40))
+                .order(AccountQuery.Order.BALANCE)
+                .afterId("b")
+                .afterAmount(BigDecimal.TEN)
+                .limit(2)
+                .build();
+        assertEquals(List.of("e"), ids(CustomerAccountsImpl.page(accounts, query)));
+    }
+    
+    private static List<String> ids(Flux<CustomerAccount> page) {
+        return page.map(CustomerAccount::getId)
+                .collectList()
+                .block(Duration.ofSeconds(1));
+    }
+    
+    private static CustomerAccount account(String id, String balance) {
+        return CustomerAccount.builder()
+                .id(id)
+                .ownerId("user")
+                .currAmount(new BigDecimal(balance))
+                .type("checking")
+                .build();
+    }
+}
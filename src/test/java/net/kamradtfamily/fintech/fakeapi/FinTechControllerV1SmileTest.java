@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.AccountRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.AccountVersionStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.DailyRollupStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import net.kamradtfamily.fintech.fakeapi.service.TimeOrderedIdGenerator;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditArchiveDouble;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import net.kamradtfamily.fintech.fakeapi.service.UserRepositoryDouble;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * Accounts and transfers sent and received as Smile through the annotated
+ * endpoints, with the codecs set up as the application sets them up
+ * 
+ * @author randalkamradt
+ */
+public class FinTechControllerV1SmileTest {
+    private final static MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+    
+    UserRepositoryDouble userRepository = new UserRepositoryDouble();
+    AccountRepositoryDouble accountRepository = new AccountRepositoryDouble();
+    TransferAuditRepositoryDouble transferAuditRepository = new TransferAuditRepositoryDouble();
+    WebTestClient client;
+    String userId;
+    
+    @BeforeEach
+    public void setUp() throws IOException {
+        FinTechService service = new FinTechService(userRepository,
+                new LayoutAccountStore(userRepository, accountRepository, new AccountLayoutProperties()),
+                transferAuditRepository,
+                new TransferAuditArchiveDouble(transferAuditRepository),
+                new DailyRollupStoreDouble(),
+                new AccountVersionStoreDouble(),
+                new TimeOrderedIdGenerator(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+        service.initializeUsers();
+        userId = userRepository.findAll()
+                .blockFirst()
+                .getId();
+        CodecConfiguration codecs = new CodecConfiguration(Jackson2ObjectMapperBuilder.json());
+        client = WebTestClient.bindToController(new FinTechControllerV1(service))
+                .httpMessageCodecs(codecs::configureHttpMessageCodecs)
+                .build();
+    }
+
+    @Test
+    public void testAccountAndTransfer() {
+        System.out.println("accountAndTransfer");
+        AccountPayload from = createAccount(BigDecimal.valueOf(1000, 2));
+        AccountPayload to = createAccount(BigDecimal.valueOf(0, 2));
+        assertNotNull(from.getId());
+        assertEquals(BigDecimal.valueOf(1000, 2), from.getCurrAmount());
+        AccountPayload read = client.get()
+                .uri("/v1/fintech/account/{accountId}", from.getId())
+                .header("X-user-id", userId)
+                .accept(SMILE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(SMILE)
+                .expectBody(AccountPayload.class)
+                .returnResult()
+                .getResponseBody();
+        assertEquals(from.getId(), read.getId());
+        assertEquals("checking", read.getType());
+        TransferPayload transfer = client.post()
+                .uri("/v1/fintech/transfer")
+                .header("X-user-id", userId)
+                .contentType(SMILE)
+                .accept(SMILE)
+                .bodyValue(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(250, 2))
+                        .fromAccount(from.getId())
+                        .toAccount(to.getId())
+                        .userId(userId)
+                        .build())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().contentType(SMILE)
+                .expectBody(TransferPayload.class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(transfer.getTransferId());
+        assertNotNull(transfer.getCreatedAt());
+        assertEquals(BigDecimal.valueOf(250, 2), transfer.getAmount());
+        assertEquals(from.getId(), transfer.getFromAccount());
+        assertEquals(to.getId(), transfer.getToAccount());
+    }
+    
+    private AccountPayload createAccount(BigDecimal amount) {
+        return client.post()
+                .uri("/v1/fintech/account")
+                .header("X-user-id", userId)
+                .contentType(SMILE)
+                .accept(SMILE)
+                .bodyValue(AccountPayload.builder()
+                        .currAmount(amount)
+                        .type("checking")
+                        .build())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().contentType(SMILE)
+                .expectBody(AccountPayload.class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
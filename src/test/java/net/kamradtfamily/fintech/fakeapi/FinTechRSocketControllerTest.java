@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.AccountRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.AccountVersionStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.DailyRollupStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import net.kamradtfamily.fintech.fakeapi.service.TimeOrderedIdGenerator;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAck;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditArchiveDouble;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import net.kamradtfamily.fintech.fakeapi.service.UserRepositoryDouble;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.messaging.rsocket.annotation.support.RSocketMessageHandler;
+import reactor.core.publisher.Flux;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The RSocket routes over a local tcp server, with the service on the 
+ * in memory doubles
+ * 
+ * @author randalkamradt
+ */
+public class FinTechRSocketControllerTest {
+    UserRepositoryDouble userRepository = new UserRepositoryDouble();
+    AccountRepositoryDouble accountRepository = new AccountRepositoryDouble();
+    TransferAuditRepositoryDouble transferAuditRepository = new TransferAuditRepositoryDouble();
+    FinTechService service;
+    CloseableChannel server;
+    RSocketRequester requester;
+    List<Customer> customers;
+    
+    @BeforeEach
+    public void setUp() throws IOException {
+        service = new FinTechService(userRepository,
+                new LayoutAccountStore(userRepository, accountRepository, new AccountLayoutProperties()),
+                transferAuditRepository,
+                new TransferAuditArchiveDouble(transferAuditRepository),
+                new DailyRollupStoreDouble(),
+                new AccountVersionStoreDouble(),
+                new TimeOrderedIdGenerator(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+        service.initializeUsers();
+        customers = userRepository.findAll()
+                .collectList()
+                .block();
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        RSocketStrategies strategies = RSocketStrategies.builder()
+                .encoder(new Jackson2JsonEncoder(mapper))
+                .decoder(new Jackson2JsonDecoder(mapper))
+                .build();
+        RSocketMessageHandler handler = new RSocketMessageHandler();
+        handler.setRSocketStrategies(strategies);
+        handler.setHandlers(List.of(new FinTechRSocketController(service, 
+                new RejectCounters(new SimpleMeterRegistry()))));
+        handler.afterPropertiesSet();
+        server = RSocketServer.create(handler.responder())
+                .bind(TcpServerTransport.create("localhost", 0))
+                .block();
+        requester = RSocketRequester.builder()
+                .rsocketStrategies(strategies)
+                .tcp("localhost", server.address().getPort());
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        requester.rsocketClient().dispose();
+        server.dispose();
+    }
+
+    @Test
+    public void testGetAccount() {
+        System.out.println("getAccount");
+        String userId = customers.get(0).getId();
+        AccountPayload account = createAccount(userId, BigDecimal.valueOf(1000, 2));
+        AccountPayload result = requester.route("account.{userId}.{accountId}", userId, account.getId())
+                .retrieveMono(AccountPayload.class)
+                .block(Duration.ofSeconds(5));
+        assertEquals(account.getId(), result.getId());
+        assertEquals(account.getCurrAmount(), result.getCurrAmount());
+        // another user's account is an error, as over http
+        Exception ex = assertThrows(Exception.class, () -> 
+                requester.route("account.{userId}.{accountId}", customers.get(1).getId(), account.getId())
+                        .retrieveMono(AccountPayload.class)
+                        .block(Duration.ofSeconds(5)));
+        assertTrue(ex.getMessage().contains("not found"));
+    }
+
+    @Test
+    public void testTransferChannelAndHistory() {
+        System.out.println("transferChannelAndHistory");
+        String userId = customers.get(0).getId();
+        AccountPayload from = createAccount(userId, BigDecimal.valueOf(1000, 2));
+        AccountPayload to = createAccount(userId, BigDecimal.valueOf(0, 2));
+        TransferPayload transfer = TransferPayload.builder()
+                .amount(BigDecimal.valueOf(400, 2))
+                .fromAccount(from.getId())
+                .toAccount(to.getId())
+                .userId(userId)
+                .build();
+        // the second transfer would leave a negative balance, it is 
+        // acknowledged with its reason and the channel goes on
+        List<TransferAck> acks = requester.route("transfer.{userId}", userId)
+                .data(Flux.just(transfer, transfer, transfer))
+                .retrieveFlux(TransferAck.class)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(3, acks.size());
+        assertNull(acks.get(0).getError());
+        assertNotNull(acks.get(0).getTransfer().getTransferId());
+        assertNull(acks.get(1).getError());
+        assertEquals("Negative value transfer result not allowed here", acks.get(2).getError());
+        assertNull(acks.get(2).getTransfer().getTransferId());
+        List<TransferPayload> history = requester.route("transfers.{userId}.{accountId}", userId, from.getId())
+                .retrieveFlux(TransferPayload.class)
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(2, history.size());
+        assertEquals(acks.get(0).getTransfer().getTransferId(), history.get(0).getTransferId());
+        assertEquals(acks.get(1).getTransfer().getTransferId(), history.get(1).getTransferId());
+        assertEquals(0, BigDecimal.valueOf(200, 2).compareTo(service.getAccount(from.getId(), userId)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+    }
+    
+    private AccountPayload createAccount(String userId, BigDecimal amount) {
+        return service.createAccount(AccountPayload.builder()
+                        .currAmount(amount)
+                        .type("checking")
+                        .build(), userId)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+    }
+}
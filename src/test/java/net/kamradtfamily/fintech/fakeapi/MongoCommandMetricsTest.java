@@ -0,0 +1,49 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class MongoCommandMetricsTest {
+
+    @Test
+    public void testShape() {
+        System.out.println("shape");
+        BsonDocument find = BsonDocument.parse("{ find: 'transferAudit', filter: { $or: [ { fromAccount: 'a1' }, "
+                + "{ toAccount: 'a1' } ], createdAt: { $gte: { $date: 0 }, $lt: { $date: 1000 } } }, sort: { createdAt: 1 } }");
+        assertEquals(BsonDocument.parse("{ $or: [ { fromAccount: '?' }, { toAccount: '?' } ], "
+                + "createdAt: { $gte: '?', $lt: '?' } }"), 
+                MongoCommandMetrics.shape(MongoCommandMetrics.filterOf(find)));
+        BsonDocument delete = BsonDocument.parse("{ delete: 'transferAudit', deletes: [ { q: { _id: { $in: [ 'a', 'b' ] } }, limit: 0 } ] }");
+        assertEquals(BsonDocument.parse("{ _id: { $in: '?' } }"), 
+                MongoCommandMetrics.shape(MongoCommandMetrics.filterOf(delete)));
+        assertNull(MongoCommandMetrics.filterOf(BsonDocument.parse("{ insert: 'transferAudit' }")));
+    }
+}
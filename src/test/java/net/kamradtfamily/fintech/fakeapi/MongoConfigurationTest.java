@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TaggableReadPreference;
+import com.mongodb.WriteConcern;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoAction;
+import org.springframework.data.mongodb.core.MongoActionOperation;
+import org.springframework.data.mongodb.core.WriteConcernResolver;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class MongoConfigurationTest {
+
+    @Test
+    public void testWriteConcernByEntity() {
+        System.out.println("writeConcernByEntity");
+        MongoRoutingProperties properties = new MongoRoutingProperties();
+        properties.setAccountWriteConcern("journaled");
+        properties.setAuditWriteConcern("w2");
+        WriteConcernResolver resolver = MongoConfiguration.writeConcernResolver(properties);
+        for(Class<?> account : List.of(Customer.class, CustomerAccount.class, AccountSlot.class, 
+                AccountVersion.class, Checkpoint.class)) {
+            assertEquals(WriteConcern.JOURNALED, resolver.resolve(action(account)), account.getSimpleName());
+        }
+        for(Class<?> audit : List.of(TransferAudit.class, DailyRollup.class)) {
+            assertEquals(WriteConcern.W2, resolver.resolve(action(audit)), audit.getSimpleName());
+        }
+        // anything else keeps the template's default
+        assertEquals(WriteConcern.ACKNOWLEDGED, resolver.resolve(action(String.class)));
+    }
+
+    @Test
+    public void testHistoryReadPreference() {
+        System.out.println("historyReadPreference");
+        MongoRoutingProperties properties = new MongoRoutingProperties();
+        ReadPreference preference = MongoConfiguration.readPreference(properties);
+        assertEquals(ReadPreference.secondaryPreferred().getName(), preference.getName());
+        assertEquals(90L, ((TaggableReadPreference)preference).getMaxStaleness(TimeUnit.SECONDS));
+        properties.setHistoryReadPreference("nearest");
+        properties.setHistoryMaxStaleness(Duration.ofMinutes(5));
+        preference = MongoConfiguration.readPreference(properties);
+        assertEquals(ReadPreference.nearest().getName(), preference.getName());
+        assertEquals(300L, ((TaggableReadPreference)preference).getMaxStaleness(TimeUnit.SECONDS));
+        // the primary takes no staleness
+        properties.setHistoryReadPreference("primary");
+        assertEquals(ReadPreference.primary(), MongoConfiguration.readPreference(properties));
+    }
+    
+    private static MongoAction action(Class<?> entityType) {
+        return new MongoAction(WriteConcern.ACKNOWLEDGED, MongoActionOperation.INSERT, 
+                "collection", entityType, null, null);
+    }
+}
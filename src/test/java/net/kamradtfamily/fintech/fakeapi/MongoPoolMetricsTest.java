@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class MongoPoolMetricsTest {
+
+    @Test
+    public void testCheckOutWait() throws InterruptedException {
+        System.out.println("checkOutWait");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MongoPoolMetrics metrics = new MongoPoolMetrics(registry);
+        ServerId server = new ServerId(new ClusterId(), new ServerAddress());
+        ConnectionId connection = new ConnectionId(server);
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(server));
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(server));
+        assertEquals(2, registry.get("mongo.pool.waiting").gauge().value());
+        Thread.sleep(5);
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(connection));
+        metrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(server, 
+                ConnectionCheckOutFailedEvent.Reason.TIMEOUT));
+        Timer wait = registry.get("mongo.pool.checkout.wait").timer();
+        assertEquals(2, wait.count());
+        assertTrue(wait.max(TimeUnit.MILLISECONDS) >= 5);
+        assertEquals(0, registry.get("mongo.pool.waiting").gauge().value());
+        assertEquals(1, registry.get("mongo.pool.checkout.failed").counter().count());
+        metrics.connectionCheckedIn(new ConnectionCheckedInEvent(connection));
+        assertEquals(1, registry.get("mongo.pool.hold").timer().count());
+        assertEquals(0, registry.get("mongo.pool.checkedout").gauge().value());
+    }
+
+    /*
+     * a checkout on one server ends the oldest wait on that server, not 
+     * an older one on another
+     */
+    @Test
+    public void testCheckOutWaitPerServer() throws InterruptedException {
+        System.out.println("checkOutWaitPerServer");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MongoPoolMetrics metrics = new MongoPoolMetrics(registry);
+        ClusterId cluster = new ClusterId();
+        ServerId slow = new ServerId(cluster, new ServerAddress("slow"));
+        ServerId fast = new ServerId(cluster, new ServerAddress("fast"));
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(slow));
+        Thread.sleep(50);
+        metrics.connectionCheckOutStarted(new ConnectionCheckOutStartedEvent(fast));
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(new ConnectionId(fast)));
+        Timer wait = registry.get("mongo.pool.checkout.wait").timer();
+        assertEquals(1, wait.count());
+        assertTrue(wait.max(TimeUnit.MILLISECONDS) < 50);
+        assertEquals(1, registry.get("mongo.pool.waiting").gauge().value());
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(new ConnectionId(slow)));
+        assertEquals(2, wait.count());
+        assertTrue(wait.max(TimeUnit.MILLISECONDS) >= 50);
+    }
+}
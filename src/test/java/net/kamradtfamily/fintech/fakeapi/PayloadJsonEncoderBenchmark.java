@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.UUID;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import reactor.core.publisher.Flux;
+
+/**
+ *
+ * Compares bytes allocated per encoded transfer record between the default
+ * Jackson encoder and the direct payload encoder, using pooled netty buffers
+ * the same way the server does. Run with
+ * 
+ * mvn test-compile exec:java -Dexec.mainClass=net.kamradtfamily.fintech.fakeapi.PayloadJsonEncoderBenchmark -Dexec.classpathScope=test
+ * 
+ * @author randalkamradt
+ */
+public class PayloadJsonEncoderBenchmark {
+    private final static int RECORDS = 100_000;
+    private final static int ROUNDS = 10;
+    
+    public static void main(String [] args) {
+        TransferPayload[] records = new TransferPayload[RECORDS];
+        for(int i = 0; i < RECORDS; i++) {
+            records[i] = TransferPayload.builder()
+                    .transferId(UUID.randomUUID().toString())
+                    .userId(Integer.toString(i % 100))
+                    .fromAccount(UUID.randomUUID().toString())
+                    .toAccount(UUID.randomUUID().toString())
+                    .amount(BigDecimal.valueOf(i, 2))
+                    .build();
+        }
+        run("jackson", new Jackson2JsonEncoder(), records);
+        run("direct", new PayloadJsonEncoder(), records);
+    }
+    
+    private static void run(String name, Encoder<Object> encoder, TransferPayload[] records) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        for(int round = 0; round < ROUNDS; round++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            encoder.encode(Flux.fromArray(records), bufferFactory, 
+                    ResolvableType.forClass(TransferPayload.class), 
+                    MediaType.APPLICATION_JSON, Collections.emptyMap())
+                    .doOnNext(DataBufferUtils::release)
+                    .blockLast();
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore;
+            System.out.printf("%-8s round %d: %6d bytes/record %6d ns/record%n", 
+                    name, round, allocated / records.length, elapsed / records.length);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.TransferPayload;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.Encoder;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class PayloadJsonEncoderTest {
+    PayloadJsonEncoder sut = new PayloadJsonEncoder();
+    // configured the way spring boot configures the application's mapper
+    Jackson2JsonEncoder jackson = new Jackson2JsonEncoder(Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build());
+    ObjectMapper objectMapper = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    
+    @Test
+    public void testCanEncode() {
+        System.out.println("canEncode");
+        assertTrue(sut.canEncode(ResolvableType.forClass(TransferPayload.class), MediaType.APPLICATION_JSON));
+        assertTrue(sut.canEncode(ResolvableType.forClass(AccountPayload.class), MediaType.APPLICATION_NDJSON));
+        assertTrue(sut.canEncode(ResolvableType.forClass(AccountPayload.class), null));
+        assertFalse(sut.canEncode(ResolvableType.forClass(Object.class), MediaType.APPLICATION_JSON));
+        assertFalse(sut.canEncode(ResolvableType.forClass(String.class), MediaType.APPLICATION_JSON));
+        assertFalse(sut.canEncode(ResolvableType.forClass(AccountPayload.class), MediaType.APPLICATION_XML));
+    }
+
+    @Test
+    public void testSameAsJackson() throws Exception {
+        System.out.println("sameAsJackson");
+        for(String amount : new String[] {"0", "0.00", "10.00", "-3.5", "0.005", "0.0000001", 
+                "1E+3", "123456789012345678901234.5"}) {
+            AccountPayload account = AccountPayload.builder()
+                    .id("a\"b\\c\n\u0001é€😀")
+                    .currAmount(new BigDecimal(amount))
+                    .build();
+            String expected = encode(jackson, Mono.just(account), AccountPayload.class, MediaType.APPLICATION_JSON);
+            String actual = encode(sut, Mono.just(account), AccountPayload.class, MediaType.APPLICATION_JSON);
+            assertEquals(objectMapper.readTree(expected), objectMapper.readTree(actual));
+            assertTrue(actual.contains(new BigDecimal(amount).toString()));
+        }
+    }
+
+    @Test
+    public void testEncodeFlux() throws Exception {
+        System.out.println("encodeFlux");
+        Flux<TransferPayload> transfers = Flux.range(0, 3)
+                .map(i -> TransferPayload.builder()
+                        .transferId("t" + i)
+                        .fromAccount("from")
+                        .toAccount("to")
+                        .amount(BigDecimal.valueOf(i, 2))
+                        .createdAt(Instant.ofEpochMilli(1614556800123L + i))
+                        .build());
+        String actual = encode(sut, transfers, TransferPayload.class, MediaType.APPLICATION_JSON);
+        String expected = encode(jackson, transfers, TransferPayload.class, MediaType.APPLICATION_JSON);
+        assertEquals(objectMapper.readTree(expected), objectMapper.readTree(actual));
+        assertEquals("[]", encode(sut, Flux.empty(), TransferPayload.class, MediaType.APPLICATION_JSON));
+        String[] lines = encode(sut, transfers, TransferPayload.class, MediaType.APPLICATION_NDJSON).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("t2", objectMapper.readTree(lines[2]).get("transferId").asText());
+    }
+    
+    private static String encode(Encoder<Object> encoder, Publisher<?> input, Class<?> type, MediaType mediaType) {
+        return DataBufferUtils.join(encoder.encode(input, new DefaultDataBufferFactory(), 
+                        ResolvableType.forClass(type), mediaType, Collections.emptyMap()))
+                .map(b -> b.toString(StandardCharsets.UTF_8))
+                .block();
+    }
+}
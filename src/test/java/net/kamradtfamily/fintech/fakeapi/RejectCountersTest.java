@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.kamradtfamily.fintech.fakeapi.service.AccountNotFoundException;
+import net.kamradtfamily.fintech.fakeapi.service.NegativeValueNotAllowedException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class RejectCountersTest {
+
+    @Test
+    public void testCount() {
+        System.out.println("count");
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RejectCounters sut = new RejectCounters(meterRegistry);
+        sut.count(NegativeValueNotAllowedException.TRANSFER_RESULT);
+        sut.count(NegativeValueNotAllowedException.TRANSFER_RESULT);
+        sut.count(new AccountNotFoundException("1", "2"));
+        sut.count(new IllegalStateException("not a reject"));
+        assertEquals(2.0, meterRegistry.get("fintech.rejects")
+                .tag("reason", "NegativeValueNotAllowedException")
+                .counter()
+                .count());
+        assertEquals(1.0, meterRegistry.get("fintech.rejects")
+                .tag("reason", "AccountNotFoundException")
+                .counter()
+                .count());
+        assertEquals(0.0, meterRegistry.get("fintech.rejects")
+                .tag("reason", "UserNotFoundException")
+                .counter()
+                .count());
+    }
+}
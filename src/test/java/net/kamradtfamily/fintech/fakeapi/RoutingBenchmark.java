@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.service.AccountPayload;
+import net.kamradtfamily.fintech.fakeapi.service.AccountRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.AccountVersionStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.DailyRollupStoreDouble;
+import net.kamradtfamily.fintech.fakeapi.service.FinTechService;
+import net.kamradtfamily.fintech.fakeapi.service.TimeOrderedIdGenerator;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditArchiveDouble;
+import net.kamradtfamily.fintech.fakeapi.service.TransferAuditRepositoryDouble;
+import net.kamradtfamily.fintech.fakeapi.service.UserRepositoryDouble;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.config.EnableWebFlux;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ *
+ * Compares the annotated controller and the functional routes: the time 
+ * from creating the web context to the first answered request, and the 
+ * requests per second of GET /v1/fintech/account/{accountId} over http. 
+ * The service runs on the in memory test doubles so only the web layer is
+ * measured. Startup times are only comparable with one variant per JVM, 
+ * pass 'annotated' or 'functional' as the argument for that (the default
+ * runs both, the second one profits from the classes the first loaded). 
+ * Run with
+ * 
+ * mvn test-compile exec:java -Dexec.mainClass=net.kamradtfamily.fintech.fakeapi.RoutingBenchmark -Dexec.classpathScope=test -Dexec.args="functional"
+ * 
+ * @author randalkamradt
+ */
+public class RoutingBenchmark {
+    private final static String USER = "1";
+    private final static int REQUESTS = 50_000;
+    private final static int CONCURRENCY = 64;
+    
+    public static void main(String [] args) throws Exception {
+        String [] variants = args.length > 0 ? args : new String [] {"annotated", "functional"};
+        LoggingSystem.get(RoutingBenchmark.class.getClassLoader()).setLogLevel(null, LogLevel.INFO);
+        for(String variant : variants) {
+            run(variant);
+        }
+    }
+    
+    private static void run(String variant) throws Exception {
+        long start = System.nanoTime();
+        FinTechService service = service();
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources()
+                .addFirst(new MapPropertySource("benchmark", Map.of("fintech.web.routing", variant)));
+        context.registerBean(FinTechService.class, () -> service);
+        context.registerBean(RejectCounters.class, () -> new RejectCounters(new SimpleMeterRegistry()));
+        context.registerBean(Jackson2ObjectMapperBuilder.class, Jackson2ObjectMapperBuilder::json);
+        context.register(WebConfiguration.class, CodecConfiguration.class,
+                FinTechControllerV1.class, GlobalControllerExceptionHandler.class,
+                FinTechHandler.class, FinTechRoutes.class);
+        context.refresh();
+        DisposableServer server = HttpServer.create()
+                .port(0)
+                .handle(new ReactorHttpHandlerAdapter(WebHttpHandlerBuilder.applicationContext(context).build()))
+                .bindNow();
+        try {
+            String accountId = service.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(100))
+                        .type("checking")
+                        .build(), USER)
+                    .block()
+                    .getId();
+            WebClient client = WebClient.create("http://localhost:" + server.port() + "/v1/fintech");
+            get(client, accountId, 1);
+            long firstRequest = System.nanoTime() - start;
+            get(client, accountId, REQUESTS / 10); // warm up
+            long requestsStart = System.nanoTime();
+            get(client, accountId, REQUESTS);
+            long elapsed = System.nanoTime() - requestsStart;
+            System.out.printf("%-10s first request after %6.0fms  %8d requests/s%n",
+                    variant, firstRequest / 1_000_000.0, REQUESTS * 1_000_000_000L / elapsed);
+        } finally {
+            server.disposeNow();
+            context.close();
+        }
+    }
+    
+    private static void get(WebClient client, String accountId, int count) {
+        Flux.range(0, count)
+                .flatMap(i -> client.get()
+                        .uri("/account/{accountId}", accountId)
+                        .header(FinTechHandler.USER_HEADER, USER)
+                        .retrieve()
+                        .bodyToMono(String.class), CONCURRENCY)
+                .blockLast();
+    }
+    
+    private static FinTechService service() {
+        UserRepositoryDouble userRepository = new UserRepositoryDouble();
+        TransferAuditRepositoryDouble transferAuditRepository = new TransferAuditRepositoryDouble();
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        FinTechService service = new FinTechService(userRepository,
+                new LayoutAccountStore(userRepository, new AccountRepositoryDouble(), properties),
+                transferAuditRepository,
+                new TransferAuditArchiveDouble(transferAuditRepository),
+                new DailyRollupStoreDouble(),
+                new AccountVersionStoreDouble(),
+                new TimeOrderedIdGenerator(),
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty());
+        service.loadUsers().block();
+        return service;
+    }
+    
+    @Configuration(proxyBeanMethods = false)
+    @EnableWebFlux
+    static class WebConfiguration {
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Starts the application in a new JVM and measures the time until it 
+ * answers its first request, then stops it (which is also when a JVM 
+ * asked to dump a class data sharing archive writes it). Used by the 
+ * fast-start maven profile, which runs it as
+ * 
+ * java StartupTimer url header budget-ms log-file jvm-arguments...
+ * 
+ * The url is polled, with the header (name:value, or - for none), until 
+ * it answers 200. It should be a real API route: a health probe answers 
+ * before a lazily initialized application has created the beans that 
+ * serve requests. The profile asks for the portfolio of a bootstrapped 
+ * user, which answers 200 once the users are loaded. It fails (exit 
+ * status 1) if the application exits first, does not answer within two 
+ * minutes or, with a budget above 0, takes longer than the budget
+ * 
+ * @author randalkamradt
+ */
+public class StartupTimer {
+    private final static long TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+    
+    public static void main(String [] args) throws Exception {
+        try {
+            time(args);
+        } catch(IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    private static void time(String [] args) throws Exception {
+        URL url = new URL(args[0]);
+        String header = args[1];
+        long budget = Long.parseLong(args[2]);
+        File log = new File(args[3]);
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(args).subList(4, args.length));
+        log.getParentFile().mkdirs();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        try {
+            while(!answers(url, header)) {
+                if(!process.isAlive()) {
+                    fail("the application exited with status " + process.exitValue() + ", see " + log);
+                }
+                if(System.nanoTime() - start > TIMEOUT) {
+                    fail("the application did not answer " + url + ", see " + log);
+                }
+                Thread.sleep(10);
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("time to first request: %dms%s%n", elapsed, budget > 0 ? " (budget " + budget + "ms)" : "");
+            if(budget > 0 && elapsed > budget) {
+                fail("time to first request " + elapsed + "ms is over the budget of " + budget + "ms");
+            }
+        } finally {
+            process.destroy();
+            if(!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+    
+    private static boolean answers(URL url, String header) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+            connection.setConnectTimeout(100);
+            connection.setReadTimeout(10_000);
+            int separator = header.indexOf(':');
+            if(separator > 0) {
+                connection.setRequestProperty(header.substring(0, separator).trim(), 
+                        header.substring(separator + 1).trim());
+            }
+            try {
+                return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+            } finally {
+                connection.disconnect();
+            }
+        } catch(IOException e) {
+            return false;
+        }
+    }
+    
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+}
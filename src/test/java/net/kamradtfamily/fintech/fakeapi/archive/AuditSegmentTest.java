@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AuditSegmentTest {
+    private final static Instant START = Instant.parse("2021-01-01T00:00:00Z");
+    @TempDir
+    Path directory;
+    List<TransferAudit> audits;
+    List<String> accounts;
+    
+    @BeforeEach
+    public void setUp() {
+        accounts = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            accounts.add(UUID.randomUUID().toString());
+        }
+        audits = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            audits.add(TransferAudit.builder()
+                    .id(UUID.randomUUID().toString())
+                    .fromAccount(accounts.get(i % accounts.size()))
+                    .toAccount(accounts.get((i * 7 + 1) % accounts.size()))
+                    .toUserId(Integer.toString(i % 4))
+                    .amount(BigDecimal.valueOf(i * 37L - 500, i % 3))
+                    .createdAt(START.plusSeconds(i * 60L))
+                    .build());
+        }
+        audits.add(TransferAudit.builder()
+                .id("big")
+                .fromAccount(accounts.get(0))
+                .toAccount(accounts.get(1))
+                .amount(new BigDecimal("123456789012345678901234567890.12"))
+                .createdAt(START.plusSeconds(1000 * 60L))
+                .build());
+    }
+
+    @Test
+    public void testWriteAndFind() throws IOException {
+        System.out.println("writeAndFind");
+        Path path = directory.resolve("segment.fta");
+        AuditSegment.write(path, audits);
+        AuditSegment sut = AuditSegment.open(path);
+        assertEquals(audits.size(), sut.getRowCount());
+        for(String account : accounts) {
+            List<TransferAudit> expected = audits.stream()
+                    .filter(a -> a.getFromAccount().equals(account) || a.getToAccount().equals(account))
+                    .collect(Collectors.toList());
+            assertEquals(expected, sut.find(account, null, null));
+        }
+        Instant from = START.plusSeconds(100 * 60L);
+        Instant to = START.plusSeconds(200 * 60L);
+        List<TransferAudit> expected = audits.stream()
+                .filter(a -> a.getFromAccount().equals(accounts.get(3)) || a.getToAccount().equals(accounts.get(3)))
+                .filter(a -> !a.getCreatedAt().isBefore(from) && a.getCreatedAt().isBefore(to))
+                .collect(Collectors.toList());
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, sut.find(accounts.get(3), from, to));
+        assertTrue(sut.find(UUID.randomUUID().toString(), null, null).isEmpty());
+        assertTrue(sut.find(accounts.get(3), START.plusSeconds(2000 * 60L), null).isEmpty());
+        // transfers between two of the accounts are found once
+        List<String> some = List.of(accounts.get(0), accounts.get(1), accounts.get(8), UUID.randomUUID().toString());
+        expected = audits.stream()
+                .filter(a -> some.contains(a.getFromAccount()) || some.contains(a.getToAccount()))
+                .collect(Collectors.toList());
+        assertEquals(expected, sut.find(some));
+        assertFalse(sut.overlaps(null, START));
+        assertTrue(sut.overlaps(null, START.plusMillis(1)));
+    }
+
+    /*
+     * the dictionary is searched by its UTF-8 bytes, which order multi
+     * byte characters differently than strings do
+     */
+    @Test
+    public void testFindOutsideAscii() throws IOException {
+        System.out.println("findOutsideAscii");
+        List<String> ids = List.of("a", "ab", "b", "\u00e9", "\uffff", "\ud83d\ude00", "z");
+        List<TransferAudit> rows = new ArrayList<>();
+        for(int i = 0; i < ids.size(); i++) {
+            rows.add(TransferAudit.builder()
+                    .id(Integer.toString(i))
+                    .fromAccount(ids.get(i))
+                    .toAccount(ids.get((i + 1) % ids.size()))
+                    .toUserId(ids.get(i))
+                    .amount(BigDecimal.ONE)
+                    .createdAt(START.plusSeconds(i))
+                    .build());
+        }
+        Path path = directory.resolve("segment.fta");
+        AuditSegment.write(path, rows);
+        AuditSegment sut = AuditSegment.open(path);
+        for(String id : ids) {
+            List<TransferAudit> expected = rows.stream()
+                    .filter(a -> a.getFromAccount().equals(id) || a.getToAccount().equals(id))
+                    .collect(Collectors.toList());
+            assertEquals(expected, sut.find(id, null, null), id);
+        }
+        assertTrue(sut.find("aa", null, null).isEmpty());
+        assertTrue(sut.find("", null, null).isEmpty());
+    }
+
+    @Test
+    public void testSmallerThanDocuments() throws IOException {
+        System.out.println("smallerThanDocuments");
+        Path path = directory.resolve("segment.fta");
+        AuditSegment.write(path, audits);
+        // a uuid id alone is 36 bytes, the rest of the row should cost little more
+        assertTrue(Files.size(path) < audits.size() * 50L);
+    }
+}
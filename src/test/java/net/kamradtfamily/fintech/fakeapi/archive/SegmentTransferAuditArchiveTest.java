@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.archive;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.ArchiveProperties;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class SegmentTransferAuditArchiveTest {
+    private final static Instant START = Instant.parse("2021-01-01T00:00:00Z");
+    @TempDir
+    Path directory;
+
+    /*
+     * more segments than stay mapped, and one written by someone else 
+     * after the first read
+     */
+    @Test
+    public void testFindAcrossSegments() throws IOException {
+        System.out.println("findAcrossSegments");
+        ArchiveProperties properties = new ArchiveProperties();
+        properties.setSegmentDirectory(directory);
+        properties.setSegmentCacheSize(1);
+        SegmentTransferAuditArchive sut = new SegmentTransferAuditArchive(null, properties);
+        AuditSegment.write(directory.resolve("0000000000000001-a.fta"), List.of(audit("1", 1)));
+        AuditSegment.write(directory.resolve("0000000000000002-b.fta"), List.of(audit("2", 2)));
+        assertEquals(List.of("1", "2"), ids(sut));
+        assertEquals(List.of("1", "2"), ids(sut));
+        AuditSegment.write(directory.resolve("0000000000000003-c.fta"), List.of(audit("3", 3)));
+        assertEquals(List.of("1", "2", "3"), ids(sut));
+    }
+    
+    private static List<String> ids(SegmentTransferAuditArchive sut) {
+        return sut.findByAccount("from", null, null)
+                .map(TransferAudit::getId)
+                .collectList()
+                .block(Duration.ofSeconds(1));
+    }
+    
+    private static TransferAudit audit(String id, long minute) {
+        return TransferAudit.builder()
+                .id(id)
+                .fromAccount("from")
+                .toAccount("to")
+                .toUserId("user")
+                .amount(BigDecimal.ONE)
+                .createdAt(START.plusSeconds(minute * 60))
+                .build();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.ledger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class LedgerEngineTest {
+    private final static int CHUNK_SIZE = 1024 * 1024;
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testTransfersSurviveRestart() throws IOException {
+        System.out.println("transfersSurviveRestart");
+        List<String> accounts = new ArrayList<>();
+        try(LedgerEngine engine = new LedgerEngine(directory, 4, 64, CHUNK_SIZE)) {
+            for(int i = 0; i < 20; i++) {
+                accounts.add(UUID.randomUUID().toString());
+                engine.create(accounts.get(i), "user" + (i % 3), "checking", 10_000)
+                        .block(Duration.ofSeconds(1));
+            }
+            // many more transfers than the rings hold, across and within partitions
+            Flux.range(0, 2000)
+                    .flatMap(i -> {
+                        int from = i % 20;
+                        int to = (i * 7 + 3) % 20;
+                        return engine.transfer(accounts.get(from), "user" + (from % 3), 
+                                accounts.get(to), "user" + (to % 3), i % 50);
+                    }, 64)
+                    .blockLast(Duration.ofSeconds(10));
+            assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS, engine.transfer(accounts.get(0), "user0", 
+                            accounts.get(1), "user1", 1_000_000)
+                    .block(Duration.ofSeconds(1))
+                    .getStatus());
+            assertEquals(TransferResult.Status.FROM_NOT_FOUND, engine.transfer(accounts.get(0), "user1", 
+                            accounts.get(1), "user1", 1)
+                    .block(Duration.ofSeconds(1))
+                    .getStatus());
+            assertEquals(TransferResult.Status.TO_NOT_FOUND, engine.transfer(accounts.get(0), "user0", 
+                            "nope", "user1", 1)
+                    .block(Duration.ofSeconds(1))
+                    .getStatus());
+        }
+        long [] balances = new long[accounts.size()];
+        long total = 0;
+        // a different partition count, the ledger is repartitioned on recovery
+        try(LedgerEngine engine = new LedgerEngine(directory, 3, 64, CHUNK_SIZE)) {
+            for(int i = 0; i < accounts.size(); i++) {
+                balances[i] = engine.find(accounts.get(i))
+                        .block(Duration.ofSeconds(1))
+                        .getBalance();
+                total += balances[i];
+            }
+        }
+        assertEquals(20 * 10_000L, total);
+        // and again from the snapshot alone
+        try(LedgerEngine engine = new LedgerEngine(directory, 2, 64, CHUNK_SIZE)) {
+            for(int i = 0; i < accounts.size(); i++) {
+                assertEquals(balances[i], engine.find(accounts.get(i))
+                        .block(Duration.ofSeconds(1))
+                        .getBalance());
+            }
+            assertNull(engine.find("nope").block(Duration.ofSeconds(1)));
+            // the index by owner is rebuilt with the accounts
+            Set<String> expected = new HashSet<>();
+            for(int i = 1; i < accounts.size(); i += 3) {
+                expected.add(accounts.get(i));
+            }
+            assertEquals(expected, engine.findByOwners(List.of("user1", "nobody"))
+                    .map(LedgerAccount::getId)
+                    .collect(Collectors.toSet())
+                    .block(Duration.ofSeconds(1)));
+        }
+    }
+
+    @Test
+    public void testInterruptedTransferIsSettled() throws IOException {
+        System.out.println("interruptedTransferIsSettled");
+        // a journal that ends between the debit and the credit of a transfer, 
+        // then a torn record
+        try(Journal journal = new Journal(directory.resolve("journal-0-0.journal"), CHUNK_SIZE)) {
+            journal.begin().putString("a").putString("user").putString(null).putLong(500).append(Journal.CREATE);
+            journal.begin().putString("b").putString("user").putString("savings").putLong(0).append(Journal.CREATE);
+            new LedgerTransfer("t1", "a", "user", "b", "user", 200, 1000L)
+                    .put(journal.begin().putLong(1).putLong(2)).append(Journal.OUT);
+            new LedgerTransfer("t2", "a", "user", "b", "user", 300, 2000L)
+                    .put(journal.begin().putLong(3).putLong(4)).append(Journal.OUT);
+            journal.begin().putLong(3).putLong(4).putString("b").putLong(300).append(Journal.IN);
+        }
+        List<LedgerTransfer> written = new CopyOnWriteArrayList<>();
+        TransferWriter writer = (transfers, replayed) -> Mono.fromRunnable(() -> {
+            assertTrue(replayed);
+            written.addAll(transfers);
+        });
+        try(LedgerEngine engine = new LedgerEngine(directory, 2, 64, CHUNK_SIZE, writer)) {
+            assertEquals(0, engine.find("a").block(Duration.ofSeconds(1)).getBalance());
+            LedgerAccount b = engine.find("b").block(Duration.ofSeconds(1));
+            assertEquals(500, b.getBalance());
+            assertEquals("savings", b.getType());
+            // neither transfer was written before the restart, both are 
+            // handed to the writer again
+            assertEquals(Set.of("t1", "t2"), written.stream()
+                    .map(LedgerTransfer::getId)
+                    .collect(Collectors.toSet()));
+        }
+    }
+}
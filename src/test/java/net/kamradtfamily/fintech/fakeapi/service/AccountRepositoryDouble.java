@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.kamradtfamily.fintech.fakeapi.AccountQuery;
+import net.kamradtfamily.fintech.fakeapi.AccountReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.reactivestreams.Publisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AccountRepositoryDouble implements AccountReactiveRepository {
+    private final Map<String, CustomerAccount> data = new HashMap<>();
+    @Override
+    public  Mono<CustomerAccount> insert(CustomerAccount s) {
+        if(data.containsKey(s.getId())) {
+            return Mono.error(new DuplicateKeyException(s.getId()));
+        }
+        CustomerAccount s1 = copy(s);
+        data.put(s1.getId(),s1);
+        return Mono.just(s1);
+    }
+
+    @Override
+    public Flux<CustomerAccount> findAll(Sort sort) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<CustomerAccount> save(CustomerAccount s) {
+        CustomerAccount s1 = copy(s);
+        data.put(s1.getId(),s1);
+        return Mono.just(s1);
+    }
+
+    @Override
+    public Mono<CustomerAccount> findById(String id) {
+        return Mono.justOrEmpty(data.get(id)).map(AccountRepositoryDouble::copy);
+    }
+
+    @Override
+    public Mono<CustomerAccount> findById(Publisher<String> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<Boolean> existsById(String id) {
+        return Mono.just(data.containsKey(id));
+    }
+
+    @Override
+    public Mono<Boolean> existsById(Publisher<String> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Flux<CustomerAccount> findAll() {
+        return Flux.fromStream(data.values().stream());
+    }
+
+    @Override
+    public Flux<CustomerAccount> findAllById(Iterable<String> itrbl) {
+        return Flux.fromIterable(itrbl)
+                .flatMap(this::findById);
+    }
+
+    @Override
+    public Flux<CustomerAccount> findAllById(Publisher<String> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<Long> count() {
+        return Mono.just(Long.valueOf(data.size()));
+    }
+
+    @Override
+    public Mono<Void> deleteById(String id) {
+        data.remove(id);
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> deleteById(Publisher<String> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<Void> delete(CustomerAccount t) {
+        data.remove(t.getId());
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Iterable<? extends CustomerAccount> itrbl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<Void> deleteAll(Publisher<? extends CustomerAccount> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        data.clear();
+        return Mono.empty();
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> insert(Iterable<S> itrbl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> insert(Publisher<S> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> findAll(Example<S> exmpl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> findAll(Example<S> exmpl, Sort sort) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> saveAll(Iterable<S> itrbl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Flux<S> saveAll(Publisher<S> pblshr) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Mono<S> findOne(Example<S> exmpl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Mono<Long> count(Example<S> exmpl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+    @Override
+    public <S extends CustomerAccount> Mono<Boolean> exists(Example<S> exmpl) {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+    
+    @Override
+    public Mono<CustomerAccount> findByIdAndOwnerId(String id, String ownerId) {
+        return Mono.justOrEmpty(data.get(id))
+                .filter(a -> a.getOwnerId().equals(ownerId))
+                .map(AccountRepositoryDouble::copy);
+    }
+
+    @Override
+    public Flux<CustomerAccount> findByOwnerId(String ownerId) {
+        return Flux.fromStream(data.values().stream()
+                .filter(a -> a.getOwnerId().equals(ownerId)))
+                .map(AccountRepositoryDouble::copy);
+    }
+
+    @Override
+    public Flux<CustomerAccount> findByOwnerIdIn(Collection<String> ownerIds) {
+        return Flux.fromStream(data.values().stream()
+                .filter(a -> ownerIds.contains(a.getOwnerId())))
+                .map(AccountRepositoryDouble::copy);
+    }
+
+    @Override
+    public Flux<CustomerAccount> findPage(String ownerId, AccountQuery query) {
+        return page(data.values()
+                        .stream()
+                        .filter(a -> a.getOwnerId().equals(ownerId)), 
+                    query)
+                .map(AccountRepositoryDouble::copy);
+    }
+    
+    /*
+     * the page of a query, filtered, ordered and limited in memory, also 
+     * used for embedded accounts
+     */
+    static Flux<CustomerAccount> page(Stream<CustomerAccount> accounts, AccountQuery query) {
+        return Flux.fromStream(accounts
+                .filter(a -> query.getType() == null || query.getType().equals(a.getType()))
+                .filter(a -> query.getMinAmount() == null || a.getCurrAmount().compareTo(query.getMinAmount()) >= 0)
+                .filter(a -> query.getMaxAmount() == null || a.getCurrAmount().compareTo(query.getMaxAmount()) <= 0)
+                .filter(a -> query.getAfterId() == null || (query.getOrder() == AccountQuery.Order.BALANCE
+                        ? query.comparator().compare(a, CustomerAccount.builder()
+                                .id(query.getAfterId())
+                                .currAmount(query.getAfterAmount())
+                                .build()) > 0
+                        : a.getId().compareTo(query.getAfterId()) > 0))
+                .sorted(query.comparator())
+                .limit(query.getLimit()));
+    }
+
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String ownerId) {
+        return totals(data.values()
+                .stream()
+                .filter(a -> a.getOwnerId().equals(ownerId)));
+    }
+    
+    /*
+     * the totals per type grouped in memory, also used for embedded accounts
+     */
+    static Flux<AccountTypeTotal> totals(Stream<CustomerAccount> accounts) {
+        return Flux.fromIterable(accounts
+                .map(a -> new AccountTypeTotal(a.getType(), 1, a.getCurrAmount()))
+                .collect(Collectors.toMap(t -> Optional.ofNullable(t.getType()), t -> t, AccountTypeTotal::plus))
+                .values());
+    }
+
+    @Override
+    public Mono<Boolean> updateBalance(String accountId, String ownerId, BigDecimal currAmount) {
+        return Mono.justOrEmpty(data.get(accountId))
+                .filter(a -> a.getOwnerId().equals(ownerId))
+                .doOnNext(a -> a.setCurrAmount(currAmount))
+                .hasElement();
+    }
+
+    @Override
+    public synchronized Mono<Boolean> replaceBalance(String accountId, String ownerId, BigDecimal expected, BigDecimal currAmount) {
+        CustomerAccount account = data.get(accountId);
+        if(account == null || !account.getOwnerId().equals(ownerId) 
+                || account.getCurrAmount().compareTo(expected) != 0) {
+            return Mono.just(false);
+        }
+        account.setCurrAmount(currAmount);
+        return Mono.just(true);
+    }
+
+    @Override
+    public Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId) {
+        return replaceBalances(accounts, expected, (found, account) -> found.setLastWrite(writeId));
+    }
+
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return replaceBalances(accounts, expected, (found, account) -> found.setLastAdjustment(account.getLastAdjustment()));
+    }
+    
+    private synchronized Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, 
+            BiConsumer<CustomerAccount, CustomerAccount> mark) {
+        Set<String> stale = new HashSet<>();
+        for(CustomerAccount account : accounts) {
+            CustomerAccount found = data.get(account.getId());
+            if(found == null || !found.getOwnerId().equals(account.getOwnerId())
+                    || found.getCurrAmount().compareTo(expected.get(account.getId())) != 0) {
+                stale.add(account.getId());
+                continue;
+            }
+            found.setCurrAmount(account.getCurrAmount());
+            mark.accept(found, account);
+        }
+        return Mono.just(stale);
+    }
+
+    @Override
+    public Mono<Integer> updateBalances(Collection<CustomerAccount> accounts) {
+        return Flux.fromIterable(accounts)
+                .concatMap(a -> updateBalance(a.getId(), a.getOwnerId(), a.getCurrAmount()))
+                .filter(b -> b)
+                .count()
+                .map(Long::intValue);
+    }
+
+    private static CustomerAccount copy(CustomerAccount account) {
+        return CustomerAccount.builder()
+                .id(account.getId())
+                .ownerId(account.getOwnerId())
+                .currAmount(account.getCurrAmount())
+                .type(account.getType())
+                .openingAmount(account.getOpeningAmount())
+                .lastWrite(account.getLastWrite())
+                .lastAdjustment(account.getLastAdjustment())
+                .build();
+    }
+
+}
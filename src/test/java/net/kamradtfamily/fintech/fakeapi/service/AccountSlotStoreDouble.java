@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.AccountSlotStore;
+import net.kamradtfamily.fintech.fakeapi.data.AccountSlot;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AccountSlotStoreDouble implements AccountSlotStore {
+    private final Map<String, AccountSlot> data = new ConcurrentHashMap<>();
+    private volatile RuntimeException creditFailure;
+
+    @Override
+    public synchronized Mono<Void> credit(String accountId, int slot, BigDecimal amount) {
+        if(creditFailure != null) {
+            return Mono.error(creditFailure);
+        }
+        AccountSlot accountSlot = data.computeIfAbsent(accountId + ":" + slot, id -> AccountSlot.builder()
+                .id(id)
+                .accountId(accountId)
+                .slot(slot)
+                .currAmount(BigDecimal.ZERO)
+                .build());
+        accountSlot.setCurrAmount(accountSlot.getCurrAmount().add(amount));
+        return Mono.empty();
+    }
+
+    @Override
+    public synchronized Mono<Boolean> debit(String accountId, int slot, BigDecimal amount) {
+        AccountSlot accountSlot = data.get(accountId + ":" + slot);
+        if(accountSlot == null || accountSlot.getCurrAmount().compareTo(amount) < 0) {
+            return Mono.just(false);
+        }
+        accountSlot.setCurrAmount(accountSlot.getCurrAmount().subtract(amount));
+        return Mono.just(true);
+    }
+
+    @Override
+    public synchronized Mono<BigDecimal> drain(String accountId, int slot) {
+        AccountSlot accountSlot = data.get(accountId + ":" + slot);
+        if(accountSlot == null) {
+            return Mono.just(BigDecimal.ZERO);
+        }
+        BigDecimal drained = accountSlot.getCurrAmount();
+        accountSlot.setCurrAmount(BigDecimal.ZERO);
+        return Mono.just(drained);
+    }
+
+    @Override
+    public synchronized Flux<AccountSlot> findByAccount(String accountId) {
+        return Flux.fromIterable(data.values().stream()
+                .filter(s -> s.getAccountId().equals(accountId))
+                .map(s -> AccountSlot.builder()
+                        .id(s.getId())
+                        .accountId(s.getAccountId())
+                        .slot(s.getSlot())
+                        .currAmount(s.getCurrAmount())
+                        .build())
+                .collect(Collectors.toList()));
+    }
+    
+    public void failCredits(RuntimeException failure) {
+        creditFailure = failure;
+    }
+    
+    public int size() {
+        return data.size();
+    }
+}
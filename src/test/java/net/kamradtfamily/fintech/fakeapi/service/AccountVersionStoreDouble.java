@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountVersionStore;
+import net.kamradtfamily.fintech.fakeapi.data.AccountVersion;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class AccountVersionStoreDouble implements AccountVersionStore {
+    private final Map<String, AccountVersion> data = new ConcurrentHashMap<>();
+
+    @Override
+    public Mono<Void> bump(String accountId, String ownerId) {
+        data.compute(accountId, (id, v) -> AccountVersion.builder()
+                .id(id)
+                .ownerId(v == null ? ownerId : v.getOwnerId())
+                .version(v == null ? 1 : v.getVersion() + 1)
+                .build());
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> bumpAll(Collection<AccountKey> accounts) {
+        accounts.forEach(a -> bump(a.getAccountId(), a.getOwnerId()));
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<AccountVersion> find(String accountId) {
+        return Mono.justOrEmpty(data.get(accountId));
+    }
+    
+    public void clear() {
+        data.clear();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.kamradtfamily.fintech.fakeapi.CheckpointStore;
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class CheckpointStoreDouble implements CheckpointStore {
+    private final Map<String, Checkpoint> data = new ConcurrentHashMap<>();
+
+    @Override
+    public Mono<Checkpoint> find(String id) {
+        return Mono.justOrEmpty(data.get(id))
+                .map(CheckpointStoreDouble::copy);
+    }
+
+    @Override
+    public Mono<Void> save(Checkpoint checkpoint) {
+        data.put(checkpoint.getId(), copy(checkpoint));
+        return Mono.empty();
+    }
+    
+    public void clear() {
+        data.clear();
+    }
+    
+    private static Checkpoint copy(Checkpoint checkpoint) {
+        return Checkpoint.builder()
+                .id(checkpoint.getId())
+                .lastId(checkpoint.getLastId())
+                .count(checkpoint.getCount())
+                .finished(checkpoint.isFinished())
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import net.kamradtfamily.fintech.fakeapi.DailyRollupStore;
+import net.kamradtfamily.fintech.fakeapi.data.DailyRollup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class DailyRollupStoreDouble implements DailyRollupStore {
+    private final Map<String, DailyRollup> data = new ConcurrentSkipListMap<>();
+
+    @Override
+    public synchronized Mono<Void> record(String accountId, LocalDate day, BigDecimal debit, BigDecimal credit) {
+        DailyRollup rollup = data.computeIfAbsent(accountId + ":" + day, id -> DailyRollup.builder()
+                .id(id)
+                .accountId(accountId)
+                .day(day.toString())
+                .debits(BigDecimal.ZERO)
+                .credits(BigDecimal.ZERO)
+                .build());
+        rollup.setCount(rollup.getCount() + 1);
+        rollup.setDebits(rollup.getDebits().add(debit));
+        rollup.setCredits(rollup.getCredits().add(credit));
+        return Mono.empty();
+    }
+
+    @Override
+    public synchronized Mono<Void> recordAll(Collection<DailyRollup> increments) {
+        for(DailyRollup increment : increments) {
+            DailyRollup rollup = data.computeIfAbsent(increment.getAccountId() + ":" + increment.getDay(), id -> DailyRollup.builder()
+                    .id(id)
+                    .accountId(increment.getAccountId())
+                    .day(increment.getDay())
+                    .debits(BigDecimal.ZERO)
+                    .credits(BigDecimal.ZERO)
+                    .build());
+            rollup.setCount(rollup.getCount() + increment.getCount());
+            rollup.setDebits(rollup.getDebits().add(increment.getDebits()));
+            rollup.setCredits(rollup.getCredits().add(increment.getCredits()));
+        }
+        return Mono.empty();
+    }
+
+    @Override
+    public Flux<DailyRollup> findFrom(String accountId, LocalDate from) {
+        return Flux.fromStream(data.values().stream()
+                .filter(r -> r.getAccountId().equals(accountId))
+                .filter(r -> r.getDay().compareTo(from.toString()) >= 0));
+    }
+    
+    public void clear() {
+        data.clear();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.kamradtfamily.fintech.fakeapi.AccountLayoutProperties;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.AdjustmentProperties;
+import net.kamradtfamily.fintech.fakeapi.LayoutAccountStore;
+import net.kamradtfamily.fintech.fakeapi.data.Checkpoint;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * Adjusts the balances left by transfers on the embedded accounts
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceAdjustmentTest extends FinTechServiceFixture {
+    CheckpointStoreDouble checkpointStore = new CheckpointStoreDouble();
+
+    @Test
+    public void testAdjust() {
+        System.out.println("adjust");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload savings = createAccount(userId1, "savings", BigDecimal.valueOf(10000, 2));
+        AccountPayload checking = createAccount(userId2, "checking", BigDecimal.valueOf(300, 2));
+        AccountPayload brokerage = createAccount(userId2, "brokerage", BigDecimal.valueOf(700, 2));
+        BalanceAdjuster adjuster = adjuster();
+        
+        assertEquals(2L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(new BigDecimal("101.00"), balance(userId1, savings.getId()));
+        // the fee stops at zero
+        assertEquals(0, BigDecimal.ZERO.compareTo(balance(userId2, checking.getId())));
+        assertEquals(0, BigDecimal.valueOf(7).compareTo(balance(userId2, brokerage.getId())));
+        TransferAudit interest = transferAuditRepository.findById("2021-02-" + savings.getId())
+                .block(Duration.ofSeconds(1));
+        assertEquals(BalanceAdjuster.ADJUSTMENTS, interest.getFromAccount());
+        assertEquals(savings.getId(), interest.getToAccount());
+        assertEquals(userId1, interest.getToUserId());
+        TransferAudit fee = transferAuditRepository.findById("2021-02-" + checking.getId())
+                .block(Duration.ofSeconds(1));
+        assertEquals(checking.getId(), fee.getFromAccount());
+        assertEquals(0, BigDecimal.valueOf(3).compareTo(fee.getAmount()));
+        
+        // a finished run does nothing
+        assertEquals(2L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(new BigDecimal("101.00"), balance(userId1, savings.getId()));
+        
+        // the next run adjusts again
+        assertEquals(1L, adjuster.run("2021-03").block(Duration.ofSeconds(5)));
+        assertEquals(new BigDecimal("102.01"), balance(userId1, savings.getId()));
+    }
+
+    @Test
+    public void testAdjustResumes() {
+        System.out.println("adjustResumes");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload savings1 = createAccount(userId1, "savings", BigDecimal.valueOf(10000, 2));
+        AccountPayload savings2 = createAccount(userId2, "savings", BigDecimal.valueOf(20000, 2));
+        String first = userId1.compareTo(userId2) < 0 ? userId1 : userId2;
+        BalanceAdjuster adjuster = adjuster();
+        
+        // a run that stopped after the first customer was checkpointed
+        adjuster.run("2021-02").block(Duration.ofSeconds(5));
+        BigDecimal balance1 = balance(userId1, savings1.getId());
+        BigDecimal balance2 = balance(userId2, savings2.getId());
+        checkpointStore.save(Checkpoint.builder()
+                    .id("adjustment-2021-02")
+                    .lastId(first)
+                    .count(1)
+                    .build())
+                .block(Duration.ofSeconds(1));
+        // the second customer was already audited, only the count carries over
+        assertEquals(1L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(balance1, balance(userId1, savings1.getId()));
+        assertEquals(balance2, balance(userId2, savings2.getId()));
+        
+        // a run that stopped before any checkpoint
+        checkpointStore.clear();
+        assertEquals(0L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(balance1, balance(userId1, savings1.getId()));
+        assertEquals(balance2, balance(userId2, savings2.getId()));
+    }
+    
+    @Test
+    public void testAdjustAppliesAuditedAdjustment() {
+        System.out.println("adjustAppliesAuditedAdjustment");
+        String userId1 = customers.get(0).getId();
+        AccountPayload savings = createAccount(userId1, "savings", BigDecimal.valueOf(10000, 2));
+        // a run that stopped after the audits of a batch, before its balances
+        transferAuditRepository.insert(TransferAudit.builder()
+                    .id("2021-02-" + savings.getId())
+                    .amount(BigDecimal.ONE)
+                    .fromAccount(BalanceAdjuster.ADJUSTMENTS)
+                    .toAccount(savings.getId())
+                    .toUserId(userId1)
+                    .createdAt(Instant.now())
+                    .build())
+                .block(Duration.ofSeconds(1));
+        BalanceAdjuster adjuster = adjuster();
+        assertEquals(1L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(0, BigDecimal.valueOf(101).compareTo(balance(userId1, savings.getId())));
+        // and once applied it is not applied again
+        checkpointStore.clear();
+        assertEquals(0L, adjuster.run("2021-02").block(Duration.ofSeconds(5)));
+        assertEquals(0, BigDecimal.valueOf(101).compareTo(balance(userId1, savings.getId())));
+    }
+
+    /*
+     * a transfer landing between the adjuster's read and its write is kept
+     */
+    @Test
+    public void testAdjustKeepsConcurrentChange() {
+        System.out.println("adjustKeepsConcurrentChange");
+        String userId1 = customers.get(0).getId();
+        AccountPayload savings = createAccount(userId1, "savings", BigDecimal.valueOf(10000, 2));
+        AccountStore accountStore = accountStore();
+        AtomicBoolean changed = new AtomicBoolean();
+        AccountStore racing = new LayoutAccountStore(userRepository, accountRepository, layoutProperties()) {
+            @Override
+            public Flux<CustomerAccount> findAccountsOf(Collection<String> userIds) {
+                return super.findAccountsOf(userIds)
+                        .collectList()
+                        .flatMapMany(accounts -> changed.getAndSet(true)
+                                ? Flux.fromIterable(accounts)
+                                : accountStore.updateBalance(userId1, savings.getId(), BigDecimal.valueOf(200))
+                                        .thenMany(Flux.fromIterable(accounts)));
+            }
+        };
+        assertEquals(1L, adjuster(racing).run("2021-02").block(Duration.ofSeconds(5)));
+        // the interest read from 100.00, applied on top of the 200.00 written meanwhile
+        assertEquals(0, BigDecimal.valueOf(201).compareTo(balance(userId1, savings.getId())));
+    }
+    
+    private AccountLayoutProperties layoutProperties() {
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        properties.setLayout(accountLayout());
+        return properties;
+    }
+    
+    private BalanceAdjuster adjuster() {
+        return adjuster(accountStore());
+    }
+    
+    private BalanceAdjuster adjuster(AccountStore accountStore) {
+        AdjustmentProperties properties = new AdjustmentProperties();
+        properties.setBatchSize(1);
+        properties.setParallelism(2);
+        AdjustmentProperties.Rule savings = new AdjustmentProperties.Rule();
+        savings.setRate(new BigDecimal("0.01"));
+        properties.getRules().put("savings", savings);
+        AdjustmentProperties.Rule checking = new AdjustmentProperties.Rule();
+        checking.setFee(BigDecimal.valueOf(5));
+        properties.getRules().put("checking", checking);
+        return new BalanceAdjuster(userRepository, 
+                accountStore, 
+                transferAuditRepository, 
+                dailyRollupStore, 
+                accountVersionStore, 
+                checkpointStore, 
+                Collections.emptyList(), 
+                properties);
+    }
+    
+    private AccountPayload createAccount(String userId, String type, BigDecimal amount) {
+        return sut.createAccount(AccountPayload.builder()
+                        .currAmount(amount)
+                        .type(type)
+                        .build(), userId)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+    }
+    
+    private BigDecimal balance(String userId, String accountId) {
+        return sut.getAccount(accountId, userId)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account disappeared!"))
+                .getCurrAmount();
+    }
+}
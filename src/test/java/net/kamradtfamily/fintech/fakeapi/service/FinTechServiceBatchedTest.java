@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountLayout;
+import net.kamradtfamily.fintech.fakeapi.AccountLayoutProperties;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.LayoutAccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferBatchProperties;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Signal;
+import reactor.core.scheduler.Schedulers;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service with transfers group committed, run by FinTechServiceTest,
+ * and the checks specific to the group commit
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceBatchedTest extends FinTechServiceFixture {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    AccountStore accountStore;
+    volatile Runnable afterRead;
+    
+    /*
+     * runs afterRead, once, right after the accounts of a batch are read
+     */
+    @Override
+    protected AccountStore accountStore() {
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        properties.setLayout(accountLayout());
+        accountStore = new LayoutAccountStore(userRepository, accountRepository, properties) {
+            @Override
+            public Flux<CustomerAccount> findAccounts(Collection<AccountKey> keys) {
+                return super.findAccounts(keys)
+                        .doOnComplete(() -> {
+                            Runnable action = afterRead;
+                            afterRead = null;
+                            if(action != null) {
+                                action.run();
+                            }
+                        });
+            }
+        };
+        return accountStore;
+    }
+    
+    @Override
+    protected AccountLayout accountLayout() {
+        return AccountLayout.SEPARATE;
+    }
+
+    @Override
+    protected Optional<TransferPipeline> transferPipeline(AccountStore accountStore) {
+        TransferBatchProperties properties = new TransferBatchProperties();
+        properties.setEnabled(true);
+        properties.setWindow(Duration.ofMillis(20));
+        return Optional.of(new TransferPipeline(accountStore, 
+                transferAuditRepository, 
+                dailyRollupStore, 
+                accountVersionStore, 
+                new TimeOrderedIdGenerator(), 
+                properties, 
+                meterRegistry));
+    }
+
+    @Test
+    public void testBatchedTransfers() {
+        System.out.println("batchedTransfers");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(5000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        // 60 transfers of 1.00 out of 50.00, the last 10 to arrive must fail
+        Long succeeded = Flux.range(0, 60)
+                .flatMap(i -> sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.ONE)
+                                .fromAccount(account1.getId())
+                                .toAccount(account2.getId())
+                                .userId(userId2)
+                                .build(), userId1)
+                        .map(t -> 1)
+                        .onErrorResume(NegativeValueNotAllowedException.class, e -> Mono.empty())
+                        .subscribeOn(Schedulers.parallel()), 60)
+                .count()
+                .block(Duration.ofSeconds(10));
+        assertEquals(50, succeeded);
+        assertEquals(BigDecimal.valueOf(0, 2), sut.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount());
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(sut.getAccount(account2.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 2 disappeared!"))
+                .getCurrAmount()));
+        assertEquals(50, sut.getTransfers(account1.getId(), userId1, null, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+        DistributionSummary batches = meterRegistry.get("fintech.transfer.batch.size").summary();
+        assertEquals(60, (long)batches.totalAmount());
+        assertTrue(batches.count() < 60, "transfers were not batched");
+    }
+
+    /*
+     * an account written by someone else between the batch's read and its
+     * write keeps that write, the batch's transfers are applied on top in
+     * a later batch
+     */
+    @Test
+    public void testAccountChangedDuringBatch() {
+        System.out.println("accountChangedDuringBatch");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(50))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        TransferPayload transfer = TransferPayload.builder()
+                .amount(BigDecimal.valueOf(30))
+                .fromAccount(account1.getId())
+                .toAccount(account2.getId())
+                .userId(userId2)
+                .build();
+        // a credit meanwhile, the debit still fits
+        afterRead = () -> accountStore.updateBalance(userId1, account1.getId(), BigDecimal.valueOf(55))
+                .subscribe();
+        sut.transfer(transfer, userId1)
+                .block(Duration.ofSeconds(1));
+        assertEquals(0, BigDecimal.valueOf(25).compareTo(balance(account1.getId(), userId1)));
+        assertEquals(0, BigDecimal.valueOf(30).compareTo(balance(account2.getId(), userId2)));
+        // a debit meanwhile, the transfer no longer fits and its credit is set back
+        afterRead = () -> accountStore.updateBalance(userId1, account1.getId(), BigDecimal.valueOf(5))
+                .subscribe();
+        assertThrows(NegativeValueNotAllowedException.class, () -> sut.transfer(transfer, userId1)
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(balance(account1.getId(), userId1)));
+        assertEquals(0, BigDecimal.valueOf(30).compareTo(balance(account2.getId(), userId2)));
+        assertEquals(1, sut.getTransfers(account1.getId(), userId1, null, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+    }
+    
+    /*
+     * the second transfer of a batch spends the credit of the first, whose
+     * debit no longer fits once its account changed: neither may stand
+     */
+    @Test
+    public void testChainedTransfersChangedDuringBatch() {
+        System.out.println("chainedTransfersChangedDuringBatch");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload accountY = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(50))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload accountX = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload accountZ = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        TransferPayload yToX = TransferPayload.builder()
+                .amount(BigDecimal.valueOf(30))
+                .fromAccount(accountY.getId())
+                .toAccount(accountX.getId())
+                .userId(userId2)
+                .build();
+        TransferPayload xToZ = TransferPayload.builder()
+                .amount(BigDecimal.valueOf(30))
+                .fromAccount(accountX.getId())
+                .toAccount(accountZ.getId())
+                .userId(userId1)
+                .build();
+        afterRead = () -> accountStore.updateBalance(userId1, accountY.getId(), BigDecimal.valueOf(5))
+                .subscribe();
+        // subscribed in order, both arrive within the same window
+        List<Throwable> errors = Flux.merge(sut.transfer(yToX, userId1).materialize(), 
+                        sut.transfer(xToZ, userId2).materialize())
+                .filter(Signal::isOnError)
+                .map(Signal::getThrowable)
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        assertEquals(2, errors.size());
+        errors.forEach(e -> assertEquals(NegativeValueNotAllowedException.class, e.getClass()));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(balance(accountY.getId(), userId1)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(balance(accountX.getId(), userId2)));
+        assertEquals(0, BigDecimal.ZERO.compareTo(balance(accountZ.getId(), userId1)));
+        assertEquals(0, sut.getTransfers(accountX.getId(), userId2, null, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+    }
+    
+    private BigDecimal balance(String accountId, String userId) {
+        return sut.getAccount(accountId, userId)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account disappeared!"))
+                .getCurrAmount();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+import net.kamradtfamily.fintech.fakeapi.AccountLayoutProperties;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.LayoutAccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferCoalesceProperties;
+import net.kamradtfamily.fintech.fakeapi.data.Customer.Account;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service with balance changes coalesced per account, run by 
+ * FinTechServiceTest, and the checks specific to the coalescing
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceCoalescedTest extends FinTechServiceFixture {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    AccountStore accountStore;
+    TransferCoalescer coalescer;
+    volatile Consumer<Account> afterRead;
+
+    /*
+     * runs afterRead, once, right after an account is read
+     */
+    @Override
+    protected AccountStore accountStore() {
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        properties.setLayout(accountLayout());
+        return new LayoutAccountStore(userRepository, accountRepository, properties) {
+            @Override
+            public Mono<Account> findAccount(String userId, String accountId) {
+                // a copy, as mongo would read, not the double's own
+                return super.findAccount(userId, accountId)
+                        .map(account -> Account.builder()
+                                .id(account.getId())
+                                .currAmount(account.getCurrAmount())
+                                .type(account.getType())
+                                .build())
+                        .doOnNext(account -> {
+                            Consumer<Account> action = afterRead;
+                            afterRead = null;
+                            if(action != null) {
+                                action.accept(account);
+                            }
+                        });
+            }
+        };
+    }
+
+    @Override
+    protected Optional<TransferCoalescer> transferCoalescer(AccountStore accountStore) {
+        TransferCoalesceProperties properties = new TransferCoalesceProperties();
+        properties.setEnabled(true);
+        properties.setWindow(Duration.ofMillis(20));
+        this.accountStore = accountStore;
+        this.coalescer = new TransferCoalescer(accountStore, properties, meterRegistry);
+        return Optional.of(coalescer);
+    }
+
+    @Test
+    public void testCoalescedTransfers() {
+        System.out.println("coalescedTransfers");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(3000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        // 40 transfers of 1.00 out of 30.00 into one account, 10 debits must fail
+        Long succeeded = Flux.range(0, 40)
+                .flatMap(i -> sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.ONE)
+                                .fromAccount(account1.getId())
+                                .toAccount(account2.getId())
+                                .userId(userId2)
+                                .build(), userId1)
+                        .map(t -> 1)
+                        .onErrorResume(NegativeValueNotAllowedException.class, e -> Mono.empty())
+                        .subscribeOn(Schedulers.parallel()), 40)
+                .count()
+                .block(Duration.ofSeconds(10));
+        assertEquals(30, succeeded);
+        assertEquals(0, BigDecimal.ZERO.compareTo(sut.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount()));
+        assertEquals(0, BigDecimal.valueOf(30).compareTo(sut.getAccount(account2.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 2 disappeared!"))
+                .getCurrAmount()));
+        // every merged transfer still has its own audit
+        assertEquals(30, sut.getTransfers(account2.getId(), userId2, null, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+        DistributionSummary writes = meterRegistry.get("fintech.transfer.coalesce.size").summary();
+        assertTrue(writes.count() < 70, "changes were not coalesced");
+    }
+
+    @Test
+    public void testCreditToMissingAccountGivesDebitBack() {
+        System.out.println("creditToMissingAccountGivesDebitBack");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(1000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        assertThrows(AccountNotFoundException.class, () -> sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.ONE)
+                        .fromAccount(account1.getId())
+                        .toAccount("no such account")
+                        .userId(userId2)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.TEN.compareTo(sut.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount()));
+    }
+
+    /*
+     * a change written around the coalescer, as another instance would, 
+     * between its read and its write must not be overwritten
+     */
+    @Test
+    public void testChangeOutsideCoalescer() {
+        System.out.println("changeOutsideCoalescer");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        afterRead = account -> accountStore.updateBalance(userId1, account1.getId(), 
+                        account.getCurrAmount().add(BigDecimal.ONE))
+                .subscribe();
+        coalescer.change(userId1, account1.getId(), BigDecimal.ONE)
+                .block(Duration.ofSeconds(1));
+        assertEquals(0, BigDecimal.valueOf(2).compareTo(sut.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount()));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.EngineAccountStore;
+import net.kamradtfamily.fintech.fakeapi.ReconcileProperties;
+import net.kamradtfamily.fintech.fakeapi.ledger.LedgerEngine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service on accounts in the in memory ledger engine, run by 
+ * FinTechServiceTest, and the checks specific to the engine
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceEngineTest extends FinTechServiceFixture {
+    LedgerEngine engine;
+    Path directory;
+    
+    @Override
+    protected AccountStore accountStore() {
+        try {
+            directory = Files.createTempDirectory("ledger");
+            engine = new LedgerEngine(directory, 2, 64, 1024 * 1024, 
+                    new LedgerTransferWriter(transferAuditRepository, dailyRollupStore, accountVersionStore));
+        } catch (IOException ex) {
+            throw new RuntimeException("unable to start ledger", ex);
+        }
+        return new EngineAccountStore(engine, userRepository);
+    }
+    
+    @AfterEach
+    public void tearDown() throws IOException {
+        engine.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+    
+    /*
+     * the engine keeps no opening balances, its accounts can be listed 
+     * but not checked
+     */
+    @Test
+    public void testReconcile() {
+        System.out.println("reconcile");
+        String userId1 = customers.get(0).getId();
+        for(int i = 0; i < 3; i++) {
+            sut.createAccount(AccountPayload.builder()
+                            .currAmount(BigDecimal.TEN)
+                            .build(), userId1)
+                    .block(Duration.ofSeconds(1));
+        }
+        AccountStore accountStore = new EngineAccountStore(engine, userRepository);
+        long accounts = accountStore.findAllAccounts()
+                .count()
+                .block(Duration.ofSeconds(1));
+        assertTrue(accounts >= 3, "created accounts not listed");
+        ReconciliationReport report = new BalanceReconciler(accountStore, 
+                        transferAuditRepository, 
+                        transferAuditArchive, 
+                        Optional.empty(), 
+                        new ReconcileProperties(), 
+                        new SimpleMeterRegistry())
+                .reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(0, report.getChecked());
+        assertEquals(accounts, report.getUnverified());
+    }
+    
+    @Test
+    public void testFractionOfCent() {
+        System.out.println("fractionOfCent");
+        String userId1 = customers.get(0).getId();
+        AccountPayload from = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        AccountPayload to = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        InvalidValueException ex = assertThrows(InvalidValueException.class, () -> 
+                sut.transfer(TransferPayload.builder()
+                                .amount(new BigDecimal("0.001"))
+                                .fromAccount(from.getId())
+                                .toAccount(to.getId())
+                                .userId(userId1)
+                                .build(), userId1)
+                    .block(Duration.ofSeconds(1)));
+        assertEquals("Value 0.001 is not valid for amount", ex.getMessage());
+        assertThrows(InvalidValueException.class, () -> 
+                sut.createAccount(AccountPayload.builder()
+                                .currAmount(new BigDecimal("1.005"))
+                                .build(), userId1)
+                    .block(Duration.ofSeconds(1)));
+        // trailing zeros are not a fraction of a cent
+        sut.transfer(TransferPayload.builder()
+                        .amount(new BigDecimal("1.000"))
+                        .fromAccount(from.getId())
+                        .toAccount(to.getId())
+                        .userId(userId1)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+    }
+}
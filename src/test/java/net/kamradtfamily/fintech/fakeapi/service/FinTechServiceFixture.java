@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.AccountLayout;
+import net.kamradtfamily.fintech.fakeapi.AccountLayoutProperties;
+import net.kamradtfamily.fintech.fakeapi.AccountReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.LayoutAccountStore;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.UserReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+/**
+ *
+ * The service on the in memory doubles, with its account store and 
+ * transfer mode picked by the hooks. Each configuration's dedicated test
+ * extends it with its own checks, and FinTechServiceTest runs the common
+ * service tests over all of them
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceFixture {
+    FinTechService sut;
+    UserReactiveRepository userRepository = new UserRepositoryDouble();
+    AccountReactiveRepository accountRepository = new AccountRepositoryDouble();
+    TransferAuditReactiveRepository transferAuditRepository = new TransferAuditRepositoryDouble();
+    TransferAuditArchiveDouble transferAuditArchive = new TransferAuditArchiveDouble(transferAuditRepository);
+    DailyRollupStoreDouble dailyRollupStore = new DailyRollupStoreDouble();
+    AccountVersionStoreDouble accountVersionStore = new AccountVersionStoreDouble();
+    List<Customer> customers;
+    private final AccountLayout layout;
+    
+    public FinTechServiceFixture() {
+        this(AccountLayout.EMBEDDED);
+    }
+    
+    public FinTechServiceFixture(AccountLayout layout) {
+        this.layout = layout;
+    }
+    
+    @BeforeEach
+    public void setUp() throws IOException {
+        userRepository.deleteAll();
+        accountRepository.deleteAll();
+        transferAuditRepository.deleteAll();
+        transferAuditArchive.clear();
+        dailyRollupStore.clear();
+        accountVersionStore.clear();
+        AccountStore accountStore = accountStore();
+        sut = new FinTechService(userRepository,
+                            accountStore,
+                            transferAuditRepository,
+                            transferAuditArchive,
+                            dailyRollupStore,
+                            accountVersionStore,
+                            new TimeOrderedIdGenerator(),
+                            transferPipeline(accountStore),
+                            transferCoalescer(accountStore),
+                            subLedger(accountStore));
+        sut.initializeUsers();
+        customers = userRepository.findAll()
+                .collectList()
+                .block();
+    }
+
+    /*
+     * the layout the service under test uses
+     */
+    protected AccountLayout accountLayout() {
+        return layout;
+    }
+    
+    protected AccountStore accountStore() {
+        return accountStore(accountLayout());
+    }
+    
+    /*
+     * the group commit pipeline transfers go through, if any
+     */
+    protected Optional<TransferPipeline> transferPipeline(AccountStore accountStore) {
+        return Optional.empty();
+    }
+    
+    /*
+     * the coalescing of balance changes transfers go through, if any
+     */
+    protected Optional<TransferCoalescer> transferCoalescer(AccountStore accountStore) {
+        return Optional.empty();
+    }
+    
+    /*
+     * the sub-ledgers of sharded accounts, if any
+     */
+    protected Optional<SubLedger> subLedger(AccountStore accountStore) {
+        return Optional.empty();
+    }
+    
+    protected LayoutAccountStore accountStore(AccountLayout layout) {
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        properties.setLayout(layout);
+        return new LayoutAccountStore(userRepository, accountRepository, properties);
+    }
+    
+    /*
+     * releases what the account store holds, if anything
+     */
+    @AfterEach
+    public void tearDown() throws IOException {
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + accountLayout();
+    }
+}
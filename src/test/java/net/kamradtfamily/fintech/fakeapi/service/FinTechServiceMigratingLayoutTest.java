@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.AccountLayout;
+import net.kamradtfamily.fintech.fakeapi.AccountLayoutProperties;
+import net.kamradtfamily.fintech.fakeapi.LayoutAccountStore;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service during a migration from embedded to separate accounts, run
+ * by FinTechServiceTest, and checks accounts keep working while they move
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceMigratingLayoutTest extends FinTechServiceFixture {
+    
+    @Override
+    protected AccountLayout accountLayout() {
+        return AccountLayout.MIGRATING;
+    }
+
+    @Test
+    public void testMoveAccount() {
+        System.out.println("moveAccount");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        FinTechService embedded = new FinTechService(userRepository,
+                            accountStore(AccountLayout.EMBEDDED),
+                            transferAuditRepository,
+                            transferAuditArchive,
+                            dailyRollupStore,
+                            accountVersionStore,
+                            new TimeOrderedIdGenerator(),
+                            Optional.empty(),
+                            Optional.empty(),
+                            Optional.empty());
+        AccountPayload account1 = embedded.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(1000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = embedded.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(1000, 2))
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        // transfer between an embedded and a moved account
+        LayoutAccountStore migrating = accountStore(AccountLayout.MIGRATING);
+        assertTrue(migrating.moveAccount(userId1, account1.getId())
+                .block(Duration.ofSeconds(1)));
+        assertFalse(migrating.moveAccount(userId1, account1.getId())
+                .block(Duration.ofSeconds(1)));
+        sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.TEN)
+                        .fromAccount(account1.getId())
+                        .toAccount(account2.getId())
+                        .userId(userId2)
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        assertTrue(migrating.moveAccount(userId2, account2.getId())
+                .block(Duration.ofSeconds(1)));
+        // both are now only in the account collection
+        FinTechService separate = new FinTechService(userRepository,
+                            accountStore(AccountLayout.SEPARATE),
+                            transferAuditRepository,
+                            transferAuditArchive,
+                            dailyRollupStore,
+                            accountVersionStore,
+                            new TimeOrderedIdGenerator(),
+                            Optional.empty(),
+                            Optional.empty(),
+                            Optional.empty());
+        assertEquals(BigDecimal.valueOf(0,2), separate.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount());
+        assertEquals(BigDecimal.valueOf(2000,2), separate.getAccount(account2.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 2 disappeared!"))
+                .getCurrAmount());
+        try {
+            embedded.getAccount(account2.getId(), userId2)
+                    .blockOptional(Duration.ofSeconds(1));
+            fail("account should have been moved");
+        } catch (AccountNotFoundException ex) {
+            assertEquals("Account " + account2.getId() + " not found for user " + userId2, ex.getMessage());
+        }
+    }
+
+    /*
+     * right after the copy, a caller that missed it updates the embedded 
+     * account and another updates the copy: the move must keep both
+     */
+    @Test
+    public void testMoveKeepsBothChanges() {
+        System.out.println("moveKeepsBothChanges");
+        String userId1 = customers.get(0).getId();
+        String accountId = "moving";
+        accountStore(AccountLayout.EMBEDDED)
+                .addAccount(userId1, Customer.Account.builder()
+                        .id(accountId)
+                        .currAmount(BigDecimal.TEN)
+                        .type("checking")
+                        .build())
+                .block(Duration.ofSeconds(1));
+        AccountRepositoryDouble racing = new AccountRepositoryDouble() {
+            @Override
+            public Mono<CustomerAccount> insert(CustomerAccount s) {
+                return super.insert(s)
+                        .flatMap(copy -> userRepository.updateBalance(userId1, accountId, BigDecimal.valueOf(13))
+                                .then(updateBalance(accountId, userId1, BigDecimal.valueOf(15)))
+                                .thenReturn(copy));
+            }
+        };
+        AccountLayoutProperties properties = new AccountLayoutProperties();
+        properties.setLayout(AccountLayout.MIGRATING);
+        LayoutAccountStore migrating = new LayoutAccountStore(userRepository, racing, properties);
+        assertTrue(migrating.moveAccount(userId1, accountId)
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.valueOf(18).compareTo(racing.findByIdAndOwnerId(accountId, userId1)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+    }
+
+    /*
+     * an account copied but not yet removed from its customer, whose copy 
+     * has changed since: a write expecting the old balance must not land on
+     * the stale embedded account
+     */
+    @Test
+    public void testReplaceBalanceWhileCopied() {
+        System.out.println("replaceBalanceWhileCopied");
+        String userId1 = customers.get(0).getId();
+        String accountId = "copied";
+        accountStore(AccountLayout.EMBEDDED)
+                .addAccount(userId1, Customer.Account.builder()
+                        .id(accountId)
+                        .currAmount(BigDecimal.TEN)
+                        .type("checking")
+                        .build())
+                .block(Duration.ofSeconds(1));
+        accountRepository.insert(CustomerAccount.builder()
+                        .id(accountId)
+                        .ownerId(userId1)
+                        .currAmount(BigDecimal.valueOf(15))
+                        .type("checking")
+                        .build())
+                .block(Duration.ofSeconds(1));
+        LayoutAccountStore migrating = accountStore(AccountLayout.MIGRATING);
+        assertFalse(migrating.replaceBalance(userId1, accountId, BigDecimal.TEN, BigDecimal.valueOf(12))
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.TEN.compareTo(accountStore(AccountLayout.EMBEDDED)
+                .findAccount(userId1, accountId)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+        assertEquals(0, BigDecimal.valueOf(16).compareTo(migrating.addToBalance(userId1, accountId, BigDecimal.ONE)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+    }
+
+    @Test
+    public void testListAccountsWhileMoving() {
+        System.out.println("listAccountsWhileMoving");
+        String userId = customers.get(0).getId();
+        FinTechService embedded = new FinTechService(userRepository,
+                            accountStore(AccountLayout.EMBEDDED),
+                            transferAuditRepository,
+                            transferAuditArchive,
+                            dailyRollupStore,
+                            accountVersionStore,
+                            new TimeOrderedIdGenerator(),
+                            Optional.empty(),
+                            Optional.empty(),
+                            Optional.empty());
+        List<String> byBalance = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            // alternately embedded and separate, in balance order
+            byBalance.add((i % 2 == 0 ? embedded : sut).createAccount(AccountPayload.builder()
+                            .currAmount(BigDecimal.valueOf(i))
+                            .type("checking")
+                            .build(), userId)
+                    .blockOptional(Duration.ofSeconds(1))
+                    .orElseThrow(() -> new RuntimeException("result of save not found"))
+                    .getId());
+        }
+        AccountPagePayload page = sut.listAccounts(userId, null, null, null, "balance", null, 3)
+                .block(Duration.ofSeconds(1));
+        assertEquals(byBalance.subList(0, 3), FinTechServiceTest.ids(page));
+        // a moved account is listed once, in its place
+        assertTrue(accountStore(AccountLayout.MIGRATING).moveAccount(userId, byBalance.get(2))
+                .block(Duration.ofSeconds(1)));
+        page = sut.listAccounts(userId, null, null, null, "balance", page.getNext(), 3)
+                .block(Duration.ofSeconds(1));
+        assertEquals(byBalance.subList(3, 4), FinTechServiceTest.ids(page));
+        assertNull(page.getNext());
+    }
+}
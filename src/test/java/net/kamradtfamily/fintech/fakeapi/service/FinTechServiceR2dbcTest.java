@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import net.kamradtfamily.fintech.fakeapi.AccountKey;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.AdjustableAccountStore;
+import net.kamradtfamily.fintech.fakeapi.R2dbcAccountStore;
+import net.kamradtfamily.fintech.fakeapi.R2dbcLedgerConfiguration;
+import net.kamradtfamily.fintech.fakeapi.ReconcileProperties;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service on accounts in an in memory H2 ledger, run by 
+ * FinTechServiceTest, and the checks specific to the H2 ledger
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceR2dbcTest extends FinTechServiceFixture {
+    private static final ConnectionFactory CONNECTION_FACTORY = ConnectionFactories.get(
+            "r2dbc:h2:mem:///servicetest?options=DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+    
+    @Override
+    protected AccountStore accountStore() {
+        new ResourceDatabasePopulator(new ClassPathResource(R2dbcLedgerConfiguration.SCHEMA))
+                .populate(CONNECTION_FACTORY)
+                .block();
+        DatabaseClient.create(CONNECTION_FACTORY)
+                .sql("DELETE FROM ledger_account")
+                .then()
+                .block();
+        return new R2dbcAccountStore(CONNECTION_FACTORY, userRepository);
+    }
+
+    @Test
+    public void testConcurrentTransfers() {
+        System.out.println("concurrentTransfers");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(10000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(10000, 2))
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        // transfers in both directions at once, each locks both rows
+        Flux.range(0, 100)
+                .flatMap(i -> (i % 2 == 0
+                        ? sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.ONE)
+                                .fromAccount(account1.getId())
+                                .toAccount(account2.getId())
+                                .userId(userId2)
+                                .build(), userId1)
+                        : sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.valueOf(2))
+                                .fromAccount(account2.getId())
+                                .toAccount(account1.getId())
+                                .userId(userId1)
+                                .build(), userId2))
+                        .subscribeOn(Schedulers.parallel()), 16)
+                .blockLast(Duration.ofSeconds(30));
+        assertEquals(BigDecimal.valueOf(15000, 2), sut.getAccount(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 1 disappeared!"))
+                .getCurrAmount());
+        assertEquals(BigDecimal.valueOf(5000, 2), sut.getAccount(account2.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account 2 disappeared!"))
+                .getCurrAmount());
+    }
+    
+    @Test
+    public void testReconcile() {
+        System.out.println("reconcile");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(5000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(2000, 2))
+                        .type("savings")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        sut.transfer(TransferPayload.builder()
+                    .amount(BigDecimal.valueOf(5))
+                    .fromAccount(account1.getId())
+                    .toAccount(account2.getId())
+                    .userId(userId1)
+                    .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        AccountStore accountStore = new R2dbcAccountStore(CONNECTION_FACTORY, userRepository);
+        ReconcileProperties properties = new ReconcileProperties();
+        properties.setRecheckDelay(Duration.ofMillis(10));
+        BalanceReconciler reconciler = new BalanceReconciler(accountStore, 
+                transferAuditRepository, 
+                transferAuditArchive, 
+                Optional.empty(), 
+                properties, 
+                new SimpleMeterRegistry());
+        ReconciliationReport report = reconciler.reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(2, report.getChecked());
+        assertEquals(0, report.getMismatched());
+        accountStore.updateBalance(userId1, account2.getId(), BigDecimal.TEN)
+                .block(Duration.ofSeconds(1));
+        assertEquals(1, reconciler.reconcile()
+                .block(Duration.ofSeconds(5))
+                .getMismatched());
+    }
+    
+    @Test
+    public void testAdjustBalances() {
+        System.out.println("adjustBalances");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(5000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(2000, 2))
+                        .type("savings")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AdjustableAccountStore accountStore = new R2dbcAccountStore(CONNECTION_FACTORY, userRepository);
+        Map<String, CustomerAccount> read = accountStore.findAccountsOf(List.of(userId1))
+                .collectMap(CustomerAccount::getId)
+                .block(Duration.ofSeconds(1));
+        Map<String, BigDecimal> expected = new HashMap<>();
+        List<CustomerAccount> adjusted = new ArrayList<>();
+        for(String accountId : List.of(account1.getId(), account2.getId())) {
+            CustomerAccount account = read.get(accountId);
+            assertNull(account.getLastAdjustment());
+            expected.put(accountId, account.getCurrAmount());
+            account.setCurrAmount(account.getCurrAmount().add(BigDecimal.ONE));
+            account.setLastAdjustment("run-" + accountId);
+            adjusted.add(account);
+        }
+        // changed after it was read
+        accountStore.updateBalance(userId1, account2.getId(), BigDecimal.valueOf(3000, 2))
+                .block(Duration.ofSeconds(1));
+        assertEquals(Set.of(account2.getId()), accountStore.adjustBalances(adjusted, expected)
+                .block(Duration.ofSeconds(1)));
+        Map<String, CustomerAccount> written = accountStore.findAccounts(List.of(
+                        new AccountKey(userId1, account1.getId()), 
+                        new AccountKey(userId1, account2.getId()), 
+                        new AccountKey(customers.get(1).getId(), account1.getId())))
+                .collectMap(CustomerAccount::getId)
+                .block(Duration.ofSeconds(1));
+        assertEquals(2, written.size());
+        assertEquals(BigDecimal.valueOf(5100, 2), written.get(account1.getId()).getCurrAmount());
+        assertEquals("run-" + account1.getId(), written.get(account1.getId()).getLastAdjustment());
+        assertEquals(BigDecimal.valueOf(3000, 2), written.get(account2.getId()).getCurrAmount());
+        assertNull(written.get(account2.getId()).getLastAdjustment());
+    }
+
+    /*
+     * curr_amount keeps cents, finer amounts would be rounded by the 
+     * database rather than refused
+     */
+    @Test
+    public void testFractionOfCent() {
+        System.out.println("fractionOfCent");
+        String userId1 = customers.get(0).getId();
+        AccountPayload from = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        AccountPayload to = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ZERO)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        InvalidValueException ex = assertThrows(InvalidValueException.class, () -> 
+                sut.transfer(TransferPayload.builder()
+                                .amount(new BigDecimal("0.005"))
+                                .fromAccount(from.getId())
+                                .toAccount(to.getId())
+                                .userId(userId1)
+                                .build(), userId1)
+                    .block(Duration.ofSeconds(1)));
+        assertEquals("Value 0.005 is not valid for amount", ex.getMessage());
+        ex = assertThrows(InvalidValueException.class, () -> 
+                sut.createAccount(AccountPayload.builder()
+                                .currAmount(new BigDecimal("1.005"))
+                                .build(), userId1)
+                    .block(Duration.ofSeconds(1)));
+        assertEquals("Value 1.005 is not valid for currAmount", ex.getMessage());
+        // nothing was rounded into either balance
+        assertEquals(0, BigDecimal.TEN.compareTo(sut.getAccount(from.getId(), userId1)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+        assertEquals(0, BigDecimal.ZERO.compareTo(sut.getAccount(to.getId(), userId1)
+                .block(Duration.ofSeconds(1))
+                .getCurrAmount()));
+        assertEquals(0L, transferAuditRepository.count().block(Duration.ofSeconds(1)));
+        // trailing zeros are not a fraction of a cent
+        sut.transfer(TransferPayload.builder()
+                        .amount(new BigDecimal("1.000"))
+                        .fromAccount(from.getId())
+                        .toAccount(to.getId())
+                        .userId(userId1)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.ReconcileProperties;
+import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * Reconciles the balances left by transfers on the embedded accounts with
+ * the transfer audits
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceReconcileTest extends FinTechServiceFixture {
+
+    @Test
+    public void testReconcile() {
+        System.out.println("reconcile");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(5000, 2))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(2000, 2))
+                        .type("savings")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        for(int i = 0; i < 3; i++) {
+            sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(5))
+                        .fromAccount(account1.getId())
+                        .toAccount(account2.getId())
+                        .userId(userId2)
+                        .build(), userId1)
+                    .block(Duration.ofSeconds(1));
+        }
+        AccountStore accountStore = accountStore();
+        accountStore.addAccount(userId2, Customer.Account.builder()
+                    .id("no-opening-balance")
+                    .currAmount(BigDecimal.ONE)
+                    .build())
+                .block(Duration.ofSeconds(1));
+        ReconcileProperties properties = new ReconcileProperties();
+        properties.setParallelism(2);
+        properties.setBatchSize(2);
+        properties.setRecheckDelay(Duration.ofMillis(10));
+        BalanceReconciler reconciler = new BalanceReconciler(accountStore, 
+                transferAuditRepository, 
+                transferAuditArchive, 
+                Optional.empty(), 
+                properties, 
+                new SimpleMeterRegistry());
+        
+        ReconciliationReport report = reconciler.reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(2, report.getChecked());
+        assertEquals(0, report.getMismatched());
+        assertEquals(1, report.getUnverified());
+        
+        // archived audits still count, once while also still hot
+        transferAuditArchive.copyBefore(Instant.now().plusSeconds(1))
+                .block(Duration.ofSeconds(1));
+        report = reconciler.reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(0, report.getMismatched());
+        transferAuditArchive.clear();
+        transferAuditArchive.archiveBefore(Instant.now().plusSeconds(1), 2)
+                .block(Duration.ofSeconds(1));
+        report = reconciler.reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(0, report.getMismatched());
+        
+        // a balance written without its audit
+        accountStore.updateBalance(userId2, account2.getId(), BigDecimal.valueOf(4000, 2))
+                .block(Duration.ofSeconds(1));
+        report = reconciler.reconcile()
+                .block(Duration.ofSeconds(5));
+        assertEquals(2, report.getChecked());
+        assertEquals(1, report.getMismatched());
+    }
+}
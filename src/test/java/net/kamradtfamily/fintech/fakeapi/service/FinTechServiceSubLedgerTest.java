@@ -0,0 +1,285 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.AccountStore;
+import net.kamradtfamily.fintech.fakeapi.SubLedgerProperties;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * The service with sub-ledgers for sharded accounts, run by 
+ * FinTechServiceTest, and the checks specific to sharded accounts
+ * 
+ * @author randalkamradt
+ */
+public class FinTechServiceSubLedgerTest extends FinTechServiceFixture {
+    SubLedgerProperties subLedgerProperties = new SubLedgerProperties();
+    AccountSlotStoreDouble accountSlotStore = new AccountSlotStoreDouble();
+
+    @Override
+    protected Optional<SubLedger> subLedger(AccountStore accountStore) {
+        subLedgerProperties.setSlots(4);
+        return Optional.of(new SubLedger(accountStore, accountSlotStore, subLedgerProperties));
+    }
+
+    @Test
+    public void testShardedAccount() {
+        System.out.println("shardedAccount");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload merchant = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        subLedgerProperties.getAccounts().add(merchant.getId());
+        List<AccountPayload> sources = Flux.range(0, 4)
+                .concatMap(i -> sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(20))
+                        .type("checking")
+                        .build(), userId1))
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        // the sources pay in parallel, each one transfer at a time
+        Flux.fromIterable(sources)
+                .flatMap(source -> Flux.range(0, 5)
+                        .concatMap(i -> sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.valueOf(2))
+                                .fromAccount(source.getId())
+                                .toAccount(merchant.getId())
+                                .userId(userId2)
+                                .build(), userId1))
+                        .subscribeOn(Schedulers.parallel()))
+                .blockLast(Duration.ofSeconds(10));
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(balance(merchant.getId(), userId2)));
+        assertTrue(accountSlotStore.size() > 1, "credits all landed on one slot");
+        PortfolioPayload portfolio = sut.getPortfolio(userId2)
+                .block(Duration.ofSeconds(1));
+        assertEquals(1, portfolio.getAccounts());
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(portfolio.getTotal()));
+        assertEquals(0, BigDecimal.valueOf(50).compareTo(portfolio.getTypes().get(0).getTotal()));
+        // more than any slot holds, the slots are drained into the account
+        sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(45))
+                        .fromAccount(merchant.getId())
+                        .toAccount(sources.get(0).getId())
+                        .userId(userId1)
+                        .build(), userId2)
+                .block(Duration.ofSeconds(1));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(balance(merchant.getId(), userId2)));
+        assertEquals(0, BigDecimal.valueOf(55).compareTo(balance(sources.get(0).getId(), userId1)));
+        assertThrows(NegativeValueNotAllowedException.class, () -> sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(6))
+                        .fromAccount(merchant.getId())
+                        .toAccount(sources.get(0).getId())
+                        .userId(userId1)
+                        .build(), userId2)
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(balance(merchant.getId(), userId2)));
+        assertEquals(21, sut.getTransfers(merchant.getId(), userId2, null, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+    }
+    
+    /*
+     * every debit from the sharded account finds its slots short and 
+     * rebalances, while credits land on the slots being drained and on the
+     * other side's own balances; no money may appear or disappear
+     */
+    @Test
+    public void testConcurrentRebalance() {
+        System.out.println("concurrentRebalance");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload merchant = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(100))
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        subLedgerProperties.getAccounts().add(merchant.getId());
+        List<AccountPayload> others = Flux.range(0, 4)
+                .concatMap(i -> sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(20))
+                        .type("checking")
+                        .build(), userId1))
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        Long paid = Flux.fromIterable(others)
+                .flatMap(other -> Flux.range(0, 25)
+                        .flatMap(i -> i % 5 == 0
+                                ? sut.transfer(TransferPayload.builder()
+                                        .amount(BigDecimal.ONE)
+                                        .fromAccount(other.getId())
+                                        .toAccount(merchant.getId())
+                                        .userId(userId2)
+                                        .build(), userId1)
+                                    .thenReturn(0)
+                                : sut.transfer(TransferPayload.builder()
+                                        .amount(BigDecimal.valueOf(4))
+                                        .fromAccount(merchant.getId())
+                                        .toAccount(other.getId())
+                                        .userId(userId1)
+                                        .build(), userId2)
+                                    .thenReturn(1)
+                                    // money drained by another rebalance can be 
+                                    // briefly out of reach
+                                    .onErrorResume(NegativeValueNotAllowedException.class, e -> Mono.empty()), 
+                            4)
+                        .subscribeOn(Schedulers.parallel()))
+                .filter(n -> n == 1)
+                .count()
+                .block(Duration.ofSeconds(10));
+        assertTrue(paid > 0, "no debit went through");
+        BigDecimal merchantBalance = balance(merchant.getId(), userId2);
+        assertEquals(0, BigDecimal.valueOf(100 + 20 - 4 * paid).compareTo(merchantBalance));
+        BigDecimal total = merchantBalance;
+        for(AccountPayload other : others) {
+            total = total.add(balance(other.getId(), userId1));
+        }
+        assertEquals(0, BigDecimal.valueOf(180).compareTo(total));
+    }
+    
+    @Test
+    public void testFailedCredit() {
+        System.out.println("failedCredit");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload merchant = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        subLedgerProperties.getAccounts().add(merchant.getId());
+        AccountPayload source = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(20))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        accountSlotStore.failCredits(new IllegalStateException("slot unavailable"));
+        assertThrows(IllegalStateException.class, () -> sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(5))
+                        .fromAccount(source.getId())
+                        .toAccount(merchant.getId())
+                        .userId(userId2)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1)));
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(balance(source.getId(), userId1)));
+        assertEquals(0, BigDecimal.TEN.compareTo(balance(merchant.getId(), userId2)));
+    }
+    
+    /*
+     * the store can't see the slots, so a sharded account is placed in 
+     * pages by balance by its balance with the slots
+     */
+    @Test
+    public void testListShardedAccounts() {
+        System.out.println("listShardedAccounts");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload merchant = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ONE)
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        subLedgerProperties.getAccounts().add(merchant.getId());
+        AccountPayload other = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(50))
+                        .type("merchant")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload source = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.valueOf(100))
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(99))
+                        .fromAccount(source.getId())
+                        .toAccount(merchant.getId())
+                        .userId(userId2)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        AccountPagePayload page = sut.listAccounts(userId2, "merchant", null, null, null, null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(2, page.getAccounts().size());
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(page.getAccounts().stream()
+                .filter(a -> a.getId().equals(merchant.getId()))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("sharded account not listed"))
+                .getCurrAmount()));
+        page = sut.listAccounts(userId2, "merchant", null, null, "balance", null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(List.of(other.getId(), merchant.getId()), ids(page));
+        assertNull(page.getNext());
+        page = sut.listAccounts(userId2, "merchant", BigDecimal.valueOf(60), null, null, null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(List.of(merchant.getId()), ids(page));
+        page = sut.listAccounts(userId2, "merchant", null, BigDecimal.valueOf(60), null, null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(List.of(other.getId()), ids(page));
+        // a page at a time, the sharded account stored with the lower balance
+        List<String> listed = new ArrayList<>();
+        String next = null;
+        do {
+            page = sut.listAccounts(userId2, "merchant", null, null, "balance", next, 1)
+                    .block(Duration.ofSeconds(1));
+            assertTrue(page.getAccounts().size() <= 1);
+            listed.addAll(ids(page));
+            next = page.getNext();
+        } while(next != null);
+        assertEquals(List.of(other.getId(), merchant.getId()), listed);
+    }
+    
+    private static List<String> ids(AccountPagePayload page) {
+        return page.getAccounts()
+                .stream()
+                .map(AccountPayload::getId)
+                .collect(Collectors.toList());
+    }
+    
+    private BigDecimal balance(String accountId, String userId) {
+        return sut.getAccount(accountId, userId)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("account disappeared!"))
+                .getCurrAmount();
+    }
+}
@@ -26,42 +26,65 @@ package net.kamradtfamily.fintech.fakeapi.service;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
-import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
-import net.kamradtfamily.fintech.fakeapi.UserReactiveRepository;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.kamradtfamily.fintech.fakeapi.AccountLayout;
 import net.kamradtfamily.fintech.fakeapi.data.Customer;
-import org.junit.jupiter.api.BeforeEach;
-import org.junit.jupiter.api.Test;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
  *
+ * The service tests, run over every account store and transfer mode. The
+ * tests specific to one of them are in its own test, whose fixture is the
+ * configuration run here
+ * 
  * @author randalkamradt
  */
 public class FinTechServiceTest {
+    FinTechServiceFixture configuration;
     FinTechService sut;
-    UserReactiveRepository userRepository = new UserRepositoryDouble();
-    TransferAuditReactiveRepository transferAuditRepository = new TransferAuditRepositoryDouble();
+    TransferAuditArchiveDouble transferAuditArchive;
     List<Customer> customers;
     
+    static Stream<FinTechServiceFixture> configurations() {
+        return Stream.of(new FinTechServiceFixture(AccountLayout.EMBEDDED),
+                new FinTechServiceFixture(AccountLayout.SEPARATE),
+                new FinTechServiceMigratingLayoutTest(),
+                new FinTechServiceR2dbcTest(),
+                new FinTechServiceEngineTest(),
+                new FinTechServiceBatchedTest(),
+                new FinTechServiceCoalescedTest(),
+                new FinTechServiceSubLedgerTest());
+    }
     
-    public FinTechServiceTest() {
+    private void start(FinTechServiceFixture configuration) throws IOException {
+        this.configuration = configuration;
+        configuration.setUp();
+        sut = configuration.sut;
+        transferAuditArchive = configuration.transferAuditArchive;
+        customers = configuration.customers;
     }
     
-    @BeforeEach
-    public void setUp() throws IOException {
-        userRepository.deleteAll();
-        transferAuditRepository.deleteAll();
-        sut = new FinTechService(userRepository,
-                            transferAuditRepository);
-        sut.initializeUsers();
-        customers = userRepository.findAll()
-                .collectList()
-                .block();
+    @AfterEach
+    public void tearDown() throws IOException {
+        if(configuration != null) {
+            configuration.tearDown();
+        }
     }
 
-    @Test
-    public void testCreateAccount() {
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testCreateAccount(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
         System.out.println("createAccount");
         AccountPayload account = AccountPayload.builder()
                 .currAmount(BigDecimal.valueOf(100, 2))
@@ -102,8 +125,10 @@ public class FinTechServiceTest {
         }
     }
 
-    @Test
-    public void testGetAccount() {
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetAccount(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
         System.out.println("getAccount");
         AccountPayload account = AccountPayload.builder()
                 .currAmount(BigDecimal.valueOf(100, 2))
@@ -145,8 +170,10 @@ public class FinTechServiceTest {
         }
     }
 
-    @Test
-    public void testTransfer() {
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testTransfer(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
         System.out.println("transfer");
         AccountPayload account1 = AccountPayload.builder()
                 .currAmount(BigDecimal.valueOf(1000, 2))
@@ -244,8 +271,82 @@ public class FinTechServiceTest {
         }
     }
 
-    @Test
-    public void testGetTransfers() {
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testAccountVersion(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("accountVersion");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .type("checking")
+                        .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .type("checking")
+                        .build(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        Long version1 = sut.getAccountVersion(account1.getId(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("new account has no version"));
+        Long version2 = sut.getAccountVersion(account2.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("new account has no version"));
+        // only the owner sees the version
+        assertFalse(sut.getAccountVersion(account1.getId(), userId2)
+                .blockOptional(Duration.ofSeconds(1))
+                .isPresent());
+        sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.ONE)
+                        .fromAccount(account1.getId())
+                        .toAccount(account2.getId())
+                        .userId(userId2)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        assertNotEquals(version1, sut.getAccountVersion(account1.getId(), userId1)
+                .block(Duration.ofSeconds(1)));
+        assertNotEquals(version2, sut.getAccountVersion(account2.getId(), userId2)
+                .block(Duration.ofSeconds(1)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testRejectBeforeLookup(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("rejectBeforeLookup");
+        // an unknown user would be reported if the transfer got as far as a lookup
+        NegativeValueNotAllowedException negative = assertThrows(NegativeValueNotAllowedException.class, 
+                () -> sut.transfer(TransferPayload.builder()
+                                .amount(BigDecimal.valueOf(-1))
+                                .fromAccount("1")
+                                .toAccount("2")
+                                .userId("0")
+                                .build(), "0")
+                        .block(Duration.ofSeconds(1)));
+        assertEquals(0, negative.getStackTrace().length);
+        MissingValueException missing = assertThrows(MissingValueException.class, 
+                () -> sut.transfer(TransferPayload.builder()
+                                .fromAccount("1")
+                                .toAccount("2")
+                                .userId("0")
+                                .build(), "0")
+                        .block(Duration.ofSeconds(1)));
+        assertEquals("Value amount is required", missing.getMessage());
+        assertThrows(MissingValueException.class, 
+                () -> sut.createAccount(AccountPayload.builder()
+                                .type("checking")
+                                .build(), "0")
+                        .block(Duration.ofSeconds(1)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetTransfers(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
         System.out.println("getTransfers");
         AccountPayload account1 = AccountPayload.builder()
                 .currAmount(BigDecimal.valueOf(1000, 2))
@@ -307,4 +408,343 @@ public class FinTechServiceTest {
         }
     }
     
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetTransfersByDate(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("getTransfersByDate");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("checking")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("savings")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        TransferPayload transfer = TransferPayload.builder()
+                .amount(BigDecimal.ONE)
+                .fromAccount(account1.getId())
+                .toAccount(account2.getId())
+                .userId(userId1)
+                .build();
+        TransferPayload first = sut.transfer(transfer, userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        assertNotNull(first.getCreatedAt());
+        // first transfer goes to the archive
+        assertEquals(1L, transferAuditArchive.archiveBefore(first.getCreatedAt().plusMillis(1), 10).block());
+        Instant between = first.getCreatedAt().plusMillis(1);
+        TransferPayload second = sut.transfer(transfer, userId1)
+                .delaySubscription(Duration.ofMillis(2))
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        List<TransferPayload> result = sut.getTransfers(account1.getId(), userId1)
+                .collectList()
+                .block();
+        assertEquals(2, result.size());
+        assertEquals(first.getTransferId(), result.get(0).getTransferId());
+        assertEquals(second.getTransferId(), result.get(1).getTransferId());
+        result = sut.getTransfers(account2.getId(), userId1, null, between)
+                .collectList()
+                .block();
+        assertEquals(1, result.size());
+        assertEquals(first.getTransferId(), result.get(0).getTransferId());
+        result = sut.getTransfers(account2.getId(), userId1, between, null)
+                .collectList()
+                .block();
+        assertEquals(1, result.size());
+        assertEquals(second.getTransferId(), result.get(0).getTransferId());
+        assertEquals(0, sut.getTransfers(account2.getId(), userId1, between, between)
+                .collectList()
+                .block()
+                .size());
+        // copied to the archive but not yet removed from the hot audits
+        assertEquals(1L, transferAuditArchive.copyBefore(Instant.now().plusSeconds(1)).block());
+        result = sut.getTransfers(account1.getId(), userId1)
+                .collectList()
+                .block();
+        assertEquals(2, result.size());
+        assertEquals(first.getTransferId(), result.get(0).getTransferId());
+        assertEquals(second.getTransferId(), result.get(1).getTransferId());
+    }
+
+    /*
+     * audits written before createdAt was added have none, are never 
+     * archived and come along with the archived ones
+     */
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetTransfersWithLegacyAudits(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("getTransfersWithLegacyAudits");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("checking")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("savings")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        TransferPayload transfer = TransferPayload.builder()
+                .amount(BigDecimal.ONE)
+                .fromAccount(account1.getId())
+                .toAccount(account2.getId())
+                .userId(userId1)
+                .build();
+        TransferPayload archived = sut.transfer(transfer, userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        assertEquals(1L, transferAuditArchive.archiveBefore(archived.getCreatedAt().plusMillis(1), 10).block());
+        configuration.transferAuditRepository.save(TransferAudit.builder()
+                    .id("legacy")
+                    .amount(BigDecimal.ONE)
+                    .fromAccount(account1.getId())
+                    .toAccount(account2.getId())
+                    .toUserId(userId1)
+                    .build())
+                .block(Duration.ofSeconds(1));
+        TransferPayload hot = sut.transfer(transfer, userId1)
+                .delaySubscription(Duration.ofMillis(2))
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        List<TransferPayload> result = sut.getTransfers(account1.getId(), userId1)
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        assertEquals(List.of(archived.getTransferId(), "legacy", hot.getTransferId()), 
+                result.stream().map(TransferPayload::getTransferId).collect(Collectors.toList()));
+        assertNull(result.get(1).getCreatedAt());
+        // a range only finds audits with a time
+        assertEquals(2, sut.getTransfers(account1.getId(), userId1, Instant.EPOCH, null)
+                .count()
+                .block(Duration.ofSeconds(1)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetStatement(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("getStatement");
+        String userId1 = customers.get(0).getId();
+        AccountPayload account1 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("checking")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        AccountPayload account2 = sut.createAccount(AccountPayload.builder()
+                    .currAmount(BigDecimal.valueOf(1000, 2))
+                    .type("savings")
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of save not found"));
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        StatementPayload result = sut.getStatement(account1.getId(), userId1, today, today)
+                .block();
+        assertEquals(0, result.getTransferCount());
+        assertEquals(account1.getCurrAmount(), result.getOpeningBalance());
+        assertEquals(account1.getCurrAmount(), result.getClosingBalance());
+        for(int i = 1; i <= 3; i++) {
+            sut.transfer(TransferPayload.builder()
+                        .amount(BigDecimal.valueOf(i))
+                        .fromAccount(account1.getId())
+                        .toAccount(account2.getId())
+                        .userId(userId1)
+                        .build(), userId1)
+                    .blockOptional(Duration.ofSeconds(1))
+                    .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        }
+        sut.transfer(TransferPayload.builder()
+                    .amount(BigDecimal.ONE)
+                    .fromAccount(account2.getId())
+                    .toAccount(account1.getId())
+                    .userId(userId1)
+                    .build(), userId1)
+                .blockOptional(Duration.ofSeconds(1))
+                .orElseThrow(() -> new RuntimeException("result of transfer not found"));
+        result = sut.getStatement(account1.getId(), userId1, today.minusDays(7), today)
+                .block();
+        assertEquals(4, result.getTransferCount());
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(result.getOpeningBalance()));
+        assertEquals(0, BigDecimal.valueOf(6).compareTo(result.getDebits()));
+        assertEquals(0, BigDecimal.ONE.compareTo(result.getCredits()));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(result.getClosingBalance()));
+        result = sut.getStatement(account1.getId(), userId1, today.plusDays(1), today.plusDays(7))
+                .block();
+        assertEquals(0, result.getTransferCount());
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(result.getOpeningBalance()));
+        assertEquals(0, BigDecimal.valueOf(5).compareTo(result.getClosingBalance()));
+        result = sut.getStatement(account1.getId(), userId1, today.minusDays(7), today.minusDays(1))
+                .block();
+        assertEquals(0, result.getTransferCount());
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(result.getClosingBalance()));
+        InvalidValueException reversed = assertThrows(InvalidValueException.class, () -> 
+                sut.getStatement(account1.getId(), userId1, today, today.minusDays(1))
+                    .block(Duration.ofSeconds(1)));
+        assertEquals("Value " + today.minusDays(1) + " is not valid for to", reversed.getMessage());
+        try { // can't get statements of another user's account
+            sut.getStatement(account1.getId(), customers.get(1).getId(), today, today)
+                .block();
+            fail("expected exception not thrown"); 
+        } catch (AccountNotFoundException ex) {
+            assertEquals("Account " + account1.getId() + " not found for user " + customers.get(1).getId(), ex.getMessage());
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testListAccounts(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("listAccounts");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        List<String> ids = new ArrayList<>();
+        for(String amount : List.of("10.00", "250.00", "40.00", "0.50", "40.00")) {
+            ids.add(sut.createAccount(AccountPayload.builder()
+                            .currAmount(new BigDecimal(amount))
+                            .type(ids.size() % 2 == 0 ? "savings" : "checking")
+                            .build(), userId1)
+                    .blockOptional(Duration.ofSeconds(1))
+                    .orElseThrow(() -> new RuntimeException("result of save not found"))
+                    .getId());
+        }
+        sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ONE)
+                        .type("savings")
+                        .build(), userId2)
+                .block(Duration.ofSeconds(1));
+        
+        AccountPagePayload page = sut.listAccounts(userId1, null, null, null, null, null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(ids.stream().sorted().collect(Collectors.toList()), ids(page));
+        assertNull(page.getNext());
+        // pages of two, by id
+        List<String> paged = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            page = sut.listAccounts(userId1, null, null, null, "id", after, 2)
+                    .block(Duration.ofSeconds(1));
+            paged.addAll(ids(page));
+            after = page.getNext();
+            pages++;
+        } while(after != null);
+        assertEquals(3, pages);
+        assertEquals(ids.stream().sorted().collect(Collectors.toList()), paged);
+        // savings by balance, the tie by id, one at a time
+        List<String> ties = new ArrayList<>(List.of(ids.get(2), ids.get(4)));
+        ties.sort(null);
+        List<String> savings = new ArrayList<>(List.of(ids.get(0)));
+        savings.addAll(ties);
+        paged.clear();
+        after = null;
+        do {
+            page = sut.listAccounts(userId1, "savings", null, null, "balance", after, 1)
+                    .block(Duration.ofSeconds(1));
+            paged.addAll(ids(page));
+            after = page.getNext();
+        } while(after != null);
+        assertEquals(savings, paged);
+        // a balance range
+        page = sut.listAccounts(userId1, null, BigDecimal.ONE, new BigDecimal("40"), "balance", null, null)
+                .block(Duration.ofSeconds(1));
+        assertEquals(3, page.getAccounts().size());
+        assertEquals(ids.get(0), page.getAccounts().get(0).getId());
+        assertEquals(0, BigDecimal.TEN.compareTo(page.getAccounts().get(0).getCurrAmount()));
+        
+        try {
+            sut.listAccounts(userId1, null, null, null, "name", null, null)
+                .block(Duration.ofSeconds(1));
+            fail("expected exception not thrown"); 
+        } catch (InvalidValueException ex) {
+            assertEquals("Value name is not valid for sort", ex.getMessage());
+        }
+        try {
+            sut.listAccounts(userId1, null, null, null, null, null, FinTechService.MAX_PAGE_SIZE + 1)
+                .block(Duration.ofSeconds(1));
+            fail("expected exception not thrown"); 
+        } catch (InvalidValueException ex) {
+        }
+        try {
+            sut.listAccounts(userId1, null, null, null, "balance", ids.get(0), null)
+                .block(Duration.ofSeconds(1));
+            fail("expected exception not thrown"); 
+        } catch (InvalidValueException ex) {
+        }
+        try {
+            sut.listAccounts("nobody", null, null, null, null, null, null)
+                .block(Duration.ofSeconds(1));
+            fail("expected exception not thrown"); 
+        } catch (UserNotFoundException ex) {
+        }
+    }
+    
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("configurations")
+    public void testGetPortfolio(FinTechServiceFixture configuration) throws IOException {
+        start(configuration);
+        System.out.println("getPortfolio");
+        String userId1 = customers.get(0).getId();
+        String userId2 = customers.get(1).getId();
+        PortfolioPayload portfolio = sut.getPortfolio(userId1)
+                .block(Duration.ofSeconds(1));
+        assertEquals(0, portfolio.getAccounts());
+        assertEquals(0, BigDecimal.ZERO.compareTo(portfolio.getTotal()));
+        assertTrue(portfolio.getTypes().isEmpty());
+        int i = 0;
+        for(String amount : List.of("10.00", "250.00", "40.25", "0.50")) {
+            sut.createAccount(AccountPayload.builder()
+                            .currAmount(new BigDecimal(amount))
+                            .type(i++ % 2 == 0 ? "savings" : "checking")
+                            .build(), userId1)
+                    .block(Duration.ofSeconds(1));
+        }
+        sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.TEN)
+                        .build(), userId1)
+                .block(Duration.ofSeconds(1));
+        sut.createAccount(AccountPayload.builder()
+                        .currAmount(BigDecimal.ONE)
+                        .type("savings")
+                        .build(), userId2)
+                .block(Duration.ofSeconds(1));
+        
+        portfolio = sut.getPortfolio(userId1)
+                .block(Duration.ofSeconds(1));
+        assertEquals(5, portfolio.getAccounts());
+        assertEquals(0, new BigDecimal("310.75").compareTo(portfolio.getTotal()));
+        assertEquals(3, portfolio.getTypes().size());
+        assertEquals("checking", portfolio.getTypes().get(0).getType());
+        assertEquals(2, portfolio.getTypes().get(0).getAccounts());
+        assertEquals(0, new BigDecimal("250.50").compareTo(portfolio.getTypes().get(0).getTotal()));
+        assertEquals("savings", portfolio.getTypes().get(1).getType());
+        assertEquals(2, portfolio.getTypes().get(1).getAccounts());
+        assertEquals(0, new BigDecimal("50.25").compareTo(portfolio.getTypes().get(1).getTotal()));
+        assertNull(portfolio.getTypes().get(2).getType());
+        assertEquals(1, portfolio.getTypes().get(2).getAccounts());
+        
+        try {
+            sut.getPortfolio("nobody")
+                .block(Duration.ofSeconds(1));
+            fail("expected exception not thrown"); 
+        } catch (UserNotFoundException ex) {
+        }
+    }
+    
+    static List<String> ids(AccountPagePayload page) {
+        return page.getAccounts()
+                .stream()
+                .map(AccountPayload::getId)
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class TimeOrderedIdGeneratorTest {
+    TimeOrderedIdGenerator sut = new TimeOrderedIdGenerator();
+
+    @Test
+    public void testNextId() {
+        System.out.println("nextId");
+        long before = System.currentTimeMillis();
+        UUID id = UUID.fromString(sut.nextId());
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        assertTrue((id.getMostSignificantBits() >>> 16) >= before);
+    }
+
+    @Test
+    public void testMonotonic() {
+        System.out.println("monotonic");
+        List<String> ids = new ArrayList<>();
+        for(int i = 0; i < 20_000; i++) { // several times the per millisecond counter
+            ids.add(sut.nextId());
+        }
+        for(int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0, ids.get(i - 1) + " " + ids.get(i));
+        }
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() {
+        System.out.println("uniqueAcrossThreads");
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 100_000)
+                .parallel()
+                .forEach(i -> ids.add(sut.nextId()));
+        assertEquals(100_000, ids.size());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 randalkamradt.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package net.kamradtfamily.fintech.fakeapi.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditArchive;
+import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author randalkamradt
+ */
+public class TransferAuditArchiveDouble implements TransferAuditArchive {
+    private final List<TransferAudit> data = new ArrayList<>();
+    private final TransferAuditReactiveRepository transferAuditRepository;
+
+    public TransferAuditArchiveDouble(TransferAuditReactiveRepository transferAuditRepository) {
+        this.transferAuditRepository = transferAuditRepository;
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to) {
+        return Flux.fromStream(data.stream()
+                .filter(s -> s.getFromAccount().equals(accountId) || s.getToAccount().equals(accountId))
+                .filter(s -> from == null || (s.getCreatedAt() != null && !s.getCreatedAt().isBefore(from)))
+                .filter(s -> to == null || (s.getCreatedAt() != null && s.getCreatedAt().isBefore(to)))
+                .sorted(Comparator.comparing(TransferAudit::getCreatedAt, 
+                        Comparator.nullsFirst(Comparator.naturalOrder()))));
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccounts(Collection<String> accountIds) {
+        return Flux.fromStream(data.stream()
+                .filter(s -> accountIds.contains(s.getFromAccount()) || accountIds.contains(s.getToAccount())));
+    }
+
+    @Override
+    public Mono<Long> archiveBefore(Instant cutoff, int batchSize) {
+        return transferAuditRepository.findAll()
+                .filter(s -> s.getCreatedAt() != null && s.getCreatedAt().isBefore(cutoff))
+                .collectList()
+                .flatMap(moved -> {
+                    data.addAll(moved);
+                    return Flux.fromIterable(moved)
+                            .flatMap(transferAuditRepository::delete)
+                            .then(Mono.just(Long.valueOf(moved.size())));
+                });
+    }
+    
+    /*
+     * the copy half of archiveBefore, as left by a stop before the hot 
+     * audits are removed
+     */
+    public Mono<Long> copyBefore(Instant cutoff) {
+        return transferAuditRepository.findAll()
+                .filter(s -> s.getCreatedAt() != null && s.getCreatedAt().isBefore(cutoff))
+                .collectList()
+                .map(copied -> {
+                    data.addAll(copied);
+                    return Long.valueOf(copied.size());
+                });
+    }
+    
+    public void clear() {
+        data.clear();
+    }
+}
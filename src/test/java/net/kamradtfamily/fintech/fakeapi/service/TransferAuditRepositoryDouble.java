@@ -23,9 +23,12 @@
  */
 package net.kamradtfamily.fintech.fakeapi.service;
 
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import net.kamradtfamily.fintech.fakeapi.TransferAuditReactiveRepository;
 import net.kamradtfamily.fintech.fakeapi.data.TransferAudit;
 import org.reactivestreams.Publisher;
@@ -39,7 +42,7 @@ import reactor.core.publisher.Mono;
  * @author randalkamradt
  */
 public class TransferAuditRepositoryDouble implements TransferAuditReactiveRepository {
-    private final Map<String, TransferAudit> data = new HashMap<>();
+    private final Map<String, TransferAudit> data = new ConcurrentHashMap<>();
     @Override
     public  Mono<TransferAudit> insert(TransferAudit s) {
         TransferAudit s1 = addId(s);
@@ -86,7 +89,8 @@ public class TransferAuditRepositoryDouble implements TransferAuditReactiveRepos
 
     @Override
     public Flux<TransferAudit> findAllById(Iterable<String> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return Flux.fromIterable(itrbl)
+                .flatMap(id -> Mono.justOrEmpty(data.get(id)));
     }
 
     @Override
@@ -134,7 +138,8 @@ public class TransferAuditRepositoryDouble implements TransferAuditReactiveRepos
 
     @Override
     public <S extends TransferAudit> Flux<S> insert(Iterable<S> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return Flux.fromIterable(itrbl)
+                .doOnNext(s -> data.put(s.getId(), addId(s)));
     }
 
     @Override
@@ -154,7 +159,8 @@ public class TransferAuditRepositoryDouble implements TransferAuditReactiveRepos
 
     @Override
     public <S extends TransferAudit> Flux<S> saveAll(Iterable<S> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return Flux.fromIterable(itrbl)
+                .doOnNext(s -> data.put(s.getId(), s));
     }
 
     @Override
@@ -177,13 +183,30 @@ public class TransferAuditRepositoryDouble implements TransferAuditReactiveRepos
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
     
+    @Override
+    public Flux<TransferAudit> findByAccount(String accountId, Instant from, Instant to) {
+        return Flux.fromStream(data.values().stream()
+                .filter(s -> s.getFromAccount().equals(accountId) || s.getToAccount().equals(accountId))
+                .filter(s -> from == null || (s.getCreatedAt() != null && !s.getCreatedAt().isBefore(from)))
+                .filter(s -> to == null || (s.getCreatedAt() != null && s.getCreatedAt().isBefore(to)))
+                .sorted(Comparator.comparing(TransferAudit::getCreatedAt, 
+                        Comparator.nullsFirst(Comparator.naturalOrder()))));
+    }
+
+    @Override
+    public Flux<TransferAudit> findByAccounts(Collection<String> accountIds) {
+        return Flux.fromStream(data.values().stream()
+                .filter(s -> accountIds.contains(s.getFromAccount()) || accountIds.contains(s.getToAccount())));
+    }
+    
     private static TransferAudit addId(TransferAudit transferAudit) {
         return TransferAudit.builder()
                 .amount(transferAudit.getAmount())
                 .fromAccount(transferAudit.getFromAccount())
                 .toAccount(transferAudit.getToAccount())
                 .toUserId(transferAudit.getToUserId())
-                .id(UUID.randomUUID().toString())
+                .createdAt(transferAudit.getCreatedAt())
+                .id(transferAudit.getId() == null ? UUID.randomUUID().toString() : transferAudit.getId())
                 .build();
     }
 
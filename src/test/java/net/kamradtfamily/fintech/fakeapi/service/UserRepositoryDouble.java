@@ -23,12 +23,21 @@
  */
 package net.kamradtfamily.fintech.fakeapi.service;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import net.kamradtfamily.fintech.fakeapi.AccountQuery;
 import net.kamradtfamily.fintech.fakeapi.UserReactiveRepository;
+import net.kamradtfamily.fintech.fakeapi.data.AccountTypeTotal;
 import net.kamradtfamily.fintech.fakeapi.data.Customer;
+import net.kamradtfamily.fintech.fakeapi.data.CustomerAccount;
 import org.reactivestreams.Publisher;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Sort;
@@ -72,7 +81,7 @@ public class UserRepositoryDouble implements UserReactiveRepository {
 
     @Override
     public Mono<Boolean> existsById(String id) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return Mono.just(data.containsKey(id));
     }
 
     @Override
@@ -87,7 +96,8 @@ public class UserRepositoryDouble implements UserReactiveRepository {
 
     @Override
     public Flux<Customer> findAllById(Iterable<String> itrbl) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        return Flux.fromIterable(itrbl)
+                .flatMap(this::findById);
     }
 
     @Override
@@ -188,6 +198,157 @@ public class UserRepositoryDouble implements UserReactiveRepository {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
     
+    @Override
+    public Mono<Customer> findWithAccount(String userId, String accountId) {
+        return Mono.justOrEmpty(data.get(userId))
+                .map(c -> Customer.builder()
+                        .id(c.getId())
+                        .accounts(c.getAccounts()
+                                .stream()
+                                .filter(a -> a.getId().equals(accountId))
+                                .map(UserRepositoryDouble::copy)
+                                .collect(Collectors.toList()))
+                        .build());
+    }
+
+    @Override
+    public Mono<Boolean> updateBalance(String userId, String accountId, BigDecimal currAmount) {
+        return Mono.justOrEmpty(data.get(userId))
+                .flatMapIterable(Customer::getAccounts)
+                .filter(a -> a.getId().equals(accountId))
+                .doOnNext(a -> a.setCurrAmount(currAmount))
+                .hasElements();
+    }
+    
+    @Override
+    public synchronized Mono<Boolean> replaceBalance(String userId, String accountId, BigDecimal expected, BigDecimal currAmount) {
+        Customer customer = data.get(userId);
+        if(customer != null) {
+            for(Customer.Account a : customer.getAccounts()) {
+                if(a.getId().equals(accountId) && a.getCurrAmount().compareTo(expected) == 0) {
+                    a.setCurrAmount(currAmount);
+                    return Mono.just(true);
+                }
+            }
+        }
+        return Mono.just(false);
+    }
+    
+    @Override
+    public Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, String writeId) {
+        return replaceBalances(accounts, expected, (found, account) -> found.setLastWrite(writeId));
+    }
+
+    @Override
+    public Mono<Set<String>> adjustBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected) {
+        return replaceBalances(accounts, expected, (found, account) -> found.setLastAdjustment(account.getLastAdjustment()));
+    }
+    
+    private synchronized Mono<Set<String>> replaceBalances(Collection<CustomerAccount> accounts, Map<String, BigDecimal> expected, 
+            BiConsumer<Customer.Account, CustomerAccount> mark) {
+        Set<String> stale = new HashSet<>();
+        for(CustomerAccount account : accounts) {
+            Customer customer = data.get(account.getOwnerId());
+            Customer.Account found = customer == null ? null : customer.getAccounts()
+                    .stream()
+                    .filter(a -> a.getId().equals(account.getId()))
+                    .findAny()
+                    .orElse(null);
+            if(found == null || found.getCurrAmount().compareTo(expected.get(account.getId())) != 0) {
+                stale.add(account.getId());
+                continue;
+            }
+            found.setCurrAmount(account.getCurrAmount());
+            mark.accept(found, account);
+        }
+        return Mono.just(stale);
+    }
+    
+    @Override
+    public Mono<Boolean> addAccount(String userId, Customer.Account account) {
+        return Mono.justOrEmpty(data.get(userId))
+                .doOnNext(c -> c.getAccounts().add(account))
+                .hasElement();
+    }
+
+    @Override
+    public Mono<Boolean> removeAccount(String userId, String accountId, BigDecimal currAmount) {
+        return Mono.justOrEmpty(data.get(userId))
+                .map(c -> c.getAccounts().removeIf(a -> a.getId().equals(accountId) 
+                        && a.getCurrAmount().compareTo(currAmount) == 0))
+                .defaultIfEmpty(false);
+    }
+
+    @Override
+    public Flux<Customer> findWithAccountsAfter(String afterId, int limit) {
+        return Flux.fromIterable(data.values())
+                .filter(c -> !c.getAccounts().isEmpty())
+                .filter(c -> afterId == null || c.getId().compareTo(afterId) > 0)
+                .sort((a, b) -> a.getId().compareTo(b.getId()))
+                .take(limit)
+                .map(UserRepositoryDouble::copy);
+    }
+    
+    @Override
+    public Flux<String> findIdsAfter(String afterId, int limit) {
+        return Flux.fromIterable(data.keySet())
+                .filter(id -> afterId == null || id.compareTo(afterId) > 0)
+                .sort()
+                .take(limit);
+    }
+    
+    @Override
+    public Flux<CustomerAccount> findPage(String userId, AccountQuery query) {
+        Customer customer = data.get(userId);
+        return customer == null 
+                ? Flux.empty() 
+                : AccountRepositoryDouble.page(customer.getAccounts()
+                                .stream()
+                                .map(a -> CustomerAccount.builder()
+                                        .id(a.getId())
+                                        .ownerId(userId)
+                                        .currAmount(a.getCurrAmount())
+                                        .type(a.getType())
+                                        .openingAmount(a.getOpeningAmount())
+                                        .build()), 
+                        query);
+    }
+    
+    @Override
+    public Flux<AccountTypeTotal> findTotalsByType(String userId) {
+        Customer customer = data.get(userId);
+        return customer == null 
+                ? Flux.empty() 
+                : AccountRepositoryDouble.totals(customer.getAccounts()
+                        .stream()
+                        .map(a -> CustomerAccount.builder()
+                                .id(a.getId())
+                                .ownerId(userId)
+                                .currAmount(a.getCurrAmount())
+                                .type(a.getType())
+                                .build()));
+    }
+    
+    @Override
+    public Mono<Integer> updateBalances(Collection<CustomerAccount> accounts) {
+        return Flux.fromIterable(accounts)
+                .concatMap(a -> updateBalance(a.getOwnerId(), a.getId(), a.getCurrAmount()))
+                .filter(b -> b)
+                .count()
+                .map(Long::intValue);
+    }
+    
+    private static Customer.Account copy(Customer.Account account) {
+        return Customer.Account.builder()
+                .id(account.getId())
+                .currAmount(account.getCurrAmount())
+                .type(account.getType())
+                .openingAmount(account.getOpeningAmount())
+                .lastWrite(account.getLastWrite())
+                .lastAdjustment(account.getLastAdjustment())
+                .build();
+    }
+    
     private static Customer copy(Customer customer) {
         return Customer.builder()
                 .accounts(new ArrayList(customer.getAccounts()))